@@ -0,0 +1,249 @@
+//AthleteIndexBenchmark.java
+/**
+ * Measures the AthleteIndex() for a large club. ATHLETES made-up athletes, most
+ * of them finished, are added one at a time, and then the index is asked, as the
+ * TrainingFrame() asks for its user, how the LIKE_YOU finished athletes nearest
+ * random athletes did, and for the TOP_K nearest by every feature, QUERIES times
+ * each. Then the athletes still training check runs off, UPDATES times, as
+ * queries go on. Reports the time per query and per update against comparing a
+ * query with every athlete, and checks the athletes found by every query timed
+ * against that comparison. Last, a small PlanArchive is written and loaded, and
+ * its athletes' completions checked:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -cp out AthleteIndexBenchmark [athletes]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+class AthleteIndexBenchmark
+{
+    static final int ATHLETES = 1000000;
+    static final int QUERIES = 2000;
+    static final int BRUTE_QUERIES = 100;       // queries compared with every athlete, for the time it takes
+    static final int UPDATES = 200000;
+    static final int QUERY_EVERY = 100;         // updates between queries while updating
+    static final int LIKE_YOU = 50;
+    static final int TOP_K = 10;
+    static final double FINISHED = 0.8;         // share of the athletes whose plans are over
+    static final int ARCHIVED = 1000;           // plans in the archive written at the end
+    static final int ARCHIVE_WEEKS = 12;
+    static final String ARCHIVE_FILE = "benchmark_athletes.dat";
+
+    static float [][] points;                   // of each athlete, as the index should have them
+    static boolean [] finished;
+    static String [] ids;
+
+    public static void main (String [] args) throws Exception
+    {
+        int athletes = (args.length > 0) ? Integer.parseInt(args[0]) : ATHLETES;
+        Random random = new Random(1);
+        points = new float [athletes][];
+        finished = new boolean [athletes];
+        ids = new String [athletes];
+        for (int athlete = 0; athlete < athletes; athlete++)
+        {
+            ids[athlete] = String.format("athlete%07d", athlete);
+            points[athlete] = randomAthlete(random);
+            finished[athlete] = random.nextDouble() < FINISHED;
+        }
+
+        AthleteIndex index = new AthleteIndex();
+        long start = System.nanoTime();
+        for (int athlete = 0; athlete < athletes; athlete++)
+        {
+            index.update(ids[athlete], points[athlete], finished[athlete]);
+        }
+        System.out.printf("added %d athletes one at a time in %.0f ms%n", athletes, (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        index.rebuild();
+        System.out.printf("built the tree again in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+
+        double [] likeYouWeights = AthleteIndex.WEIGHTS.clone();
+        likeYouWeights[AthleteIndex.COMPLETION] = 0;
+        int wrong = 0;
+
+        // queries, checked against comparing with every athlete
+        LatencyHistogram likeYouLatency = new LatencyHistogram("athletes_like_you");
+        LatencyHistogram nearestLatency = new LatencyHistogram("athletes_nearest");
+        for (int query = 0; query < QUERIES; query++)
+        {
+            float [] point = points[random.nextInt(athletes)];
+            long queryStart = System.nanoTime();
+            List<AthleteIndex.Neighbor> likeYou = index.nearest(point, LIKE_YOU, likeYouWeights, true);
+            likeYouLatency.recordSince(queryStart);
+            queryStart = System.nanoTime();
+            List<AthleteIndex.Neighbor> nearest = index.nearest(point, TOP_K, AthleteIndex.WEIGHTS, false);
+            nearestLatency.recordSince(queryStart);
+
+            if (!matches(likeYou, bruteForce(point, LIKE_YOU, likeYouWeights, true))) { wrong += 1; }
+            if (!matches(nearest, bruteForce(point, TOP_K, AthleteIndex.WEIGHTS, false))) { wrong += 1; }
+        }
+        start = System.nanoTime();
+        for (int query = 0; query < BRUTE_QUERIES; query++)
+        {
+            bruteForce(points[random.nextInt(athletes)], LIKE_YOU, likeYouWeights, true);
+        }
+        double bruteMillis = (System.nanoTime() - start) / 1e6 / BRUTE_QUERIES;
+
+        // athletes still training check runs off, while the index is asked about them
+        LatencyHistogram updateLatency = new LatencyHistogram("athlete_update");
+        int checked = 0;
+        for (int update = 0; update < UPDATES; update++)
+        {
+            int athlete = random.nextInt(athletes);
+            if (finished[athlete]) { continue; }
+            float [] point = points[athlete].clone();
+            point[AthleteIndex.COMPLETION] = Math.min(1, point[AthleteIndex.COMPLETION] + 0.01f);
+            points[athlete] = point;
+            long updateStart = System.nanoTime();
+            index.update(ids[athlete], point, false);
+            updateLatency.recordSince(updateStart);
+
+            if (update % QUERY_EVERY == 0)
+            {
+                float [] query = points[random.nextInt(athletes)];
+                if (!matches(index.nearest(query, TOP_K, AthleteIndex.WEIGHTS, false),
+                        bruteForce(query, TOP_K, AthleteIndex.WEIGHTS, false)))
+                {
+                    wrong += 1;
+                }
+                checked += 1;
+            }
+        }
+
+        System.out.printf("like you (%d finished): %.2f ms median, %.2f ms p99; nearest %d: %.2f ms median, "
+                        + "%.2f ms p99 (%d queries each)%n",
+                LIKE_YOU, likeYouLatency.getValueAtQuantile(0.5) / 1e6, likeYouLatency.getValueAtQuantile(0.99) / 1e6,
+                TOP_K, nearestLatency.getValueAtQuantile(0.5) / 1e6, nearestLatency.getValueAtQuantile(0.99) / 1e6,
+                QUERIES);
+        System.out.printf("comparing with every athlete: %.1f ms a query%n", bruteMillis);
+        System.out.printf("update: %.1f us median, %.1f us p99, %.1f ms at most (%d updates, %d queries checked)%n",
+                updateLatency.getValueAtQuantile(0.5) / 1e3, updateLatency.getValueAtQuantile(0.99) / 1e3,
+                updateLatency.getMax() / 1e6, updateLatency.getCount(), checked);
+        System.out.println(index.getSummary());
+        System.out.println(wrong == 0 ? "every query matches comparing with every athlete"
+                : wrong + " queries are WRONG");
+
+        int wrongArchived = checkArchive();
+        System.out.println(wrongArchived == 0 ? "every archived plan loaded with its completion"
+                : wrongArchived + " archived plans are WRONG");
+        if (wrong > 0 || wrongArchived > 0) { System.exit(1); }
+    }
+
+    /**
+     * Makes up an athlete: more able athletes run more miles a week, and
+     * complete more of them.
+     */
+    private static float [] randomAthlete(Random random)
+    {
+        int age = 1 + random.nextInt(4);
+        int ability = 1 + random.nextInt(3);
+        int time = (random.nextInt(10) == 0) ? 0 : 2 + random.nextInt(4);
+        double weeklyMiles = Math.max(5, 8 + 10 * ability + 6 * random.nextGaussian());
+        double completion = Math.max(0, Math.min(1, 0.5 + 0.1 * ability + 0.2 * random.nextGaussian()));
+        return AthleteIndex.features(Math.round(weeklyMiles * 10) / 10.0, Math.round(completion * 100) / 100.0,
+                age, ability, time);
+    }
+
+    /**
+     * Finds the distances of the k nearest athletes by comparing with every one,
+     * nearest first.
+     */
+    private static double [] bruteForce(float [] query, int k, double [] weights, boolean finishedOnly)
+    {
+        PriorityQueue<Double> nearest = new PriorityQueue<Double>(k + 1, Collections.<Double>reverseOrder());
+        for (int athlete = 0; athlete < points.length; athlete++)
+        {
+            if (finishedOnly && !finished[athlete]) { continue; }
+            double distance = 0;
+            for (int feature = 0; feature < AthleteIndex.FEATURES; feature++)
+            {
+                double difference = query[feature] - points[athlete][feature];
+                distance += weights[feature] * difference * difference;
+            }
+            if (nearest.size() < k) { nearest.add(distance); }
+            else if (distance < nearest.peek())
+            {
+                nearest.poll();
+                nearest.add(distance);
+            }
+        }
+        double [] distances = new double [nearest.size()];
+        for (int i = distances.length - 1; i >= 0; i--) { distances[i] = nearest.poll(); }
+        return distances;
+    }
+
+    /**
+     * Determines if the athletes found are as near as the nearest found by
+     * comparing with every athlete (athletes as near as each other may differ),
+     * and are where the index should have them.
+     */
+    private static boolean matches(List<AthleteIndex.Neighbor> found, double [] distances)
+    {
+        if (found.size() != distances.length) { return false; }
+        for (int i = 0; i < distances.length; i++)
+        {
+            AthleteIndex.Neighbor neighbor = found.get(i);
+            int athlete = Integer.parseInt(neighbor.id.substring("athlete".length()));
+            if (neighbor.distance != distances[i] || !Arrays.equals(neighbor.features, points[athlete])
+                    || neighbor.finished != finished[athlete])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes ARCHIVED plans to a PlanArchive, loads it into a new index and
+     * checks each plan's completion. Returns the number of plans that are wrong.
+     */
+    private static int checkArchive() throws IOException
+    {
+        Random random = new Random(3);
+        double [] completions = new double [ARCHIVED];
+        Path archive = Paths.get(ARCHIVE_FILE);
+        try (PlanArchive.Writer writer = new PlanArchive.Writer(archive))
+        {
+            for (int plan = 0; plan < ARCHIVED; plan++)
+            {
+                double [][] days = new double [ARCHIVE_WEEKS * 7][PlanArchive.COLUMNS];
+                double miles = 0, milesCompleted = 0;
+                for (int day = 0; day < days.length; day++)
+                {
+                    days[day][PlanArchive.MILES] = (day % 7 == 6) ? 0 : 1 + random.nextInt(10);
+                    days[day][PlanArchive.COMPLETED] = random.nextBoolean() ? 1 : 0;
+                    miles += days[day][PlanArchive.MILES];
+                    if (days[day][PlanArchive.COMPLETED] > 0) { milesCompleted += days[day][PlanArchive.MILES]; }
+                }
+                completions[plan] = milesCompleted / miles;
+                String profile = "archived" + plan + "," + (1 + plan % 4) + "," + (1 + plan % 3) + "," + (2 + plan % 4);
+                writer.add("archived" + plan, profile, days);
+            }
+        }
+
+        AthleteIndex index = new AthleteIndex();
+        index.loadArchive(archive);
+        Files.delete(archive);
+
+        int wrong = (index.size() == ARCHIVED) ? 0 : 1;
+        for (AthleteIndex.Neighbor neighbor : index.nearest(new float [AthleteIndex.FEATURES], ARCHIVED,
+                AthleteIndex.WEIGHTS, true))
+        {
+            int plan = Integer.parseInt(neighbor.id.substring((AthleteIndex.ARCHIVED + "archived").length()));
+            if (Math.abs(neighbor.features[AthleteIndex.COMPLETION] - completions[plan]) > 1e-6
+                    || neighbor.features[AthleteIndex.AGE] != 1 + plan % 4
+                    || neighbor.features[AthleteIndex.TIME] != 2 + plan % 4)
+            {
+                wrong += 1;
+            }
+        }
+        return wrong;
+    }
+}
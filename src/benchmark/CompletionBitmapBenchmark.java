@@ -0,0 +1,100 @@
+//CompletionBitmapBenchmark.java
+/**
+ * Hammers a CompletionBitmap() with several writer threads at once (as the UI, an
+ * import and a sync would) while reader threads count the runs completed, and
+ * checks that every reader only ever sees whole changes. Each writer owns a block
+ * of days that spans two words and marks the whole block done, then not done, as
+ * one change each time, so a snapshot holding part of a block shows a torn read.
+ * Reports changes and reads per second:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -cp out CompletionBitmapBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+class CompletionBitmapBenchmark
+{
+    static final int WRITERS = 4;
+    static final int READERS = 2;
+    static final int BLOCK_DAYS = 40;                   // each block crosses a word boundary
+    static final long RUN_MILLIS = 3000;
+
+    public static void main (String [] args) throws Exception
+    {
+        final CompletionBitmap completions = new CompletionBitmap(WRITERS * 64 + 64);
+        final AtomicLong changes = new AtomicLong(0);
+        final AtomicLong reads = new AtomicLong(0);
+        final AtomicLong tornReads = new AtomicLong(0);
+        final AtomicLong heard = new AtomicLong(0);
+        final long stopAt = System.currentTimeMillis() + RUN_MILLIS;
+
+        completions.addListener(
+                new CompletionBitmap.Listener()
+                {
+                    public void completionChanged(BitSet changedDays, boolean completed) { heard.incrementAndGet(); }
+                }
+        );
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int writer = 0; writer < WRITERS; writer++)
+        {
+            // block starts 40 days before a word boundary, e.g. days 40 to 79
+            final BitSet block = new BitSet();
+            block.set(writer * 64 + 40, writer * 64 + 40 + BLOCK_DAYS);
+            threads.add(new Thread(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            boolean completed = true;
+                            while (System.currentTimeMillis() < stopAt)
+                            {
+                                completions.set(block, completed);
+                                completed = !completed;
+                                changes.incrementAndGet();
+                            }
+                            completions.set(block, true);   // leave every block done
+                        }
+                    }
+            ));
+        }
+        for (int reader = 0; reader < READERS; reader++)
+        {
+            threads.add(new Thread(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            while (System.currentTimeMillis() < stopAt)
+                            {
+                                if (completions.getRunsCompleted() % BLOCK_DAYS != 0) { tornReads.incrementAndGet(); }
+
+                                BitSet done = BitSet.valueOf(completions.snapshot());
+                                for (int writer = 0; writer < WRITERS; writer++)
+                                {
+                                    int first = writer * 64 + 40;
+                                    int count = done.get(first, first + BLOCK_DAYS).cardinality();
+                                    if (count != 0 && count != BLOCK_DAYS) { tornReads.incrementAndGet(); }
+                                }
+                                reads.addAndGet(2);
+                            }
+                        }
+                    }
+            ));
+        }
+
+        for (Thread thread : threads) { thread.start(); }
+        for (Thread thread : threads) { thread.join(); }
+
+        System.out.printf("%d writers, %d readers: %.0f changes/s, %.0f reads/s%n", WRITERS, READERS,
+                changes.get() * 1000.0 / RUN_MILLIS, reads.get() * 1000.0 / RUN_MILLIS);
+        System.out.println("torn reads: " + tornReads.get() + ", listener calls: " + heard.get()
+                + ", runs completed at the end: " + completions.getRunsCompleted() + " of " + WRITERS * BLOCK_DAYS);
+        if (tornReads.get() > 0 || completions.getRunsCompleted() != WRITERS * BLOCK_DAYS) { System.exit(1); }
+    }
+}
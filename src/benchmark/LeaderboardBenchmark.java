@@ -0,0 +1,174 @@
+//LeaderboardBenchmark.java
+/**
+ * Measures the Leaderboard() for a large club. MEMBERS members are put on the
+ * board, and then UPDATE_THREADS threads log runs for random members (each run
+ * adds to the member's miles and percent of plan, as checking it off in the
+ * TrainingFrame() would) while another thread asks for the top TOP_K and a
+ * random member's place, as the LeaderboardPanel() does each frame. Reports the
+ * time per update and per query, against sorting every member again after each
+ * run, and then checks both rankings, place by place, against a sort of the
+ * members' final totals:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -cp out LeaderboardBenchmark [members]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class LeaderboardBenchmark
+{
+    static final int MEMBERS = 100000;
+    static final int UPDATES_PER_THREAD = 250000;
+    static final int UPDATE_THREADS = 4;
+    static final int TOP_K = 10;
+    static final int SORTS = 20;                // full sorts timed, for comparison
+    static final double PLAN_MILES = 500;
+    static String [] names;                     // of each member, made once
+
+    public static void main (String [] args) throws Exception
+    {
+        final int members = (args.length > 0) ? Integer.parseInt(args[0]) : MEMBERS;
+        final Leaderboard leaderboard = new Leaderboard();
+        final double [] miles = new double [members];
+        names = new String [members];
+        for (int member = 0; member < members; member++) { names[member] = String.format("member%06d", member); }
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int member = 0; member < members; member++)
+        {
+            miles[member] = Math.round(random.nextDouble() * 200 * 10) / 10.0;
+            leaderboard.update(name(member), miles[member], miles[member] / PLAN_MILES * 100);
+        }
+        System.out.printf("added %d members in %.0f ms%n", members, (System.nanoTime() - start) / 1e6);
+
+        // log runs from several threads while the top of the board is read
+        final LatencyHistogram updateLatency = new LatencyHistogram("leaderboard_update");
+        final LatencyHistogram queryLatency = new LatencyHistogram("leaderboard_query");
+        final AtomicBoolean updating = new AtomicBoolean(true);
+        final AtomicInteger badTops = new AtomicInteger();
+        Thread reader = new Thread(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        Random random = new Random(2);
+                        while (updating.get())
+                        {
+                            long queryStart = System.nanoTime();
+                            List<Leaderboard.Standing> top = leaderboard.getTop(TOP_K, Leaderboard.MILES);
+                            leaderboard.getRank(name(random.nextInt(members)), Leaderboard.PERCENT);
+                            queryLatency.recordSince(queryStart);
+                            for (int place = 1; place < top.size(); place++)
+                            {
+                                if (top.get(place).milesCompleted > top.get(place - 1).milesCompleted)
+                                {
+                                    badTops.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                }, "leaderboard-reader");
+        reader.start();
+
+        ExecutorService pool = Executors.newFixedThreadPool(UPDATE_THREADS);
+        ArrayList<Future<?>> done = new ArrayList<Future<?>>();
+        start = System.nanoTime();
+        for (int thread = 0; thread < UPDATE_THREADS; thread++)
+        {
+            final int first = thread;
+            done.add(pool.submit(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            Random random = new Random(100 + first);
+                            for (int update = 0; update < UPDATES_PER_THREAD; update++)
+                            {
+                                // each thread logs runs for its own members, so their totals only grow
+                                int member = first + UPDATE_THREADS * random.nextInt(members / UPDATE_THREADS);
+                                double total = Math.round((miles[member] + 1 + random.nextInt(100) / 10.0) * 10) / 10.0;
+                                miles[member] = total;
+                                long updateStart = System.nanoTime();
+                                leaderboard.update(name(member), total, total / PLAN_MILES * 100);
+                                updateLatency.recordSince(updateStart);
+                            }
+                        }
+                    }
+            ));
+        }
+        for (Future<?> thread : done) { thread.get(); }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        updating.set(false);
+        reader.join();
+        pool.shutdown();
+
+        // what sorting every member again after each run would cost
+        Integer [] order = new Integer [members];
+        for (int member = 0; member < members; member++) { order[member] = member; }
+        Comparator<Integer> byMiles = byMiles(miles);
+        long sortNanos = 0;
+        for (int sort = 0; sort < SORTS; sort++)
+        {
+            Collections.shuffle(Arrays.asList(order), new Random(sort));
+            long sortStart = System.nanoTime();
+            Arrays.sort(order, byMiles);
+            sortNanos += System.nanoTime() - sortStart;
+        }
+
+        int updates = UPDATES_PER_THREAD * UPDATE_THREADS;
+        System.out.printf("%d updates from %d threads in %.2f s (%.0f updates/s)%n",
+                updates, UPDATE_THREADS, seconds, updates / seconds);
+        System.out.printf("update: %.1f us median, %.1f us p99; top %d and a rank: %.1f us median, %.1f us p99 "
+                        + "(%d queries)%n",
+                updateLatency.getValueAtQuantile(0.5) / 1e3, updateLatency.getValueAtQuantile(0.99) / 1e3, TOP_K,
+                queryLatency.getValueAtQuantile(0.5) / 1e3, queryLatency.getValueAtQuantile(0.99) / 1e3,
+                queryLatency.getCount());
+        System.out.printf("sorting all %d members again: %.1f ms each%n", members, sortNanos / 1e6 / SORTS);
+        System.out.println(leaderboard.getSummary());
+
+        // check every place of both rankings against a sort of the final totals
+        int wrong = badTops.get();
+        for (int by = Leaderboard.MILES; by <= Leaderboard.PERCENT; by++)
+        {
+            List<Leaderboard.Standing> all = leaderboard.getTop(members, by);
+            if (all.size() != members) { wrong += 1; }
+            for (int place = 0; place < all.size(); place++)
+            {
+                int member = order[place];
+                Leaderboard.Standing standing = all.get(place);
+                if (!standing.name.equals(name(member)) || standing.milesCompleted != miles[member]
+                        || leaderboard.getRank(standing.name, by) != place + 1)
+                {
+                    wrong += 1;
+                }
+            }
+        }
+        System.out.println(wrong == 0 ? "both rankings match a full sort" : wrong + " places are WRONG");
+        if (wrong > 0) { System.exit(1); }
+    }
+
+    private static String name(int member)
+    {
+        return names[member];
+    }
+
+    /**
+     * Orders members as the board does: most miles first, then by name.
+     */
+    private static Comparator<Integer> byMiles(final double [] miles)
+    {
+        return new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int c = Double.compare(miles[b], miles[a]);
+                return (c != 0) ? c : name(a).compareTo(name(b));
+            }
+        };
+    }
+}
@@ -0,0 +1,118 @@
+//PlanAnalyticsBenchmark.java
+/**
+ * Times PlanAnalytics() over a large population. A real plan is generated for
+ * every race, age, ability and time group, and then copied (with runs checked off
+ * at random) into a profile and plan for each of USERS users, in a directory of
+ * its own ("analytics_data"). The scan is timed, and the runs and miles it counts
+ * are checked against what was written. Run from src/resources, with it on the
+ * class path:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     cd src/resources && java -Djava.awt.headless=true -cp ../../out:. PlanAnalyticsBenchmark [users]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+class PlanAnalyticsBenchmark
+{
+    static final int USERS = 50000;                     // two files each
+    static final String DATA = "analytics_data";
+
+    public static void main (String [] args) throws IOException
+    {
+        int users = (args.length > 0) ? Integer.parseInt(args[0]) : USERS;
+
+        // a real plan for every combination of groups, as lines of records
+        ArrayList<String []> profiles = new ArrayList<String []>();
+        ArrayList<String []> plans = new ArrayList<String []>();
+        for (PlanSource source : PlanTemplateRegistry.getTemplates().getSources())
+        {
+            for (int age = 1; age <= 4; age++)
+            {
+                for (int ability = 1; ability <= 3; ability++)
+                {
+                    for (int time = 2; time <= 5; time++)
+                    {
+                        UserProfile profile = new UserProfile();
+                        profile.setAll("analyticsbench", age, ability, time);
+                        profile.setRace(source.getName());
+                        TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+                        generator.createTrainingPlan();
+
+                        profiles.add(new String [] { source.getName(), "" + age, "" + ability, "" + time });
+                        plans.add(new String(Files.readAllBytes(Paths.get(generator.getPlanFileName())),
+                                StandardCharsets.US_ASCII).split("\\r?\\n"));
+                    }
+                }
+            }
+        }
+        new File("analyticsbench_training_plan.txt").delete();
+
+        // copy them out to every user, checking off the first part of each plan with a few misses
+        Path data = Paths.get(DATA);
+        Files.createDirectories(data);
+        Random random = new Random(42);
+        long runsCompleted = 0;
+        double milesCompleted = 0;
+        long start = System.nanoTime();
+        for (int user = 0; user < users; user++)
+        {
+            int combination = random.nextInt(plans.size());
+            String [] groups = profiles.get(combination);
+            String [] lines = plans.get(combination);
+            String name = "user" + user;
+            Files.write(data.resolve(name + "_profile.txt"), (name + "," + groups[1] + "," + groups[2] + ","
+                    + groups[3] + "," + groups[0] + "\n").getBytes(StandardCharsets.US_ASCII));
+
+            StringBuilder plan = new StringBuilder();
+            int doneUpTo = random.nextInt(lines.length + 1);
+            for (int line = 0; line < lines.length; line++)
+            {
+                String [] fields = lines[line].split(",");
+                double miles = Double.parseDouble(fields[2].trim());
+                if (line < doneUpTo && random.nextInt(10) > 0 && miles > 0)
+                {
+                    fields[4] = " 1.0";
+                    runsCompleted += 1;
+                    milesCompleted += miles;
+                }
+                plan.append(String.join(",", fields)).append('\n');
+            }
+            Files.write(data.resolve(name + "_training_plan.txt"), plan.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        System.out.printf("wrote %d users (%d files) in %.1f s%n", users, users * 2, (System.nanoTime() - start) / 1e9);
+
+        // the scan itself, twice so the second is with a warm JVM
+        PlanAnalytics analytics = new PlanAnalytics(new String [] { "race", "age", "ability" });
+        for (int round = 0; round < 2; round++)
+        {
+            analytics.scan(data);
+            System.out.println(analytics.getSummary());
+        }
+        analytics.writeCsv(Paths.get("analytics_results.csv"));
+
+        long runsCounted = 0;
+        double milesCounted = 0;
+        for (PlanAnalytics.Group group : analytics.getGroups().values())
+        {
+            runsCounted += group.runsCompleted;
+            milesCounted += group.milesCompleted;
+        }
+        System.out.printf("runs completed: %d counted, %d written; miles completed: %.1f counted, %.1f written%n",
+                runsCounted, runsCompleted, milesCounted, milesCompleted);
+
+        // clean up the files made for the benchmark
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(data))
+        {
+            for (Path file : files) { Files.delete(file); }
+        }
+        Files.delete(data);
+        if (runsCounted != runsCompleted || Math.abs(milesCounted - milesCompleted) > 0.01) { System.exit(1); }
+    }
+}
@@ -0,0 +1,126 @@
+//PlanArchiveBenchmark.java
+/**
+ * Converts a large population of plans into a PlanArchive() and reports the
+ * compression ratio and how fast columns can be scanned. A real plan is generated
+ * for every race and ability group, and then copied (with runs checked off at
+ * random) to each of USERS users, in a directory of its own ("archive_data").
+ * After the conversion, the completions column is scanned on its own and checked
+ * against what was written, and a sample of plans is read back whole. Run from
+ * src/resources, with it on the class path:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     cd src/resources && java -Djava.awt.headless=true -cp ../../out:. PlanArchiveBenchmark [users]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+class PlanArchiveBenchmark
+{
+    static final int USERS = 50000;
+    static final String DATA = "archive_data";
+    static final String ARCHIVE = "archive_bench.rbpa";
+
+    public static void main (String [] args) throws IOException
+    {
+        int users = (args.length > 0) ? Integer.parseInt(args[0]) : USERS;
+
+        // a real plan for every race and ability, as lines of records
+        ArrayList<String []> plans = new ArrayList<String []>();
+        for (PlanSource source : PlanTemplateRegistry.getTemplates().getSources())
+        {
+            for (int ability = 1; ability <= 3; ability++)
+            {
+                UserProfile profile = new UserProfile();
+                profile.setAll("archivebench", 2, ability, 4);
+                profile.setRace(source.getName());
+                TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+                generator.createTrainingPlan();
+                plans.add(new String(Files.readAllBytes(Paths.get(generator.getPlanFileName())),
+                        StandardCharsets.US_ASCII).split("\\r?\\n"));
+            }
+        }
+        new File("archivebench_training_plan.txt").delete();
+
+        // copy them out to every user, checking off the first part of each plan
+        Path data = Paths.get(DATA);
+        Files.createDirectories(data);
+        Random random = new Random(42);
+        long runsCompleted = 0;
+        for (int user = 0; user < users; user++)
+        {
+            String [] lines = plans.get(random.nextInt(plans.size()));
+            String name = "user" + user;
+            Files.write(data.resolve(name + "_profile.txt"), (name + ",2,1,4\n").getBytes(StandardCharsets.US_ASCII));
+
+            StringBuilder plan = new StringBuilder();
+            int doneUpTo = random.nextInt(lines.length + 1);
+            for (int line = 0; line < lines.length; line++)
+            {
+                String [] fields = lines[line].split(",");
+                if (line < doneUpTo && random.nextInt(10) > 0)
+                {
+                    fields[4] = " 1.0";
+                    runsCompleted += 1;
+                }
+                plan.append(String.join(",", fields)).append(System.lineSeparator());
+            }
+            Files.write(data.resolve(name + "_training_plan.txt"), plan.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        // the conversion, with its report
+        Path archive = Paths.get(ARCHIVE);
+        Files.deleteIfExists(archive);
+        PlanArchive.Conversion conversion = PlanArchive.convert(data, archive, false, false);
+        System.out.println(conversion.getReport());
+
+        // the completions column on its own, twice so the second is with a warm JVM
+        boolean matched = true;
+        try (PlanArchive read = new PlanArchive(archive))
+        {
+            for (int round = 0; round < 2; round++)
+            {
+                final long [] completed = new long [1];
+                long start = System.nanoTime();
+                read.scanColumn(PlanArchive.COMPLETED,
+                        new PlanArchive.ColumnVisitor()
+                        {
+                            public void visit(PlanArchive.Entry entry, double [] values, int days)
+                            {
+                                for (int day = 0; day < days; day++) { completed[0] += (long) values[day]; }
+                            }
+                        }
+                );
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("completions of %d plans scanned in %.1f ms (%.0f plans/s): %d runs, %d written%n",
+                        read.getEntries().size(), seconds * 1e3, read.getEntries().size() / seconds,
+                        completed[0], runsCompleted);
+                matched &= completed[0] == runsCompleted;
+            }
+
+            // a sample of plans read back whole, against their text files
+            for (int user = 0; user < users; user += Math.max(1, users / 100))
+            {
+                String name = "user" + user;
+                double [][] text = PlanArchive.parsePlan(new String(
+                        Files.readAllBytes(data.resolve(name + "_training_plan.txt")), StandardCharsets.US_ASCII));
+                matched &= Arrays.deepEquals(read.readPlan(name), text);
+            }
+        }
+        System.out.println(matched ? "archive matches the plans written" : "archive DOES NOT match the plans written");
+
+        // clean up the files made for the benchmark
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(data))
+        {
+            for (Path file : files) { Files.delete(file); }
+        }
+        Files.delete(data);
+        Files.delete(archive);
+        if (!matched) { System.exit(1); }
+    }
+}
@@ -0,0 +1,179 @@
+//PlanMigrationBenchmark.java
+/**
+ * Migrates a large directory of plans saved by older versions of RunBuddy with
+ * the PlanMigration(), stopping it partway and resuming it. USERS users are
+ * written in a directory of their own ("migration_data"): most with plans of
+ * unpadded records without an actual distance and profiles that name no race,
+ * and every tenth already in the current format. A second JVM starts the
+ * migration and is killed (SIGKILL) after KILL_AFTER_MILLIS; the migration is
+ * then run again here, from its checkpoint, while a thread saves random users'
+ * plans through the PlanJournal as RunBuddy would (checking off their last
+ * day). Every file is then checked against the values it was written with, and
+ * every save must have been kept. Run from the directory holding the base plans:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     cd src/resources && java -cp ../../out PlanMigrationBenchmark [users]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+class PlanMigrationBenchmark
+{
+    static final int USERS = 20000;
+    static final int WEEKS = 12;
+    static final long KILL_AFTER_MILLIS = 1500;
+    static final String DATA = "migration_data";
+
+    public static void main (String [] args) throws Exception
+    {
+        if (args.length > 0 && args[0].equals("migrate"))
+        {
+            new PlanMigration(Paths.get(DATA), Paths.get(DATA)).migrate(0);
+            return;
+        }
+        int users = (args.length > 0) ? Integer.parseInt(args[0]) : USERS;
+
+        Path data = Paths.get(DATA);
+        Files.createDirectories(data);
+        for (int user = 0; user < users; user++) { writeUser(data, user); }
+        System.out.printf("wrote %d users%n", users);
+
+        // start migrating in another JVM, and kill it partway through
+        Process migrator = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "PlanMigrationBenchmark", "migrate")
+                .inheritIO().start();
+        if (!migrator.waitFor(KILL_AFTER_MILLIS, TimeUnit.MILLISECONDS))
+        {
+            migrator.destroyForcibly().waitFor();
+            System.out.println("killed the migration after " + KILL_AFTER_MILLIS + " ms");
+        }
+        else { System.out.println("the migration finished before it could be killed; try more users"); }
+
+        // then resume it from the checkpoint, while RunBuddy saves plans
+        final int userCount = users;
+        final Set<Integer> saved = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean migrating = new AtomicBoolean(true);
+        Thread saver = new Thread(
+                new Runnable()
+                {
+                    public void run() { savePlans(userCount, saved, migrating); }
+                }, "plan-saver");
+        saver.start();
+        PlanMigration migration = new PlanMigration(data, data);
+        migration.migrate(1);
+        migrating.set(false);
+        saver.join();
+        System.out.println(migration.getProgress());
+        System.out.println(saved.size() + " plans saved while migrating");
+
+        // every file should now be current, and hold what was written
+        int wrong = 0;
+        for (int user = 0; user < users; user++)
+        {
+            String name = "user" + user;
+            String plan = new String(Files.readAllBytes(data.resolve(name + "_training_plan.txt")),
+                    StandardCharsets.US_ASCII);
+            double [][] days = PlanArchive.parsePlan(plan);
+            String [] lines = plan.split("\\r?\\n");
+            boolean right = days != null && days.length == WEEKS * 7 && lines[0].length() == lines[1].length()
+                    && lines[0].split(",").length == 6;
+            for (int day = 0; right && day < days.length; day++)
+            {
+                int done = (saved.contains(user) && day == days.length - 1) ? 1 : completed(user, day);
+                right = Math.abs(days[day][0] - miles(user, day)) < 0.0005 && days[day][2] == done;
+            }
+
+            String profile = new String(Files.readAllBytes(data.resolve(name + "_profile.txt")),
+                    StandardCharsets.US_ASCII).trim();
+            right &= profile.equals(name + ",2," + (user % 3 + 1) + ",4,half");
+            if (!right) { wrong += 1; }
+        }
+        System.out.println(wrong == 0 ? "every user was migrated correctly"
+                : wrong + " users were NOT migrated correctly");
+
+        // clean up the files made for the benchmark
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(data))
+        {
+            for (Path file : files) { Files.delete(file); }
+        }
+        Files.delete(data);
+        if (wrong > 0 || migration.getUsersFailed() > 0) { System.exit(1); }
+    }
+
+    /**
+     * Writes a user's files: every tenth user in the current format, the rest
+     * as older versions of RunBuddy saved them.
+     */
+    private static void writeUser(Path data, int user) throws IOException
+    {
+        String name = "user" + user;
+        boolean current = user % 10 == 0;
+        String profile = current ? name + ",2," + (user % 3 + 1) + ",4,half" + System.lineSeparator()
+                : name + "\n2\n" + (user % 3 + 1) + "\n4\n";
+        Files.write(data.resolve(name + "_profile.txt"), profile.getBytes(StandardCharsets.US_ASCII));
+
+        StringBuilder plan = new StringBuilder();
+        for (int day = 0; day < WEEKS * 7; day++)
+        {
+            double [] values = { miles(user, day), 9.45, completed(user, day), 0 };
+            if (current) { plan.append(TrainingPlanGenerator.formatRecord(day / 7, day % 7, values)); }
+            else
+            {
+                plan.append(day / 7 + 1).append(", ").append(day % 7 + 1).append(", ").append(values[0])
+                        .append(", ").append(values[1]).append(", ").append((int) values[2]);
+            }
+            plan.append(current ? System.lineSeparator() : "\n");
+        }
+        Files.write(data.resolve(name + "_training_plan.txt"), plan.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Saves random users' whole plans through the PlanJournal, in the current
+     * format with their last day checked off, as RunBuddy saves a plan in an
+     * older format, until the migration is done.
+     */
+    private static void savePlans(int users, Set<Integer> saved, AtomicBoolean migrating)
+    {
+        Random random = new Random(5);
+        while (migrating.get())
+        {
+            int user = random.nextInt(users);
+            StringBuilder plan = new StringBuilder();
+            for (int day = 0; day < WEEKS * 7; day++)
+            {
+                int done = (day == WEEKS * 7 - 1) ? 1 : completed(user, day);
+                double [] values = { miles(user, day), 9.45, done, 0 };
+                plan.append(TrainingPlanGenerator.formatRecord(day / 7, day % 7, values)).append(System.lineSeparator());
+            }
+            try
+            {
+                PlanJournal.getJournal().writeFile(Paths.get(DATA, "user" + user + "_training_plan.txt").toString(),
+                        plan.toString().getBytes(StandardCharsets.US_ASCII));
+                saved.add(user);
+            }
+            catch (IOException e)
+            {
+                System.out.println("WARNING: Could not save a plan due to " + e);
+            }
+        }
+    }
+
+    private static double miles(int user, int day)
+    {
+        return (day % 7 == 0) ? 0 : 2 + ((user + day) % 9) * 0.5;
+    }
+
+    private static int completed(int user, int day)
+    {
+        return (day < user % (WEEKS * 7)) ? 1 : 0;
+    }
+}
@@ -0,0 +1,93 @@
+//PlanSaveBenchmark.java
+/**
+ * Measures how many durable plan saves per second RunBuddy can make through the
+ * PlanJournal(), as more and more users save at once, and how many saves share
+ * each fsync thanks to group commit. Each user checks off one run after another,
+ * saving just that record each time, as TrainingFrame() does. Run from the
+ * directory holding "basetrainingplan.txt":
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out PlanSaveBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+class PlanSaveBenchmark
+{
+    static final int [] USERS = { 1, 4, 16, 64 };
+    static final long RUN_MILLIS = 3000;
+
+    public static void main (String [] args) throws Exception
+    {
+        PlanJournal journal = PlanJournal.getJournal();
+
+        System.out.println("users   saves/s   saves per fsync   avg save (us)");
+        for (int users : USERS)
+        {
+            // one plan per user, created before timing starts
+            final TrainingPlanGenerator [] generators = new TrainingPlanGenerator [users];
+            for (int user = 0; user < users; user++)
+            {
+                UserProfile profile = new UserProfile();
+                profile.setName("bench" + user);
+                profile.setAge(1 + user % 4);
+                profile.setAbility(1 + user % 3);
+                profile.setTime(2 + user % 4);
+                generators[user] = new TrainingPlanGenerator(profile);
+                generators[user].createTrainingPlan();
+            }
+
+            final AtomicLong saves = new AtomicLong(0);
+            final AtomicLong saveNanos = new AtomicLong(0);
+            final long stopAt = System.currentTimeMillis() + RUN_MILLIS;
+            long savesBefore = journal.getSaves();
+            long syncsBefore = journal.getSyncs();
+
+            Thread [] threads = new Thread [users];
+            for (int user = 0; user < users; user++)
+            {
+                final TrainingPlanGenerator generator = generators[user];
+                threads[user] = new Thread(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                double [][][] plan = generator.getUserTrainingPlan();
+                                CompletionBitmap completions = generator.getCompletions();
+                                BitSet day = new BitSet();
+                                for (int planDay = 0; System.currentTimeMillis() < stopAt; planDay++)
+                                {
+                                    int index = planDay % (plan.length * 7);
+                                    completions.set(index, !completions.isCompleted(index));   // toggle the run
+                                    day.clear();
+                                    day.set(index);
+
+                                    long start = System.nanoTime();
+                                    generator.saveRecords(day);
+                                    saveNanos.addAndGet(System.nanoTime() - start);
+                                    saves.incrementAndGet();
+                                }
+                            }
+                        }
+                );
+                threads[user].start();
+            }
+            for (Thread thread : threads) { thread.join(); }
+
+            double savesPerSync = (double) (journal.getSaves() - savesBefore) / Math.max(1, journal.getSyncs() - syncsBefore);
+            System.out.printf("%5d   %7.0f   %15.1f   %13.1f%n", users, saves.get() * 1000.0 / RUN_MILLIS,
+                    savesPerSync, saveNanos.get() / 1000.0 / Math.max(1, saves.get()));
+        }
+
+        // clean up the plans made for the benchmark
+        for (int user = 0; user < USERS[USERS.length - 1]; user++)
+        {
+            new File("bench" + user + "_training_plan.txt").delete();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+//PlanSaveCrashCheck.java
+/**
+ * Checks that plan saves survive RunBuddy being killed partway through a write.
+ * Each round starts a second JVM that checks off runs and saves the plan as fast
+ * as it can (mostly single records, with a full save every so often), printing a
+ * line after each save that has returned. The round kills that JVM (SIGKILL)
+ * at a random moment, replays the journal as RunBuddy would when it next starts,
+ * and then checks that the plan file is whole (every record well formed) and
+ * holds either the last save that returned or the one after it. Run from the
+ * directory holding "basetrainingplan.txt":
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out PlanSaveCrashCheck
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+class PlanSaveCrashCheck
+{
+    static final int ROUNDS = 25;
+    static final String USER = "crashcheck";
+    static final int FULL_SAVE_EVERY = 10;
+
+    public static void main (String [] args) throws Exception
+    {
+        if (args.length > 0 && args[0].equals("saver")) { saveForever(); }
+        else if (args.length > 0 && args[0].equals("replay")) { PlanJournal.getJournal(); }  // replays on opening
+        else { check(); }
+    }
+
+    /**
+     * Runs in the JVM that gets killed: saves version after version of the plan.
+     * Version n has the runs on plan days 0 to n-1 toggled (see completedIn()).
+     */
+    private static void saveForever()
+    {
+        TrainingPlanGenerator generator = new TrainingPlanGenerator(profile());
+        generator.createTrainingPlan();
+        System.out.println("saved 0 .");
+        System.out.flush();
+
+        double [][][] plan = generator.getUserTrainingPlan();
+        BitSet day = new BitSet();
+        for (int version = 1; ; version++)
+        {
+            int planDay = (version - 1) % (plan.length * 7);
+            generator.getCompletions().set(planDay, completedIn(version, planDay, plan.length * 7) > 0);
+
+            if (version % FULL_SAVE_EVERY == 0) { generator.saveUserProfile(); }
+            else
+            {
+                day.clear();
+                day.set(planDay);
+                generator.saveRecords(day);
+            }
+            System.out.println("saved " + version + " .");   // the "." shows the line was not cut off
+            System.out.flush();                             // so that every save that returned is counted
+        }
+    }
+
+    /**
+     * Starts and kills the saving JVM ROUNDS times, checking the plan after each.
+     */
+    private static void check() throws Exception
+    {
+        Random random = new Random();
+        int failures = 0;
+        replay();   // finish anything left over from before
+
+        for (int round = 1; round <= ROUNDS; round++)
+        {
+            Files.deleteIfExists(Paths.get(USER + "_training_plan.txt"));
+
+            Process saver = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+                    "PlanSaveCrashCheck", "saver")
+                    .redirectErrorStream(true)
+                    .start();
+
+            // read the saves that returned while waiting a random time, then kill the saver
+            final BufferedReader out = new BufferedReader(new InputStreamReader(saver.getInputStream()));
+            final int [] lastSaved = { -1 };
+            Thread reader = new Thread(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                String line;
+                                while ((line = out.readLine()) != null)
+                                {
+                                    if (line.startsWith("saved ") && line.endsWith(" ."))
+                                    {
+                                        lastSaved[0] = Integer.parseInt(line.substring(6, line.length() - 2));
+                                    }
+                                }
+                            }
+                            catch (IOException e) { }   // the saver was killed
+                        }
+                    }
+            );
+            reader.start();
+            Thread.sleep(500 + random.nextInt(1500));
+            saver.toHandle().destroyForcibly();     // unlike Process.destroyForcibly(), leaves the output to be read
+            saver.waitFor();
+            reader.join();
+
+            replay();
+            String problem = checkPlan(lastSaved[0]);
+            System.out.printf("round %2d: killed after save %5d -- %s%n", round, lastSaved[0], problem == null ? "ok" : problem);
+            if (problem != null) { failures += 1; }
+        }
+
+        Files.deleteIfExists(Paths.get(USER + "_training_plan.txt"));
+        System.out.println(failures == 0 ? "All rounds passed." : failures + " rounds FAILED.");
+        if (failures > 0) { System.exit(1); }
+    }
+
+    /**
+     * Replays the journal in a fresh JVM, as RunBuddy does when it starts.
+     */
+    private static void replay() throws Exception
+    {
+        Process replay = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "PlanSaveCrashCheck", "replay")
+                .inheritIO()
+                .start();
+        replay.waitFor();
+    }
+
+    /**
+     * Checks the plan file against the last save that returned.
+     * @return  String describing what is wrong, or null if the plan is fine
+     */
+    private static String checkPlan(int lastSaved) throws IOException
+    {
+        Path file = Paths.get(USER + "_training_plan.txt");
+        if (!Files.exists(file)) { return lastSaved < 0 ? null : "plan file is missing"; }
+
+        List<String> lines = Files.readAllLines(file);
+        int planDays = lines.size();
+        if (planDays == 0 || planDays % 7 != 0) { return "plan has " + planDays + " records"; }
+
+        double [] completed = new double [planDays];
+        for (int planDay = 0; planDay < planDays; planDay++)
+        {
+            String [] values = lines.get(planDay).split(",");
+            try
+            {
+                if (values.length != 6) { throw new NumberFormatException(); }
+                if (Integer.parseInt(values[0].trim()) != planDay / 7 + 1) { throw new NumberFormatException(); }
+                if (Integer.parseInt(values[1].trim()) != planDay % 7 + 1) { throw new NumberFormatException(); }
+                completed[planDay] = Double.parseDouble(values[4].trim());
+            }
+            catch (NumberFormatException e)
+            {
+                return "record " + planDay + " is torn: \"" + lines.get(planDay) + "\"";
+            }
+        }
+
+        // the plan must match the last save that returned, or the one being made when killed
+        if (matchesVersion(completed, lastSaved) || matchesVersion(completed, lastSaved + 1)) { return null; }
+
+        for (int version = Math.max(0, lastSaved - 1000); version <= lastSaved + 1000; version++)
+        {
+            if (matchesVersion(completed, version)) { return "plan holds save " + version + " instead"; }
+        }
+        return "plan matches no save";
+    }
+
+    /**
+     * Checks whether the runs checked off match a given version of the plan.
+     */
+    private static boolean matchesVersion(double [] completed, int version)
+    {
+        if (version < 0) { return false; }
+        for (int planDay = 0; planDay < completed.length; planDay++)
+        {
+            if (completed[planDay] != completedIn(version, planDay, completed.length)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Works out whether a plan day's run is checked off in a given version of the
+     * plan: each version toggles one more day, wrapping around the plan.
+     */
+    private static double completedIn(int version, int planDay, int planDays)
+    {
+        int toggles = version / planDays + (planDay < version % planDays ? 1 : 0);
+        return toggles % 2;
+    }
+
+    /**
+     * Gets the profile of the user whose plan is saved.
+     */
+    private static UserProfile profile()
+    {
+        UserProfile profile = new UserProfile();
+        profile.setName(USER);
+        profile.setAge(2);
+        profile.setAbility(2);
+        profile.setTime(3);
+        return profile;
+    }
+}
@@ -0,0 +1,80 @@
+//PlanSourceBenchmark.java
+/**
+ * Lists the plan sources found by the ServiceLoader and times compiling each
+ * race's template the first time it is asked for against getting the compiled
+ * Template again, then generates plans for many users spread over every race and
+ * time group and reports plans per second. Every plan for a race must come from
+ * the same compiled Template. Run from src/resources, with it on the class path
+ * so that "META-INF/services/PlanSource" and the templates can be found:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     cd src/resources && java -Djava.awt.headless=true -cp ../../out:. PlanSourceBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+class PlanSourceBenchmark
+{
+    static final int USERS = 2000;
+    static final int LOOKUPS = 1000000;
+
+    public static void main (String [] args) throws IOException
+    {
+        PlanTemplateRegistry registry = PlanTemplateRegistry.getTemplates();
+
+        // compiling each template once, then getting the compiled Template again
+        System.out.println("race        weeks   compile (us)   lookup (ns)   template");
+        for (PlanSource source : registry.getSources())
+        {
+            long start = System.nanoTime();
+            PlanTemplateRegistry.Template template = registry.getTemplate(source);
+            long compileNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) { template = registry.getTemplate(source); }
+            long lookupNanos = (System.nanoTime() - start) / LOOKUPS;
+
+            System.out.printf("%-10s  %5d   %12.1f   %11d   %s%n", source.getName(), template.getWeeks().length,
+                    compileNanos / 1000.0, lookupNanos, template);
+        }
+
+        // plans for many users, spread over every race and time group
+        ArrayList<PlanSource> sources = new ArrayList<PlanSource>(registry.getSources());
+        Map<String, Set<PlanTemplateRegistry.Template>> used = new TreeMap<String, Set<PlanTemplateRegistry.Template>>();
+        Map<String, Double> milesByRace = new TreeMap<String, Double>();
+        long start = System.nanoTime();
+        for (int user = 0; user < USERS; user++)
+        {
+            PlanSource source = sources.get(user % sources.size());
+            UserProfile profile = new UserProfile();
+            profile.setAll("sourcebench", 1 + user % 4, 1 + user % 3, 2 + user % 4);
+            profile.setRace(source.getName());
+
+            TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+            generator.createTrainingPlan();
+            if (!used.containsKey(source.getName()))
+            {
+                used.put(source.getName(), new HashSet<PlanTemplateRegistry.Template>());
+            }
+            used.get(source.getName()).add(generator.getTemplate());
+            if (user < sources.size()) { milesByRace.put(source.getName(), generator.getTotalMiles()); }
+        }
+        long elapsed = System.nanoTime() - start;
+        new File("sourcebench_training_plan.txt").delete();
+
+        System.out.printf("%d plans over %d races in %.1f ms (%.1f us per plan, including the save)%n", USERS,
+                sources.size(), elapsed / 1e6, elapsed / 1000.0 / USERS);
+        boolean shared = true;
+        for (String race : used.keySet())
+        {
+            System.out.printf("%-10s  %d compiled template(s) used; %.1f miles in its first plan%n",
+                    race, used.get(race).size(), milesByRace.get(race));
+            shared &= used.get(race).size() == 1;
+        }
+        if (!shared || used.size() != sources.size()) { System.exit(1); }
+    }
+}
@@ -0,0 +1,179 @@
+//PlanSyncSimulation.java
+/**
+ * Simulates thousands of devices sharing completed runs through a
+ * PlanSyncServer() on localhost. DEVICES devices are split between users,
+ * DEVICES_PER_USER each, and every device has its own CompletionBitmap and
+ * PlanSyncClient(). In each of ROUNDS rounds, every device checks off or clears
+ * a few random runs, and then syncs, unless it is offline that round (one in
+ * OFFLINE_ONE_IN), in which case its changes wait in its outbox. Devices sync in
+ * parallel from a pool of threads, so devices of the same user often change the
+ * same days at once. At the end every device syncs twice, after which all of a
+ * user's devices, and the server, must agree on every run. Reports the syncs per
+ * second, the bytes per sync against sending the whole plan file, and how the
+ * batches of offline devices compress. Last, a device that keeps a state file
+ * is restarted with its runs lost, and must be set back in step with the
+ * server. Run from a directory that can be written to:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -cp out PlanSyncSimulation [devices]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class PlanSyncSimulation
+{
+    static final int DEVICES = 4000;
+    static final int DEVICES_PER_USER = 4;
+    static final int ROUNDS = 10;
+    static final int OFFLINE_ONE_IN = 5;
+    static final int PLAN_DAYS = 16 * 7;
+    static final int RECORD_LENGTH = 41;        // of a plan file record, with its line separator
+    static final int SYNC_THREADS = 64;
+    static final String STATE_FILE = "benchmark_sync_state.dat";
+
+    public static void main (String [] args) throws Exception
+    {
+        int deviceCount = (args.length > 0) ? Integer.parseInt(args[0]) : DEVICES;
+        System.setProperty("http.maxConnections", "" + SYNC_THREADS);   // keep connections alive for every thread
+
+        PlanSyncServer server = new PlanSyncServer(0);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getPort();
+
+        final CompletionBitmap [] bitmaps = new CompletionBitmap [deviceCount];
+        final PlanSyncClient [] clients = new PlanSyncClient [deviceCount];
+        for (int device = 0; device < deviceCount; device++)
+        {
+            bitmaps[device] = new CompletionBitmap(PLAN_DAYS);
+            clients[device] = new PlanSyncClient(url, "user" + device / DEVICES_PER_USER, bitmaps[device], null);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(SYNC_THREADS);
+        final AtomicLong syncNanos = new AtomicLong();
+        final AtomicInteger syncs = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong offlineBatchDeltas = new AtomicLong();
+        long start = System.nanoTime();
+        for (int round = 0; round <= ROUNDS + 1; round++)
+        {
+            final boolean changing = round < ROUNDS;    // the last two rounds only sync
+            final int seed = round;
+            ArrayList<Future<?>> rounds = new ArrayList<Future<?>>();
+            for (int device = 0; device < deviceCount; device++)
+            {
+                final int d = device;
+                rounds.add(pool.submit(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                Random random = new Random(seed * 1000003L + d);
+                                if (changing)
+                                {
+                                    for (int change = random.nextInt(4); change > 0; change--)
+                                    {
+                                        bitmaps[d].set(random.nextInt(PLAN_DAYS), random.nextInt(3) > 0);
+                                    }
+                                    if (random.nextInt(OFFLINE_ONE_IN) == 0) { return; }
+                                }
+
+                                int waiting = clients[d].getPending();
+                                if (waiting > 3) { offlineBatchDeltas.addAndGet(waiting); }
+                                long syncStart = System.nanoTime();
+                                if (!clients[d].sync()) { failures.incrementAndGet(); }
+                                syncNanos.addAndGet(System.nanoTime() - syncStart);
+                                syncs.incrementAndGet();
+                            }
+                        }
+                ));
+            }
+            for (Future<?> done : rounds) { done.get(); }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        // every device of a user, and the server, should now agree
+        int users = (deviceCount + DEVICES_PER_USER - 1) / DEVICES_PER_USER;
+        int disagreements = 0;
+        long pending = 0;
+        for (int device = 0; device < deviceCount; device++)
+        {
+            BitSet completed = new BitSet();
+            for (int planDay = 0; planDay < PLAN_DAYS; planDay++)
+            {
+                if (bitmaps[device].isCompleted(planDay)) { completed.set(planDay); }
+            }
+            if (!completed.equals(server.getCompleted("user" + device / DEVICES_PER_USER))) { disagreements += 1; }
+            pending += clients[device].getPending();
+        }
+
+        System.out.printf("%d devices of %d users: %d syncs in %.1f s (%.0f syncs/s, %.2f ms each), %d failed%n",
+                deviceCount, users, syncs.get(), seconds, syncs.get() / seconds, syncNanos.get() / 1e6 / syncs.get(),
+                failures.get());
+        System.out.println(server.getSummary());
+        System.out.printf("whole plan files would be %d bytes each way per sync; "
+                        + "%d changes were sent in batches after being offline%n",
+                PLAN_DAYS * RECORD_LENGTH, offlineBatchDeltas.get());
+        System.out.println("device 0: " + clients[0].getSummary());
+        System.out.println(disagreements == 0 && pending == 0 ? "every device agrees with the server"
+                : disagreements + " devices DISAGREE with the server; " + pending + " changes never sent");
+
+        boolean restarted = checkRestart(url, server);
+        System.out.println(restarted ? "a device restarted with its runs lost is back in step"
+                : "a device restarted with its runs lost is OUT OF STEP");
+
+        server.stop();
+        if (disagreements > 0 || pending > 0 || failures.get() > 0 || !restarted) { System.exit(1); }
+    }
+
+    /**
+     * Syncs a device that keeps a state file and a second device of the same
+     * user, then starts the first again with none of its runs (as if its plan
+     * were generated again), and checks that it is set back to what the server
+     * has, along with a change the second device made meanwhile.
+     */
+    private static boolean checkRestart(String url, PlanSyncServer server) throws Exception
+    {
+        Path state = Paths.get(STATE_FILE);
+        Files.deleteIfExists(state);
+        CompletionBitmap first = new CompletionBitmap(PLAN_DAYS);
+        PlanSyncClient firstClient = new PlanSyncClient(url, "restarted", first, state);
+        for (int planDay = 0; planDay < PLAN_DAYS; planDay += 3) { first.set(planDay, true); }
+        firstClient.sync();
+        firstClient.stop();
+
+        CompletionBitmap second = new CompletionBitmap(PLAN_DAYS);
+        PlanSyncClient secondClient = new PlanSyncClient(url, "restarted", second, null);
+        secondClient.sync();
+        second.set(3, false);
+        secondClient.sync();
+
+        CompletionBitmap blank = new CompletionBitmap(PLAN_DAYS);
+        PlanSyncClient restartedClient = new PlanSyncClient(url, "restarted", blank, state);
+        final BitSet told = new BitSet();
+        restartedClient.setListener(
+                new PlanSyncClient.Listener()
+                {
+                    public void remoteChanged(BitSet changedDays) { told.or(changedDays); }
+                }
+        );
+        restartedClient.sync();
+        restartedClient.stop();
+        Files.delete(state);
+
+        BitSet completed = new BitSet();
+        for (int planDay = 0; planDay < PLAN_DAYS; planDay++)
+        {
+            if (blank.isCompleted(planDay)) { completed.set(planDay); }
+        }
+        BitSet notTold = (BitSet) completed.clone();
+        notTold.andNot(told);       // every day set back must be saved by the listener
+        return completed.equals(server.getCompleted("restarted")) && !completed.get(3) && notTold.isEmpty();
+    }
+}
@@ -0,0 +1,141 @@
+//PlanTemplateSwapCheck.java
+/**
+ * Checks that plans are always generated from a single, whole version of the
+ * base plan while a coach edits it. Several threads generate plans over and
+ * over while another thread keeps rewriting "basetrainingplan.txt" between two
+ * versions, A and B (B has twice the miles of A), slowly and in two halves, the
+ * way an editor might. Every plan must have exactly the miles of A or of B, and
+ * must record the version it came from. Run from a copy of the directory holding
+ * "basetrainingplan.txt", since the file is changed while it runs (and put back
+ * at the end):
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out PlanTemplateSwapCheck
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+class PlanTemplateSwapCheck
+{
+    static final int GENERATORS = 4;
+    static final long RUN_MILLIS = 5000;
+    static final String TEMPLATE = "basetrainingplan.txt";
+
+    public static void main (String [] args) throws Exception
+    {
+        final byte [] versionA = Files.readAllBytes(Paths.get(TEMPLATE));
+        final byte [] versionB = doubleMiles(versionA);
+
+        // the miles in a plan from each version
+        final double milesA = generate("swapcheck").getTotalMiles();
+        final double milesB = milesA * 2;
+
+        final AtomicLong fromA = new AtomicLong(0);
+        final AtomicLong fromB = new AtomicLong(0);
+        final AtomicLong mixed = new AtomicLong(0);
+        final AtomicLong rewrites = new AtomicLong(0);
+        final Set<String> versionsSeen = Collections.synchronizedSet(new TreeSet<String>());
+        final long stopAt = System.currentTimeMillis() + RUN_MILLIS;
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int thread = 0; thread < GENERATORS; thread++)
+        {
+            final String user = "swapcheck" + thread;
+            threads.add(new Thread(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            while (System.currentTimeMillis() < stopAt)
+                            {
+                                TrainingPlanGenerator generator = generate(user);
+                                double miles = generator.getTotalMiles();
+                                if (Math.abs(miles - milesA) < 1e-6) { fromA.incrementAndGet(); }
+                                else if (Math.abs(miles - milesB) < 1e-6) { fromB.incrementAndGet(); }
+                                else
+                                {
+                                    mixed.incrementAndGet();
+                                    System.out.println("MIXED: " + miles + " miles from " + generator.getTemplate());
+                                }
+                                versionsSeen.add(generator.getTemplate().toString());
+                            }
+                        }
+                    }
+            ));
+        }
+
+        // the coach: rewrites the file in two halves, sometimes pausing longer than the watcher waits
+        threads.add(new Thread(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        Random random = new Random(7);
+                        try
+                        {
+                            while (System.currentTimeMillis() < stopAt)
+                            {
+                                byte [] contents = rewrites.get() % 2 == 0 ? versionB : versionA;
+                                try (FileOutputStream out = new FileOutputStream(TEMPLATE))
+                                {
+                                    int half = contents.length / 2;
+                                    out.write(contents, 0, half);
+                                    out.flush();
+                                    Thread.sleep(random.nextInt(250));
+                                    out.write(contents, half, contents.length - half);
+                                }
+                                rewrites.incrementAndGet();
+                                Thread.sleep(200 + random.nextInt(300));
+                            }
+                        }
+                        catch (IOException | InterruptedException e) { System.out.println("coach stopped: " + e); }
+                    }
+                }
+        ));
+
+        for (Thread thread : threads) { thread.start(); }
+        for (Thread thread : threads) { thread.join(); }
+        Files.write(Paths.get(TEMPLATE), versionA);
+
+        System.out.println(rewrites.get() + " rewrites; plans from A: " + fromA.get() + ", from B: " + fromB.get()
+                + ", mixed: " + mixed.get() + "; " + versionsSeen.size() + " versions used");
+        for (int thread = 0; thread < GENERATORS; thread++) { new File("swapcheck" + thread + "_training_plan.txt").delete(); }
+        new File("swapcheck_training_plan.txt").delete();
+        if (mixed.get() > 0 || fromB.get() == 0) { System.exit(1); }
+    }
+
+    /**
+     * Generates a plan for a user with fixed groups.
+     */
+    private static TrainingPlanGenerator generate(String user)
+    {
+        UserProfile profile = new UserProfile();
+        profile.setAll(user, 2, 2, 5);
+        TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+        generator.createTrainingPlan();
+        return generator;
+    }
+
+    /**
+     * Makes version B of the base plan: the same, but with twice the miles each day.
+     */
+    private static byte [] doubleMiles(byte [] versionA)
+    {
+        StringBuilder versionB = new StringBuilder();
+        for (String line : new String(versionA, StandardCharsets.US_ASCII).split("\n"))
+        {
+            if (line.trim().isEmpty()) { continue; }
+            String [] day = line.trim().split(",\\s*");
+            day[2] = Double.toString(Double.parseDouble(day[2]) * 2);
+            versionB.append(String.join(", ", day)).append('\n');
+        }
+        return versionB.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,63 @@
+//ProgressionSolverBenchmark.java
+/**
+ * Times the ProgressionSolver() for horizons of up to 52 weeks, both when each
+ * horizon is solved from scratch and when thousands of users with similar
+ * parameters share the cached solutions. Run from the directory holding
+ * "basetrainingplan.txt":
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -cp out ProgressionSolverBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+class ProgressionSolverBenchmark
+{
+    static final int USERS = 10000;
+    static final int MAX_HORIZON = 52;
+    static final int ROUNDS = 20;
+
+    public static void main (String [] args) throws IOException
+    {
+        PlanTemplateRegistry registry = PlanTemplateRegistry.getTemplates();
+        PlanTemplateRegistry.Template template =
+                registry.getTemplate(registry.getSource(PlanTemplateRegistry.DEFAULT_SOURCE));
+        ProgressionSolver solver = template.getSolver();
+
+        // cold: every horizon solved from scratch (no cached solution)
+        System.out.println("horizon   cold solve (us)   weekly miles");
+        for (int horizon = 4; horizon <= MAX_HORIZON; horizon += 4)
+        {
+            double [] miles = null;
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) { miles = solver.new Solve(horizon).weeklyMiles(); }
+            long elapsed = (System.nanoTime() - start) / ROUNDS;
+
+            System.out.printf("%7d   %15.1f   %s%n", horizon, elapsed / 1000.0, Arrays.toString(miles));
+        }
+
+        // warm: many users, each picking one of the horizons between 16 and 52 weeks
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int user = 0; user < USERS; user++) { solver.solve(16 + random.nextInt(MAX_HORIZON - 15)); }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d users solved in %.2f ms (%.2f us per user)%n",
+                USERS, elapsed / 1e6, elapsed / 1000.0 / USERS);
+
+        // full season generation for many users, 52 weeks each
+        double [] noChange = { 1.0, 1.0 };
+        double [][] scratchWeek = new double [7][3];
+        start = System.nanoTime();
+        for (int user = 0; user < USERS; user++)
+        {
+            PlanWeekStream stream = new PlanWeekStream(template, new int [] { MAX_HORIZON }, noChange, noChange);
+            for (int week = 0; week < stream.getTotalWeeks(); week++) { stream.generateWeek(week, scratchWeek); }
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("%d 52-week seasons generated in %.2f ms%n", USERS, elapsed / 1e6);
+    }
+}
@@ -0,0 +1,213 @@
+//RosterTableModelBenchmark.java
+/**
+ * Loads a large roster into the RosterTableModel() behind the CoachDashboard()
+ * and checks that the UI thread stays responsive while it does. A few real plans
+ * are generated and copied (with runs checked off at random) to ATHLETES
+ * athletes; while the roster loads, sorts and filters, a probe thread keeps
+ * timing how long a trivial task waits to run on the UI thread. Reports the time
+ * to the first rows, to the whole roster and to each sort, and the longest wait
+ * on the UI thread. Run from a copy of src/resources, with it on the class path,
+ * since the athletes' files are written next to the base plans:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out:. RosterTableModelBenchmark [athletes]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.swing.*;
+
+
+class RosterTableModelBenchmark
+{
+    static final int ATHLETES = 20000;
+    static final String PREFIX = "rosterbench";
+
+    public static void main (String [] args) throws Exception
+    {
+        int athletes = (args.length > 0) ? Integer.parseInt(args[0]) : ATHLETES;
+        writeAthletes(athletes);
+
+        // probe the UI thread every millisecond, keeping the longest wait
+        final AtomicLong longestWait = new AtomicLong(0);
+        final AtomicBoolean probing = new AtomicBoolean(true);
+        Thread probe = new Thread(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        while (probing.get())
+                        {
+                            final long posted = System.nanoTime();
+                            try
+                            {
+                                SwingUtilities.invokeAndWait(
+                                        new Runnable()
+                                        {
+                                            public void run()
+                                            {
+                                                long waited = System.nanoTime() - posted;
+                                                if (waited > longestWait.get()) { longestWait.set(waited); }
+                                            }
+                                        }
+                                );
+                                Thread.sleep(1);
+                            }
+                            catch (Exception e) { return; }
+                        }
+                    }
+                }
+        );
+        probe.start();
+
+        // load the roster, noting when the first rows are shown
+        final RosterTableModel roster = new RosterTableModel();
+        final BlockingQueue<String> changes = new LinkedBlockingQueue<String>();
+        final AtomicLong firstRows = new AtomicLong(0);
+        final long start = System.nanoTime();
+        SwingUtilities.invokeAndWait(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        roster.setListener(
+                                new RosterTableModel.Listener()
+                                {
+                                    public void rosterChanged()
+                                    {
+                                        if (firstRows.get() == 0 && roster.getRowCount() > 0)
+                                        {
+                                            firstRows.set(System.nanoTime() - start);
+                                        }
+                                        changes.add(roster.getSummary());
+                                    }
+                                }
+                        );
+                        roster.load(Paths.get("."));
+                    }
+                }
+        );
+        while (onUiThread(roster).isLoading()) { changes.poll(10, TimeUnit.MILLISECONDS); }
+        long loaded = System.nanoTime() - start;
+        System.out.printf("first rows after %.1f ms; %d athletes loaded in %.2f s%n",
+                firstRows.get() / 1e6, roster.getAthletesLoaded(), loaded / 1e9);
+
+        // sort by each numeric column, then filter, timing each until it is shown
+        boolean ordered = true;
+        for (final int column : new int [] { RosterTableModel.MILES, RosterTableModel.PERCENT, RosterTableModel.NAME })
+        {
+            long sortStart = System.nanoTime();
+            changes.clear();
+            SwingUtilities.invokeAndWait(
+                    new Runnable()
+                    {
+                        public void run() { roster.sortBy(column); }
+                    }
+            );
+            changes.take();
+            System.out.printf("sorted by %-16s in %6.1f ms%n", roster.getColumnName(column),
+                    (System.nanoTime() - sortStart) / 1e6);
+            ordered &= isOrdered(roster, column);
+        }
+
+        long filterStart = System.nanoTime();
+        changes.clear();
+        SwingUtilities.invokeAndWait(
+                new Runnable()
+                {
+                    public void run() { roster.setFilter(PREFIX + "1"); }
+                }
+        );
+        changes.take();
+        System.out.printf("filtered to %d athletes in %.1f ms%n", roster.getRowCount(),
+                (System.nanoTime() - filterStart) / 1e6);
+
+        probing.set(false);
+        probe.join();
+        System.out.printf("longest wait on the UI thread: %.1f ms%n", longestWait.get() / 1e6);
+        System.out.println(onUiThread(roster).getSummary());
+
+        for (int athlete = 0; athlete < athletes; athlete++)
+        {
+            new File(PREFIX + athlete + "_profile.txt").delete();
+            new File(PREFIX + athlete + "_training_plan.txt").delete();
+        }
+        if (!ordered || roster.getAthletesLoaded() != athletes) { System.exit(1); }
+    }
+
+    /**
+     * Waits for any rows queued for the UI thread to be added, then returns the roster.
+     */
+    private static RosterTableModel onUiThread(RosterTableModel roster) throws Exception
+    {
+        SwingUtilities.invokeAndWait(
+                new Runnable()
+                {
+                    public void run() { }
+                }
+        );
+        return roster;
+    }
+
+    /**
+     * Checks that the rows shown are in order by a column.
+     */
+    private static boolean isOrdered(RosterTableModel roster, int column)
+    {
+        for (int row = 1; row < roster.getRowCount(); row++)
+        {
+            Object previous = roster.getValueAt(row - 1, column);
+            Object next = roster.getValueAt(row, column);
+            int order = (column == RosterTableModel.NAME)
+                    ? ((String) previous).compareToIgnoreCase((String) next)
+                    : Double.compare((Double) previous, (Double) next);
+            if (order > 0) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a profile and plan for every athlete, copied from a few real plans
+     * with the first part of each checked off.
+     */
+    private static void writeAthletes(int athletes) throws IOException
+    {
+        ArrayList<String []> plans = new ArrayList<String []>();
+        for (int ability = 1; ability <= 3; ability++)
+        {
+            UserProfile profile = new UserProfile();
+            profile.setAll(PREFIX, 2, ability, 2 + ability);
+            TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+            generator.createTrainingPlan();
+            plans.add(new String(Files.readAllBytes(Paths.get(generator.getPlanFileName())),
+                    StandardCharsets.US_ASCII).split("\\r?\\n"));
+        }
+        new File(PREFIX + "_training_plan.txt").delete();
+
+        Random random = new Random(42);
+        for (int athlete = 0; athlete < athletes; athlete++)
+        {
+            int ability = random.nextInt(plans.size());
+            String [] lines = plans.get(ability);
+            String name = PREFIX + athlete;
+            Files.write(Paths.get(name + "_profile.txt"),
+                    (name + ",2," + (ability + 1) + "," + (ability + 3) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+            StringBuilder plan = new StringBuilder();
+            int doneUpTo = random.nextInt(lines.length + 1);
+            for (int line = 0; line < lines.length; line++)
+            {
+                String [] fields = lines[line].split(",");
+                if (line < doneUpTo) { fields[4] = " 1.0"; }
+                plan.append(String.join(",", fields)).append(System.lineSeparator());
+            }
+            Files.write(Paths.get(name + "_training_plan.txt"), plan.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
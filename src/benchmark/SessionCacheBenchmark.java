@@ -0,0 +1,105 @@
+//SessionCacheBenchmark.java
+/**
+ * Measures how long it takes to switch between users at a kiosk through the
+ * SessionManager(), when the user was here recently (a cache hit) and when the
+ * user's profile and plan have to be read from disk (a miss), and checks that a
+ * hit needs no disk reads by moving the recent users' files away first. Each
+ * switch checks off a run, which is written back when the session is evicted.
+ * Run from the directory holding "basetrainingplan.txt":
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out SessionCacheBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+class SessionCacheBenchmark
+{
+    static final int USERS = 64;
+    static final int RECENT_USERS = 8;
+    static final int SWITCHES = 20000;
+    static final long CAPACITY_DAYS = 16 * 18 * 7;      // room for about 16 plans
+
+    public static void main (String [] args) throws Exception
+    {
+        // a profile and a saved plan for each user, made before timing starts
+        for (int user = 0; user < USERS; user++)
+        {
+            UserProfile profile = new UserProfile();
+            profile.setAll("kiosk" + user, 1 + user % 4, 1 + user % 3, 2 + user % 4);
+            profile.createUserProfile();
+            new TrainingPlanGenerator(profile).createTrainingPlan();
+        }
+
+        SessionManager sessions = new SessionManager(CAPACITY_DAYS);
+        Random random = new Random(42);
+        BitSet day = new BitSet();
+
+        // switching between all of the users: mostly misses
+        long start = System.nanoTime();
+        for (int i = 0; i < SWITCHES / 10; i++)
+        {
+            checkOffRun(sessions.open("kiosk" + random.nextInt(USERS)), random, day);
+        }
+        long missNanos = System.nanoTime() - start;
+        System.out.println("all users:    " + String.format("%7.1f", missNanos / 1000.0 / (SWITCHES / 10)) + " us per switch; " + sessions.getSummary());
+
+        // switching between a few recent users, with their files moved away: all hits
+        for (int user = 0; user < RECENT_USERS; user++) { sessions.open("kiosk" + user); }
+        moveFiles(RECENT_USERS, ".txt", ".away");
+        long hitsBefore = sessions.getHits();
+        start = System.nanoTime();
+        for (int i = 0; i < SWITCHES; i++)
+        {
+            checkOffRun(sessions.open("kiosk" + random.nextInt(RECENT_USERS)), random, day);
+        }
+        long hitNanos = System.nanoTime() - start;
+        System.out.println("recent users: " + String.format("%7.1f", hitNanos / 1000.0 / SWITCHES) + " us per switch; "
+                + (sessions.getHits() - hitsBefore) + " of " + SWITCHES + " switches without reading a file");
+
+        moveFiles(RECENT_USERS, ".away", ".txt");
+        sessions.flushAll();
+        System.out.println("after flush:  " + sessions.getSummary());
+
+        // clean up the files made for the benchmark
+        for (int user = 0; user < USERS; user++)
+        {
+            new File("kiosk" + user + "_profile.txt").delete();
+            new File("kiosk" + user + "_training_plan.txt").delete();
+        }
+    }
+
+    /**
+     * Checks off (or unchecks) a random run of the session's plan, leaving it unsaved.
+     */
+    private static void checkOffRun(SessionManager.Session session, Random random, BitSet day)
+    {
+        double [][][] plan = session.getGenerator().getUserTrainingPlan();
+        int planDay = random.nextInt(plan.length * 7);
+        CompletionBitmap completions = session.getGenerator().getCompletions();
+        completions.set(planDay, !completions.isCompleted(planDay));
+
+        day.clear();
+        day.set(planDay);
+        session.markDirty(day);
+    }
+
+    /**
+     * Renames the first few users' profile and plan files.
+     */
+    private static void moveFiles(int users, String from, String to) throws IOException
+    {
+        for (int user = 0; user < users; user++)
+        {
+            for (String file : new String [] { "kiosk" + user + "_profile", "kiosk" + user + "_training_plan" })
+            {
+                Files.move(Paths.get(file + from), Paths.get(file + to), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+//SharedCompletionsBenchmark.java
+/**
+ * Runs two RunBuddys on the same user at once, as two JVMs sharing completed
+ * runs through SharedCompletions(), and measures how long a run checked off in
+ * one takes to show in the other. This JVM checks a day off (or clears it) and
+ * the other, as soon as it sees the change, makes the same change to the next
+ * day, ROUNDS times; half of each round trip is the time for one change to
+ * cross. Then both check runs off and clear them at random, TOGGLES times each,
+ * while both save a plan file through the PlanJournal (each with contents of
+ * its own length) and a thread here reads it under a shared lock. At the end,
+ * both must agree on every run, and every read must have found one whole save.
+ * Run from a directory that can be written to:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     cd src/resources && java -cp ../../out SharedCompletionsBenchmark [rounds]
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+class SharedCompletionsBenchmark
+{
+    static final int ROUNDS = 2000;
+    static final int TOGGLES = 20000;
+    static final int SAVE_EVERY = 100;          // toggles between saves of the plan file
+    static final int PLAN_DAYS = 16 * 7;
+    static final int FIRST_RANDOM_DAY = 3;      // days 0 and 1 are for the round trips; 2 ends them
+    static final long QUIET_MILLIS = 200;       // for the last changes to cross
+    static final String MAP_FILE = "benchmark_completions.map";
+    static final String PLAN_FILE = "benchmark_shared_plan.txt";
+
+    public static void main (String [] args) throws Exception
+    {
+        if (args.length > 0 && args[0].equals("other"))
+        {
+            runOther();
+            return;
+        }
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : ROUNDS;
+
+        CompletionBitmap completions = new CompletionBitmap(PLAN_DAYS);
+        SharedCompletions shared = new SharedCompletions(Paths.get(MAP_FILE), completions);
+        Process other = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "SharedCompletionsBenchmark", "other")
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader fromOther = new BufferedReader(new InputStreamReader(other.getInputStream(),
+                StandardCharsets.US_ASCII));
+        if (!"ready".equals(fromOther.readLine())) { throw new IOException("the other RunBuddy did not start"); }
+
+        // round trips: change day 0 here, and wait for the other JVM to change day 1 to match
+        LatencyHistogram crossing = new LatencyHistogram("cross_process_change");
+        for (int round = 0; round < rounds; round++)
+        {
+            boolean completed = round % 2 == 0;
+            long start = System.nanoTime();
+            completions.set(0, completed);
+            while (completions.isCompleted(1) != completed) { Thread.onSpinWait(); }
+            crossing.record((System.nanoTime() - start) / 2);
+        }
+        completions.set(2, true);
+
+        // random changes from both JVMs, while both save the plan and it is read here
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong tornReads = new AtomicLong();
+        Thread reader = new Thread(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        while (reading.get())
+                        {
+                            reads.incrementAndGet();
+                            if (!isWhole(readLocked())) { tornReads.incrementAndGet(); }
+                        }
+                    }
+                }, "plan-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long start = System.nanoTime();
+        toggleAndSave(completions, 1, 'A');
+        if (!readUntil(fromOther, "done")) { throw new IOException("the other RunBuddy did not finish"); }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        reading.set(false);
+        reader.join();
+
+        Thread.sleep(QUIET_MILLIS);
+        long [] mine = completions.snapshot();
+        long [] theirs = parseWords(fromOther.readLine());
+        other.waitFor();
+        shared.close();
+
+        System.out.printf("one change crossed in %.1f us at the median, %.1f us at p99, %.1f us at most "
+                        + "(%d round trips)%n",
+                crossing.getValueAtQuantile(0.5) / 1e3, crossing.getValueAtQuantile(0.99) / 1e3,
+                crossing.getMax() / 1e3, crossing.getCount());
+        System.out.printf("%d random changes from each JVM in %.2f s; %d reads of the plan, %d torn%n",
+                TOGGLES, seconds, reads.get(), tornReads.get());
+        System.out.println(shared.getSummary());
+        boolean agree = Arrays.equals(mine, theirs);
+        boolean whole = isWhole(readLocked());
+        System.out.println(agree ? "both JVMs agree on every run" : "the JVMs DISAGREE on some runs");
+        System.out.println(whole ? "the plan file holds one whole save" : "the plan file is TORN");
+
+        Files.deleteIfExists(Paths.get(MAP_FILE));
+        Files.deleteIfExists(Paths.get(PLAN_FILE));
+        if (!agree || !whole || tornReads.get() > 0) { System.exit(1); }
+    }
+
+    /**
+     * Runs in the other JVM: copies day 0 to day 1 until day 2 is checked off,
+     * then makes its own random changes and saves, and prints its completions.
+     */
+    private static void runOther() throws Exception
+    {
+        CompletionBitmap completions = new CompletionBitmap(PLAN_DAYS);
+        SharedCompletions shared = new SharedCompletions(Paths.get(MAP_FILE), completions);
+        System.out.println("ready");
+        System.out.flush();
+
+        while (!completions.isCompleted(2))
+        {
+            boolean completed = completions.isCompleted(0);
+            if (completions.isCompleted(1) != completed) { completions.set(1, completed); }
+            Thread.onSpinWait();
+        }
+
+        toggleAndSave(completions, 2, 'B');
+        System.out.println("done");
+        System.out.flush();
+
+        Thread.sleep(QUIET_MILLIS);
+        StringBuilder words = new StringBuilder();
+        for (long word : completions.snapshot()) { words.append(Long.toHexString(word)).append(' '); }
+        System.out.println(words.toString().trim());
+        System.out.flush();
+        shared.close();
+    }
+
+    /**
+     * Reads lines from the other JVM until the given one, skipping anything else
+     * it prints (e.g. its PlanJournal replaying a save this JVM was making).
+     * Returns false if the other JVM stops first.
+     */
+    private static boolean readUntil(BufferedReader fromOther, String expected) throws IOException
+    {
+        for (String line = fromOther.readLine(); line != null; line = fromOther.readLine())
+        {
+            if (line.equals(expected)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Checks off or clears random days TOGGLES times, saving the plan file every
+     * SAVE_EVERY changes as a file full of the given letter.
+     */
+    private static void toggleAndSave(CompletionBitmap completions, long seed, char letter) throws IOException
+    {
+        Random random = new Random(seed);
+        byte [] contents = new byte [saveLength(letter)];
+        Arrays.fill(contents, (byte) letter);
+        for (int toggle = 0; toggle < TOGGLES; toggle++)
+        {
+            completions.set(FIRST_RANDOM_DAY + random.nextInt(PLAN_DAYS - FIRST_RANDOM_DAY), random.nextBoolean());
+            if (toggle % SAVE_EVERY == 0) { PlanJournal.getJournal().writeFile(PLAN_FILE, contents); }
+        }
+    }
+
+    private static int saveLength(char letter)
+    {
+        return (letter == 'A') ? 30000 : 50000;
+    }
+
+    /**
+     * Reads the plan file holding a shared lock, as the TrainingPlanGenerator does.
+     */
+    private static byte [] readLocked()
+    {
+        try (FileChannel in = FileChannel.open(Paths.get(PLAN_FILE), StandardOpenOption.READ))
+        {
+            FileLock lock = PlanJournal.lockFile(in, true);
+            try
+            {
+                ByteBuffer contents = ByteBuffer.allocate((int) in.size());
+                while (contents.hasRemaining() && in.read(contents) >= 0) { }
+                return Arrays.copyOf(contents.array(), contents.position());
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;    // not saved yet
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Determines if a read of the plan file found a single whole save (or no file).
+     */
+    private static boolean isWhole(byte [] contents)
+    {
+        if (contents == null) { return true; }
+        if (contents.length == 0) { return false; }
+        char letter = (char) contents[0];
+        if (letter != 'A' && letter != 'B' || contents.length != saveLength(letter)) { return false; }
+        for (byte b : contents)
+        {
+            if (b != letter) { return false; }
+        }
+        return true;
+    }
+
+    private static long [] parseWords(String line) throws IOException
+    {
+        if (line == null) { throw new IOException("the other RunBuddy printed no completions"); }
+        String [] words = line.split(" ");
+        long [] parsed = new long [words.length];
+        for (int i = 0; i < words.length; i++) { parsed[i] = Long.parseUnsignedLong(words[i], 16); }
+        return parsed;
+    }
+}
@@ -0,0 +1,82 @@
+//UIUpdateSchedulerBenchmark.java
+/**
+ * Floods a UIUpdateScheduler() with updates, as a large import or bulk action
+ * would, from both a background thread and the UI thread, and reports how many
+ * of them were coalesced and how long the flushes took. Each view does a small
+ * amount of work, standing in for setting the text of a field. No window is shown:
+ *
+ *     javac -d out src/java/*.java src/benchmark/*.java
+ *     java -Djava.awt.headless=true -cp out UIUpdateSchedulerBenchmark
+ *
+ * @author: Megan Frenkel
+ */
+
+import javax.swing.*;
+
+
+class UIUpdateSchedulerBenchmark
+{
+    static final int UPDATES = 200000;
+    static final int VIEWS = 4;
+    static final int [] FRAME_BUDGETS = { 0, 8, 16, 33 };
+
+    static volatile long checksum = 0;      // keeps the views' work from being optimized away
+
+    public static void main (String [] args) throws Exception
+    {
+        System.out.println("frame (ms)   updates   coalesced   flushes   avg flush (us)   max flush (us)   elapsed (ms)");
+        for (int frameMillis : FRAME_BUDGETS)
+        {
+            final UIUpdateScheduler scheduler = new UIUpdateScheduler(frameMillis);
+            for (int view = 0; view < VIEWS; view++)
+            {
+                final int viewNumber = view;
+                scheduler.addView(
+                        new Runnable()
+                        {
+                            public void run() { checksum += String.format("view %d: %d", viewNumber, checksum).length(); }
+                        }
+                );
+            }
+
+            long start = System.nanoTime();
+
+            // half of the updates from a background thread (e.g., an import)...
+            Thread background = new Thread(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            for (int i = 0; i < UPDATES / 2; i++) { scheduler.markDirty(i % VIEWS); }
+                        }
+                    }
+            );
+            background.start();
+
+            // ...and half on the UI thread, in small bursts (e.g., check box clicks)
+            for (int burst = 0; burst < 100; burst++)
+            {
+                SwingUtilities.invokeAndWait(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                for (int i = 0; i < UPDATES / 200; i++) { scheduler.markDirty(i % VIEWS); }
+                            }
+                        }
+                );
+            }
+            background.join();
+
+            // wait for the last flush
+            Thread.sleep(frameMillis + 50);
+            SwingUtilities.invokeAndWait(new Runnable() { public void run() { } });
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%10d   %7d   %9d   %7d   %14.1f   %14.1f   %12.1f%n",
+                    frameMillis, scheduler.getUpdatesRequested(), scheduler.getUpdatesCoalesced(),
+                    scheduler.getFlushes(), scheduler.getAverageFlushMicros(), scheduler.getMaxFlushMicros(),
+                    elapsed / 1e6);
+        }
+    }
+}
@@ -0,0 +1,854 @@
+//AthleteIndex.java
+/**
+ * The AthleteIndex() class finds the athletes most like a given one, to tell a
+ * user, e.g., "athletes like you finished with 82% of their plans". Each
+ * athlete is a point of FEATURES values: the miles a week of their plan, the
+ * share of those miles completed, and their age, ability and time groups.
+ * Athletes are compared by a weighted squared distance between their points,
+ * and the weights are given with each query, so a query can leave a feature out
+ * (a weight of 0), e.g. the completion of athletes whose completion is the answer.
+ *
+ * Rather than comparing a query with every athlete, the points are kept in a k-d
+ * tree: each node holds an athlete and splits the athletes below it into those
+ * before it on one feature and those not, and keeps how near each side comes to
+ * it on that feature, so a search for the k nearest only visits the sides that
+ * could be nearer than the kth found so far. The tree is kept in flat arrays,
+ * one entry per node, so a million athletes take a few tens of megabytes and the
+ * search does not chase objects. Most groups are shared by many athletes, so a
+ * node's side before it holds none of its value, and a query in the same group
+ * need not look there for athletes a group apart until it runs short. Queries
+ * usually leave completion out, so the tree only splits on it where the athletes
+ * are the same in every other feature.
+ *
+ * The tree is kept up to date as runs are checked off: an athlete whose point
+ * changes is added as a new leaf, found in O(log n), and their old node is only
+ * marked as dead, still splitting the nodes below it. Once there are as many
+ * dead nodes as athletes, or a leaf is added too deep, the tree is built again
+ * from the live nodes, splitting each range of athletes near the median of its
+ * widest feature, so updates take O(log n) time amortized.
+ *
+ * The shared index (see getIndex()) loads, in the background, every plan in the
+ * PlanArchive (ARCHIVE_FILE), which are finished, and every athlete with a
+ * profile in RunBuddy's working directory, who are still training, as read by
+ * the RosterLoader() it shares with the Leaderboard().
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class AthleteIndex
+{
+    // the shared index
+    private static AthleteIndex index;
+
+    // nodes of the tree, in flat arrays; guarded by this
+    private float [] points;                        // FEATURES values per node
+    private int [] left, right;                     // child nodes, or NONE
+    private byte [] axis;                           // the feature each node splits on
+    private float [] leftHigh, rightLow;            // on that feature, the most before it and least after it
+    private int [] athleteOf;                       // athlete at each node, or NONE if the node is dead
+    private int nodeCount;
+    private int root;
+    private int deadNodes;
+
+    // athletes; guarded by this
+    private HashMap<String, Integer> athletes;      // by id
+    private String [] ids;
+    private int [] nodeOf;                          // each athlete's live node
+    private BitSet finished;                        // athletes whose plans are over
+    private int athleteCount;
+
+    // statistics; guarded by this
+    private long updates;
+    private long rebuilds;
+    private long rebuildNanos;
+
+    private CopyOnWriteArrayList<Listener> listeners;
+    private volatile boolean loading;
+    private AtomicInteger athletesSkipped;          // archived plans without a profile
+    private volatile RosterLoader roster;           // reading the athletes still training; null if none
+
+    // final variables
+    static final int WEEKLY_MILES = 0, COMPLETION = 1, AGE = 2, ABILITY = 3, TIME = 4;
+    static final int FEATURES = 5;
+    static final int NONE = -1;
+    static final String ARCHIVED = "archived:";     // before the ids of archived plans
+    static final double [] WEIGHTS = { 1 / 25.0, 100, 1, 1, 1 };    // 5 miles a week, 10% or a group apart is 1
+    final String ARCHIVE_FILE = System.getProperty("runbuddy.archive", "runbuddy_archive.dat");
+    final int DEPTH_SLACK = 16;                     // levels past 3 log2(n) before the tree is built again
+
+    // constructor
+    public AthleteIndex()
+    {
+        this.points = new float [16 * FEATURES];
+        this.left = new int [16];
+        this.right = new int [16];
+        this.axis = new byte [16];
+        this.leftHigh = new float [16];
+        this.rightLow = new float [16];
+        this.athleteOf = new int [16];
+        this.nodeCount = 0;
+        this.root = NONE;
+        this.deadNodes = 0;
+        this.athletes = new HashMap<String, Integer>();
+        this.ids = new String [16];
+        this.nodeOf = new int [16];
+        this.finished = new BitSet();
+        this.athleteCount = 0;
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+        this.loading = false;
+        this.athletesSkipped = new AtomicInteger();
+        this.roster = null;
+    }
+
+    /**
+     * Returns the shared index. The first time it is called, the archived plans
+     * and the athletes in RunBuddy's working directory start being loaded into
+     * it, in the background.
+     *
+     * @return  the shared AthleteIndex object
+     */
+    public static synchronized AthleteIndex getIndex()
+    {
+        if (index == null)
+        {
+            index = new AthleteIndex();
+            index.load(RosterLoader.getClub()); // read once for the Leaderboard too
+        }
+        return index;
+    }
+
+    /**
+     * Works out an athlete's point.
+     *
+     * @param weeklyMiles   miles a week of their plan, on average
+     * @param completion    share of the plan's miles completed, from 0 to 1
+     * @param age           age group
+     * @param ability       ability group
+     * @param time          time group (0 for a season of races)
+     * @return              float array holding the FEATURES values
+     */
+    static float [] features(double weeklyMiles, double completion, int age, int ability, int time)
+    {
+        return new float [] { (float) weeklyMiles, (float) completion, age, ability, time };
+    }
+
+    /**
+     * Sets an athlete's point, adding them if they are new. O(log n), amortized.
+     *
+     * @param id            the athlete's id; their name, for athletes still training
+     * @param features      their point (see features())
+     * @param planFinished  is the athlete's plan over?
+     */
+    public synchronized void update(String id, float [] features, boolean planFinished)
+    {
+        put(id, features, planFinished, true);
+    }
+
+    /**
+     * Sets an athlete's point, unless they are already in the index and replace
+     * is false. Returns whether the index changed.
+     */
+    private synchronized boolean put(String id, float [] features, boolean planFinished, boolean replace)
+    {
+        Integer known = athletes.get(id);
+        int athlete;
+        if (known != null)
+        {
+            athlete = known;
+            if (!replace) { return false; }
+            finished.set(athlete, planFinished);
+            if (samePoint(nodeOf[athlete], features)) { return false; }
+            killNode(nodeOf[athlete]);
+        }
+        else
+        {
+            athlete = athleteCount++;
+            if (athlete == ids.length)
+            {
+                ids = Arrays.copyOf(ids, athlete * 2);
+                nodeOf = Arrays.copyOf(nodeOf, athlete * 2);
+            }
+            ids[athlete] = id;
+            athletes.put(id, athlete);
+            finished.set(athlete, planFinished);
+        }
+
+        int depth = insert(newNode(athlete, features));
+        updates += 1;
+        if (deadNodes > athleteCount || depth > 3 * log2(nodeCount) + DEPTH_SLACK) { rebuild(); }
+        return true;
+    }
+
+    /**
+     * Takes an athlete out of the index.
+     * @param id    the athlete's id
+     */
+    public synchronized void remove(String id)
+    {
+        Integer athlete = athletes.remove(id);
+        if (athlete == null) { return; }
+        killNode(nodeOf[athlete]);
+
+        // move the last athlete into the gap, so athletes stay numbered 0 to athleteCount - 1
+        int last = --athleteCount;
+        if (athlete != last)
+        {
+            ids[athlete] = ids[last];
+            nodeOf[athlete] = nodeOf[last];
+            athleteOf[nodeOf[athlete]] = athlete;
+            finished.set(athlete, finished.get(last));
+            athletes.put(ids[athlete], athlete);
+        }
+        ids[last] = null;
+        finished.clear(last);
+        updates += 1;
+        if (deadNodes > athleteCount) { rebuild(); }
+    }
+
+    /**
+     * Finds the athletes nearest a point, nearest first.
+     *
+     * @param query         the point (see features())
+     * @param k             the number of athletes to find, at most
+     * @param weights       weight of each feature in the distance, e.g. WEIGHTS
+     * @param finishedOnly  only find athletes whose plans are over?
+     * @return              list of the nearest athletes
+     */
+    public synchronized List<Neighbor> nearest(float [] query, int k, double [] weights, boolean finishedOnly)
+    {
+        Search search = new Search(query, k, weights, finishedOnly);
+        search.visit(root);
+
+        ArrayList<Neighbor> nearest = new ArrayList<Neighbor>(search.found);
+        for (int i = search.found - 1; i >= 0; i--)          // the heap gives them farthest first
+        {
+            int node = search.popFarthest();
+            int athlete = athleteOf[node];
+            float [] features = Arrays.copyOfRange(points, node * FEATURES, node * FEATURES + FEATURES);
+            nearest.add(new Neighbor(ids[athlete], features, search.lastDistance, finished.get(athlete)));
+        }
+        Collections.reverse(nearest);
+        return nearest;
+    }
+
+    /**
+     * Works out how the athletes most like one, whose plans are over, did: the
+     * average and median share of their plans' miles they completed. Athletes
+     * are compared by every feature but completion.
+     *
+     * @param features  the athlete's point (see features())
+     * @param k         the number of finished athletes to compare with, at most
+     * @return          the Outcome; its count is 0 if no plans are over
+     */
+    public Outcome finishedLike(float [] features, int k)
+    {
+        double [] weights = WEIGHTS.clone();
+        weights[COMPLETION] = 0;
+        List<Neighbor> nearest = nearest(features, k, weights, true);
+
+        double [] completions = new double [nearest.size()];
+        double sum = 0;
+        for (int i = 0; i < completions.length; i++)
+        {
+            completions[i] = nearest.get(i).features[COMPLETION];
+            sum += completions[i];
+        }
+        Arrays.sort(completions);
+        if (completions.length == 0) { return new Outcome(0, 0, 0); }
+        double median = (completions.length % 2 == 1) ? completions[completions.length / 2]
+                : (completions[completions.length / 2 - 1] + completions[completions.length / 2]) / 2;
+        return new Outcome(completions.length, sum / completions.length, median);
+    }
+
+    /**
+     * Getter for the number of athletes in the index
+     * @return  int representing the number of athletes
+     */
+    public synchronized int size()
+    {
+        return athleteCount;
+    }
+
+    /**
+     * Determines if the index is still being loaded
+     * @return  boolean; are athletes still being read?
+     */
+    public boolean isLoading()
+    {
+        return loading;
+    }
+
+    /**
+     * Adds a listener to be told when the index has been loaded.
+     * @param listener  the Listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Describes the index, e.g. for a tool tip.
+     * @return  String holding the number of athletes, updates and rebuilds
+     */
+    public synchronized String getSummary()
+    {
+        int skipped = athletesSkipped.get() + ((roster == null) ? 0 : roster.getAthletesSkipped());
+        return String.format("%d athletes (%d finished), %d nodes (%d dead), %d updates, "
+                        + "built %d times (%.0f ms in all)%s",
+                athleteCount, finished.cardinality(), nodeCount, deadNodes, updates, rebuilds, rebuildNanos / 1e6,
+                loading ? ", loading" : (skipped > 0 ? ", " + skipped + " skipped" : ""));
+    }
+
+    // ---- the tree ----
+
+    /**
+     * Adds a node for an athlete at the end of the arrays, growing them if needed.
+     */
+    private int newNode(int athlete, float [] features)
+    {
+        if (nodeCount == left.length)
+        {
+            int length = nodeCount * 2;
+            points = Arrays.copyOf(points, length * FEATURES);
+            left = Arrays.copyOf(left, length);
+            right = Arrays.copyOf(right, length);
+            axis = Arrays.copyOf(axis, length);
+            leftHigh = Arrays.copyOf(leftHigh, length);
+            rightLow = Arrays.copyOf(rightLow, length);
+            athleteOf = Arrays.copyOf(athleteOf, length);
+        }
+        int node = nodeCount++;
+        System.arraycopy(features, 0, points, node * FEATURES, FEATURES);
+        left[node] = NONE;
+        right[node] = NONE;
+        leftHigh[node] = Float.NEGATIVE_INFINITY;
+        rightLow[node] = Float.POSITIVE_INFINITY;
+        athleteOf[node] = athlete;
+        nodeOf[athlete] = node;
+        return node;
+    }
+
+    private void killNode(int node)
+    {
+        athleteOf[node] = NONE;
+        deadNodes += 1;
+    }
+
+    private boolean samePoint(int node, float [] features)
+    {
+        for (int feature = 0; feature < FEATURES; feature++)
+        {
+            if (points[node * FEATURES + feature] != features[feature]) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Hangs a new node from the tree as a leaf, splitting on the feature after
+     * its parent's (but not completion), and widens the sides it passes through.
+     * Returns the depth it was added at.
+     */
+    private int insert(int node)
+    {
+        if (root == NONE)
+        {
+            root = node;
+            axis[node] = WEEKLY_MILES;
+            return 1;
+        }
+        int parent = root;
+        int depth = 2;
+        while (true)
+        {
+            int split = axis[parent];
+            float value = points[node * FEATURES + split];
+            boolean before = value < points[parent * FEATURES + split];
+            int child;
+            if (before)
+            {
+                leftHigh[parent] = Math.max(leftHigh[parent], value);
+                child = left[parent];
+            }
+            else
+            {
+                rightLow[parent] = Math.min(rightLow[parent], value);
+                child = right[parent];
+            }
+            if (child == NONE)
+            {
+                if (before) { left[parent] = node; }
+                else { right[parent] = node; }
+                int next = (split + 1) % FEATURES;
+                axis[node] = (byte) ((next == COMPLETION) ? next + 1 : next);
+                return depth;
+            }
+            parent = child;
+            depth += 1;
+        }
+    }
+
+    /**
+     * Builds the tree again from the live nodes, balanced, and drops the dead
+     * ones. Nodes are renumbered in the order of the athletes.
+     */
+    public synchronized void rebuild()
+    {
+        long start = System.nanoTime();
+        float [] livePoints = new float [Math.max(16, athleteCount) * FEATURES];
+        for (int athlete = 0; athlete < athleteCount; athlete++)
+        {
+            System.arraycopy(points, nodeOf[athlete] * FEATURES, livePoints, athlete * FEATURES, FEATURES);
+        }
+        int length = livePoints.length / FEATURES;
+        points = livePoints;
+        left = new int [length];
+        right = new int [length];
+        axis = new byte [length];
+        leftHigh = new float [length];
+        rightLow = new float [length];
+        athleteOf = new int [length];
+        int [] order = new int [athleteCount];
+        for (int athlete = 0; athlete < athleteCount; athlete++)
+        {
+            athleteOf[athlete] = athlete;
+            nodeOf[athlete] = athlete;
+            order[athlete] = athlete;
+        }
+        nodeCount = athleteCount;
+        deadNodes = 0;
+        root = build(order, 0, athleteCount);
+
+        rebuilds += 1;
+        rebuildNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Builds a balanced subtree from a range of nodes, split on its widest
+     * feature (by WEIGHTS, with completion last): the nodes before the median
+     * value go to the left, and the least of the rest splits them from the
+     * right. If no node is before the median, the nodes at it go to the left
+     * instead. Returns its root.
+     */
+    private int build(int [] order, int from, int to)
+    {
+        if (from >= to) { return NONE; }
+        int split = widestFeature(order, from, to);
+        int middle = (from + to) >>> 1;
+        select(order, from, to - 1, middle, split);
+        float median = value(order[middle], split);
+
+        int first = partition(order, from, to, median, split, false);      // first not before the median
+        if (first == from) { first = partition(order, from, to, median, split, true); }
+        int node;
+        if (first == to)
+        {
+            // every node has the same value (and so the same point): split at the middle
+            first = middle;
+            node = order[middle];
+            leftHigh[node] = median;
+        }
+        else
+        {
+            int least = first;
+            for (int i = first + 1; i < to; i++)
+            {
+                if (value(order[i], split) < value(order[least], split)) { least = i; }
+            }
+            swap(order, first, least);
+            node = order[first];
+            leftHigh[node] = Float.NEGATIVE_INFINITY;
+            for (int i = from; i < first; i++) { leftHigh[node] = Math.max(leftHigh[node], value(order[i], split)); }
+        }
+        rightLow[node] = value(node, split);
+
+        axis[node] = (byte) split;
+        left[node] = build(order, from, first);
+        right[node] = build(order, first + 1, to);
+        return node;
+    }
+
+    /**
+     * Moves the nodes of a range before a value (or at it, if equal is true) to
+     * the front of it. Returns the index of the first node of the rest.
+     */
+    private int partition(int [] order, int from, int to, float pivot, int feature, boolean equal)
+    {
+        int first = from;
+        for (int i = from; i < to; i++)
+        {
+            float value = value(order[i], feature);
+            if (value < pivot || (equal && value == pivot)) { swap(order, i, first++); }
+        }
+        return first;
+    }
+
+    private int widestFeature(int [] order, int from, int to)
+    {
+        int widest = COMPLETION;
+        double widestSpread = 0;
+        for (int feature = 0; feature < FEATURES; feature++)
+        {
+            if (feature == COMPLETION) { continue; }
+            float low = Float.MAX_VALUE, high = -Float.MAX_VALUE;
+            for (int i = from; i < to; i++)
+            {
+                float value = value(order[i], feature);
+                if (value < low) { low = value; }
+                if (value > high) { high = value; }
+            }
+            double spread = (high - low) * Math.sqrt(WEIGHTS[feature]);
+            if (spread > widestSpread)
+            {
+                widest = feature;
+                widestSpread = spread;
+            }
+        }
+        return widest;
+    }
+
+    private float value(int node, int feature)
+    {
+        return points[node * FEATURES + feature];
+    }
+
+    private static void swap(int [] order, int i, int j)
+    {
+        int swap = order[i];
+        order[i] = order[j];
+        order[j] = swap;
+    }
+
+    /**
+     * Puts the nth node of a range by a feature in its place, with nodes no later
+     * than it before it and no earlier after it (quickselect).
+     */
+    private void select(int [] order, int low, int high, int n, int feature)
+    {
+        while (low < high)
+        {
+            float pivot = points[order[(low + high) >>> 1] * FEATURES + feature];
+            int i = low, j = high;
+            while (i <= j)
+            {
+                while (points[order[i] * FEATURES + feature] < pivot) { i++; }
+                while (points[order[j] * FEATURES + feature] > pivot) { j--; }
+                if (i <= j) { swap(order, i++, j--); }
+            }
+            if (n <= j) { high = j; }
+            else if (n >= i) { low = i; }
+            else { return; }
+        }
+    }
+
+    private static int log2(int n)
+    {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, n));
+    }
+
+    /**
+     * Inner class holding a single search for the k nearest athletes: the nodes
+     * found so far are kept in a heap with the farthest on top, and a side of a
+     * node is only visited if it comes near enough the query, on the node's
+     * feature, to hold a node nearer than that. The side the query is on is
+     * visited first, so the other can more often be skipped.
+     */
+    private class Search
+    {
+        float [] query;
+        int k;
+        double [] weights;
+        boolean finishedOnly;
+        int [] heapNodes;
+        double [] heapDistances;
+        int found;
+        double lastDistance;                        // of the node last popped
+
+        Search(float [] query, int k, double [] weights, boolean finishedOnly)
+        {
+            this.query = query;
+            this.k = Math.max(0, k);
+            this.weights = weights;
+            this.finishedOnly = finishedOnly;
+            this.heapNodes = new int [this.k];
+            this.heapDistances = new double [this.k];
+            this.found = 0;
+        }
+
+        void visit(int node)
+        {
+            while (node != NONE)
+            {
+                int athlete = athleteOf[node];
+                if (athlete != NONE && (!finishedOnly || finished.get(athlete))) { offer(node, distance(node)); }
+
+                int split = axis[node];
+                float value = query[split];
+                double leftGap = Math.max(0, value - leftHigh[node]);
+                double rightGap = Math.max(0, rightLow[node] - value);
+                boolean leftFirst = value < points[node * FEATURES + split];
+                int near = leftFirst ? left[node] : right[node];
+                int far = leftFirst ? right[node] : left[node];
+                if (isNear(near, weights[split], leftFirst ? leftGap : rightGap)) { visit(near); }
+                node = isNear(far, weights[split], leftFirst ? rightGap : leftGap) ? far : NONE;    // without recursing
+            }
+        }
+
+        /**
+         * Determines if a side, whose nodes are at least gap from the query on one
+         * feature, is worth visiting.
+         */
+        boolean isNear(int side, double weight, double gap)
+        {
+            return side != NONE && (found < k || weight * gap * gap < heapDistances[0]);
+        }
+
+        double distance(int node)
+        {
+            double distance = 0;
+            int base = node * FEATURES;
+            for (int feature = 0; feature < FEATURES; feature++)
+            {
+                double difference = query[feature] - points[base + feature];
+                distance += weights[feature] * difference * difference;
+            }
+            return distance;
+        }
+
+        void offer(int node, double distance)
+        {
+            if (k == 0) { return; }
+            if (found < k)
+            {
+                int i = found++;
+                while (i > 0 && heapDistances[(i - 1) / 2] < distance)     // sift up
+                {
+                    heapNodes[i] = heapNodes[(i - 1) / 2];
+                    heapDistances[i] = heapDistances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heapNodes[i] = node;
+                heapDistances[i] = distance;
+            }
+            else if (distance < heapDistances[0]) { siftDown(node, distance, found); }
+        }
+
+        int popFarthest()
+        {
+            int top = heapNodes[0];
+            lastDistance = heapDistances[0];
+            found -= 1;
+            if (found > 0) { siftDown(heapNodes[found], heapDistances[found], found); }
+            return top;
+        }
+
+        /**
+         * Puts a node at the top of the heap of the given size and moves it down.
+         */
+        private void siftDown(int node, double distance, int size)
+        {
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size) { break; }
+                if (child + 1 < size && heapDistances[child + 1] > heapDistances[child]) { child += 1; }
+                if (heapDistances[child] <= distance) { break; }
+                heapNodes[i] = heapNodes[child];
+                heapDistances[i] = heapDistances[child];
+                i = child;
+            }
+            heapNodes[i] = node;
+            heapDistances[i] = distance;
+        }
+    }
+
+    // ---- loading ----
+
+    /**
+     * Starts adding every archived plan, and then every athlete a RosterLoader
+     * reads, to the index, on background threads. Athletes already in the
+     * index are left as they are. Listeners are told once it is done.
+     *
+     * @param loader    the RosterLoader reading the athletes still training
+     */
+    public void load(final RosterLoader loader)
+    {
+        roster = loader;
+        loading = true;
+        Thread walker = new Thread(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        loadArchive(Paths.get(ARCHIVE_FILE));
+                        loader.addListener(
+                                new RosterLoader.Listener()
+                                {
+                                    public void athleteLoaded(RosterLoader.Athlete athlete)
+                                    {
+                                        put(athlete.profile.getName(), features(athlete), false, false);
+                                    }
+
+                                    public void rosterLoaded()
+                                    {
+                                        loading = false;
+                                        for (Listener listener : listeners) { listener.indexLoaded(); }
+                                    }
+                                }
+                        );
+                    }
+                },
+                "athlete-index-loader"
+        );
+        walker.setDaemon(true);
+        walker.start();
+    }
+
+    /**
+     * Adds every plan in a PlanArchive as a finished athlete, reading only the
+     * miles and completions, and then builds the tree in one go.
+     *
+     * @param archive   path to the archive; nothing is added if there is none
+     */
+    public void loadArchive(Path archive)
+    {
+        if (!Files.isRegularFile(archive)) { return; }
+        final ArrayList<String> archivedIds = new ArrayList<String>();
+        final ArrayList<float []> archivedPoints = new ArrayList<float []>();
+        try (PlanArchive plans = new PlanArchive(archive))
+        {
+            plans.scanColumns(new int [] { PlanArchive.MILES, PlanArchive.COMPLETED },
+                    new PlanArchive.ColumnsVisitor()
+                    {
+                        public void visit(PlanArchive.Entry entry, double [][] values, int days)
+                        {
+                            double miles = 0, milesCompleted = 0;
+                            for (int day = 0; day < days; day++)
+                            {
+                                miles += values[0][day];
+                                if (values[1][day] > 0) { milesCompleted += values[0][day]; }
+                            }
+                            try
+                            {
+                                UserProfile profile = new UserProfile();
+                                profile.parseProfile(new Scanner(entry.profile));
+                                archivedPoints.add(features(profile, miles / Math.max(1, days / 7.0),
+                                        (miles > 0) ? milesCompleted / miles : 0));
+                                archivedIds.add(ARCHIVED + entry.name);
+                            }
+                            catch (RuntimeException e) { athletesSkipped.incrementAndGet(); }   // no profile
+                        }
+                    }
+            );
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not load the archived plans due to " + e);
+            return;
+        }
+
+        synchronized (this)
+        {
+            for (int i = 0; i < archivedIds.size(); i++)
+            {
+                String id = archivedIds.get(i);
+                if (athletes.containsKey(id)) { continue; }
+                int athlete = athleteCount++;
+                if (athlete == ids.length)
+                {
+                    ids = Arrays.copyOf(ids, athlete * 2);
+                    nodeOf = Arrays.copyOf(nodeOf, athlete * 2);
+                }
+                ids[athlete] = id;
+                athletes.put(id, athlete);
+                finished.set(athlete);
+                newNode(athlete, archivedPoints.get(i));
+            }
+            rebuild();      // the archived nodes were not hung from the tree; this does so, balanced
+        }
+    }
+
+    /**
+     * Works out the point of an athlete still training, from their profile and
+     * plan's totals as a RosterLoader read them.
+     *
+     * @param athlete       the athlete, as read
+     * @return              float array holding the FEATURES values
+     */
+    static float [] features(RosterLoader.Athlete athlete)
+    {
+        double weeks = Math.max(1, athlete.weeks);
+        double completion = (athlete.totalMiles > 0) ? athlete.milesCompleted / athlete.totalMiles : 0;
+        return features(athlete.profile, athlete.totalMiles / weeks, completion);
+    }
+
+    /**
+     * Works out an athlete's point from their profile's groups (0 for any not
+     * set, e.g. the time group of a season of races) and their plan's miles.
+     */
+    static float [] features(UserProfile profile, double weeklyMiles, double completion)
+    {
+        return features(weeklyMiles, completion, group(profile.getAge()), group(profile.getAbility()),
+                group(profile.getTimeFrame()));
+    }
+
+    private static int group(Integer value)
+    {
+        return (value == null) ? 0 : value;
+    }
+
+    /**
+     * Interface for listeners told when the index has been loaded.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the loader thread, once every athlete has been read.
+         */
+        void indexLoaded();
+    }
+
+    /**
+     * Inner class holding an athlete found by a search.
+     */
+    static class Neighbor
+    {
+        String id;
+        float [] features;
+        double distance;                            // weighted squared distance from the query
+        boolean finished;
+
+        Neighbor(String id, float [] features, double distance, boolean finished)
+        {
+            this.id = id;
+            this.features = features;
+            this.distance = distance;
+            this.finished = finished;
+        }
+    }
+
+    /**
+     * Inner class holding how the athletes like one did.
+     */
+    static class Outcome
+    {
+        int athletes;                               // finished athletes compared with
+        double averageCompletion;                   // share of their plans' miles completed, 0 to 1
+        double medianCompletion;
+
+        Outcome(int athletes, double averageCompletion, double medianCompletion)
+        {
+            this.athletes = athletes;
+            this.averageCompletion = averageCompletion;
+            this.medianCompletion = medianCompletion;
+        }
+    }
+}
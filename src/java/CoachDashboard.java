@@ -0,0 +1,129 @@
+//CoachDashboard.java
+/**
+ * The CoachDashboard() class is a window for coaches listing every athlete who
+ * has a plan in RunBuddy's directory, with the percent of their plan completed,
+ * the miles and runs completed and their last activity, rather than opening a
+ * TrainingFrame() for each athlete in turn. The table is backed by a
+ * RosterTableModel(), which loads the athletes in the background and sorts and
+ * filters them off of the UI thread, so the window opens at once and stays
+ * responsive for large rosters. Clicking a column header sorts by that column
+ * (clicking again reverses it), and typing in the filter box only shows athletes
+ * whose name holds the text.
+ *
+ * @author: Megan Frenkel
+ */
+
+import javax.swing.*;
+import javax.swing.event.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.nio.file.Paths;
+
+
+class CoachDashboard extends JFrame
+{
+    // instance variables
+    private RosterTableModel roster;
+    private JTable table;
+    private JTextField filterField;
+    private JLabel statusLabel;
+
+    // final variables
+    final int WIDTH = 700, HEIGHT = 600;
+    final String FONT_TYPE = "Helvetica";
+    final Color BACKGROUND_COLOR = new Color(237, 237, 237);
+
+    // constructor
+    public CoachDashboard(String title)
+    {
+        super(title);
+        this.roster = new RosterTableModel();
+
+        layoutComponents();
+        addListeners();
+        roster.load(Paths.get("."));    // plans are found by name in RunBuddy's working directory
+    }
+
+    /**
+     * Sets the size of the frame and adds the filter box, the table and the
+     * status line.
+     */
+    private void layoutComponents()
+    {
+        setSize(new Dimension(WIDTH, HEIGHT));
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);   // RunBuddy itself keeps running
+
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 5));
+        filterPanel.setBackground(BACKGROUND_COLOR);
+        JLabel filterLabel = new JLabel("  Find athlete: ");
+        filterLabel.setFont(new Font(FONT_TYPE, Font.BOLD, 13));
+        filterField = new JTextField();
+        filterPanel.add(filterLabel, BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+
+        table = new JTable(roster);
+        table.setAutoCreateRowSorter(false);        // the RosterTableModel sorts, off of the UI thread
+        table.setFillsViewportHeight(true);
+        table.setFont(new Font(FONT_TYPE, Font.PLAIN, 13));
+        table.getTableHeader().setFont(new Font(FONT_TYPE, Font.BOLD, 13));
+
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(new Font(FONT_TYPE, Font.PLAIN, 12));
+
+        getContentPane().setBackground(BACKGROUND_COLOR);
+        add(filterPanel, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Adds listeners to sort when a column header is clicked, to filter as the
+     * filter box is typed in and to keep the status line up to date.
+     */
+    private void addListeners()
+    {
+        table.getTableHeader().addMouseListener(
+                new MouseAdapter()
+                {
+                    public void mouseClicked(MouseEvent me)
+                    {
+                        int column = table.columnAtPoint(me.getPoint());
+                        if (column >= 0) { roster.sortBy(table.convertColumnIndexToModel(column)); }
+                    }
+                }
+        );
+
+        filterField.getDocument().addDocumentListener(
+                new DocumentListener()
+                {
+                    public void insertUpdate(DocumentEvent de) { roster.setFilter(filterField.getText()); }
+                    public void removeUpdate(DocumentEvent de) { roster.setFilter(filterField.getText()); }
+                    public void changedUpdate(DocumentEvent de) { roster.setFilter(filterField.getText()); }
+                }
+        );
+
+        roster.setListener(
+                new RosterTableModel.Listener()
+                {
+                    public void rosterChanged() { updateStatus(); }
+                }
+        );
+    }
+
+    /**
+     * Updates the status line and marks the sorted column's header; called on the
+     * UI thread whenever the rows shown change.
+     */
+    private void updateStatus()
+    {
+        statusLabel.setText("  " + roster.getSummary());
+        for (int column = 0; column < roster.getColumnCount(); column++)
+        {
+            String name = roster.getColumnName(column);
+            if (column == roster.getSortColumn()) { name += roster.isAscending() ? " ^" : " v"; }
+            table.getColumnModel().getColumn(table.convertColumnIndexToView(column)).setHeaderValue(name);
+        }
+        table.getTableHeader().repaint();
+    }
+}
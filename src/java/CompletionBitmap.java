@@ -0,0 +1,228 @@
+//CompletionBitmap.java
+/**
+ * The CompletionBitmap() class records which runs of a training plan have been
+ * completed, as one bit per plan day (week * 7 + day) packed into long words, so
+ * that the UI, an import and a sync can all check runs off at once without locks.
+ *
+ * Each change is made with a compare-and-set on the words it touches, so writers
+ * never block one another, and a change to many days (e.g., marking a week done)
+ * is seen by readers all at once or not at all: readers take a snapshot of the
+ * words between two reads of a count of the changes started, and take it again if
+ * a change was made meanwhile. Counting the runs completed is a Long.bitCount()
+ * per word.
+ *
+ * Listeners are told about every change that actually changed a day, on the
+ * thread that made it.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.*;
+
+
+class CompletionBitmap
+{
+    // instance variables
+    private AtomicLongArray words;                  // bit (planDay % 64) of word (planDay / 64)
+    private int planDays;
+    private AtomicLong changesStarted;              // changes to the words begun...
+    private AtomicLong changesFinished;             // ...and finished; equal when no change is underway
+    private CopyOnWriteArrayList<Listener> listeners;
+    private volatile CompletionBitmap resizedTo;    // the copy made by resize(), which takes every change since
+
+    // constructor
+    public CompletionBitmap(int planDays)
+    {
+        this(planDays, new CopyOnWriteArrayList<Listener>());
+    }
+
+    // constructor, sharing another bitmap's listeners (see resize())
+    private CompletionBitmap(int planDays, CopyOnWriteArrayList<Listener> listeners)
+    {
+        this.words = new AtomicLongArray((planDays + 63) / 64);
+        this.planDays = planDays;
+        this.changesStarted = new AtomicLong(0);
+        this.changesFinished = new AtomicLong(0);
+        this.listeners = listeners;
+    }
+
+    /**
+     * Makes a copy of this bitmap for a plan that has grown or shrunk, keeping the
+     * days that are still in the plan and the listeners. From then on, changes
+     * made to this bitmap (e.g., by a sync that still holds it) are made to the
+     * copy instead: changes begun before the copy are waited for, and changes
+     * begun during it wait until it is done, so none are lost.
+     *
+     * @param newPlanDays   number of days in the new plan
+     * @return              the new CompletionBitmap
+     */
+    public synchronized CompletionBitmap resize(int newPlanDays)
+    {
+        CompletionBitmap resized = new CompletionBitmap(newPlanDays, listeners);
+        resizedTo = resized;
+        while (changesFinished.get() != changesStarted.get()) { Thread.onSpinWait(); }   // set() below
+        long [] copy = snapshot();
+        for (int word = 0; word < Math.min(copy.length, resized.words.length()); word++)
+        {
+            long kept = copy[word];
+            int daysLeft = newPlanDays - word * 64;
+            if (daysLeft < 64) { kept &= (1L << daysLeft) - 1; }   // days cut from the end of the plan
+            resized.words.set(word, kept);
+        }
+        return resized;
+    }
+
+    /**
+     * Marks a single run as completed or not completed.
+     *
+     * @param planDay       day of the plan (week * 7 + day)
+     * @param completed     was the run completed?
+     * @return              boolean; did the day change?
+     */
+    public boolean set(int planDay, boolean completed)
+    {
+        BitSet day = new BitSet();
+        day.set(planDay);
+        return !set(day, completed).isEmpty();
+    }
+
+    /**
+     * Marks every run in a set of days as completed or not completed, as a single
+     * change: readers see all of the days changed or none of them. Days outside
+     * of the plan are ignored.
+     *
+     * @param days          BitSet of the plan days (week * 7 + day) to change
+     * @param completed     were the runs completed?
+     * @return              BitSet of the days that changed
+     */
+    public BitSet set(BitSet days, boolean completed)
+    {
+        changesStarted.incrementAndGet();
+        if (resizedTo != null)
+        {
+            changesFinished.incrementAndGet();
+            synchronized (this) { }                 // wait for resize() to finish copying
+            return resizedTo.set(days, completed);
+        }
+
+        long [] masks = days.toLongArray();
+        long [] changed = new long [Math.min(masks.length, words.length())];
+
+        for (int word = 0; word < changed.length; word++)
+        {
+            long mask = masks[word];
+            int daysLeft = planDays - word * 64;
+            if (daysLeft < 64) { mask &= (1L << daysLeft) - 1; }   // past the end of the plan
+            if (mask == 0) { continue; }
+
+            long before, after;
+            do
+            {
+                before = words.get(word);
+                after = completed ? (before | mask) : (before & ~mask);
+            }
+            while (before != after && !words.compareAndSet(word, before, after));
+            changed[word] = before ^ after;
+        }
+        changesFinished.incrementAndGet();
+
+        BitSet changedDays = BitSet.valueOf(changed);
+        if (!changedDays.isEmpty())
+        {
+            for (Listener listener : listeners) { listener.completionChanged(changedDays, completed); }
+        }
+        return changedDays;
+    }
+
+    /**
+     * Determines if a single run has been completed
+     * @param planDay   day of the plan (week * 7 + day)
+     * @return          boolean; was the run completed?
+     */
+    public boolean isCompleted(int planDay)
+    {
+        if (planDay < 0 || planDay >= planDays) { return false; }
+        return (words.get(planDay / 64) & (1L << planDay)) != 0;
+    }
+
+    /**
+     * Counts the runs completed, all as of a single moment.
+     * @return  int representing the number of runs completed
+     */
+    public int getRunsCompleted()
+    {
+        while (true)
+        {
+            long started = changesStarted.get();
+            if (changesFinished.get() == started)
+            {
+                int runs = 0;
+                for (int word = 0; word < words.length(); word++) { runs += Long.bitCount(words.get(word)); }
+                if (changesStarted.get() == started) { return runs; }
+            }
+            Thread.onSpinWait();    // a change was underway; try again once it is done
+        }
+    }
+
+    /**
+     * Takes a copy of the words, all as of a single moment (see BitSet.valueOf()).
+     * @return  long array holding the bit of every completed day
+     */
+    public long [] snapshot()
+    {
+        long [] copy = new long [words.length()];
+        while (true)
+        {
+            long started = changesStarted.get();
+            if (changesFinished.get() == started)
+            {
+                for (int word = 0; word < copy.length; word++) { copy[word] = words.get(word); }
+                if (changesStarted.get() == started) { return copy; }
+            }
+            Thread.onSpinWait();    // a change was underway; try again once it is done
+        }
+    }
+
+    /**
+     * Getter for the number of days in the plan
+     * @return  int representing the number of days
+     */
+    public int getPlanDays()
+    {
+        return planDays;
+    }
+
+    /**
+     * Adds a listener to be told about every change made from now on.
+     * @param listener  the Listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener().
+     * @param listener  the Listener to remove
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Interface for listeners told when runs are checked off or unchecked.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the thread that made the change, once it can be seen by readers.
+         *
+         * @param changedDays   BitSet of the plan days (week * 7 + day) that changed
+         * @param completed     were the runs marked as completed?
+         */
+        void completionChanged(BitSet changedDays, boolean completed);
+    }
+}
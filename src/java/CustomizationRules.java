@@ -0,0 +1,165 @@
+//CustomizationRules.java
+/**
+ * The CustomizationRules() class holds the rules that the TrainingPlanGenerator()
+ * uses to tailor the base training plan to a user's age, ability level and
+ * available training time. The rules live in the "customizationrules.txt" file
+ * so that a coach can tune them without rebuilding RunBuddy.
+ *
+ * The file is read only once, the first time that getRules() is called, and is
+ * compiled into flat lookup arrays: a [group][field] multiplier table for both
+ * age and ability, and a base week index mapping for each time group. This means
+ * that generating a plan is just a series of table lookups.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import javax.swing.*;
+import java.util.*;
+
+
+class CustomizationRules
+{
+    // the single, shared copy of the compiled rules
+    private static CustomizationRules rules;
+
+    // compiled lookup tables
+    private double [][] ageMultipliers;                 // [ageGroup][field]
+    private double [][] abilityMultipliers;             // [abilityGroup][field]
+    private int [][] weekMappings;                      // [timeGroup][userWeek] -> base week index
+
+    // final variables, representing values known about the rule file
+    static final String RULE_FILE = "customizationrules.txt";
+    static final int MILEAGE = 0;
+    static final int PACE = 1;
+    static final int FIELDS = 2;                        // fields that can be adjusted: mileage and pace
+    static final int MAX_GROUP = 5;                     // largest group number used by any category
+
+    // constructor; only called on by getRules()
+    private CustomizationRules()
+    {
+        ageMultipliers = new double [MAX_GROUP + 1][];
+        abilityMultipliers = new double [MAX_GROUP + 1][];
+        weekMappings = new int [MAX_GROUP + 1][];
+    }
+
+    /**
+     * Returns the compiled customization rules, loading and compiling the rule
+     * file the first time it is called.
+     *
+     * @return  the shared CustomizationRules object
+     */
+    public static synchronized CustomizationRules getRules()
+    {
+        if (rules == null)
+        {
+            rules = new CustomizationRules();
+            rules.loadRules();
+        }
+        return rules;
+    }
+
+    /**
+     * Reads in the "customizationrules.txt" file one line at a time and compiles
+     * each rule into the lookup tables. Blank lines and lines starting with '#'
+     * are ignored. Any group that is not given a multiplier keeps the default
+     * multiplier of 1.0 (i.e., no change).
+     */
+    private void loadRules()
+    {
+        try
+        {
+            Scanner inFile = new Scanner(new File(RULE_FILE));
+
+            while (inFile.hasNextLine())
+            {
+                String newLine = inFile.nextLine().trim();
+                if (newLine.isEmpty() || newLine.startsWith("#")) { continue; }  // skip comments
+
+                String[] rule = newLine.split(",\\s*");
+                String field = rule[0];
+                int group = Integer.parseInt(rule[1]);
+
+                if (field.equals("age")) { ageMultipliers[group] = parseMultipliers(rule); }
+                else if (field.equals("ability")) { abilityMultipliers[group] = parseMultipliers(rule); }
+                else if (field.equals("time")) { weekMappings[group] = parseWeeks(rule); }
+            }
+            inFile.close();
+        }
+        catch (FileNotFoundException e)  // if the rule file is missing...
+        {
+            JOptionPane.showMessageDialog(null, "Error! Could not load customization rules; " +
+                    "please check that file exists. See more: " + e);
+            System.exit(1);
+        }
+
+        // any group without a rule is left as is
+        double [] noChange = { 1.0, 1.0 };
+        for (int group = 0; group <= MAX_GROUP; group++)
+        {
+            if (ageMultipliers[group] == null) { ageMultipliers[group] = noChange; }
+            if (abilityMultipliers[group] == null) { abilityMultipliers[group] = noChange; }
+        }
+    }
+
+    /**
+     * Converts a single "age" or "ability" rule into its mileage and pace multipliers.
+     *
+     * @param rule  the split line from the rule file
+     * @return      array of multipliers, indexed by field
+     */
+    private double [] parseMultipliers(String [] rule)
+    {
+        double [] multipliers = new double [FIELDS];
+        multipliers[MILEAGE] = Double.parseDouble(rule[2]);
+        multipliers[PACE] = Double.parseDouble(rule[3]);
+        return multipliers;
+    }
+
+    /**
+     * Converts a single "time" rule into the base week index for each of the
+     * weeks in the user's plan (the rule file is 1-indexed; the array is not).
+     *
+     * @param rule  the split line from the rule file
+     * @return      array of base week indices, one per week of the user's plan
+     */
+    private int [] parseWeeks(String [] rule)
+    {
+        int [] weeks = new int [rule.length - 2];
+        for (int i = 0; i < weeks.length; i++)
+        {
+            weeks[i] = Integer.parseInt(rule[i + 2]) - 1;
+        }
+        return weeks;
+    }
+
+    /**
+     * Getter for the multipliers of a given age group
+     * @param ageGroup  int representing age group
+     * @return          array of multipliers, indexed by field
+     */
+    public double [] getAgeMultipliers(int ageGroup)
+    {
+        return ageMultipliers[ageGroup];
+    }
+
+    /**
+     * Getter for the multipliers of a given ability group
+     * @param abilityGroup  int representing ability level
+     * @return              array of multipliers, indexed by field
+     */
+    public double [] getAbilityMultipliers(int abilityGroup)
+    {
+        return abilityMultipliers[abilityGroup];
+    }
+
+    /**
+     * Getter for the week mapping of a given time group
+     * @param timeGroup  int representing the amount of training time available
+     * @return           base week index for every week of the user's plan
+     */
+    public int [] getWeekMapping(int timeGroup)
+    {
+        return weekMappings[timeGroup];
+    }
+}
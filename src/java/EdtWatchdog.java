@@ -0,0 +1,131 @@
+//EdtWatchdog.java
+/**
+ * The EdtWatchdog() class watches the Swing event dispatch thread (EDT) for
+ * stalls. It replaces the system event queue with one that notes when the EDT
+ * starts handling each event and how long it takes. If the EDT has been busy
+ * with one event for longer than the threshold, a background thread samples
+ * the top of its stack while it is still blocked; once the event is finished, a
+ * RunBuddyEvents.EdtStall event is committed with how long the EDT was stalled.
+ *
+ * Modal dialogs handle events from inside another event, so time spent with a
+ * dialog open is not counted as a stall: the EDT counts as busy only since it
+ * last finished handling an event. The threshold is read from the system
+ * property runbuddy.edtStallMillis (default 200 ms).
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.awt.*;
+
+
+class EdtWatchdog extends EventQueue implements Runnable
+{
+    // instance variables, shared between the watchdog thread and the EDT
+    private long thresholdNanos;
+    private volatile Thread eventThread;        // the EDT, once it has handled an event
+    private volatile long busySince;            // System.nanoTime() the EDT last started being busy, 0 if idle
+    private volatile String stalledStack;       // EDT stack sampled during the current stall, if any
+
+    // final variables
+    final int STACK_DEPTH = 8;                  // frames of the EDT's stack kept in each event
+
+    // constructor
+    public EdtWatchdog(int thresholdMillis)
+    {
+        this.thresholdNanos = thresholdMillis * 1000000L;
+        this.busySince = 0;
+    }
+
+    /**
+     * Starts watching the EDT, with the threshold from the runbuddy.edtStallMillis
+     * system property: installs the timing event queue, and starts the daemon
+     * thread that samples the EDT's stack during a stall.
+     */
+    public static void start()
+    {
+        EdtWatchdog watchdog = new EdtWatchdog(Integer.getInteger("runbuddy.edtStallMillis", 200));
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+
+        Thread thread = new Thread(watchdog, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Handles an event on the EDT as usual, recording a stall if the EDT was
+     * busy for longer than the threshold.
+     *
+     * @param event     event to handle
+     */
+    @Override
+    protected void dispatchEvent(AWTEvent event)
+    {
+        boolean nested = busySince != 0;    // e.g., handled by a modal dialog opened by another event
+        eventThread = Thread.currentThread();
+        startBusy();
+
+        try { super.dispatchEvent(event); }
+        finally
+        {
+            long busyFor = System.nanoTime() - busySince;
+            if (busyFor > thresholdNanos)
+            {
+                RunBuddyEvents.EdtStall stall = new RunBuddyEvents.EdtStall();
+                if (stall.shouldCommit())
+                {
+                    stall.stalledFor = busyFor;
+                    stall.stack = stalledStack;
+                    stall.commit();
+                }
+            }
+
+            // the event this one was nested in has only been busy since now
+            if (nested) { startBusy(); }
+            else { busySince = 0; }
+        }
+    }
+
+    /**
+     * Notes that the EDT has just started being busy.
+     */
+    private void startBusy()
+    {
+        stalledStack = null;
+        busySince = System.nanoTime();
+    }
+
+    /**
+     * Runs on the watchdog thread: every half of the threshold, checks whether the
+     * EDT has been busy for longer than the threshold, and if so samples its stack
+     * (once per stall).
+     */
+    public void run()
+    {
+        while (true)
+        {
+            long since = busySince;
+            if (since != 0 && stalledStack == null && System.nanoTime() - since > thresholdNanos)
+            {
+                String stack = stackOf(eventThread);
+                if (busySince == since) { stalledStack = stack; }   // still the same stall
+            }
+
+            try { Thread.sleep(Math.max(1, thresholdNanos / 2000000L)); }
+            catch (InterruptedException e) { return; }
+        }
+    }
+
+    /**
+     * Gets the top STACK_DEPTH frames of a thread's stack, one per line.
+     */
+    private String stackOf(Thread thread)
+    {
+        StackTraceElement [] frames = thread.getStackTrace();
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i < Math.min(STACK_DEPTH, frames.length); i++ )
+        {
+            stack.append(frames[i]).append('\n');
+        }
+        return stack.toString();
+    }
+}
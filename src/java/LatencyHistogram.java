@@ -0,0 +1,152 @@
+//LatencyHistogram.java
+/**
+ * The LatencyHistogram() class records how long an operation takes, in
+ * nanoseconds, in the style of an HDR histogram: values are counted in buckets
+ * whose width grows with the value, so that every value is kept to within about
+ * 3% (1 / 2^SUB_BUCKET_BITS) from a nanosecond up to hours, in a fixed amount of
+ * memory. Percentiles can then be read back at any time.
+ *
+ * Recording a value only finds its bucket with a little bit arithmetic and
+ * increments a few atomic counters, so it never allocates and can be called from
+ * any thread, including the Swing event dispatch thread.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.concurrent.atomic.*;
+
+
+class LatencyHistogram
+{
+    // instance variables
+    private String name;
+    private AtomicLongArray counts;             // [bucket] -> number of values recorded in it
+    private AtomicLong count;
+    private AtomicLong sum;                     // nanoseconds
+    private AtomicLong max;
+
+    // final variables
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;            // buckets for each power of 2
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // constructor
+    public LatencyHistogram(String name)
+    {
+        this.name = name;
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong(0);
+        this.sum = new AtomicLong(0);
+        this.max = new AtomicLong(0);
+    }
+
+    /**
+     * Records a single value.
+     * @param nanos     time the operation took
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0) { nanos = 0; }   // the clock can step backwards on some systems
+
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long oldMax = max.get();
+        while (nanos > oldMax && !max.compareAndSet(oldMax, nanos)) { oldMax = max.get(); }
+    }
+
+    /**
+     * Records the time since an operation started, as returned by Metrics.start().
+     * Nothing is recorded if the start is 0, which means metrics were turned off.
+     *
+     * @param start     System.nanoTime() when the operation started, or 0
+     */
+    public void recordSince(long start)
+    {
+        if (start != 0) { record(System.nanoTime() - start); }
+    }
+
+    /**
+     * Finds the bucket for a value. Values below SUB_BUCKETS get a bucket each;
+     * above that, each power of 2 is split into SUB_BUCKETS equal buckets.
+     */
+    private int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS) { return (int) value; }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);       // position of the highest bit
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Finds the largest value that falls in a bucket.
+     */
+    private long highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the value below which a given share of the recorded values fall
+     * (e.g., 0.99 for the 99th percentile), to within the width of its bucket.
+     *
+     * @param quantile  share of values, between 0 and 1
+     * @return          long representing nanoseconds (0 if nothing is recorded)
+     */
+    public long getValueAtQuantile(double quantile)
+    {
+        long total = count.get();
+        if (total == 0) { return 0; }
+
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++ )
+        {
+            seen += counts.get(bucket);
+            if (seen >= target) { return Math.min(highestValueIn(bucket), max.get()); }
+        }
+        return max.get();   // values were recorded while counting
+    }
+
+    /**
+     * Getter for name
+     * @return  String naming the operation timed
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Getter for the number of values recorded
+     * @return  long representing the count
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Getter for the sum of the values recorded
+     * @return  long representing nanoseconds
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * Getter for the largest value recorded
+     * @return  long representing nanoseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+}
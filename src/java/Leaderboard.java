@@ -0,0 +1,507 @@
+//Leaderboard.java
+/**
+ * The Leaderboard() class ranks the members of a club (every athlete with a
+ * profile in RunBuddy's working directory, as in the CoachDashboard()) by the
+ * miles they have completed and by the percent of their plan's miles completed,
+ * for group challenges. It is kept up to date as runs are checked off, so rather
+ * than sorting every member again after each run, each ranking is an order-
+ * statistic tree: a treap (a binary search tree kept balanced by random
+ * priorities) whose nodes also count the nodes below them. A member's change of
+ * score is a removal and an insertion, O(log n); a member's rank is found on
+ * the way down to them, O(log n); and the top k are the first k nodes in order,
+ * O(log n + k).
+ *
+ * Members are ordered by score, highest first, and members with the same score
+ * by name. The shared leaderboard (see getLeaderboard()) loads the club in the
+ * background the first time it is asked for, from the RosterLoader() it shares
+ * with the AthleteIndex(); the TrainingFrame() updates its
+ * own user as runs are checked off, and loading never overwrites a member
+ * already on the board.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+class Leaderboard
+{
+    // the shared leaderboard of the club
+    private static Leaderboard leaderboard;
+
+    // instance variables; guarded by this
+    private HashMap<String, Member> members;            // by name
+    private RankTree [] rankings;                       // by MILES and by PERCENT
+    private long updates;
+    private CopyOnWriteArrayList<Listener> listeners;
+    private volatile boolean loading;
+    private volatile RosterLoader roster;               // reading the club's members; null if none
+
+    // final variables
+    static final int MILES = 0, PERCENT = 1;
+
+    // constructor
+    public Leaderboard()
+    {
+        this.members = new HashMap<String, Member>();
+        this.rankings = new RankTree [] { new RankTree(MILES), new RankTree(PERCENT) };
+        this.updates = 0;
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+        this.loading = false;
+        this.roster = null;
+    }
+
+    /**
+     * Returns the club's shared leaderboard. The first time it is called, every
+     * athlete the club's RosterLoader reads from RunBuddy's working directory
+     * starts being loaded onto it, in the background.
+     *
+     * @return  the shared Leaderboard object
+     */
+    public static synchronized Leaderboard getLeaderboard()
+    {
+        if (leaderboard == null)
+        {
+            leaderboard = new Leaderboard();
+            leaderboard.load(RosterLoader.getClub());   // read once for the AthleteIndex too
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Sets a member's totals, adding them to the board if they are new, and moves
+     * them in each ranking. O(log n).
+     *
+     * @param name              name of the member
+     * @param milesCompleted    miles of their plan completed
+     * @param percentComplete   percent of their plan's miles completed
+     */
+    public void update(String name, double milesCompleted, double percentComplete)
+    {
+        if (!put(name, milesCompleted, percentComplete, true)) { return; }
+        for (Listener listener : listeners) { listener.leaderboardChanged(); }
+    }
+
+    /**
+     * Sets a member's totals, unless they are already on the board and
+     * replace is false. Returns whether the board changed.
+     */
+    private synchronized boolean put(String name, double milesCompleted, double percentComplete, boolean replace)
+    {
+        Member member = members.get(name);
+        if (member != null)
+        {
+            if (!replace) { return false; }
+            if (member.scores[MILES] == milesCompleted && member.scores[PERCENT] == percentComplete) { return false; }
+            for (RankTree ranking : rankings) { ranking.remove(member); }
+        }
+        else
+        {
+            member = new Member(name);
+            members.put(name, member);
+        }
+        member.scores[MILES] = milesCompleted;
+        member.scores[PERCENT] = percentComplete;
+        for (RankTree ranking : rankings) { ranking.insert(member); }
+        updates += 1;
+        return true;
+    }
+
+    /**
+     * Takes a member off the board.
+     * @param name  name of the member
+     */
+    public void remove(String name)
+    {
+        synchronized (this)
+        {
+            Member member = members.remove(name);
+            if (member == null) { return; }
+            for (RankTree ranking : rankings) { ranking.remove(member); }
+            updates += 1;
+        }
+        for (Listener listener : listeners) { listener.leaderboardChanged(); }
+    }
+
+    /**
+     * Gets a member's place in a ranking. O(log n).
+     *
+     * @param name      name of the member
+     * @param by        MILES or PERCENT
+     * @return          int representing their place, 1 for the top; 0 if they are not on the board
+     */
+    public synchronized int getRank(String name, int by)
+    {
+        Member member = members.get(name);
+        return (member == null) ? 0 : rankings[by].rank(member);
+    }
+
+    /**
+     * Gets the top members of a ranking, in order. O(log n + k).
+     *
+     * @param k     the number of members to get, at most
+     * @param by    MILES or PERCENT
+     * @return      list of the top members' standings, at their places at this moment
+     */
+    public synchronized List<Standing> getTop(int k, int by)
+    {
+        ArrayList<Standing> top = new ArrayList<Standing>(Math.min(k, members.size()));
+        for (Member member : rankings[by].first(k))
+        {
+            top.add(new Standing(top.size() + 1, member.name, member.scores[MILES], member.scores[PERCENT]));
+        }
+        return top;
+    }
+
+    /**
+     * Gets a member's standing.
+     *
+     * @param name      name of the member
+     * @param by        MILES or PERCENT, for their place
+     * @return          the member's Standing, or null if they are not on the board
+     */
+    public synchronized Standing getStanding(String name, int by)
+    {
+        Member member = members.get(name);
+        if (member == null) { return null; }
+        return new Standing(rankings[by].rank(member), name, member.scores[MILES], member.scores[PERCENT]);
+    }
+
+    /**
+     * Getter for the number of members on the board
+     * @return  int representing the number of members
+     */
+    public synchronized int size()
+    {
+        return members.size();
+    }
+
+    /**
+     * Determines if the club is still being loaded
+     * @return  boolean; are members still being read?
+     */
+    public boolean isLoading()
+    {
+        return loading;
+    }
+
+    /**
+     * Adds a listener to be told whenever the board changes.
+     * @param listener  the Listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener().
+     * @param listener  the Listener to remove
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Describes the board, e.g. for a tool tip.
+     * @return  String holding the number of members and updates
+     */
+    public synchronized String getSummary()
+    {
+        int skipped = (roster == null) ? 0 : roster.getAthletesSkipped();
+        return String.format("%d members, %d updates%s", members.size(), updates,
+                loading ? ", loading" : (skipped > 0 ? ", " + skipped + " skipped" : ""));
+    }
+
+    /**
+     * Adds every athlete a RosterLoader reads to the board, on its background
+     * threads. Members already on the board are left as they are.
+     *
+     * @param loader    the RosterLoader reading the athletes
+     */
+    public void load(RosterLoader loader)
+    {
+        roster = loader;
+        loading = true;
+        loader.addListener(
+                new RosterLoader.Listener()
+                {
+                    public void athleteLoaded(RosterLoader.Athlete athlete)
+                    {
+                        if (put(athlete.profile.getName(), athlete.milesCompleted, athlete.getPercentComplete(), false))
+                        {
+                            for (Listener listener : listeners) { listener.leaderboardChanged(); }
+                        }
+                    }
+
+                    public void rosterLoaded()
+                    {
+                        loading = false;
+                        for (Listener listener : listeners) { listener.leaderboardChanged(); }   // loading has finished
+                    }
+                }
+        );
+    }
+
+    /**
+     * Interface for listeners told when the board changes.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the thread that changed the board (e.g., a loader thread),
+         * once the change can be seen.
+         */
+        void leaderboardChanged();
+    }
+
+    /**
+     * Inner class holding a member's place in a ranking and their totals, as of
+     * the moment they were asked for.
+     */
+    static class Standing
+    {
+        int rank;
+        String name;
+        double milesCompleted;
+        double percentComplete;
+
+        Standing(int rank, String name, double milesCompleted, double percentComplete)
+        {
+            this.rank = rank;
+            this.name = name;
+            this.milesCompleted = milesCompleted;
+            this.percentComplete = percentComplete;
+        }
+    }
+
+    /**
+     * Inner class holding a member's name and scores, by MILES and PERCENT.
+     */
+    static class Member
+    {
+        String name;
+        double [] scores = new double [2];
+
+        Member(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Inner class holding one ranking of the members: a treap ordered by one of
+     * their scores (highest first, then by name) in which every node counts the
+     * nodes below it, so that places can be found without walking the members.
+     * The score a member is ordered by must not change while they are in it.
+     */
+    static class RankTree
+    {
+        private Node root;
+        private int by;
+        private Random priorities;
+
+        RankTree(int by)
+        {
+            this.by = by;
+            this.priorities = new Random(by + 1);
+        }
+
+        int size()
+        {
+            return size(root);
+        }
+
+        void insert(Member member)
+        {
+            root = insert(root, new Node(member, member.scores[by], priorities.nextInt()));
+        }
+
+        void remove(Member member)
+        {
+            root = remove(root, member, member.scores[by]);
+        }
+
+        /**
+         * Finds a member's place: one more than the members ordered before them.
+         */
+        int rank(Member member)
+        {
+            int before = 0;
+            double score = member.scores[by];
+            Node node = root;
+            while (node != null)
+            {
+                int c = compare(score, member, node);
+                if (c == 0) { return before + size(node.left) + 1; }
+                if (c < 0) { node = node.left; }
+                else
+                {
+                    before += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Finds the member at a place (1 for the top), or null if there is none.
+         */
+        Member get(int rank)
+        {
+            Node node = root;
+            while (node != null)
+            {
+                int leftSize = size(node.left);
+                if (rank <= leftSize) { node = node.left; }
+                else if (rank == leftSize + 1) { return node.member; }
+                else
+                {
+                    rank -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Lists the first k members, in order, walking down the left of the tree
+         * once and then only as far as the kth member.
+         */
+        List<Member> first(int k)
+        {
+            ArrayList<Member> first = new ArrayList<Member>(Math.min(k, size()));
+            ArrayDeque<Node> path = new ArrayDeque<Node>();
+            Node node = root;
+            while (first.size() < k && (node != null || !path.isEmpty()))
+            {
+                while (node != null)
+                {
+                    path.push(node);
+                    node = node.left;
+                }
+                node = path.pop();
+                first.add(node.member);
+                node = node.right;
+            }
+            return first;
+        }
+
+        /**
+         * Orders a member, with the score this tree ranks by, against a node:
+         * highest score first, and then by name. Scores are kept in the nodes, so
+         * the members themselves are only read for a tie.
+         */
+        private static int compare(double score, Member member, Node node)
+        {
+            int c = Double.compare(node.score, score);
+            return (c != 0) ? c : member.name.compareTo(node.member.name);
+        }
+
+        private Node insert(Node node, Node added)
+        {
+            if (node == null) { return added; }
+            if (added.priority > node.priority)
+            {
+                Node [] halves = new Node [2];
+                split(node, added, halves);
+                added.left = halves[0];
+                added.right = halves[1];
+                added.count();
+                return added;
+            }
+            if (compare(added.score, added.member, node) < 0) { node.left = insert(node.left, added); }
+            else { node.right = insert(node.right, added); }
+            node.count();
+            return node;
+        }
+
+        private Node remove(Node node, Member member, double score)
+        {
+            if (node == null) { return null; }
+            int c = compare(score, member, node);
+            if (c == 0) { return merge(node.left, node.right); }
+            if (c < 0) { node.left = remove(node.left, member, score); }
+            else { node.right = remove(node.right, member, score); }
+            node.count();
+            return node;
+        }
+
+        /**
+         * Splits a tree into the nodes ordered before a node being added
+         * (halves[0]) and those after it (halves[1]).
+         */
+        private void split(Node node, Node added, Node [] halves)
+        {
+            if (node == null)
+            {
+                halves[0] = null;
+                halves[1] = null;
+            }
+            else if (compare(added.score, added.member, node) > 0)
+            {
+                split(node.right, added, halves);
+                node.right = halves[0];
+                node.count();
+                halves[0] = node;
+            }
+            else
+            {
+                split(node.left, added, halves);
+                node.left = halves[1];
+                node.count();
+                halves[1] = node;
+            }
+        }
+
+        /**
+         * Joins two trees, where every node of the first is ordered before every
+         * node of the second.
+         */
+        private Node merge(Node first, Node second)
+        {
+            if (first == null) { return second; }
+            if (second == null) { return first; }
+            if (first.priority > second.priority)
+            {
+                first.right = merge(first.right, second);
+                first.count();
+                return first;
+            }
+            second.left = merge(first, second.left);
+            second.count();
+            return second;
+        }
+
+        private static int size(Node node)
+        {
+            return (node == null) ? 0 : node.size;
+        }
+
+        /**
+         * Inner class holding a node of the treap.
+         */
+        static class Node
+        {
+            Member member;
+            double score;                   // the member's score this tree ranks by
+            int priority;                   // larger priorities are nearer the root
+            int size = 1;                   // nodes in this subtree, this one included
+            Node left, right;
+
+            Node(Member member, double score, int priority)
+            {
+                this.member = member;
+                this.score = score;
+                this.priority = priority;
+            }
+
+            void count()
+            {
+                size = 1 + RankTree.size(left) + RankTree.size(right);
+            }
+        }
+    }
+}
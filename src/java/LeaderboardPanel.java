@@ -0,0 +1,161 @@
+//LeaderboardPanel.java
+/**
+ * The LeaderboardPanel() class is a JPanel showing the top of the club's
+ * Leaderboard(): the first TOP_K members, by miles completed or by percent of
+ * plan completed (chosen with a combo box), with the user's own row picked out,
+ * and the user's place if they are not in the top. It is added to the
+ * TrainingFrame() under the run history.
+ *
+ * The board may change on any thread, many times a second while the club is
+ * loaded; the panel only marks itself to be redrawn, through a
+ * UIUpdateScheduler(), so it asks the board for the top k at most once per frame.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import javax.swing.*;
+
+
+class LeaderboardPanel extends JPanel
+{
+    // instance variables
+    private Leaderboard leaderboard;
+    private String userName;                        // whose row is picked out
+    private JComboBox<String> rankBy;
+    private JLabel [] rows;                         // one per place shown
+    private JLabel userRow;                         // the user's place, when not in the top
+    private UIUpdateScheduler uiUpdates;
+    private int boardView;
+
+    // final variables
+    final int TOP_K = Integer.getInteger("runbuddy.leaderboardSize", 5);
+    final String [] RANK_BY = { "Miles Completed", "% of Plan Completed" };    // indexed by MILES and PERCENT
+    final String FONT_TYPE = "Helvetica";
+    final int FRAME_MILLIS = Integer.getInteger("runbuddy.frameMillis", 16);
+    final int WIDTH = 450;
+    final Color BACKGROUND_COLOR = new Color(237, 237, 237);
+    final Color USER_COLOR = new Color(193, 207, 246);
+
+    // constructor
+    public LeaderboardPanel(Leaderboard leaderboard, String userName)
+    {
+        super(new BorderLayout());
+        this.leaderboard = leaderboard;
+        this.userName = userName;
+
+        layoutComponents();
+        addListeners();
+        showBoard();
+    }
+
+    /**
+     * Adds the title and combo box, a label for each place shown and one for
+     * the user's own place.
+     */
+    private void layoutComponents()
+    {
+        setBackground(BACKGROUND_COLOR);
+        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+        JPanel header = new JPanel(new BorderLayout());
+        header.setBackground(BACKGROUND_COLOR);
+        JLabel title = new JLabel("Club Leaderboard");
+        title.setFont(new Font(FONT_TYPE, Font.BOLD, 15));
+        rankBy = new JComboBox<String>(RANK_BY);
+        rankBy.setFont(new Font(FONT_TYPE, Font.PLAIN, 12));
+        header.add(title, BorderLayout.WEST);
+        header.add(rankBy, BorderLayout.EAST);
+        add(header, BorderLayout.NORTH);
+
+        JPanel places = new JPanel(new GridLayout(TOP_K + 1, 1));
+        places.setBackground(BACKGROUND_COLOR);
+        Font rowFont = new Font(FONT_TYPE, Font.PLAIN, 13);
+        rows = new JLabel [TOP_K];
+        for (int place = 0; place < TOP_K; place++)
+        {
+            rows[place] = new JLabel(" ");
+            rows[place].setFont(rowFont);
+            rows[place].setOpaque(true);
+            places.add(rows[place]);
+        }
+        userRow = new JLabel(" ");
+        userRow.setFont(new Font(FONT_TYPE, Font.ITALIC, 13));
+        places.add(userRow);
+        add(places, BorderLayout.CENTER);
+
+        setPreferredSize(new Dimension(WIDTH, 40 + 20 * (TOP_K + 1)));
+    }
+
+    /**
+     * Redraws the board whenever it changes (at most once per frame), and when
+     * the ranking shown is changed.
+     */
+    private void addListeners()
+    {
+        uiUpdates = new UIUpdateScheduler(FRAME_MILLIS);
+        boardView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run() { showBoard(); }
+                }
+        );
+
+        leaderboard.addListener(
+                new Leaderboard.Listener()
+                {
+                    public void leaderboardChanged() { uiUpdates.markDirty(boardView); }
+                }
+        );
+
+        rankBy.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { showBoard(); }
+                }
+        );
+    }
+
+    /**
+     * Fills in the labels from the top of the board, and the user's place.
+     * Called on the UI thread.
+     */
+    private void showBoard()
+    {
+        int by = rankBy.getSelectedIndex();
+        List<Leaderboard.Standing> top = leaderboard.getTop(TOP_K, by);
+        boolean userShown = false;
+        for (int place = 0; place < TOP_K; place++)
+        {
+            if (place < top.size())
+            {
+                Leaderboard.Standing standing = top.get(place);
+                boolean isUser = standing.name.equals(userName);
+                userShown |= isUser;
+                rows[place].setText(describe(standing));
+                rows[place].setBackground(isUser ? USER_COLOR : BACKGROUND_COLOR);
+            }
+            else
+            {
+                rows[place].setText(" ");
+                rows[place].setBackground(BACKGROUND_COLOR);
+            }
+        }
+
+        Leaderboard.Standing user = leaderboard.getStanding(userName, by);
+        if (userShown || user == null) { userRow.setText(leaderboard.isLoading() ? "   loading the club..." : " "); }
+        else { userRow.setText(describe(user) + "   of " + leaderboard.size()); }
+        setToolTipText("Leaderboard: " + leaderboard.getSummary());
+    }
+
+    /**
+     * Formats a member's place and totals for a row of the panel.
+     */
+    private String describe(Leaderboard.Standing standing)
+    {
+        return String.format("   %d.  %s  --  %.1f miles, %.0f%% of plan",
+                standing.rank, standing.name, standing.milesCompleted, standing.percentComplete);
+    }
+}
@@ -0,0 +1,271 @@
+//Metrics.java
+/**
+ * The Metrics() class is the registry for the counters and latency histograms
+ * that RunBuddy keeps about itself (how long plans take to generate and save,
+ * how long profiles take to load, etc.), so that we can tell where time goes.
+ *
+ * Each part of RunBuddy looks up its histograms and counters once, by name, and
+ * keeps them. Timing an operation is then just:
+ *
+ *     long start = metrics.start();
+ *     ... the operation ...
+ *     latency.recordSince(start);
+ *
+ * which does not allocate. Metrics can be turned on and off at any time; while
+ * they are off, start() returns 0 and nothing is recorded.
+ *
+ * The metrics are written in the Prometheus text format, both to the file
+ * "runbuddy_metrics.txt" every so often, and (if a port is set) to anything that
+ * asks for http://localhost:<port>/metrics. Both are set up by startExporters()
+ * from these system properties:
+ *
+ *     runbuddy.metrics              record metrics at all (default true)
+ *     runbuddy.metrics.dumpSeconds  seconds between file dumps (default 60, 0 for none)
+ *     runbuddy.metrics.port         port to serve metrics on (default none)
+ *
+ * @author: Megan Frenkel
+ */
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+
+class Metrics
+{
+    // the single, shared registry
+    private static Metrics metrics;
+
+    // instance variables
+    private volatile boolean enabled;
+    private TreeMap<String, LatencyHistogram> histograms;     // sorted by name, for the export
+    private TreeMap<String, LongAdder> counters;
+    private ScheduledExecutorService dumpTimer;
+    private HttpServer server;
+
+    // final variables
+    static final String DUMP_FILE = "runbuddy_metrics.txt";
+    static final String PREFIX = "runbuddy_";
+    static final double [] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    // constructor; only called on by getMetrics()
+    private Metrics()
+    {
+        this.enabled = Boolean.parseBoolean(System.getProperty("runbuddy.metrics", "true"));
+        this.histograms = new TreeMap<String, LatencyHistogram>();
+        this.counters = new TreeMap<String, LongAdder>();
+    }
+
+    /**
+     * Returns the shared metrics registry, creating it the first time it is called.
+     * @return  the shared Metrics object
+     */
+    public static synchronized Metrics getMetrics()
+    {
+        if (metrics == null) { metrics = new Metrics(); }
+        return metrics;
+    }
+
+    /**
+     * Gets the latency histogram with the given name, creating it if needed.
+     * Names are in snake_case, e.g. "plan_save"; they are exported in seconds.
+     *
+     * @param name  name of the histogram
+     * @return      the LatencyHistogram
+     */
+    public synchronized LatencyHistogram histogram(String name)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
+        {
+            histogram = new LatencyHistogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the counter with the given name, creating it if needed.
+     *
+     * @param name  name of the counter, e.g. "plan_records_saved"
+     * @return      the counter
+     */
+    public synchronized LongAdder counter(String name)
+    {
+        LongAdder counter = counters.get(name);
+        if (counter == null)
+        {
+            counter = new LongAdder();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Starts timing an operation.
+     * @return  System.nanoTime(), or 0 if metrics are turned off
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds to a counter, if metrics are turned on.
+     *
+     * @param counter   counter from counter()
+     * @param amount    amount to add
+     */
+    public void count(LongAdder counter, long amount)
+    {
+        if (enabled) { counter.add(amount); }
+    }
+
+    /**
+     * Setter for enabled; metrics can be turned on or off at any time
+     * @param enabled   should metrics be recorded?
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Getter for enabled
+     * @return  boolean; are metrics being recorded?
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Starts the periodic file dump and, if a port is set, the local metrics
+     * endpoint, as set by the system properties described above. The file is
+     * also written once more when RunBuddy exits.
+     */
+    public synchronized void startExporters()
+    {
+        int dumpSeconds = Integer.getInteger("runbuddy.metrics.dumpSeconds", 60);
+        if (dumpSeconds > 0 && dumpTimer == null)
+        {
+            dumpTimer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "metrics-dump");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+            );
+            Runnable dump = new Runnable()
+            {
+                public void run() { dumpToFile(); }
+            };
+            dumpTimer.scheduleAtFixedRate(dump, dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(dump, "metrics-final-dump"));
+        }
+
+        Integer port = Integer.getInteger("runbuddy.metrics.port");
+        if (port != null && server == null)
+        {
+            try
+            {
+                // only listen on localhost; metrics are not meant to leave the machine
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/metrics",
+                        new HttpHandler()
+                        {
+                            public void handle(HttpExchange exchange) throws IOException
+                            {
+                                byte [] body = export().getBytes(StandardCharsets.UTF_8);
+                                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                                exchange.sendResponseHeaders(200, body.length);
+                                OutputStream out = exchange.getResponseBody();
+                                out.write(body);
+                                out.close();
+                            }
+                        }
+                );
+                server.setExecutor(dumpTimer);  // requests are rare; no need for threads of their own
+                server.start();
+            }
+            catch (IOException e)
+            {
+                System.out.println("WARNING: Could not serve metrics on port " + port + " due to " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics to DUMP_FILE, replacing the last dump in one step so that
+     * anything reading the file never sees half of a dump.
+     */
+    public void dumpToFile()
+    {
+        try
+        {
+            Path dumpFile = Paths.get(DUMP_FILE);
+            Path tempFile = Paths.get(DUMP_FILE + ".tmp");
+            Files.write(tempFile, export().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not write metrics due to " + e);
+        }
+    }
+
+    /**
+     * Writes every counter and histogram in the Prometheus text format. Each
+     * histogram is written as a summary (its QUANTILES, sum and count, in
+     * seconds) along with a gauge of the largest value seen.
+     *
+     * @return  String holding the metrics
+     */
+    public synchronized String export()
+    {
+        StringBuilder text = new StringBuilder();
+
+        text.append("# TYPE ").append(PREFIX).append("metrics_enabled gauge\n");
+        text.append(PREFIX).append("metrics_enabled ").append(enabled ? 1 : 0).append('\n');
+
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet())
+        {
+            String name = PREFIX + counter.getKey() + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+
+        for (LatencyHistogram histogram : histograms.values())
+        {
+            String name = PREFIX + histogram.getName() + "_seconds";
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES)
+            {
+                text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.getValueAtQuantile(quantile))).append('\n');
+            }
+            text.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+            text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            text.append("# TYPE ").append(name).append("_max gauge\n");
+            text.append(name).append("_max ").append(seconds(histogram.getMax())).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Converts nanoseconds to seconds.
+     */
+    private double seconds(long nanos)
+    {
+        return nanos / 1e9;
+    }
+}
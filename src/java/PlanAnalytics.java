@@ -0,0 +1,466 @@
+//PlanAnalytics.java
+/**
+ * The PlanAnalytics() class answers coaches' questions about every user at once,
+ * such as "what share of beginners finished week 4?" or "how many miles has each
+ * age group completed on average?", by scanning every "<USERNAME>_profile.txt" and
+ * "<USERNAME>_training_plan.txt" in a data directory. It is run as a command:
+ *
+ *     java PlanAnalytics [--by race,age,ability,time] <directory> <results.csv>
+ *
+ * Users are grouped by any of their race, age group, ability group and time group
+ * (race, age and ability by default). Two CSV files are written: one row per group
+ * with runs and miles planned and completed, and, next to it ("_weeks.csv"), one
+ * row per group and week with the number of users who finished every run of it.
+ *
+ * As in the RunLogImporter(), the directory is walked on the calling thread, which
+ * hands each profile to a fixed pool of reader threads through a bounded queue; if
+ * the queue is full the caller reads the profile itself. Each reader joins the
+ * profile to its plan by name and reads both with a streaming reader, one line at
+ * a time, keeping only a small summary of the plan. Summaries are added into a
+ * map of groups that belongs to the reader thread, so readers never wait on one
+ * another, and the maps are merged once every file has been read.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class PlanAnalytics
+{
+    // instance variables
+    private String [] groupBy;                              // profile values that users are grouped by
+    private ConcurrentLinkedQueue<Map<String, Group>> partials;     // each reader thread's groups
+    private Map<String, Group> groups;                      // all of the groups, once merged; sorted by key
+
+    // statistics for the last scan
+    private AtomicInteger profilesRead;
+    private AtomicInteger plansRead;
+    private AtomicInteger plansMissing;                     // profiles with no plan
+    private AtomicInteger filesSkipped;                     // files that could not be read or parsed
+    private int planFiles;
+    private long elapsedNanos;
+
+    // final variables
+    static final String [] GROUP_FIELDS = { "race", "age", "ability", "time" };
+    final String PROFILE_SUFFIX = "_profile.txt";
+    final String PLAN_SUFFIX = "_training_plan.txt";
+    final int READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int QUEUE_PER_READER = 64;                        // profiles waiting for each reader, at most
+    static final int BUFFER_SIZE = 8 * 1024;                // profiles and plans are small
+
+    // each reader thread adds into its own groups, which are merged at the end
+    private ThreadLocal<Map<String, Group>> partial = new ThreadLocal<Map<String, Group>>()
+    {
+        @Override protected Map<String, Group> initialValue()
+        {
+            Map<String, Group> threadGroups = new HashMap<String, Group>();
+            partials.add(threadGroups);
+            return threadGroups;
+        }
+    };
+
+    // constructor
+    public PlanAnalytics(String [] groupBy)
+    {
+        for (String field : groupBy)
+        {
+            if (!Arrays.asList(GROUP_FIELDS).contains(field))
+            {
+                throw new IllegalArgumentException("cannot group by " + field + "; use "
+                        + String.join(",", GROUP_FIELDS));
+            }
+        }
+        this.groupBy = groupBy;
+    }
+
+    /**
+     * Runs the analytics from the command line.
+     * @param args  [--by fields] directory results.csv
+     */
+    public static void main (String [] args) throws IOException
+    {
+        String [] groupBy = { "race", "age", "ability" };
+        int arg = 0;
+        if (args.length > 1 && args[0].equals("--by"))
+        {
+            groupBy = args[1].split(",");
+            arg = 2;
+        }
+        if (args.length - arg != 2)
+        {
+            System.out.println("usage: java PlanAnalytics [--by race,age,ability,time] <directory> <results.csv>");
+            System.exit(2);
+        }
+
+        PlanAnalytics analytics = new PlanAnalytics(groupBy);
+        analytics.scan(Paths.get(args[arg]));
+        analytics.writeCsv(Paths.get(args[arg + 1]));
+        System.out.println(analytics.getSummary());
+    }
+
+    /**
+     * Reads every profile in the directory, joined to its plan, and adds it into
+     * the group for its profile values.
+     *
+     * @param directory     directory holding profiles and plans
+     * @throws IOException  if the directory cannot be read
+     */
+    public void scan(Path directory) throws IOException
+    {
+        partials = new ConcurrentLinkedQueue<Map<String, Group>>();
+        profilesRead = new AtomicInteger();
+        plansRead = new AtomicInteger();
+        plansMissing = new AtomicInteger();
+        filesSkipped = new AtomicInteger();
+        planFiles = 0;
+        long start = System.nanoTime();
+
+        ThreadPoolExecutor readers = new ThreadPoolExecutor(READERS, READERS, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(READERS * QUEUE_PER_READER),
+                new ThreadPoolExecutor.CallerRunsPolicy());   // back-pressure: caller reads when queue is full
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.txt"))
+        {
+            for (final Path file : files)
+            {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(PLAN_SUFFIX)) { planFiles += 1; }
+                if (!name.endsWith(PROFILE_SUFFIX)) { continue; }
+
+                readers.execute(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                String user = name.substring(0, name.length() - PROFILE_SUFFIX.length());
+                                readUser(file, file.resolveSibling(user + PLAN_SUFFIX));
+                            }
+                        }
+                );
+            }
+        }
+        finally
+        {
+            readers.shutdown();
+            try { readers.awaitTermination(1, TimeUnit.HOURS); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+
+        // merge each reader's groups; the readers have all finished with them
+        groups = new TreeMap<String, Group>();
+        for (Map<String, Group> threadGroups : partials)
+        {
+            for (Map.Entry<String, Group> entry : threadGroups.entrySet())
+            {
+                Group group = groups.get(entry.getKey());
+                if (group == null) { groups.put(entry.getKey(), entry.getValue()); }
+                else { group.merge(entry.getValue()); }
+            }
+        }
+        partials = null;
+        partial.remove();       // this thread may have read profiles too; the next scan starts afresh
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Reads a single user's profile and plan and adds the plan into the user's
+     * group on this thread. Users whose files cannot be read are skipped.
+     *
+     * @param profileFile   path to the user's profile
+     * @param planFile      path to the user's plan, which may not exist
+     */
+    private void readUser(Path profileFile, Path planFile)
+    {
+        try
+        {
+            String key = readGroupKey(profileFile);
+            profilesRead.incrementAndGet();
+
+            Group group = partial.get().get(key);
+            if (group == null)
+            {
+                group = new Group();
+                partial.get().put(key, group);
+            }
+            if (!Files.isRegularFile(planFile))
+            {
+                group.plansMissing += 1;
+                plansMissing.incrementAndGet();
+                return;
+            }
+            group.addPlan(planFile);
+            plansRead.incrementAndGet();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            filesSkipped.incrementAndGet();
+            System.out.println("WARNING: Could not read " + profileFile + " due to " + e);
+        }
+    }
+
+    /**
+     * Reads a profile, laid out as UserProfile.createUserProfile() saves it, and
+     * works out the key of its group: the values it is grouped by, joined by commas.
+     *
+     * @param profileFile   path to the profile
+     * @return              String holding the key, e.g. "half,2,1"
+     * @throws IOException  if the profile cannot be read
+     */
+    private String readGroupKey(Path profileFile) throws IOException
+    {
+        ArrayList<String> values = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(profileFile), StandardCharsets.US_ASCII), BUFFER_SIZE))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                for (String value : line.split(","))
+                {
+                    if (!value.trim().isEmpty()) { values.add(value.trim()); }
+                }
+            }
+        }
+
+        // the race is saved last, unless the profile is from before races could be chosen
+        String race = PlanTemplateRegistry.DEFAULT_SOURCE;
+        if (values.size() > 4 && !values.get(values.size() - 1).matches("\\d+"))
+        {
+            race = values.get(values.size() - 1);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (String field : groupBy)
+        {
+            if (key.length() > 0) { key.append(','); }
+            if (field.equals("race")) { key.append(race); }
+            else if (field.equals("age")) { key.append(Integer.parseInt(values.get(1))); }
+            else if (field.equals("ability")) { key.append(Integer.parseInt(values.get(2))); }
+            else { key.append(Integer.parseInt(values.get(3))); }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Writes the groups to a CSV file, and the weeks of each group to a second CSV
+     * file next to it, named with "_weeks" before the ".csv".
+     *
+     * @param results       path to the CSV file for the groups
+     * @throws IOException  if either file cannot be written
+     */
+    public void writeCsv(Path results) throws IOException
+    {
+        String groupColumns = String.join(",", groupBy);
+        StringBuilder summary = new StringBuilder(groupColumns).append(",users,plans_missing,avg_weeks,")
+                .append("runs_planned,runs_completed,completion_rate,miles_planned,miles_completed,")
+                .append("avg_miles_completed,actual_miles\n");
+        StringBuilder weeks = new StringBuilder(groupColumns).append(",week,users,finished,finished_share\n");
+
+        for (Map.Entry<String, Group> entry : groups.entrySet())
+        {
+            Group group = entry.getValue();
+            summary.append(entry.getKey()).append(',')
+                    .append(group.users).append(',')
+                    .append(group.plansMissing).append(',')
+                    .append(ratio(group.weeks, group.users)).append(',')
+                    .append(group.runsPlanned).append(',')
+                    .append(group.runsCompleted).append(',')
+                    .append(ratio(group.runsCompleted, group.runsPlanned)).append(',')
+                    .append(decimal(group.milesPlanned)).append(',')
+                    .append(decimal(group.milesCompleted)).append(',')
+                    .append(ratio(group.milesCompleted, group.users)).append(',')
+                    .append(decimal(group.actualMiles)).append('\n');
+
+            for (int week = 0; week < group.weekUsers.length && group.weekUsers[week] > 0; week++)
+            {
+                weeks.append(entry.getKey()).append(',')
+                        .append(week + 1).append(',')
+                        .append(group.weekUsers[week]).append(',')
+                        .append(group.weekFinished[week]).append(',')
+                        .append(ratio(group.weekFinished[week], group.weekUsers[week])).append('\n');
+            }
+        }
+
+        String name = results.getFileName().toString();
+        String weeksName = (name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name) + "_weeks.csv";
+        Files.write(results, summary.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.write(results.resolveSibling(weeksName), weeks.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes a number with three decimal places, whatever the default locale.
+     */
+    private static String decimal(double value)
+    {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Divides two numbers for a CSV column, giving 0 rather than NaN for an empty group.
+     */
+    private static String ratio(double part, double whole)
+    {
+        return decimal(whole > 0 ? part / whole : 0);
+    }
+
+    /**
+     * Getter for the groups found by the last scan
+     * @return  map of group key (e.g. "half,2,1") to Group, sorted by key
+     */
+    public Map<String, Group> getGroups()
+    {
+        return groups;
+    }
+
+    /**
+     * Describes the last scan, e.g. for the command line.
+     * @return  String holding the number of files read and how long it took
+     */
+    public String getSummary()
+    {
+        double seconds = elapsedNanos / 1e9;
+        return profilesRead.get() + " profiles and " + plansRead.get() + " plans read in "
+                + String.format(Locale.ROOT, "%.2f", seconds) + " s ("
+                + String.format(Locale.ROOT, "%.0f", (profilesRead.get() + plansRead.get()) / Math.max(seconds, 1e-9))
+                + " files/s) into " + groups.size() + " groups; " + plansMissing.get() + " profiles without a plan, "
+                + Math.max(0, planFiles - plansRead.get()) + " plans without a profile, "
+                + filesSkipped.get() + " skipped";
+    }
+
+    /**
+     * Inner class adding up the plans of every user in a group. A Group is only
+     * changed by the reader thread that made it, until the groups are merged.
+     */
+    static class Group
+    {
+        long users;
+        long plansMissing;
+        long weeks;
+        long runsPlanned;                       // days with miles to run
+        long runsCompleted;
+        double milesPlanned;
+        double milesCompleted;                  // planned miles of the runs completed
+        double actualMiles;                     // miles recorded by a watch (see RunLogImporter())
+        long [] weekUsers = new long [0];       // users whose plan has each week
+        long [] weekFinished = new long [0];    // users who completed every run of each week
+
+        // values in a plan record, as TrainingPlanGenerator.formatRecord() writes them
+        static final int WEEK = 0;
+        static final int DAY = 1;
+        static final int MILES = 2;
+        static final int COMPLETED = 4;
+        static final int ACTUAL = 5;
+
+        /**
+         * Reads a plan one record at a time and adds it into the group. Nothing is
+         * added if the plan cannot be read to the end.
+         *
+         * @param planFile      path to the plan
+         * @throws IOException  if the plan cannot be read
+         */
+        void addPlan(Path planFile) throws IOException
+        {
+            Group plan = new Group();       // just this plan, until it has all been read
+            int [] weekRuns = new int [0];
+            int [] weekCompleted = new int [0];
+            double [] record = new double [6];
+
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(Files.newInputStream(planFile), StandardCharsets.US_ASCII), BUFFER_SIZE))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    if (!parseRecord(line, record)) { continue; }
+
+                    int week = (int) record[WEEK] - 1;
+                    if (week >= weekRuns.length)
+                    {
+                        weekRuns = Arrays.copyOf(weekRuns, week + 1);
+                        weekCompleted = Arrays.copyOf(weekCompleted, week + 1);
+                    }
+                    if (record[MILES] > 0)
+                    {
+                        weekRuns[week] += 1;
+                        plan.runsPlanned += 1;
+                        plan.milesPlanned += record[MILES];
+                        if (record[COMPLETED] > 0)
+                        {
+                            weekCompleted[week] += 1;
+                            plan.runsCompleted += 1;
+                            plan.milesCompleted += record[MILES];
+                        }
+                    }
+                    plan.actualMiles += record[ACTUAL];
+                }
+            }
+
+            plan.users = 1;
+            plan.weeks = weekRuns.length;
+            plan.weekUsers = new long [weekRuns.length];
+            plan.weekFinished = new long [weekRuns.length];
+            for (int week = 0; week < weekRuns.length; week++)
+            {
+                plan.weekUsers[week] = 1;
+                if (weekCompleted[week] == weekRuns[week]) { plan.weekFinished[week] = 1; }
+            }
+            merge(plan);
+        }
+
+        /**
+         * Parses the comma separated values of a plan record into the array
+         * provided, without splitting the line into Strings first.
+         *
+         * @param line      the record
+         * @param record    array to fill in; values missing from the line are 0
+         * @return          boolean; was the line a record?
+         */
+        static boolean parseRecord(String line, double [] record)
+        {
+            Arrays.fill(record, 0);
+            int field = 0, start = 0;
+            while (field < record.length && start <= line.length())
+            {
+                int end = line.indexOf(',', start);
+                if (end < 0) { end = line.length(); }
+                String value = line.substring(start, end).trim();
+                if (value.isEmpty()) { return field > DAY; }
+                record[field++] = Double.parseDouble(value);
+                start = end + 1;
+            }
+            return field > DAY;
+        }
+
+        /**
+         * Adds another group's plans into this one.
+         * @param other     a group with the same key, no longer changed by any thread
+         */
+        void merge(Group other)
+        {
+            users += other.users;
+            plansMissing += other.plansMissing;
+            weeks += other.weeks;
+            runsPlanned += other.runsPlanned;
+            runsCompleted += other.runsCompleted;
+            milesPlanned += other.milesPlanned;
+            milesCompleted += other.milesCompleted;
+            actualMiles += other.actualMiles;
+            if (other.weekUsers.length > weekUsers.length)
+            {
+                weekUsers = Arrays.copyOf(weekUsers, other.weekUsers.length);
+                weekFinished = Arrays.copyOf(weekFinished, other.weekUsers.length);
+            }
+            for (int week = 0; week < other.weekUsers.length; week++)
+            {
+                weekUsers[week] += other.weekUsers[week];
+                weekFinished[week] += other.weekFinished[week];
+            }
+        }
+    }
+}
@@ -0,0 +1,859 @@
+//PlanArchive.java
+/**
+ * The PlanArchive() class keeps finished and retired training plans in a single
+ * compact file, rather than as a "<USERNAME>_training_plan.txt" for every user
+ * forever. Plans are converted from the text files that
+ * TrainingPlanGenerator.saveUserProfile() writes, and can be converted as a command
+ * (only finished plans can be removed, so --remove needs --finished):
+ *
+ *     java PlanArchive [--finished] [--remove] <directory> <archive>
+ *
+ * The archive stores plans by column rather than by record: the miles, pace,
+ * completions and actual miles of every day are each kept together, so that
+ * analytics needing only one of them (e.g., the miles of every plan) read and
+ * decompress only that column. The week and day of each record are not stored,
+ * since records are saved in order, a whole week at a time.
+ *
+ * Plans are written in blocks of BLOCK_USERS users. Within a block, each column
+ * is encoded on its own and compressed (Deflater) on its own:
+ *  - miles, pace and actual miles are kept in thousandths (as the text file
+ *    has them), each as the difference from the day before (which is small
+ *    from one day to the next), zig-zagged and written as a varint;
+ *  - completions are kept as one bit per day.
+ * The file ends with a footer indexing where each block's columns are, and, for
+ * every user, their profile, number of days and where their values start in the
+ * block's columns; the footer is compressed too. Its last bytes give where the
+ * footer starts and its length once decompressed:
+ *
+ *     MAGIC, VERSION, blocks..., footer, footer position (long), footer length (int), MAGIC
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+class PlanArchive implements Closeable
+{
+    // instance variables
+    private FileChannel channel;                    // the archive, open for reading
+    private long [][] blockOffsets;                 // where each block's columns start, by block and column
+    private int [][] blockLengths;                  // length of each column as stored (compressed)
+    private int [][] blockRawLengths;               // length of each column once decompressed
+    private LinkedHashMap<String, Entry> entries;   // every user, in the order they were archived
+
+    // final variables
+    static final int MAGIC = 0x52425041;            // "RBPA"
+    static final int VERSION = 1;
+    static final int BLOCK_USERS = 512;             // users whose columns are compressed together
+    static final int MILES = 0;                     // columns, in the order of a plan record's values
+    static final int PACE = 1;
+    static final int COMPLETED = 2;
+    static final int ACTUAL = 3;
+    static final int COLUMNS = 4;
+    static final String [] COLUMN_NAMES = { "miles", "pace", "completed", "actual" };
+    static final int SCALE = 1000;                  // values are kept in thousandths
+    static final int TRAILER_BYTES = 16;           // footer position (long), its length (int) and MAGIC
+    static final int DAYS_IN_WEEK = 7;
+    static final String PLAN_SUFFIX = "_training_plan.txt";
+    static final String PROFILE_SUFFIX = "_profile.txt";
+
+    // constructor
+    public PlanArchive(Path archive) throws IOException
+    {
+        this.channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try
+        {
+            readFooter();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw (e instanceof IOException) ? (IOException) e : new IOException(archive + " is not a plan archive", e);
+        }
+    }
+
+    /**
+     * Converts the plans in a directory from the command line, and reports the
+     * compression ratio and how fast a column can be scanned.
+     * @param args  [--finished] [--remove] directory archive
+     */
+    public static void main (String [] args) throws IOException
+    {
+        boolean finishedOnly = false, remove = false;
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("--"); arg++)
+        {
+            if (args[arg].equals("--finished")) { finishedOnly = true; }
+            else if (args[arg].equals("--remove")) { remove = true; }
+        }
+        if (args.length - arg != 2 || (remove && !finishedOnly))
+        {
+            System.out.println("usage: java PlanArchive [--finished] [--remove] <directory> <archive>");
+            System.out.println("       (--remove needs --finished: only finished plans are removed)");
+            System.exit(2);
+        }
+
+        Conversion conversion = convert(Paths.get(args[arg]), Paths.get(args[arg + 1]), finishedOnly, remove);
+        System.out.println(conversion.getReport());
+    }
+
+    /**
+     * Archives the plans in a directory, with their profiles. Users already in the
+     * archive are kept, unless the directory has a newer plan for them. The new
+     * archive is written next to the old one and moved over it once complete, so
+     * the old archive is never left half written. If asked to, finished plans and
+     * their profiles are removed once the new archive has been read back and
+     * matches them (see removePlan()); a plan still being trained for is never
+     * removed, so removing needs finishedOnly.
+     *
+     * @param directory     directory holding "<USERNAME>_training_plan.txt" files
+     * @param archive       the archive to write (or add to)
+     * @param finishedOnly  only archive plans with every run completed?
+     * @param remove        remove the plan files and profiles once archived?
+     * @return              Conversion describing what was archived
+     * @throws IOException  if the archive cannot be written
+     */
+    public static Conversion convert(Path directory, Path archive, boolean finishedOnly, boolean remove)
+            throws IOException
+    {
+        if (remove && !finishedOnly)
+        {
+            throw new IllegalArgumentException("only finished plans can be removed once archived");
+        }
+        Conversion conversion = new Conversion();
+        long start = System.nanoTime();
+
+        // read the plans to archive, keeping the text read so it can be checked before removing
+        TreeMap<String, double [][]> plans = new TreeMap<String, double [][]>();
+        TreeMap<String, String> profiles = new TreeMap<String, String>();
+        TreeMap<String, byte []> texts = new TreeMap<String, byte []>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + PLAN_SUFFIX))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                String user = name.substring(0, name.length() - PLAN_SUFFIX.length());
+                try
+                {
+                    byte [] contents = Files.readAllBytes(file);
+                    double [][] days = parsePlan(new String(contents, StandardCharsets.US_ASCII));
+                    if (days == null)
+                    {
+                        conversion.plansSkipped += 1;
+                        System.out.println("WARNING: " + file + " does not hold whole weeks of records; not archived");
+                        continue;
+                    }
+                    if (finishedOnly && !isFinished(days)) { continue; }
+
+                    Path profileFile = file.resolveSibling(user + PROFILE_SUFFIX);
+                    profiles.put(user, Files.isRegularFile(profileFile)
+                            ? new String(Files.readAllBytes(profileFile), StandardCharsets.US_ASCII).trim() : "");
+                    plans.put(user, days);
+                    texts.put(user, contents);
+                    conversion.textBytes += contents.length;
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    conversion.plansSkipped += 1;
+                    System.out.println("WARNING: Could not read " + file + " due to " + e);
+                }
+            }
+        }
+        conversion.readNanos = System.nanoTime() - start;
+
+        // write them, after the users already archived
+        Path temporary = archive.resolveSibling(archive.getFileName() + ".tmp");
+        try (Writer writer = new Writer(temporary))
+        {
+            if (Files.isRegularFile(archive))
+            {
+                try (PlanArchive existing = new PlanArchive(archive))
+                {
+                    for (Entry entry : existing.getEntries())
+                    {
+                        if (plans.containsKey(entry.name)) { continue; }
+                        writer.add(entry.name, entry.profile, existing.readPlan(entry.name));
+                        conversion.plansKept += 1;
+                    }
+                }
+            }
+            for (Map.Entry<String, double [][]> plan : plans.entrySet())
+            {
+                writer.add(plan.getKey(), profiles.get(plan.getKey()), plan.getValue());
+                conversion.plansArchived += 1;
+            }
+        }
+        Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        conversion.archiveBytes = Files.size(archive);
+
+        // read the archive back; only plans that match it can be removed
+        try (PlanArchive written = new PlanArchive(archive))
+        {
+            for (Map.Entry<String, double [][]> plan : plans.entrySet())
+            {
+                if (!Arrays.deepEquals(written.readPlan(plan.getKey()), roundPlan(plan.getValue())))
+                {
+                    throw new IOException("the plan of " + plan.getKey() + " did not match once archived");
+                }
+            }
+
+            long scanStart = System.nanoTime();
+            final double [] miles = new double [1];
+            written.scanColumn(MILES,
+                    new ColumnVisitor()
+                    {
+                        public void visit(Entry entry, double [] values, int days)
+                        {
+                            for (int day = 0; day < days; day++) { miles[0] += values[day]; }
+                        }
+                    }
+            );
+            conversion.scanNanos = System.nanoTime() - scanStart;
+            conversion.plansScanned = written.getEntries().size();
+            conversion.milesScanned = miles[0];
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                conversion.columnBytes[column] = written.getColumnBytes(column);
+            }
+        }
+
+        if (remove)
+        {
+            for (String user : plans.keySet())
+            {
+                if (removePlan(directory, user, texts.get(user))) { conversion.plansRemoved += 1; }
+            }
+        }
+        return conversion;
+    }
+
+    /**
+     * Removes an archived user's plan file and profile, holding the lock the
+     * PlanJournal() saves the plan under, so that a RunBuddy open on the user
+     * cannot save it meanwhile. The plan is only removed if it still holds what
+     * was archived; if it was changed since (e.g., a run was unchecked), it is
+     * left for the next conversion. The profile goes too, since it is archived
+     * with the plan and would otherwise have a new plan made for it at login.
+     *
+     * @param directory     directory holding the user's files
+     * @param user          name of the user
+     * @param archived      contents of the plan file as archived
+     * @return              boolean; were the files removed?
+     * @throws IOException  if the files cannot be read or removed
+     */
+    private static boolean removePlan(Path directory, String user, byte [] archived) throws IOException
+    {
+        Path planFile = directory.resolve(user + PLAN_SUFFIX);
+        try (FileChannel file = FileChannel.open(planFile, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            PlanJournal.lockFile(file, false);       // released when the channel is closed
+            ByteBuffer contents = ByteBuffer.allocate((int) file.size());
+            while (contents.hasRemaining() && file.read(contents) >= 0) { }
+            if (contents.hasRemaining() || !Arrays.equals(contents.array(), archived))
+            {
+                System.out.println("WARNING: " + planFile + " changed while it was archived; not removed");
+                return false;
+            }
+            Files.deleteIfExists(directory.resolve(user + PROFILE_SUFFIX));
+            Files.delete(planFile);
+            return true;
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;       // already removed
+        }
+    }
+
+    /**
+     * Parses the text of a plan file into its records, checking that they are in
+     * order and hold whole weeks.
+     *
+     * @param text  contents of a plan file
+     * @return      array of the values of each day, or null if the plan is not whole weeks in order
+     */
+    static double [][] parsePlan(String text)
+    {
+        ArrayList<double []> days = new ArrayList<double []>();
+        double [] record = new double [6];
+        for (String line : text.split("\\r?\\n"))
+        {
+            if (!PlanAnalytics.Group.parseRecord(line, record)) { continue; }
+            int planDay = days.size();
+            if ((int) record[0] != planDay / DAYS_IN_WEEK + 1 || (int) record[1] != planDay % DAYS_IN_WEEK + 1)
+            {
+                return null;
+            }
+            days.add(new double [] { record[2], record[3], record[4], record[5] });
+        }
+        if (days.isEmpty() || days.size() % DAYS_IN_WEEK != 0) { return null; }
+        return days.toArray(new double [days.size()][]);
+    }
+
+    /**
+     * Checks whether every run of a plan (every day with miles) is completed.
+     */
+    private static boolean isFinished(double [][] days)
+    {
+        for (double [] day : days)
+        {
+            if (day[MILES] > 0 && day[COMPLETED] <= 0) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Rounds a plan's values to what the archive keeps: thousandths, and 0 or 1
+     * for completions.
+     */
+    private static double [][] roundPlan(double [][] days)
+    {
+        double [][] rounded = new double [days.length][COLUMNS];
+        for (int day = 0; day < days.length; day++)
+        {
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                rounded[day][column] = (column == COMPLETED) ? (days[day][column] > 0 ? 1 : 0)
+                        : Math.round(days[day][column] * SCALE) / (double) SCALE;
+            }
+        }
+        return rounded;
+    }
+
+    /**
+     * Reads the footer at the end of the archive: where each block's columns are,
+     * and the index of users.
+     */
+    private void readFooter() throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        readFully(trailer, size - TRAILER_BYTES);
+        long footerOffset = trailer.getLong(0);
+        if (trailer.getInt(12) != MAGIC || footerOffset < 8 || footerOffset > size - TRAILER_BYTES)
+        {
+            throw new IOException("not a plan archive, or its footer was never written");
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate((int) (size - TRAILER_BYTES - footerOffset));
+        readFully(footer, footerOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                inflate(footer.array(), trailer.getInt(8), "the footer")));
+
+        int blocks = in.readInt();
+        blockOffsets = new long [blocks][COLUMNS];
+        blockLengths = new int [blocks][COLUMNS];
+        blockRawLengths = new int [blocks][COLUMNS];
+        for (int block = 0; block < blocks; block++)
+        {
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                blockOffsets[block][column] = in.readLong();
+                blockLengths[block][column] = in.readInt();
+                blockRawLengths[block][column] = in.readInt();
+            }
+        }
+
+        int users = in.readInt();
+        entries = new LinkedHashMap<String, Entry>(users * 2);
+        for (int user = 0; user < users; user++)
+        {
+            Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+            for (int column = 0; column < COLUMNS; column++) { entry.offsets[column] = in.readInt(); }
+            entries.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * Reads from the archive until the buffer is full.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) { throw new EOFException("the plan archive is cut short"); }
+        }
+    }
+
+    /**
+     * Reads and decompresses one column of a block.
+     *
+     * @param block     index of the block
+     * @param column    MILES, PACE, COMPLETED or ACTUAL
+     * @return          byte array holding the column's encoded values
+     */
+    private byte [] readBlockColumn(int block, int column) throws IOException
+    {
+        ByteBuffer compressed = ByteBuffer.allocate(blockLengths[block][column]);
+        readFully(compressed, blockOffsets[block][column]);
+        return inflate(compressed.array(), blockRawLengths[block][column], "block " + block);
+    }
+
+    /**
+     * Decompresses part of the archive.
+     *
+     * @param compressed    the bytes as stored
+     * @param rawLength     length of the bytes once decompressed
+     * @param part          what is being decompressed, for the error message
+     * @return              byte array holding the bytes decompressed
+     * @throws IOException  if the bytes are damaged
+     */
+    private static byte [] inflate(byte [] compressed, int rawLength, String part) throws IOException
+    {
+        byte [] raw = new byte [rawLength];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished())
+            {
+                length += inflater.inflate(raw, length, raw.length - length);
+                if (inflater.needsInput()) { break; }
+            }
+            if (length != raw.length) { throw new IOException(part + " of the plan archive is damaged"); }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException(part + " of the plan archive is damaged", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * Decodes a user's values from a column of their block.
+     *
+     * @param raw       the block's column, decompressed
+     * @param entry     the user
+     * @param column    MILES, PACE, COMPLETED or ACTUAL
+     * @param values    array to fill in, at least entry.days long
+     */
+    private static void decode(byte [] raw, Entry entry, int column, double [] values)
+    {
+        int position = entry.offsets[column];
+        if (column == COMPLETED)
+        {
+            for (int day = 0; day < entry.days; day++)
+            {
+                values[day] = (raw[position + (day >>> 3)] >>> (day & 7)) & 1;
+            }
+            return;
+        }
+
+        long previous = 0;
+        for (int day = 0; day < entry.days; day++)
+        {
+            // varint, seven bits at a time, then undo the zig-zag and the difference
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = raw[position++];
+                zigzag |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[day] = previous / (double) SCALE;
+        }
+    }
+
+    /**
+     * Reads a single column of a single user's plan, decompressing only that
+     * column of the user's block.
+     *
+     * @param user      name of the user
+     * @param column    MILES, PACE, COMPLETED or ACTUAL
+     * @return          array holding the value of each day, or null if the user is not archived
+     * @throws IOException  if the archive cannot be read
+     */
+    public double [] readColumn(String user, int column) throws IOException
+    {
+        Entry entry = entries.get(user);
+        if (entry == null) { return null; }
+        double [] values = new double [entry.days];
+        decode(readBlockColumn(entry.block, column), entry, column, values);
+        return values;
+    }
+
+    /**
+     * Reads the whole of a user's plan back, laid out as the userTrainingPlan's
+     * values are: miles, pace, completed and actual miles for each day.
+     *
+     * @param user      name of the user
+     * @return          array of the values of each day, or null if the user is not archived
+     * @throws IOException  if the archive cannot be read
+     */
+    public double [][] readPlan(String user) throws IOException
+    {
+        Entry entry = entries.get(user);
+        if (entry == null) { return null; }
+        double [][] days = new double [entry.days][COLUMNS];
+        for (int column = 0; column < COLUMNS; column++)
+        {
+            double [] values = readColumn(user, column);
+            for (int day = 0; day < entry.days; day++) { days[day][column] = values[day]; }
+        }
+        return days;
+    }
+
+    /**
+     * Reads a single column of every user's plan, in the order they were
+     * archived. Each block's column is decompressed once, and no other column is
+     * read at all. The array given to the visitor is reused from one user to the next.
+     *
+     * @param column    MILES, PACE, COMPLETED or ACTUAL
+     * @param visitor   told the values of each user in turn
+     * @throws IOException  if the archive cannot be read
+     */
+    public void scanColumn(int column, ColumnVisitor visitor) throws IOException
+    {
+        double [] values = new double [0];
+        int block = -1;
+        byte [] raw = null;
+        for (Entry entry : entries.values())
+        {
+            if (entry.block != block)
+            {
+                block = entry.block;
+                raw = readBlockColumn(block, column);
+            }
+            if (values.length < entry.days) { values = new double [entry.days]; }
+            decode(raw, entry, column, values);
+            visitor.visit(entry, values, entry.days);
+        }
+    }
+
+    /**
+     * Reads some of the columns of every user's plan together, in the order they
+     * were archived, as scanColumn() does for one (e.g., miles and completions,
+     * to add up the miles completed). The arrays given to the visitor are reused
+     * from one user to the next.
+     *
+     * @param columns   the columns to read, each MILES, PACE, COMPLETED or ACTUAL
+     * @param visitor   told the values of each user in turn, one array per column given
+     * @throws IOException  if the archive cannot be read
+     */
+    public void scanColumns(int [] columns, ColumnsVisitor visitor) throws IOException
+    {
+        double [][] values = new double [columns.length][0];
+        byte [][] raw = new byte [columns.length][];
+        int block = -1;
+        for (Entry entry : entries.values())
+        {
+            if (entry.block != block)
+            {
+                block = entry.block;
+                for (int i = 0; i < columns.length; i++) { raw[i] = readBlockColumn(block, columns[i]); }
+            }
+            for (int i = 0; i < columns.length; i++)
+            {
+                if (values[i].length < entry.days) { values[i] = new double [entry.days]; }
+                decode(raw[i], entry, columns[i], values[i]);
+            }
+            visitor.visit(entry, values, entry.days);
+        }
+    }
+
+    /**
+     * Getter for the users in the archive
+     * @return  collection of Entry, in the order the users were archived
+     */
+    public Collection<Entry> getEntries()
+    {
+        return entries.values();
+    }
+
+    /**
+     * Gets how many bytes a column takes up in the archive, compressed.
+     * @param column    MILES, PACE, COMPLETED or ACTUAL
+     * @return          long holding the bytes of that column in every block
+     */
+    public long getColumnBytes(int column)
+    {
+        long bytes = 0;
+        for (int [] lengths : blockLengths) { bytes += lengths[column]; }
+        return bytes;
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Interface for what scanColumn() tells about each user.
+     */
+    interface ColumnVisitor
+    {
+        void visit(Entry entry, double [] values, int days);
+    }
+
+    /**
+     * Interface for what scanColumns() tells about each user.
+     */
+    interface ColumnsVisitor
+    {
+        void visit(Entry entry, double [][] values, int days);
+    }
+
+    /**
+     * Inner class for a user in the archive's index.
+     */
+    static class Entry
+    {
+        final String name;
+        final String profile;           // the user's profile, as UserProfile saves it
+        final int block;                // block holding the user's columns
+        final int days;                 // days in the plan (whole weeks)
+        final int [] offsets = new int [COLUMNS];   // where the user's values start in each column of the block
+
+        Entry(String name, String profile, int block, int days)
+        {
+            this.name = name;
+            this.profile = profile;
+            this.block = block;
+            this.days = days;
+        }
+    }
+
+    /**
+     * Inner class writing a new archive, one user at a time. Nothing can be read
+     * from the archive until it is closed, which writes the footer.
+     */
+    static class Writer implements Closeable
+    {
+        private FileOutputStream file;
+        private DataOutputStream out;
+        private long position;                          // bytes written so far
+        private ByteArrayOutputStream [] columns;       // the columns of the block being filled
+        private ArrayList<Entry> entries;
+        private ArrayList<long []> blockOffsets;
+        private ArrayList<int []> blockLengths;
+        private ArrayList<int []> blockRawLengths;
+        private int usersInBlock;
+        private Deflater deflater;
+
+        Writer(Path archive) throws IOException
+        {
+            this.file = new FileOutputStream(archive.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+            this.columns = new ByteArrayOutputStream [COLUMNS];
+            for (int column = 0; column < COLUMNS; column++) { columns[column] = new ByteArrayOutputStream(); }
+            this.entries = new ArrayList<Entry>();
+            this.blockOffsets = new ArrayList<long []>();
+            this.blockLengths = new ArrayList<int []>();
+            this.blockRawLengths = new ArrayList<int []>();
+            this.usersInBlock = 0;
+            this.deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = 8;
+        }
+
+        /**
+         * Adds a user's plan to the archive.
+         *
+         * @param name      name of the user
+         * @param profile   the user's profile, as UserProfile saves it
+         * @param days      miles, pace, completed and actual miles of each day
+         * @throws IOException  if a finished block cannot be written
+         */
+        void add(String name, String profile, double [][] days) throws IOException
+        {
+            Entry entry = new Entry(name, profile, blockOffsets.size(), days.length);
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                ByteArrayOutputStream encoded = columns[column];
+                entry.offsets[column] = encoded.size();
+                if (column == COMPLETED)
+                {
+                    byte [] bits = new byte [(days.length + 7) / 8];
+                    for (int day = 0; day < days.length; day++)
+                    {
+                        if (days[day][COMPLETED] > 0) { bits[day >>> 3] |= 1 << (day & 7); }
+                    }
+                    encoded.write(bits, 0, bits.length);
+                    continue;
+                }
+
+                long previous = 0;
+                for (int day = 0; day < days.length; day++)
+                {
+                    long value = Math.round(days[day][column] * SCALE);
+                    long delta = value - previous;
+                    long zigzag = (delta << 1) ^ (delta >> 63);
+                    while ((zigzag & ~0x7fL) != 0)
+                    {
+                        encoded.write((int) ((zigzag & 0x7f) | 0x80));
+                        zigzag >>>= 7;
+                    }
+                    encoded.write((int) zigzag);
+                    previous = value;
+                }
+            }
+            entries.add(entry);
+
+            usersInBlock += 1;
+            if (usersInBlock == BLOCK_USERS) { writeBlock(); }
+        }
+
+        /**
+         * Compresses and writes each column of the block being filled.
+         */
+        private void writeBlock() throws IOException
+        {
+            if (usersInBlock == 0) { return; }
+
+            long [] offsets = new long [COLUMNS];
+            int [] lengths = new int [COLUMNS];
+            int [] rawLengths = new int [COLUMNS];
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                byte [] raw = columns[column].toByteArray();
+                offsets[column] = position;
+                rawLengths[column] = raw.length;
+                lengths[column] = deflate(raw);
+                columns[column].reset();
+            }
+            blockOffsets.add(offsets);
+            blockLengths.add(lengths);
+            blockRawLengths.add(rawLengths);
+            usersInBlock = 0;
+        }
+
+        /**
+         * Compresses bytes and writes them to the archive.
+         *
+         * @param raw   bytes to write
+         * @return      int holding the number of bytes written, once compressed
+         */
+        private int deflate(byte [] raw) throws IOException
+        {
+            byte [] buffer = new byte [8 * 1024];
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+
+            int written = 0;
+            while (!deflater.finished())
+            {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                written += length;
+            }
+            position += written;
+            return written;
+        }
+
+        /**
+         * Writes the last block and the footer, and syncs the archive to disk, so
+         * that it is safe to remove the plans it holds.
+         */
+        public void close() throws IOException
+        {
+            try
+            {
+                writeBlock();
+
+                ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+                DataOutputStream footer = new DataOutputStream(footerBytes);
+                footer.writeInt(blockOffsets.size());
+                for (int block = 0; block < blockOffsets.size(); block++)
+                {
+                    for (int column = 0; column < COLUMNS; column++)
+                    {
+                        footer.writeLong(blockOffsets.get(block)[column]);
+                        footer.writeInt(blockLengths.get(block)[column]);
+                        footer.writeInt(blockRawLengths.get(block)[column]);
+                    }
+                }
+                footer.writeInt(entries.size());
+                for (Entry entry : entries)
+                {
+                    footer.writeUTF(entry.name);
+                    footer.writeUTF(entry.profile);
+                    footer.writeInt(entry.block);
+                    footer.writeInt(entry.days);
+                    for (int column = 0; column < COLUMNS; column++) { footer.writeInt(entry.offsets[column]); }
+                }
+                footer.flush();
+
+                long footerOffset = position;
+                deflate(footerBytes.toByteArray());
+                out.writeLong(footerOffset);
+                out.writeInt(footerBytes.size());
+                out.writeInt(MAGIC);
+                out.flush();
+                file.getFD().sync();
+            }
+            finally
+            {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Inner class reporting on a conversion: what was archived, the compression
+     * ratio and how fast a column of the archive can be scanned.
+     */
+    static class Conversion
+    {
+        int plansArchived;
+        int plansKept;                  // already in the archive
+        int plansSkipped;               // could not be read, or not whole weeks
+        int plansRemoved;
+        int plansScanned;
+        long textBytes;                 // of the plans archived
+        long archiveBytes;              // of the whole archive
+        long [] columnBytes = new long [COLUMNS];
+        long readNanos;                 // reading the text plans
+        long scanNanos;                 // scanning the miles column of the archive
+        double milesScanned;
+
+        /**
+         * Describes the conversion, e.g. for the command line.
+         * @return  String holding the report, over several lines
+         */
+        String getReport()
+        {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "archived %d plans (%d kept, %d skipped, %d removed)%n",
+                    plansArchived, plansKept, plansSkipped, plansRemoved));
+            if (plansKept == 0 && archiveBytes > 0)
+            {
+                report.append(String.format(Locale.ROOT, "%d bytes of text in %d bytes: %.1f to 1%n",
+                        textBytes, archiveBytes, textBytes / (double) archiveBytes));
+            }
+            else
+            {
+                report.append(String.format(Locale.ROOT, "%d bytes of text added; archive is now %d bytes%n",
+                        textBytes, archiveBytes));
+            }
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                report.append(String.format(Locale.ROOT, "  %-10s %10d bytes%n", COLUMN_NAMES[column],
+                        columnBytes[column]));
+            }
+            report.append(String.format(Locale.ROOT, "text plans read in %.1f ms; miles of %d plans scanned "
+                            + "from the archive in %.1f ms (%.0f plans/s, %.1f miles)",
+                    readNanos / 1e6, plansScanned, scanNanos / 1e6, plansScanned / Math.max(scanNanos / 1e9, 1e-9),
+                    milesScanned));
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+//PlanFileWatcher.java
+/**
+ * The PlanFileWatcher() class watches a user's training plan file for changes
+ * made outside of RunBuddy, e.g. by a file sync between devices, so that an open
+ * TrainingFrame() can show them rather than overwrite them with its next save.
+ *
+ * A daemon thread waits on a WatchService for the directory holding the file.
+ * Sync tools often write a file in several steps, so once the file changes, the
+ * watcher waits until it has been quiet for SETTLE_MILLIS before reading it. Only
+ * the records that differ from what RunBuddy last saved are parsed (see
+ * TrainingPlanGenerator.readChangedRecords()), so RunBuddy's own saves, which
+ * also wake the watcher, are passed over, and the listener only hears about
+ * records that were really changed elsewhere.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+class PlanFileWatcher implements Runnable
+{
+    // instance variables
+    private TrainingPlanGenerator generator;
+    private Path planFile;
+    private Listener listener;
+    private WatchService watchService;
+
+    // final variables
+    final long SETTLE_MILLIS = 100;             // quiet time after the last change before the file is read
+
+    // constructor
+    public PlanFileWatcher(TrainingPlanGenerator generator, Listener listener)
+    {
+        this.generator = generator;
+        this.planFile = Paths.get(generator.getPlanFileName()).toAbsolutePath();
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the plan file on a daemon thread.
+     * @throws IOException  if the file's directory cannot be watched
+     */
+    public void start() throws IOException
+    {
+        watchService = planFile.getFileSystem().newWatchService();
+        planFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);  // created, as well as modified, when a sync swaps in a new file
+
+        Thread thread = new Thread(this, "plan-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the plan file.
+     */
+    public void stop()
+    {
+        try { watchService.close(); }
+        catch (IOException e) { }   // nothing left to watch
+    }
+
+    /**
+     * Runs on the watcher thread: waits for the plan file to change and settle,
+     * then reads the records that changed and passes them to the listener.
+     */
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                // wait for the plan file to change, then for it to be quiet; changes
+                // to other files in the directory (e.g., the journal) are passed over
+                boolean planChanged = false;
+                long quietAt = 0;
+                while (!planChanged || System.currentTimeMillis() < quietAt)
+                {
+                    WatchKey key = !planChanged ? watchService.take()
+                            : watchService.poll(Math.max(1, quietAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (key == null) { break; }     // quiet
+
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        // events may have been lost (OVERFLOW), so check the file anyway
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || planFile.getFileName().equals(event.context()))
+                        {
+                            planChanged = true;
+                            quietAt = System.currentTimeMillis() + SETTLE_MILLIS;
+                        }
+                    }
+                    key.reset();
+                }
+
+                TreeMap<Integer, double []> records = generator.readChangedRecords();
+                if (!records.isEmpty()) { listener.recordsChanged(records); }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) { }   // stopped
+    }
+
+    /**
+     * Interface for the listener told about records changed outside of RunBuddy.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the watcher thread with the records that were changed.
+         * @param records   map of plan day (week * 7 + day) to the values in each changed record
+         */
+        void recordsChanged(TreeMap<Integer, double []> records);
+    }
+}
@@ -0,0 +1,572 @@
+//PlanJournal.java
+/**
+ * The PlanJournal() class makes saving training plans (and profiles) crash-safe.
+ * Rather than writing straight into a user's file, where a crash partway through
+ * the write would leave the file half old and half new, every save is first
+ * appended to a single journal file, "runbuddy_journal.dat", as an entry holding
+ * the bytes to write, where to write them and a CRC32 checksum. Only once the
+ * entry is safely on disk (fsync) is it written into the user's file. Entries
+ * name their files by absolute path, so a replay writes to the same files
+ * whatever directory the replaying RunBuddy was started from.
+ *
+ * If RunBuddy is killed partway through, the journal is replayed the next time
+ * it starts: every complete entry (one whose checksum matches) is written into
+ * its file again, and a torn entry at the end, whose save never finished, is
+ * dropped. Since entries hold absolute positions, replaying an entry twice is harmless.
+ *
+ * Saves use group commit: a single committer thread appends every save waiting
+ * at the time, from any number of users or threads, and then calls fsync once
+ * for all of them. Each save waits until its own entry is on disk. When the
+ * journal grows past CHECKPOINT_BYTES, the users' files are synced and the
+ * journal is emptied.
+ *
+ * More than one RunBuddy may share the journal (e.g. two windows open on the
+ * same user, see SharedCompletions()). Each batch is appended, synced and
+ * written into its files while holding an exclusive lock on the journal
+ * (FileChannel.lock()), after first picking up wherever the other RunBuddy
+ * left the end of it, and each save holds an exclusive lock on its file while
+ * it is written, so readers holding a shared lock (see lockFile()) never see a
+ * save half written.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+
+class PlanJournal implements Runnable
+{
+    // the single, shared journal
+    private static PlanJournal journal;
+
+    // instance variables
+    private FileChannel channel;                // the journal file
+    private long journalLength;                 // where the next entry goes
+    private ArrayList<Commit> pending;          // saves waiting for the committer; guarded by this
+    private boolean committing;                 // is the committer working on a batch? guarded by this
+    private HashSet<String> unsyncedFiles;      // files written since the last checkpoint
+    private long saves;                         // statistics; guarded by this
+    private long syncs;
+
+    // final variables
+    static final String JOURNAL_FILE = "runbuddy_journal.dat";
+    static final int CHECKPOINT_BYTES = 1 << 20;
+    static final int HEADER_BYTES = 12;         // length of the entry (int) and its CRC32 (long)
+    static final int LOCK_RETRY_MILLIS = 1;
+
+    // constructor; only called on by getJournal()
+    private PlanJournal() throws IOException
+    {
+        this.channel = FileChannel.open(Paths.get(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.pending = new ArrayList<Commit>();
+        this.committing = false;
+        this.unsyncedFiles = new HashSet<String>();
+        this.saves = 0;
+        this.syncs = 0;
+    }
+
+    /**
+     * Returns the shared journal. The first time it is called, the journal is
+     * opened, any saves left in it by a crash are replayed, and the committer
+     * thread is started. The journal is emptied again when RunBuddy exits normally.
+     *
+     * @return              the shared PlanJournal object
+     * @throws IOException  if the journal cannot be opened or replayed
+     */
+    public static synchronized PlanJournal getJournal() throws IOException
+    {
+        if (journal == null)
+        {
+            PlanJournal opened = new PlanJournal();
+            opened.recover();
+
+            Thread committer = new Thread(opened, "plan-journal");
+            committer.setDaemon(true);
+            committer.start();
+
+            final PlanJournal closing = opened;
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    new Runnable()
+                    {
+                        public void run() { closing.close(); }
+                    }, "plan-journal-close"));
+            journal = opened;
+        }
+        return journal;
+    }
+
+    /**
+     * Saves a whole file, replacing what was in it.
+     *
+     * @param file          name of the file
+     * @param contents      new contents of the file
+     * @throws IOException  if the save could not be made durable
+     */
+    public void writeFile(String file, byte [] contents) throws IOException
+    {
+        write(file, contents.length, new long [] { 0 }, new byte [][] { contents });
+    }
+
+    /**
+     * Saves some pieces of a file in place, and sets the length of the file. All
+     * of the pieces are saved together or (after a crash) not at all. Returns once
+     * the save is on disk.
+     *
+     * @param file          name of the file; relative names are taken from the working directory
+     * @param length        length the file should be afterwards
+     * @param offsets       where in the file each piece goes
+     * @param pieces        bytes of each piece
+     * @throws IOException  if the save could not be made durable
+     */
+    public void write(String file, long length, long [] offsets, byte [][] pieces) throws IOException
+    {
+        Commit commit = new Commit(Paths.get(file).toAbsolutePath().toString(), length, offsets, pieces);
+        boolean interrupted = false;
+
+        synchronized (this)
+        {
+            pending.add(commit);
+            notifyAll();    // wake the committer
+
+            while (!commit.done)
+            {
+                try { wait(); }
+                catch (InterruptedException e) { interrupted = true; }   // the save still has to finish
+            }
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+        if (commit.error != null) { throw commit.error; }
+    }
+
+    /**
+     * Runs on the committer thread: takes every save waiting, appends them all to
+     * the journal, syncs the journal once, writes each save into its file, and
+     * then lets the saving threads carry on.
+     */
+    public void run()
+    {
+        while (true)
+        {
+            ArrayList<Commit> batch;
+            synchronized (this)
+            {
+                while (pending.isEmpty())
+                {
+                    try { wait(); }
+                    catch (InterruptedException e) { return; }
+                }
+                batch = pending;
+                pending = new ArrayList<Commit>();
+                committing = true;
+            }
+
+            IOException error = null;
+            FileLock lock = null;
+            try
+            {
+                lock = lockFile(channel, false);                // other RunBuddys wait until the batch is in
+                findEnd();
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            if (error == null)
+            {
+                long batchStart = journalLength;
+                try
+                {
+                    for (Commit commit : batch) { append(commit.encode()); }
+                    channel.force(false);                       // one fsync for the whole batch
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                    rollBack(batchStart);   // so a torn entry cannot hide the entries after it
+                }
+            }
+
+            try
+            {
+                if (error == null) { for (Commit commit : batch) { apply(commit); } }
+                if (journalLength > CHECKPOINT_BYTES) { checkpoint(); }
+            }
+            catch (IOException e)
+            {
+                if (error == null) { error = e; }
+            }
+            finally
+            {
+                release(lock);
+            }
+
+            synchronized (this)
+            {
+                saves += batch.size();
+                syncs += 1;
+                for (Commit commit : batch)
+                {
+                    commit.error = error;
+                    commit.done = true;
+                }
+                committing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Finds where the next entry goes, in case another RunBuddy has added to or
+     * emptied the journal since this one last used it; a torn entry left at the
+     * end by one that was killed is cut off. Called holding the journal's lock.
+     */
+    private void findEnd() throws IOException
+    {
+        long size = channel.size();
+        if (size == journalLength) { return; }
+        readEntries(null);
+        if (journalLength < size) { channel.truncate(journalLength); }
+    }
+
+    /**
+     * Appends an encoded entry to the end of the journal.
+     */
+    private void append(ByteBuffer entry) throws IOException
+    {
+        while (entry.hasRemaining()) { journalLength += channel.write(entry, journalLength); }
+    }
+
+    /**
+     * Waits for the saves already made to finish, then syncs every file written
+     * and empties the journal, so there is nothing to replay next time.
+     */
+    private synchronized void close()
+    {
+        try
+        {
+            while (committing || !pending.isEmpty()) { wait(); }
+            FileLock lock = lockFile(channel, false);
+            try { checkpoint(); }
+            finally { release(lock); }
+        }
+        catch (InterruptedException e) { }          // leave the rest to be replayed
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not empty the journal due to " + e);
+        }
+    }
+
+    /**
+     * Cuts the journal back to where a batch that could not be written began.
+     */
+    private void rollBack(long batchStart)
+    {
+        try
+        {
+            channel.truncate(batchStart);
+            journalLength = batchStart;
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not roll back the journal due to " + e);
+        }
+    }
+
+    /**
+     * Writes a save into its file (without syncing the file). If the file was
+     * replaced while waiting for its lock (e.g. moved over by PlanMigration()),
+     * the new file is opened and saved to instead; a file not there yet is
+     * created whole (see create()).
+     */
+    private void apply(Commit commit) throws IOException
+    {
+        while (true)
+        {
+            Object opened = fileKey(commit.file);
+            if (opened == null)
+            {
+                create(commit);
+                unsyncedFiles.add(commit.file);
+                return;
+            }
+            try (RandomAccessFile out = new RandomAccessFile(commit.file, "rw"))
+            {
+                FileLock lock = lockFile(out.getChannel(), false);
+                try
+                {
+                    if (!Objects.equals(opened, fileKey(commit.file))) { continue; }   // not the file there now
+
+                    for (int i = 0; i < commit.pieces.length; i++ )
+                    {
+                        out.seek(commit.offsets[i]);
+                        out.write(commit.pieces[i]);
+                    }
+                    out.setLength(commit.length);
+                }
+                finally
+                {
+                    release(lock);
+                }
+            }
+            unsyncedFiles.add(commit.file);
+            return;
+        }
+    }
+
+    /**
+     * Saves into a file that is not there yet. Opening it in place would show
+     * other RunBuddys an empty file until it was locked, so the save is written
+     * to a new file beside it, which is then moved into place in one step.
+     */
+    private void create(Commit commit) throws IOException
+    {
+        Path file = Paths.get(commit.file);
+        Path created = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".new");
+        try
+        {
+            try (RandomAccessFile out = new RandomAccessFile(created.toFile(), "rw"))
+            {
+                for (int i = 0; i < commit.pieces.length; i++ )
+                {
+                    out.seek(commit.offsets[i]);
+                    out.write(commit.pieces[i]);
+                }
+                out.setLength(commit.length);
+            }
+            Files.move(created, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(created);                  // only still there if the move failed
+        }
+    }
+
+    /**
+     * Finds what identifies the file at a path (e.g., its inode), or null if there
+     * is no file there or the file system does not say.
+     */
+    private static Object fileKey(String file)
+    {
+        try { return Files.readAttributes(Paths.get(file), BasicFileAttributes.class).fileKey(); }
+        catch (IOException e) { return null; }
+    }
+
+    /**
+     * Syncs every file written since the last checkpoint, by this RunBuddy or
+     * (as named in the journal) another, after which the journal is no longer
+     * needed, and empties it. Called holding the journal's lock.
+     */
+    private void checkpoint() throws IOException
+    {
+        ArrayList<Commit> entries = new ArrayList<Commit>();
+        readEntries(entries);
+        for (Commit entry : entries) { unsyncedFiles.add(entry.file); }
+        for (String file : unsyncedFiles)
+        {
+            try (FileChannel out = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE)) { out.force(true); }
+            catch (NoSuchFileException e) { }   // deleted since; nothing to keep
+        }
+        unsyncedFiles.clear();
+
+        channel.truncate(0);
+        channel.force(true);
+        journalLength = 0;
+    }
+
+    /**
+     * Replays every complete entry in the journal, stopping at the first entry
+     * that is cut short or whose checksum does not match (the save that was
+     * being made when RunBuddy stopped), then checkpoints. Entries still there
+     * from another RunBuddy that is running are finished, so replaying them is
+     * harmless.
+     */
+    private void recover() throws IOException
+    {
+        FileLock lock = lockFile(channel, false);
+        try
+        {
+            ArrayList<Commit> entries = new ArrayList<Commit>();
+            readEntries(entries);
+            for (Commit entry : entries) { apply(entry); }
+
+            if (!entries.isEmpty())
+            {
+                System.out.println("Replayed " + entries.size() + " unfinished saves from " + JOURNAL_FILE);
+            }
+            checkpoint();
+        }
+        finally
+        {
+            release(lock);
+        }
+    }
+
+    /**
+     * Reads the complete entries at the start of the journal, up to the first
+     * that is cut short or whose checksum does not match, and sets journalLength
+     * to where they end.
+     *
+     * @param entries   list to add the entries to, or null to only find the end
+     */
+    private void readEntries(List<Commit> entries) throws IOException
+    {
+        ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+        while (contents.hasRemaining() && channel.read(contents, contents.position()) >= 0) { }
+        contents.flip();
+
+        int end = 0;
+        while (contents.remaining() >= HEADER_BYTES)
+        {
+            int entryLength = contents.getInt();
+            long checksum = contents.getLong();
+            if (entryLength < 0 || entryLength > contents.remaining()) { break; }   // torn entry
+
+            byte [] entry = new byte [entryLength];
+            contents.get(entry);
+            CRC32 crc = new CRC32();
+            crc.update(entry, 0, entryLength);
+            if (crc.getValue() != checksum) { break; }                          // torn entry
+
+            if (entries != null) { entries.add(Commit.decode(entry)); }
+            end = contents.position();
+        }
+        journalLength = end;
+    }
+
+    /**
+     * Locks a whole file against other RunBuddys, waiting until it can. Shared
+     * locks are for reading, and exclusive locks for writing. The lock is tried
+     * every LOCK_RETRY_MILLIS rather than waited for, since the system holds file
+     * locks for a whole process, not a thread: a reader waiting in one RunBuddy
+     * while its committer holds the journal, and the other RunBuddy's committer
+     * waiting for that journal while writing the file being read, would look
+     * like a deadlock and be refused. A Java VM likewise refuses a lock that
+     * overlaps one another of its threads holds, so that is waited out too.
+     *
+     * @param file          channel open on the file; writable for an exclusive lock
+     * @param shared        boolean; is the lock for reading?
+     * @return              the lock, to release when done
+     * @throws IOException  if the file cannot be locked
+     */
+    static FileLock lockFile(FileChannel file, boolean shared) throws IOException
+    {
+        while (true)
+        {
+            try
+            {
+                FileLock lock = file.tryLock(0, Long.MAX_VALUE, shared);
+                if (lock != null) { return lock; }
+            }
+            catch (OverlappingFileLockException e) { }     // held by another thread here
+            try { Thread.sleep(LOCK_RETRY_MILLIS); }
+            catch (InterruptedException stop)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting to lock a file");
+            }
+        }
+    }
+
+    private static void release(FileLock lock)
+    {
+        if (lock == null) { return; }
+        try { lock.release(); }
+        catch (IOException e) { }               // closing the channel releases it anyway
+    }
+
+    /**
+     * Getter for the number of saves made
+     * @return  long representing the number of saves
+     */
+    public synchronized long getSaves()
+    {
+        return saves;
+    }
+
+    /**
+     * Getter for the number of times the journal was synced; with group
+     * commit, this is usually far fewer than the number of saves.
+     *
+     * @return  long representing the number of syncs
+     */
+    public synchronized long getSyncs()
+    {
+        return syncs;
+    }
+
+    /**
+     * Inner class holding a single save: the file, its new length and the pieces
+     * to write into it. Entries in the journal are a Commit encoded as: the file
+     * name, the length, the number of pieces and then each piece's offset, length
+     * and bytes, behind a header holding the entry's length and CRC32.
+     */
+    static class Commit
+    {
+        String file;
+        long length;
+        long [] offsets;
+        byte [][] pieces;
+        boolean done = false;                   // guarded by the journal
+        IOException error = null;
+
+        Commit(String file, long length, long [] offsets, byte [][] pieces)
+        {
+            this.file = file;
+            this.length = length;
+            this.offsets = offsets;
+            this.pieces = pieces;
+        }
+
+        ByteBuffer encode() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(file);
+            out.writeLong(length);
+            out.writeInt(pieces.length);
+            for (int i = 0; i < pieces.length; i++ )
+            {
+                out.writeLong(offsets[i]);
+                out.writeInt(pieces[i].length);
+                out.write(pieces[i]);
+            }
+            out.close();
+
+            byte [] entry = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(entry, 0, entry.length);
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + entry.length);
+            buffer.putInt(entry.length).putLong(crc.getValue()).put(entry);
+            buffer.flip();
+            return buffer;
+        }
+
+        static Commit decode(byte [] entry) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+            String file = in.readUTF();
+            long length = in.readLong();
+            int count = in.readInt();
+            long [] offsets = new long [count];
+            byte [][] pieces = new byte [count][];
+            for (int i = 0; i < count; i++ )
+            {
+                offsets[i] = in.readLong();
+                pieces[i] = new byte [in.readInt()];
+                in.readFully(pieces[i]);
+            }
+            return new Commit(file, length, offsets, pieces);
+        }
+    }
+}
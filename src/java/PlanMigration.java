@@ -0,0 +1,577 @@
+//PlanMigration.java
+/**
+ * The PlanMigration() class brings every "<USERNAME>_profile.txt" and
+ * "<USERNAME>_training_plan.txt" in a directory up to the format RunBuddy now
+ * saves: plans as fixed-width records with an actual distance (see
+ * TrainingPlanGenerator.saveUserProfile()) and profiles on one line naming their
+ * race (see UserProfile.createUserProfile()). Files saved by older versions of
+ * RunBuddy are still read, but cannot have single records rewritten in place, so
+ * every save of them rewrites the whole plan. It is run as a command:
+ *
+ *     java PlanMigration [--progress seconds] <directory> [<target directory>]
+ *
+ * Without a target directory, files are migrated in place. Each file is written
+ * next to where it belongs, synced, read back and checked against the values it
+ * was converted from, and only then moved over the old file in one step, so
+ * RunBuddy can keep running: it only ever sees the old file or the new one. In
+ * place, the old file is locked (as the PlanJournal() locks it to save) from
+ * just before it is written until it has been moved over, and read again under
+ * the lock; if RunBuddy saved it since it was first read, it is converted again,
+ * so the save is not lost.
+ *
+ * Users pass through a pipeline of three pools of threads: readers read a user's
+ * files, converters parse and lay them out again, and writers write, check and
+ * move them. As in the RunLogImporter(), each pool is handed work through a
+ * bounded queue; when the queue is full, the thread handing it over does the
+ * work itself, so a slow stage holds back the stages before it and no more than
+ * a few users are ever held in memory. Files already in the current format are
+ * left alone.
+ *
+ * Each user migrated is added to a checkpoint file in the target directory
+ * ("runbuddy_migration.checkpoint"), so a migration that is stopped partway can
+ * be run again and will skip the users already done. The checkpoint is removed
+ * once a migration finishes with no failures. Progress and throughput are
+ * printed every few seconds while it runs.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class PlanMigration
+{
+    // instance variables
+    private Path source;                        // directory holding the files
+    private Path target;                        // where migrated files go; may be the same directory
+    private Path checkpointFile;
+    private boolean inPlace;                    // are the source and target the same directory?
+    private Set<String> checkpointed;           // users done by an earlier run
+    private FileOutputStream checkpoint;        // open for adding users; guarded by itself
+    private int checkpointUnsynced;
+    private ThreadPoolExecutor readers, converters, writers;
+
+    // statistics
+    private AtomicInteger usersFound;
+    private AtomicInteger usersMigrated;        // at least one file rewritten
+    private AtomicInteger usersCurrent;         // both files already in the current format
+    private AtomicInteger usersResumed;         // done by an earlier run
+    private AtomicInteger usersFailed;
+    private AtomicInteger savesCaughtUp;        // files RunBuddy saved while they were being migrated
+    private AtomicLong bytesRead;
+    private AtomicLong bytesWritten;
+    private long start;
+    private long elapsedNanos;
+
+    // final variables
+    static final String CHECKPOINT_FILE = "runbuddy_migration.checkpoint";
+    final String PROFILE_SUFFIX = "_profile.txt";
+    final String PLAN_SUFFIX = "_training_plan.txt";
+    final String MIGRATING_SUFFIX = ".migrating";
+    final int DAYS_IN_WEEK = 7;
+    final int IO_THREADS = 4;                   // each for reading and for writing
+    final int CONVERTERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int QUEUE_PER_THREAD = 16;            // users waiting for each thread of a stage, at most
+    final int CHECKPOINT_SYNC_EVERY = 256;      // users added to the checkpoint between syncs
+    final double TOLERANCE = 0.0005;            // plan values are saved to thousandths
+
+    // constructor
+    public PlanMigration(Path source, Path target)
+    {
+        this.source = source;
+        this.target = target;
+        this.checkpointFile = target.resolve(CHECKPOINT_FILE);
+    }
+
+    /**
+     * Runs the migration from the command line.
+     * @param args  [--progress seconds] directory [target directory]
+     */
+    public static void main (String [] args) throws IOException
+    {
+        int progressSeconds = 5;
+        int arg = 0;
+        if (args.length > 1 && args[0].equals("--progress"))
+        {
+            progressSeconds = Integer.parseInt(args[1]);
+            arg = 2;
+        }
+        if (args.length - arg < 1 || args.length - arg > 2)
+        {
+            System.out.println("usage: java PlanMigration [--progress seconds] <directory> [<target directory>]");
+            System.exit(2);
+        }
+
+        Path source = Paths.get(args[arg]);
+        Path target = (args.length - arg == 2) ? Paths.get(args[arg + 1]) : source;
+        PlanMigration migration = new PlanMigration(source, target);
+        migration.migrate(progressSeconds);
+        System.out.println(migration.getProgress());
+        if (migration.getUsersFailed() > 0) { System.exit(1); }
+    }
+
+    /**
+     * Migrates every user in the source directory who is not already in the
+     * checkpoint, printing the progress every so often.
+     *
+     * @param progressSeconds   seconds between progress lines (0 for none)
+     * @throws IOException      if the directories or the checkpoint cannot be used
+     */
+    public void migrate(int progressSeconds) throws IOException
+    {
+        usersFound = new AtomicInteger();
+        usersMigrated = new AtomicInteger();
+        usersCurrent = new AtomicInteger();
+        usersResumed = new AtomicInteger();
+        usersFailed = new AtomicInteger();
+        savesCaughtUp = new AtomicInteger();
+        bytesRead = new AtomicLong();
+        bytesWritten = new AtomicLong();
+        start = System.nanoTime();
+        elapsedNanos = 0;
+
+        Files.createDirectories(target);
+        inPlace = Files.isSameFile(source, target);
+        checkpointed = readCheckpoint();
+        checkpoint = new FileOutputStream(checkpointFile.toFile(), true);
+        checkpointUnsynced = 0;
+
+        ScheduledExecutorService reporter = null;
+        if (progressSeconds > 0)
+        {
+            reporter = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "migration-progress");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+            );
+            reporter.scheduleAtFixedRate(
+                    new Runnable()
+                    {
+                        public void run() { System.out.println(getProgress()); }
+                    },
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS
+            );
+        }
+
+        // back-pressure: each stage runs the next one's work itself when that one's queue is full
+        readers = newStage(IO_THREADS);
+        converters = newStage(CONVERTERS);
+        writers = newStage(IO_THREADS);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "*" + PROFILE_SUFFIX))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                final String user = name.substring(0, name.length() - PROFILE_SUFFIX.length());
+                usersFound.incrementAndGet();
+                if (checkpointed.contains(user))
+                {
+                    usersResumed.incrementAndGet();
+                    continue;
+                }
+
+                readers.execute(
+                        new Runnable()
+                        {
+                            public void run() { read(user); }
+                        }
+                );
+            }
+        }
+        finally
+        {
+            // every stage is fed only by the one before it, so they are finished in order
+            finish(readers);
+            finish(converters);
+            finish(writers);
+            if (reporter != null) { reporter.shutdownNow(); }
+
+            synchronized (checkpoint)
+            {
+                checkpoint.getFD().sync();
+                checkpoint.close();
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        if (usersFailed.get() == 0) { Files.deleteIfExists(checkpointFile); }
+    }
+
+    /**
+     * Makes the pool of threads for a stage of the pipeline.
+     */
+    private ThreadPoolExecutor newStage(int threads)
+    {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Waits for every user handed to a stage to pass through it.
+     */
+    private void finish(ThreadPoolExecutor stage)
+    {
+        stage.shutdown();
+        try { stage.awaitTermination(1, TimeUnit.HOURS); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Reads the users done by an earlier run. Only whole lines count, since the
+     * run may have been stopped partway through adding a user.
+     *
+     * @return  Set of the names of the users already migrated
+     */
+    private Set<String> readCheckpoint() throws IOException
+    {
+        HashSet<String> users = new HashSet<String>();
+        if (!Files.isRegularFile(checkpointFile)) { return users; }
+
+        String contents = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8);
+        int end = contents.lastIndexOf('\n');
+        if (end < 0) { return users; }
+        for (String user : contents.substring(0, end).split("\n")) { users.add(user); }
+        return users;
+    }
+
+    /**
+     * Adds a user to the checkpoint, syncing it every CHECKPOINT_SYNC_EVERY users.
+     */
+    private void addToCheckpoint(String user) throws IOException
+    {
+        synchronized (checkpoint)
+        {
+            checkpoint.write((user + "\n").getBytes(StandardCharsets.UTF_8));
+            checkpointUnsynced += 1;
+            if (checkpointUnsynced >= CHECKPOINT_SYNC_EVERY)
+            {
+                checkpoint.getFD().sync();
+                checkpointUnsynced = 0;
+            }
+        }
+    }
+
+    /**
+     * First stage: reads a user's profile and plan (if any), and hands them on.
+     */
+    private void read(String user)
+    {
+        try
+        {
+            final Migration migration = new Migration(user);
+            migration.oldProfile = Files.readAllBytes(source.resolve(user + PROFILE_SUFFIX));
+            Path planFile = source.resolve(user + PLAN_SUFFIX);
+            if (Files.isRegularFile(planFile)) { migration.oldPlan = Files.readAllBytes(planFile); }
+            bytesRead.addAndGet(migration.oldProfile.length);
+            if (migration.oldPlan != null) { bytesRead.addAndGet(migration.oldPlan.length); }
+
+            converters.execute(
+                    new Runnable()
+                    {
+                        public void run() { convert(migration); }
+                    }
+            );
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail(user, e);
+        }
+    }
+
+    /**
+     * Second stage: parses a user's files and lays them out in the current format.
+     */
+    private void convert(final Migration migration)
+    {
+        try
+        {
+            convertProfile(migration);
+            if (migration.oldPlan != null) { convertPlan(migration); }
+
+            writers.execute(
+                    new Runnable()
+                    {
+                        public void run() { write(migration); }
+                    }
+            );
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail(migration.user, e);
+        }
+    }
+
+    private void convertProfile(Migration migration)
+    {
+        migration.profile = new UserProfile();
+        migration.profile.parseProfile(new Scanner(new String(migration.oldProfile, StandardCharsets.UTF_8)));
+        migration.newProfile = migration.profile.formatProfile().getBytes();
+    }
+
+    private void convertPlan(Migration migration) throws IOException
+    {
+        migration.days = PlanArchive.parsePlan(new String(migration.oldPlan, StandardCharsets.US_ASCII));
+        if (migration.days == null) { throw new IOException("the plan does not hold whole weeks of records"); }
+        migration.newPlan = formatPlan(migration.days);
+    }
+
+    /**
+     * Lays out a plan's days as TrainingPlanGenerator.saveUserProfile() saves them.
+     */
+    private byte [] formatPlan(double [][] days)
+    {
+        String lineSeparator = System.lineSeparator();
+        StringBuilder plan = new StringBuilder(days.length * 48);
+        for (int planDay = 0; planDay < days.length; planDay++)
+        {
+            plan.append(TrainingPlanGenerator.formatRecord(planDay / DAYS_IN_WEEK, planDay % DAYS_IN_WEEK,
+                    days[planDay]));
+            plan.append(lineSeparator);
+        }
+        return plan.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Last stage: writes and checks the files that changed (or every file, when
+     * migrating to another directory), and adds the user to the checkpoint.
+     */
+    private void write(Migration migration)
+    {
+        try
+        {
+            boolean planChanged = migration.oldPlan != null && writePlan(migration);
+            boolean profileChanged = writeProfile(migration);
+
+            if (profileChanged || planChanged) { usersMigrated.incrementAndGet(); }
+            else { usersCurrent.incrementAndGet(); }
+            addToCheckpoint(migration.user);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail(migration.user, e);
+        }
+    }
+
+    /**
+     * Writes, checks and moves a user's plan into place, if it changed (or always,
+     * when migrating to another directory).
+     *
+     * @return  boolean; was the plan in an older format?
+     */
+    private boolean writePlan(Migration migration) throws IOException
+    {
+        String name = migration.user + PLAN_SUFFIX;
+        FileChannel file = lockInPlace(name);
+        try
+        {
+            if (file != null)
+            {
+                byte [] now = Files.readAllBytes(source.resolve(name));
+                if (!Arrays.equals(now, migration.oldPlan))     // saved since it was read
+                {
+                    migration.oldPlan = now;
+                    convertPlan(migration);
+                    savesCaughtUp.incrementAndGet();
+                }
+            }
+            boolean changed = !Arrays.equals(migration.oldPlan, migration.newPlan);
+            if (changed || !inPlace)
+            {
+                byte [] written = writeFile(name, migration.newPlan);
+                double [][] days = PlanArchive.parsePlan(new String(written, StandardCharsets.US_ASCII));
+                if (!sameDays(days, migration.days)) { throw new IOException("the plan did not read back the same"); }
+                moveIntoPlace(name);
+            }
+            return changed;
+        }
+        finally
+        {
+            if (file != null) { file.close(); }     // lets the lock go
+        }
+    }
+
+    /**
+     * Writes, checks and moves a user's profile into place, if it changed (or
+     * always, when migrating to another directory).
+     *
+     * @return  boolean; was the profile in an older format?
+     */
+    private boolean writeProfile(Migration migration) throws IOException
+    {
+        String name = migration.user + PROFILE_SUFFIX;
+        FileChannel file = lockInPlace(name);
+        try
+        {
+            if (file != null)
+            {
+                byte [] now = Files.readAllBytes(source.resolve(name));
+                if (!Arrays.equals(now, migration.oldProfile))
+                {
+                    migration.oldProfile = now;
+                    convertProfile(migration);
+                    savesCaughtUp.incrementAndGet();
+                }
+            }
+            boolean changed = !Arrays.equals(migration.oldProfile, migration.newProfile);
+            if (changed || !inPlace)
+            {
+                byte [] written = writeFile(name, migration.newProfile);
+                UserProfile profile = new UserProfile();
+                profile.parseProfile(new Scanner(new String(written, StandardCharsets.UTF_8)));
+                if (!profile.formatProfile().equals(migration.profile.formatProfile()))
+                {
+                    throw new IOException("the profile did not read back the same");
+                }
+                moveIntoPlace(name);
+            }
+            return changed;
+        }
+        finally
+        {
+            if (file != null) { file.close(); }
+        }
+    }
+
+    /**
+     * When migrating in place, locks a file as the PlanJournal() does to save it,
+     * so that RunBuddy cannot save it until it has been moved over (the journal
+     * then saves to the new file). Returns the channel holding the lock, to
+     * close once the file is in place, or null when migrating elsewhere.
+     */
+    private FileChannel lockInPlace(String name) throws IOException
+    {
+        if (!inPlace) { return null; }
+        FileChannel file = FileChannel.open(source.resolve(name), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            PlanJournal.lockFile(file, false);
+            return file;
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a file next to where it belongs, syncs it and reads it back.
+     *
+     * @param name      name of the file, in the target directory
+     * @param contents  what to write
+     * @return          byte array holding what was read back
+     */
+    private byte [] writeFile(String name, byte [] contents) throws IOException
+    {
+        Path migrating = target.resolve(name + MIGRATING_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(migrating.toFile()))
+        {
+            out.write(contents);
+            out.getFD().sync();
+        }
+        bytesWritten.addAndGet(contents.length);
+        return Files.readAllBytes(migrating);
+    }
+
+    /**
+     * Moves a file written by writeFile() over the file it replaces, in one step.
+     */
+    private void moveIntoPlace(String name) throws IOException
+    {
+        Files.move(target.resolve(name + MIGRATING_SUFFIX), target.resolve(name),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks that the days of a plan read back match those it was written from,
+     * to the thousandths the plan is saved to.
+     */
+    private boolean sameDays(double [][] read, double [][] written)
+    {
+        if (read == null || read.length != written.length) { return false; }
+        for (int day = 0; day < read.length; day++)
+        {
+            for (int value = 0; value < read[day].length; value++)
+            {
+                if (Math.abs(read[day][value] - written[day][value]) > TOLERANCE) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts a user who could not be migrated; their files are left as they were.
+     */
+    private void fail(String user, Exception e)
+    {
+        usersFailed.incrementAndGet();
+        System.out.println("WARNING: Could not migrate " + user + " due to " + e);
+        try { Files.deleteIfExists(target.resolve(user + PLAN_SUFFIX + MIGRATING_SUFFIX)); }
+        catch (IOException ignored) { }
+        try { Files.deleteIfExists(target.resolve(user + PROFILE_SUFFIX + MIGRATING_SUFFIX)); }
+        catch (IOException ignored) { }
+    }
+
+    /**
+     * Getter for the number of users that could not be migrated
+     * @return  int holding the failures of the last (or current) migration
+     */
+    public int getUsersFailed()
+    {
+        return usersFailed.get();
+    }
+
+    /**
+     * Describes how far the migration has got, and how fast.
+     * @return  String holding the users found, done and failed, and the users and bytes per second
+     */
+    public String getProgress()
+    {
+        long nanos = (elapsedNanos > 0) ? elapsedNanos : System.nanoTime() - start;
+        double seconds = Math.max(nanos / 1e9, 1e-9);
+        int done = usersMigrated.get() + usersCurrent.get();
+        String progress = String.format("%d users found: %d migrated, %d already current, %d done before, "
+                        + "%d failed in %.1f s (%.0f users/s, %.1f MB/s read, %.1f MB/s written)",
+                usersFound.get(), usersMigrated.get(), usersCurrent.get(), usersResumed.get(), usersFailed.get(),
+                seconds, done / seconds, bytesRead.get() / seconds / 1e6, bytesWritten.get() / seconds / 1e6);
+        if (savesCaughtUp.get() > 0) { progress += "; " + savesCaughtUp.get() + " files saved while migrating"; }
+        if (elapsedNanos == 0)
+        {
+            progress += String.format("; queued %d to read, %d to convert, %d to write",
+                    readers.getQueue().size(), converters.getQueue().size(), writers.getQueue().size());
+        }
+        return progress;
+    }
+
+    /**
+     * Inner class holding a user as they pass through the pipeline.
+     */
+    private static class Migration
+    {
+        final String user;
+        byte [] oldProfile;
+        byte [] oldPlan;                // null if the user has no plan
+        UserProfile profile;
+        double [][] days;
+        byte [] newProfile;
+        byte [] newPlan;
+
+        Migration(String user)
+        {
+            this.user = user;
+        }
+    }
+}
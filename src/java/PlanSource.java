@@ -0,0 +1,75 @@
+//PlanSource.java
+/**
+ * The PlanSource interface describes a race distance that RunBuddy can build
+ * plans for (e.g., a 5k or a marathon) and the base training plan ("template")
+ * that its plans are generated from. Sources are found with a ServiceLoader,
+ * so a new race distance can be added by putting a class that implements this
+ * interface on the class path and listing it in "META-INF/services/PlanSource";
+ * the built-in sources are in RacePlanSources().
+ *
+ * Every template line is one day of the base plan, with values separated by
+ * commas. A source declares the order of the values with getFieldLayout(), using
+ * the names below; any other name marks a value that RunBuddy passes over (e.g.,
+ * a coach's notes). A template must hold exactly getWeeks() whole weeks.
+ *
+ * Each template is compiled once into a PlanTemplateRegistry.Template that every
+ * generator reuses (see PlanTemplateRegistry()).
+ *
+ * @author: Megan Frenkel
+ */
+
+
+interface PlanSource
+{
+    // names of the values in a template line
+    String WEEK = "week";                   // week of the base plan, from 1
+    String DAY = "day";                     // day of the week, from 1
+    String MILES = "miles";                 // distance to run
+    String PACE = "pace";                   // pace to run at
+    String COMPLETED = "completed";         // isCompleted; 0 if left out
+
+    /**
+     * Getter for the short name of the race, saved in user profiles
+     * @return  String holding the name, e.g. "10k"
+     */
+    String getName();
+
+    /**
+     * Getter for the name of the race shown to users
+     * @return  String holding the label, e.g. "Full Marathon"
+     */
+    String getLabel();
+
+    /**
+     * Getter for the length of the race
+     * @return  double representing the race distance in miles
+     */
+    double getRaceMiles();
+
+    /**
+     * Getter for the name of the template's file
+     * @return  String holding the file name, e.g. "basetrainingplan.txt"
+     */
+    String getTemplateFile();
+
+    /**
+     * Getter for the number of weeks in the template
+     * @return  int representing the number of weeks
+     */
+    int getWeeks();
+
+    /**
+     * Getter for the order of the values in each template line
+     * @return  array of value names, e.g. { WEEK, DAY, MILES, PACE, COMPLETED }
+     */
+    String [] getFieldLayout();
+
+    /**
+     * Determines if the week mappings for each time group in the CustomizationRules()
+     * were written for this template. If not, the template is stretched evenly
+     * over the number of weeks in the user's time group instead.
+     *
+     * @return  boolean; do the rules' week mappings apply?
+     */
+    boolean usesRuleWeekMappings();
+}
@@ -0,0 +1,545 @@
+//PlanSyncClient.java
+/**
+ * The PlanSyncClient() class shares which runs of a user's plan are completed
+ * with the user's other devices (phones, kiosks), through a PlanSyncServer().
+ * It listens to the plan's CompletionBitmap: every run checked off or cleared is
+ * kept as a SyncDelta in an outbox, stamped by a hybrid clock, and each sync
+ * sends the outbox and gets back the days changed by other devices since the
+ * last sync. A change from another device is applied to the CompletionBitmap
+ * only if it wins over the change this device has for that day
+ * (last-writer-wins; see SyncDelta), and the Listener is then told which days
+ * changed, e.g. to save them.
+ *
+ * While the server cannot be reached the outbox keeps growing, with only the
+ * latest change to each day kept, and is sent as a single (compressed) batch
+ * once the server is back. The device's id, the last version it has seen, the
+ * stamp and value of every day and the outbox are kept in a state file, so that
+ * changes made offline are still sent after RunBuddy restarts. The server never
+ * sends a device its own changes back, so if the plan has lost some of them
+ * (e.g., a plan generated again), the days are set back from the state file
+ * and the Listener told on the first sync. If the server has forgotten the user
+ * (e.g., it was restarted), every day is sent to it again.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+class PlanSyncClient
+{
+    // instance variables
+    private URL syncUrl;                            // the server's /sync/<user>
+    private CompletionBitmap completions;
+    private Path stateFile;                         // null to keep no state between runs
+    private Listener listener;
+    private long device;                            // this device's id
+    private long seenVersion;                       // server version of the last sync
+    private long clock;                             // latest stamp made or seen
+    private long [] stamps;                         // stamp of the change each day has; 0 if never changed
+    private long [] devices;                        // device that made it
+    private BitSet values;                          // whether each day was completed, as last synced
+    private BitSet restored;                        // days set back from the state file, not yet told
+    private TreeMap<Integer, SyncDelta> outbox;     // changes not yet accepted by the server, by plan day
+    private boolean stateChanged;                   // since the state file was last written
+    private Thread applyingThread;                  // applying changes from the server; not to be sent back
+    private ScheduledExecutorService timer;
+    private boolean syncRequested;                  // a sync is waiting to run for changes made here
+
+    // statistics; guarded by this
+    private long syncs;
+    private long syncsFailed;
+    private long deltasSent;
+    private long deltasReceived;
+    private long deltasApplied;
+    private long bytesSent;
+    private long bytesReceived;
+
+    // final variables
+    final int STATE_MAGIC = 0x52425332;             // "RBS2"
+    final int OLD_STATE_MAGIC = 0x52425353;         // "RBSS": no values, from before they were kept
+    final int TIMEOUT_MILLIS = 5000;
+    final int MAX_BATCH = 4096;                     // changes sent in one sync, at most
+
+    // constructor
+    public PlanSyncClient(String serverUrl, String user, CompletionBitmap completions, Path stateFile)
+            throws IOException
+    {
+        this.syncUrl = new URL(serverUrl + PlanSyncServer.CONTEXT
+                + URLEncoder.encode(user, StandardCharsets.UTF_8.name()));
+        this.completions = completions;
+        this.stateFile = stateFile;
+        this.stamps = new long [completions.getPlanDays()];
+        this.devices = new long [completions.getPlanDays()];
+        this.outbox = new TreeMap<Integer, SyncDelta>();
+        this.values = new BitSet();
+        this.restored = new BitSet();
+
+        if (stateFile != null && Files.isRegularFile(stateFile))
+        {
+            readState();
+            restoreSyncedDays();
+        }
+        else
+        {
+            // a new device: send what is completed already, but as old as can be,
+            // so that it never wins over a change from another device
+            this.device = new SecureRandom().nextLong() & Long.MAX_VALUE;
+            for (int planDay = 0; planDay < completions.getPlanDays(); planDay++)
+            {
+                if (completions.isCompleted(planDay))
+                {
+                    outbox.put(planDay, new SyncDelta(planDay, true, 1, device));
+                }
+            }
+            stateChanged = true;
+        }
+
+        completions.addListener(
+                new CompletionBitmap.Listener()
+                {
+                    public void completionChanged(BitSet changedDays, boolean completed)
+                    {
+                        if (Thread.currentThread() != applyingThread) { recordChanges(changedDays, completed); }
+                    }
+                }
+        );
+    }
+
+    /**
+     * Sets back any day whose completion differs from the value it was last
+     * synced with, before this client listens to the completions. Its stamp is
+     * kept, so it wins or loses against other devices as before.
+     */
+    private void restoreSyncedDays()
+    {
+        BitSet nowDone = new BitSet();
+        BitSet nowNotDone = new BitSet();
+        for (int planDay = 0; planDay < Math.min(stamps.length, completions.getPlanDays()); planDay++)
+        {
+            if (stamps[planDay] == 0 || completions.isCompleted(planDay) == values.get(planDay)) { continue; }
+            (values.get(planDay) ? nowDone : nowNotDone).set(planDay);
+        }
+        restored.or(completions.set(nowDone, true));
+        restored.or(completions.set(nowNotDone, false));
+        if (!restored.isEmpty())
+        {
+            System.out.println("Set back " + restored.cardinality() + " days from the sync state in " + stateFile);
+        }
+    }
+
+    /**
+     * Sets the completions to sync from now on, after the plan has been
+     * re-planned (see CompletionBitmap.resize(), which keeps the listeners).
+     *
+     * @param completions   the new CompletionBitmap
+     */
+    public synchronized void setCompletions(CompletionBitmap completions)
+    {
+        this.completions = completions;
+    }
+
+    /**
+     * Setter for the listener told about changes from other devices
+     * @param listener  Listener, called on the syncing thread
+     */
+    public synchronized void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts syncing every so often on a thread of its own, starting now. Changes
+     * made on this device are also synced as soon as they are made.
+     * @param seconds   seconds between syncs
+     */
+    public synchronized void start(int seconds)
+    {
+        if (timer != null) { return; }
+        timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "plan-sync");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        timer.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    public void run() { sync(); }
+                },
+                0, seconds, TimeUnit.SECONDS
+        );
+    }
+
+    /**
+     * Stops syncing, and writes the state file.
+     */
+    public void stop()
+    {
+        ScheduledExecutorService stopping;
+        synchronized (this)
+        {
+            stopping = timer;
+            timer = null;
+        }
+        if (stopping != null)
+        {
+            stopping.shutdown();
+            try { stopping.awaitTermination(TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        saveState();
+    }
+
+    /**
+     * Stamps changes made on this device and adds them to the outbox, replacing
+     * any change to the same days not yet sent, and asks for a sync soon (which
+     * also saves the outbox, should the server not be reached).
+     */
+    private synchronized void recordChanges(BitSet changedDays, boolean completed)
+    {
+        for (int planDay = changedDays.nextSetBit(0); planDay >= 0; planDay = changedDays.nextSetBit(planDay + 1))
+        {
+            long stamp = nextStamp();
+            setStamp(planDay, stamp, device);
+            values.set(planDay, completed);
+            outbox.put(planDay, new SyncDelta(planDay, completed, stamp, device));
+        }
+        stateChanged = true;
+
+        if (timer != null && !syncRequested)
+        {
+            syncRequested = true;
+            timer.execute(
+                    new Runnable()
+                    {
+                        public void run() { sync(); }
+                    }
+            );
+        }
+    }
+
+    /**
+     * Gets the next stamp of the hybrid clock: the wall clock in microseconds,
+     * unless a stamp as late has already been made or seen.
+     */
+    private long nextStamp()
+    {
+        clock = Math.max(System.currentTimeMillis() * 1000, clock + 1);
+        return clock;
+    }
+
+    private void setStamp(int planDay, long stamp, long byDevice)
+    {
+        if (planDay >= stamps.length)
+        {
+            stamps = Arrays.copyOf(stamps, planDay + 1);
+            devices = Arrays.copyOf(devices, planDay + 1);
+        }
+        stamps[planDay] = stamp;
+        devices[planDay] = byDevice;
+    }
+
+    /**
+     * Syncs once: sends the outbox, applies the changes other devices made since
+     * the last sync, and writes the state file if anything changed. If the server
+     * cannot be reached, the outbox is kept for the next sync.
+     *
+     * @return  boolean; did the sync reach the server?
+     */
+    public boolean sync()
+    {
+        // take the batch to send; changes made while it is sent go to the next sync
+        ArrayList<SyncDelta> batch = new ArrayList<SyncDelta>();
+        byte [] request;
+        BitSet changed;
+        synchronized (this)
+        {
+            syncRequested = false;
+            changed = restored;     // days set back from the state file are told with the first sync
+            restored = new BitSet();
+            for (SyncDelta delta : outbox.values())
+            {
+                if (batch.size() == MAX_BATCH) { break; }
+                batch.add(delta);
+            }
+            request = SyncDelta.writeBatch(device, seenVersion, batch);
+        }
+
+        byte [] response;
+        try
+        {
+            response = post(request);
+        }
+        catch (IOException e)
+        {
+            synchronized (this) { syncsFailed += 1; }
+            tell(changed);
+            saveState();    // offline: keep the outbox safe in case RunBuddy is closed
+            return false;
+        }
+
+        long [] header = new long [2];
+        List<SyncDelta> received;
+        try { received = SyncDelta.readBatch(response, header); }
+        catch (IOException e)
+        {
+            synchronized (this) { syncsFailed += 1; }
+            tell(changed);
+            return false;
+        }
+
+        changed.or(applyReply(batch, header[0], received, request.length, response.length));
+        tell(changed);
+        saveState();
+        return true;
+    }
+
+    /**
+     * Tells the listener, if there is one, about days changed other than here.
+     */
+    private void tell(BitSet changed)
+    {
+        Listener told;
+        synchronized (this) { told = listener; }
+        if (!changed.isEmpty() && told != null) { told.remoteChanged(changed); }
+    }
+
+    /**
+     * Applies the server's reply to a sync: the changes sent are taken out of the
+     * outbox (unless changed again since), and each change from another device
+     * that wins over this device's change to the day is applied.
+     *
+     * @return  BitSet of the plan days changed by other devices
+     */
+    private synchronized BitSet applyReply(List<SyncDelta> sent, long version, List<SyncDelta> received,
+                                           int requestBytes, int responseBytes)
+    {
+        for (SyncDelta delta : sent)
+        {
+            if (outbox.get(delta.getPlanDay()) == delta) { outbox.remove(delta.getPlanDay()); }
+        }
+
+        // the server has forgotten what it was sent before, so send everything again
+        if (version < seenVersion)
+        {
+            for (int planDay = 0; planDay < stamps.length; planDay++)
+            {
+                if (stamps[planDay] == 0 || outbox.containsKey(planDay)) { continue; }
+                outbox.put(planDay, new SyncDelta(planDay, values.get(planDay), stamps[planDay], devices[planDay]));
+            }
+            version = 0;
+        }
+
+        BitSet nowDone = new BitSet();
+        BitSet nowNotDone = new BitSet();
+        for (SyncDelta delta : received)
+        {
+            int planDay = delta.getPlanDay();
+            clock = Math.max(clock, delta.getStamp());
+            long stamp = (planDay < stamps.length) ? stamps[planDay] : 0;
+            long byDevice = (planDay < devices.length) ? devices[planDay] : 0;
+            if (!delta.winsOver(stamp, byDevice)) { continue; }
+
+            setStamp(planDay, delta.getStamp(), delta.getDevice());
+            values.set(planDay, delta.isCompleted());
+            outbox.remove(planDay);
+            (delta.isCompleted() ? nowDone : nowNotDone).set(planDay);
+        }
+
+        applyingThread = Thread.currentThread();
+        BitSet changed = new BitSet();
+        try
+        {
+            changed.or(completions.set(nowDone, true));
+            changed.or(completions.set(nowNotDone, false));
+        }
+        finally
+        {
+            applyingThread = null;
+        }
+
+        seenVersion = version;
+        stateChanged = true;
+        syncs += 1;
+        deltasSent += sent.size();
+        deltasReceived += received.size();
+        deltasApplied += nowDone.cardinality() + nowNotDone.cardinality();
+        bytesSent += requestBytes;
+        bytesReceived += responseBytes;
+        return changed;
+    }
+
+    /**
+     * Sends a batch to the server and reads its reply.
+     */
+    private byte [] post(byte [] request) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) syncUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(request.length);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        try (OutputStream out = connection.getOutputStream())
+        {
+            out.write(request);
+        }
+
+        int status = connection.getResponseCode();
+        if (status != 200)
+        {
+            InputStream error = connection.getErrorStream();
+            if (error != null) { error.close(); }
+            throw new IOException("the sync server replied " + status);
+        }
+        try (InputStream in = connection.getInputStream())
+        {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte [] buffer = new byte [4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) { response.write(buffer, 0, read); }
+            return response.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the device's id, the last version seen, the stamps and values and the
+     * outbox from the state file. If it cannot be read, the device starts afresh.
+     * A state file from before values were kept has none to set back from, so
+     * the days the plan has are taken as synced.
+     */
+    private void readState()
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile))))
+        {
+            int magic = in.readInt();
+            if (magic != STATE_MAGIC && magic != OLD_STATE_MAGIC) { throw new IOException("not a sync state file"); }
+            device = in.readLong();
+            seenVersion = in.readLong();
+            clock = in.readLong();
+            int days = in.readInt();
+            for (int planDay = 0; planDay < days; planDay++)
+            {
+                setStamp(planDay, in.readLong(), in.readLong());
+                boolean completed = (magic == STATE_MAGIC) ? in.readBoolean()
+                        : planDay < completions.getPlanDays() && completions.isCompleted(planDay);
+                values.set(planDay, completed);
+            }
+            int pending = in.readInt();
+            for (int i = 0; i < pending; i++)
+            {
+                SyncDelta delta = new SyncDelta(in.readInt(), in.readBoolean(), in.readLong(), device);
+                outbox.put(delta.getPlanDay(), delta);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not read the sync state in " + stateFile + " due to " + e);
+            device = new SecureRandom().nextLong() & Long.MAX_VALUE;
+            seenVersion = 0;
+            outbox.clear();
+            Arrays.fill(stamps, 0);
+            Arrays.fill(devices, 0);
+            values.clear();
+            stateChanged = true;
+        }
+    }
+
+    /**
+     * Writes the state file, if anything changed since it was last written,
+     * through the PlanJournal() so that a crash cannot leave it half written.
+     */
+    private void saveState()
+    {
+        if (stateFile == null) { return; }
+        byte [] state;
+        synchronized (this)
+        {
+            if (!stateChanged) { return; }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + stamps.length * 17 + outbox.size() * 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try
+            {
+                out.writeInt(STATE_MAGIC);
+                out.writeLong(device);
+                out.writeLong(seenVersion);
+                out.writeLong(clock);
+                out.writeInt(stamps.length);
+                for (int planDay = 0; planDay < stamps.length; planDay++)
+                {
+                    out.writeLong(stamps[planDay]);
+                    out.writeLong(devices[planDay]);
+                    out.writeBoolean(values.get(planDay));
+                }
+                out.writeInt(outbox.size());
+                for (SyncDelta delta : outbox.values())     // only this device's changes are in the outbox
+                {
+                    out.writeInt(delta.getPlanDay());
+                    out.writeBoolean(delta.isCompleted());
+                    out.writeLong(delta.getStamp());
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);          // not thrown by a ByteArrayOutputStream
+            }
+            state = bytes.toByteArray();
+            stateChanged = false;
+        }
+
+        try { PlanJournal.getJournal().writeFile(stateFile.toString(), state); }
+        catch (IOException e)
+        {
+            synchronized (this) { stateChanged = true; }
+            System.out.println("WARNING: Could not save the sync state due to " + e);
+        }
+    }
+
+    /**
+     * Getter for the number of changes not yet accepted by the server
+     * @return  int holding the size of the outbox
+     */
+    public synchronized int getPending()
+    {
+        return outbox.size();
+    }
+
+    /**
+     * Describes the syncs so far, e.g. for a status line.
+     * @return  String holding the syncs, changes and bytes sent and received
+     */
+    public synchronized String getSummary()
+    {
+        return String.format("%d syncs (%d failed), %d changes waiting; sent %d changes in %d bytes, "
+                        + "received %d (%d applied) in %d bytes",
+                syncs, syncsFailed, outbox.size(), deltasSent, bytesSent, deltasReceived, deltasApplied,
+                bytesReceived);
+    }
+
+    /**
+     * Interface for the listener told about runs changed by other devices.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the syncing thread once changes from other devices have been
+         * applied to the CompletionBitmap.
+         *
+         * @param changedDays   BitSet of the plan days (week * 7 + day) that changed
+         */
+        void remoteChanged(BitSet changedDays);
+    }
+}
@@ -0,0 +1,272 @@
+//PlanSyncServer.java
+/**
+ * The PlanSyncServer() class is a small reference server that lets a user's
+ * phones and kiosks share which runs they have completed, through the
+ * PlanSyncClient(). Rather than whole plan files, devices send only the days
+ * they have changed (as SyncDelta batches), and get back only the days changed
+ * by other devices since they last synced. It is run as a command, and only
+ * listens on this machine:
+ *
+ *     java PlanSyncServer [port]
+ *
+ * For every user, the server keeps the winning change to each day of the plan
+ * (by last-writer-wins; see SyncDelta) and a version that counts the changes
+ * it has accepted. Each accepted change is tagged with the version it made, so
+ * a device that has seen up to version v is sent just the days tagged later.
+ * A sync is a single request, POST /sync/<user>, whose body is a batch headed
+ * by the device's id and the version it has seen; the reply is a batch headed
+ * by the user's version now and the number of changes the server accepted.
+ * State is kept in memory only: devices still hold every change, and send them
+ * again to a new server.
+ *
+ * @author: Megan Frenkel
+ */
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class PlanSyncServer
+{
+    // instance variables
+    private HttpServer server;
+    private ExecutorService handlers;
+    private ConcurrentHashMap<String, UserLog> users;   // every user's plan days, by name
+
+    // statistics
+    private AtomicLong syncs;
+    private AtomicLong deltasReceived;
+    private AtomicLong deltasAccepted;
+    private AtomicLong deltasSent;
+    private AtomicLong bytesReceived;
+    private AtomicLong bytesSent;
+
+    // final variables
+    static final int DEFAULT_PORT = 8765;
+    static final String CONTEXT = "/sync/";
+    final int HANDLERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    final int BACKLOG = 1024;                   // connections waiting to be accepted
+    final int MAX_PLAN_DAYS = 7 * 104;          // two years of plan; anything later is refused
+
+    // constructor
+    public PlanSyncServer(int port) throws IOException
+    {
+        this.users = new ConcurrentHashMap<String, UserLog>();
+        this.syncs = new AtomicLong();
+        this.deltasReceived = new AtomicLong();
+        this.deltasAccepted = new AtomicLong();
+        this.deltasSent = new AtomicLong();
+        this.bytesReceived = new AtomicLong();
+        this.bytesSent = new AtomicLong();
+
+        // syncs are small; without TCP_NODELAY each reply waits on the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext(CONTEXT,
+                new HttpHandler()
+                {
+                    public void handle(HttpExchange exchange) throws IOException { handleSync(exchange); }
+                }
+        );
+        this.handlers = Executors.newFixedThreadPool(HANDLERS);
+        server.setExecutor(handlers);
+    }
+
+    /**
+     * Runs the server from the command line, printing its statistics every minute.
+     * @param args  [port]
+     */
+    public static void main (String [] args) throws Exception
+    {
+        PlanSyncServer syncServer = new PlanSyncServer((args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        syncServer.start();
+        System.out.println("Syncing plans at http://localhost:" + syncServer.getPort() + CONTEXT);
+        while (true)
+        {
+            Thread.sleep(60 * 1000);
+            System.out.println(syncServer.getSummary());
+        }
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    /**
+     * Getter for the port
+     * @return  int holding the port the server listens on (useful when started on port 0)
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Handles a single sync: applies the device's changes to the user's plan
+     * days, and replies with the days changed by other devices since the version
+     * the device has seen.
+     */
+    private void handleSync(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String user = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(CONTEXT.length()),
+                    StandardCharsets.UTF_8.name());
+            byte [] request = readAll(exchange.getRequestBody());
+            long [] header = new long [2];
+            List<SyncDelta> received;
+            try { received = SyncDelta.readBatch(request, header); }
+            catch (IOException e)
+            {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            long device = header[0], seen = header[1];
+
+            UserLog log = users.get(user);
+            if (log == null)
+            {
+                users.putIfAbsent(user, new UserLog());
+                log = users.get(user);
+            }
+
+            // apply the device's changes, and collect the changes it has not seen, all at once
+            ArrayList<SyncDelta> reply = new ArrayList<SyncDelta>();
+            int accepted = 0;
+            long version;
+            synchronized (log)
+            {
+                for (SyncDelta delta : received)
+                {
+                    if (delta.getPlanDay() < 0 || delta.getPlanDay() >= MAX_PLAN_DAYS) { continue; }
+                    if (log.apply(delta)) { accepted += 1; }
+                }
+                log.changedSince(seen, device, reply);
+                version = log.version;
+            }
+
+            byte [] response = SyncDelta.writeBatch(version, accepted, reply);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+
+            syncs.incrementAndGet();
+            deltasReceived.addAndGet(received.size());
+            deltasAccepted.addAndGet(accepted);
+            deltasSent.addAndGet(reply.size());
+            bytesReceived.addAndGet(request.length);
+            bytesSent.addAndGet(response.length);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static byte [] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte [] buffer = new byte [4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) { bytes.write(buffer, 0, read); }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets which runs of a user's plan are completed, as the server has them.
+     * @param user  name of the user
+     * @return      BitSet of the plan days (week * 7 + day) completed
+     */
+    public BitSet getCompleted(String user)
+    {
+        UserLog log = users.get(user);
+        if (log == null) { return new BitSet(); }
+        synchronized (log) { return (BitSet) log.completed.clone(); }
+    }
+
+    /**
+     * Describes what the server has done, e.g. for the command line.
+     * @return  String holding the number of syncs, changes and bytes
+     */
+    public String getSummary()
+    {
+        long count = Math.max(1, syncs.get());
+        return String.format("%d users, %d syncs; changes: %d received, %d accepted, %d sent; "
+                        + "%d bytes received, %d sent (%.1f bytes per sync)",
+                users.size(), syncs.get(), deltasReceived.get(), deltasAccepted.get(), deltasSent.get(),
+                bytesReceived.get(), bytesSent.get(), (bytesReceived.get() + bytesSent.get()) / (double) count);
+    }
+
+    /**
+     * Inner class holding the winning change to each day of a user's plan, and
+     * the version each was accepted at. Guarded by itself.
+     */
+    private static class UserLog
+    {
+        long version;                           // changes accepted so far
+        BitSet completed = new BitSet();
+        long [] stamps = new long [0];          // of the winning change to each day; 0 if none yet
+        long [] devices = new long [0];
+        long [] versions = new long [0];        // version at which each day last changed
+
+        /**
+         * Applies a change if it wins over the one the day has.
+         * @return  boolean; was the change accepted?
+         */
+        boolean apply(SyncDelta delta)
+        {
+            int planDay = delta.getPlanDay();
+            if (planDay >= stamps.length)
+            {
+                int days = Math.max(planDay + 1, stamps.length * 2);
+                stamps = Arrays.copyOf(stamps, days);
+                devices = Arrays.copyOf(devices, days);
+                versions = Arrays.copyOf(versions, days);
+            }
+            if (versions[planDay] != 0 && !delta.winsOver(stamps[planDay], devices[planDay])) { return false; }
+
+            completed.set(planDay, delta.isCompleted());
+            stamps[planDay] = delta.getStamp();
+            devices[planDay] = delta.getDevice();
+            versions[planDay] = ++version;
+            return true;
+        }
+
+        /**
+         * Adds the days changed after a version, other than by the given device,
+         * to a list.
+         */
+        void changedSince(long seen, long device, List<SyncDelta> changes)
+        {
+            for (int planDay = 0; planDay < versions.length; planDay++)
+            {
+                if (versions[planDay] > seen && devices[planDay] != device)
+                {
+                    changes.add(new SyncDelta(planDay, completed.get(planDay), stamps[planDay], devices[planDay]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+//PlanTemplateRegistry.java
+/**
+ * The PlanTemplateRegistry() class holds the PlanSource of each race distance
+ * RunBuddy can plan for, and the base training plans ("templates") that plans are
+ * generated from, such as "basetrainingplan.txt", so that a coach can edit a
+ * template while RunBuddy is running without a plan ever being generated from a
+ * half-written file.
+ *
+ * The sources are found once, with a ServiceLoader, when the registry is made.
+ * Each template is compiled once, the first time it is asked for, into a Template
+ * that is never changed afterwards: the lines are parsed with the source's field
+ * layout into [week][day][value] arrays, and everything a generator would
+ * otherwise work out again for each plan (the ProgressionSolver() for the
+ * template and the way it is stretched over any number of weeks) is kept with
+ * it. Every generator for the same race shares the one Template.
+ *
+ * A daemon thread watches the templates' files and, once a file has been quiet
+ * for SETTLE_MILLIS after a change, compiles it in the background. If it parses
+ * into the weeks its source declares, it is published as the next version of that
+ * template; if not (e.g., the coach is still saving it), the current version is
+ * kept. Publication is copy-on-write: a new map of templates is built and swapped
+ * in with a single write, so a generation that has already picked up a Template
+ * finishes with that version, and new generations get the new one. No lock is
+ * taken to look up a template.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+
+class PlanTemplateRegistry implements Runnable
+{
+    // the single, shared registry
+    private static PlanTemplateRegistry templates;
+
+    // instance variables
+    private Map<String, PlanSource> sources;            // by name, in the order they were found; never changed
+    private volatile Map<String, Template> published;  // by source name; replaced, never changed, on publication
+    private Map<String, Template> versions;             // every version published in this run, by getId()
+    private WatchService watchService;                  // null if the files cannot be watched
+
+    // final variables
+    final long SETTLE_MILLIS = 100;                     // quiet time after the last change before a file is read
+    final int DAYS_IN_WEEK = 7;
+    final int VALUE_IN_DAY = 4;                         // values are distance, pace, isCompleted and actual distance
+    static final String DEFAULT_SOURCE = "half";        // race for profiles that do not name one
+
+    // constructor; only called on by getTemplates()
+    private PlanTemplateRegistry()
+    {
+        this.published = Collections.emptyMap();
+        this.versions = new ConcurrentHashMap<String, Template>();
+
+        LinkedHashMap<String, PlanSource> found = new LinkedHashMap<String, PlanSource>();
+        for (PlanSource source : ServiceLoader.load(PlanSource.class)) { found.put(source.getName(), source); }
+        if (!found.containsKey(DEFAULT_SOURCE))     // e.g., src/resources is not on the class path
+        {
+            System.out.println("WARNING: The plan sources could not all be found on the class path; "
+                    + "using the built-in ones");
+            for (PlanSource source : new PlanSource [] { new RacePlanSources.FiveK(), new RacePlanSources.TenK(),
+                    new RacePlanSources.HalfMarathon(), new RacePlanSources.FullMarathon() })
+            {
+                if (!found.containsKey(source.getName())) { found.put(source.getName(), source); }
+            }
+        }
+        this.sources = Collections.unmodifiableMap(found);
+    }
+
+    /**
+     * Returns the shared registry, starting the thread that watches the
+     * templates' files the first time it is called.
+     *
+     * @return  the shared PlanTemplateRegistry object
+     */
+    public static synchronized PlanTemplateRegistry getTemplates()
+    {
+        if (templates == null)
+        {
+            templates = new PlanTemplateRegistry();
+            try
+            {
+                templates.watchService = FileSystems.getDefault().newWatchService();
+                Thread thread = new Thread(templates, "plan-template-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e)
+            {
+                System.out.println("WARNING: Could not watch plan templates for changes due to " + e);
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Getter for every race that plans can be made for
+     * @return  read-only collection of PlanSources, in the order they were found
+     */
+    public Collection<PlanSource> getSources()
+    {
+        return sources.values();
+    }
+
+    /**
+     * Looks up the source of a race by its name.
+     *
+     * @param name  short name of the race, e.g. "10k"
+     * @return      the PlanSource, or null if there is no such race
+     */
+    public PlanSource getSource(String name)
+    {
+        return sources.get(name);
+    }
+
+    /**
+     * Gets the latest version of a source's template, compiling it first if it
+     * has not been asked for before.
+     *
+     * @param source        the race to get the template of
+     * @return              the latest Template
+     * @throws IOException  if the template has not been compiled before and cannot be
+     */
+    public Template getTemplate(PlanSource source) throws IOException
+    {
+        Template template = published.get(source.getName());
+        if (template == null) { template = register(source); }
+        return template;
+    }
+
+    /**
+     * Gets the version of a source's template that a plan was made from, by its
+     * id (see Template.getId()), so that a loaded plan goes on being generated
+     * from the version it started with. Only versions read since RunBuddy started
+     * are kept; if the plan's version is not one of them (e.g., the file was
+     * edited while RunBuddy was closed), the latest version is returned instead.
+     *
+     * @param source        the race to get the template of
+     * @param id            id of the version wanted, or null for the latest
+     * @return              the Template with that id, if there is one, or else the latest
+     * @throws IOException  if the template has not been compiled before and cannot be
+     */
+    public Template getTemplate(PlanSource source, String id) throws IOException
+    {
+        Template latest = getTemplate(source);
+        Template saved = (id != null) ? versions.get(id) : null;
+        return (saved != null && saved.getSource() == source) ? saved : latest;
+    }
+
+    /**
+     * Compiles a template for the first time, publishes it as version 1 and
+     * starts watching its directory.
+     */
+    private synchronized Template register(PlanSource source) throws IOException
+    {
+        Template template = published.get(source.getName());
+        if (template != null) { return template; }    // compiled by another thread meanwhile
+
+        template = parse(source, 1);
+        publish(template);
+
+        if (watchService != null)
+        {
+            Path directory = Paths.get(template.getFile()).toAbsolutePath().getParent();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        return template;
+    }
+
+    /**
+     * Publishes a version of a template by swapping in a copy of the map of
+     * templates that holds it.
+     */
+    private synchronized void publish(Template template)
+    {
+        HashMap<String, Template> copy = new HashMap<String, Template>(published);
+        copy.put(template.getSource().getName(), template);
+        versions.putIfAbsent(template.getId(), template);   // a version saved again keeps its first Template
+        published = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Runs on the watcher thread: waits for templates' files to change and
+     * settle, then reads each changed template in the background.
+     */
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                // wait for a template to change, then for it to be quiet; changes
+                // to other files in the same directories (e.g., plans) are passed over
+                HashSet<String> changed = new HashSet<String>();     // names of the sources changed
+                long quietAt = 0;
+                while (changed.isEmpty() || System.currentTimeMillis() < quietAt)
+                {
+                    WatchKey key = changed.isEmpty() ? watchService.take()
+                            : watchService.poll(Math.max(1, quietAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (key == null) { break; }     // quiet
+
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        for (Template current : published.values())
+                        {
+                            // events may have been lost (OVERFLOW), so check every template anyway
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                    || Paths.get(current.getFile()).toAbsolutePath().equals(
+                                            directory.resolve((Path) event.context()).toAbsolutePath()))
+                            {
+                                changed.add(current.getSource().getName());
+                                quietAt = System.currentTimeMillis() + SETTLE_MILLIS;
+                            }
+                        }
+                    }
+                    key.reset();
+                }
+
+                for (String name : changed) { reload(published.get(name)); }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) { }   // stopped
+    }
+
+    /**
+     * Reads a template's file again and publishes it as the next version, unless
+     * it cannot be parsed or has not actually changed.
+     */
+    private void reload(Template current)
+    {
+        Template next;
+        try { next = parse(current.getSource(), current.getVersion() + 1); }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Kept version " + current.getVersion() + " of " + current.getFile()
+                    + ", since the new version could not be read: " + e);
+            return;
+        }
+
+        if (next.getChecksum() == current.getChecksum()) { return; }   // saved again, but no different
+        publish(next);
+        System.out.println("Loaded version " + next.getVersion() + " of " + next.getFile());
+    }
+
+    /**
+     * Compiles a source's template file into a Template. Each line is a day,
+     * with its values in the order of the source's field layout. The template
+     * must hold exactly the number of whole weeks the source declares, so a file
+     * that is cut short (or still being written) is refused.
+     *
+     * @param source        the race whose template is compiled
+     * @param version       version number to give the template
+     * @return              the compiled Template
+     * @throws IOException  if the file cannot be read or does not hold the declared weeks
+     */
+    private Template parse(PlanSource source, int version) throws IOException
+    {
+        String file = source.getTemplateFile();
+        String [] layout = source.getFieldLayout();
+        int weekField = Arrays.asList(layout).indexOf(PlanSource.WEEK);
+        int dayField = Arrays.asList(layout).indexOf(PlanSource.DAY);
+        int [] valueFields = {                                      // field holding each value, or -1 if left out
+                Arrays.asList(layout).indexOf(PlanSource.MILES),
+                Arrays.asList(layout).indexOf(PlanSource.PACE),
+                Arrays.asList(layout).indexOf(PlanSource.COMPLETED)
+        };
+        if (weekField < 0 || dayField < 0 || valueFields[0] < 0 || valueFields[1] < 0)
+        {
+            throw new IOException("the layout of " + source.getName() + " needs week, day, miles and pace fields");
+        }
+
+        byte [] contents = Files.readAllBytes(Paths.get(file));
+        double [][][] weeks = new double [source.getWeeks()][DAYS_IN_WEEK][VALUE_IN_DAY];
+        int days = 0;
+
+        try
+        {
+            BufferedReader in = new BufferedReader(new StringReader(new String(contents, StandardCharsets.US_ASCII)));
+            String newLine;
+            while ((newLine = in.readLine()) != null)
+            {
+                if (newLine.trim().isEmpty()) { continue; }
+                String [] day = newLine.split(",");
+
+                int week = Integer.parseInt(day[weekField].trim()) - 1;    // array indices start at 0
+                int dayOfWeek = Integer.parseInt(day[dayField].trim()) - 1;
+                double [] values = weeks[week][dayOfWeek];
+                for (int value = 0; value < valueFields.length; value++)
+                {
+                    if (valueFields[value] >= 0) { values[value] = Double.parseDouble(day[valueFields[value]].trim()); }
+                }
+                days += 1;
+            }
+        }
+        catch (RuntimeException e)  // NumberFormatException or ArrayIndexOutOfBoundsException
+        {
+            throw new IOException("bad line in " + file + " (" + e + ")");
+        }
+        if (days != weeks.length * DAYS_IN_WEEK)
+        {
+            throw new IOException(file + " does not hold " + weeks.length + " whole weeks (" + days + " days)");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        return new Template(source, version, crc.getValue(), weeks);
+    }
+
+    /**
+     * Inner class holding a single compiled version of a template. A Template is
+     * never changed once it is made (other than filling in its cache of week
+     * mappings), so it can be shared by any number of plans; the weeks and
+     * mappings it returns must not be written to.
+     */
+    static class Template
+    {
+        private final PlanSource source;
+        private final int version;                      // 1 for the version read first, and so on
+        private final long checksum;                    // CRC32 of the file, to tell versions apart across runs
+        private final double [][][] weeks;              // [week][day][value]; read only
+        private final ProgressionSolver solver;         // for season plans; shares its solutions between plans
+        private final Map<Integer, int []> weekMappings; // plan weeks -> base week for each week of the plan
+
+        Template(PlanSource source, int version, long checksum, double [][][] weeks)
+        {
+            this.source = source;
+            this.version = version;
+            this.checksum = checksum;
+            this.weeks = weeks;
+            this.solver = new ProgressionSolver(weeks);
+            this.weekMappings = new ConcurrentHashMap<Integer, int []>();
+        }
+
+        /**
+         * Getter for the race the template is for
+         * @return  the PlanSource
+         */
+        public PlanSource getSource()
+        {
+            return source;
+        }
+
+        /**
+         * Getter for the name of the template's file
+         * @return  String holding the file name
+         */
+        public String getFile()
+        {
+            return source.getTemplateFile();
+        }
+
+        /**
+         * Getter for the version, counted since RunBuddy started (see getId()
+         * for what is saved with a plan)
+         * @return  int representing the version
+         */
+        public int getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * Getter for the checksum of the file the version was read from
+         * @return  long holding the CRC32
+         */
+        public long getChecksum()
+        {
+            return checksum;
+        }
+
+        /**
+         * Gets the id of the version, which is the same in every run of RunBuddy
+         * for the same contents of the file, and is saved with each user's profile
+         * @return  String holding the source's name and the CRC32, e.g. "half@1a2b3c4d"
+         */
+        public String getId()
+        {
+            return source.getName() + "@" + Long.toHexString(checksum);
+        }
+
+        /**
+         * Getter for the weeks of the template, which must not be written to
+         * @return  3D array of [week][day][value]
+         */
+        public double [][][] getWeeks()
+        {
+            return weeks;
+        }
+
+        /**
+         * Getter for the ProgressionSolver() for the template, shared by every plan
+         * @return  the ProgressionSolver
+         */
+        public ProgressionSolver getSolver()
+        {
+            return solver;
+        }
+
+        /**
+         * Stretches (or squeezes) the template evenly over a plan of any length,
+         * so that the first week of the plan is the first week of the template and
+         * the last week is always the template's final week before race day; weeks
+         * in between are repeated for long plans and skipped for short plans. Each
+         * length is only worked out once.
+         *
+         * @param planWeeks     number of weeks in the plan
+         * @return              index of the template week to use for each week of the plan
+         */
+        public int [] getWeekMapping(int planWeeks)
+        {
+            int [] mapping = weekMappings.get(planWeeks);
+            if (mapping == null)
+            {
+                mapping = new int [planWeeks];
+                int lastBaseWeek = weeks.length - 1;
+                for (int week = 0; week < planWeeks - 1; week++)
+                {
+                    mapping[week] = week * lastBaseWeek / (planWeeks - 1);
+                }
+                mapping[planWeeks - 1] = lastBaseWeek;     // race week is only used once
+                weekMappings.put(planWeeks, mapping);
+            }
+            return mapping;
+        }
+
+        /**
+         * Describes the version, e.g. "half: basetrainingplan.txt v2 (crc 1a2b3c4d)"
+         * @return  String describing the version
+         */
+        public String toString()
+        {
+            return source.getName() + ": " + getFile() + " v" + version + " (crc " + Long.toHexString(checksum) + ")";
+        }
+    }
+}
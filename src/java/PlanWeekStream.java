@@ -0,0 +1,107 @@
+//PlanWeekStream.java
+/**
+ * The PlanWeekStream() class generates the weeks of a "season" training plan
+ * one at a time, rather than building the whole plan up front. A season is made
+ * up of one or more back-to-back races, each with its own number of weeks of
+ * training (e.g., 20 weeks to a first race followed by 8 weeks to a second race).
+ *
+ * Each block of training is stretched (or squeezed) over the base plan so that
+ * the first week of the block is the first base week and the last week of the
+ * block is always the final base week before race day; base weeks in between are
+ * repeated as needed for long blocks and skipped for short blocks. The mileage of
+ * each week is then scaled to the weekly mileage found by the ProgressionSolver(),
+ * so that stretching the base plan never breaks a safe ramp rate, and finally
+ * mileage and pace are scaled by the multipliers for the user's age and ability groups.
+ *
+ * Because any week can be worked out from its index alone, only the base plan and
+ * the (shared) weekly mileage for each race block are kept in memory. The base
+ * plan, its ProgressionSolver() and the way it is stretched over each block
+ * length all come from the compiled PlanTemplateRegistry.Template, so they are
+ * worked out once for every plan made from the same template.
+ *
+ * @author: Megan Frenkel
+ */
+
+
+class PlanWeekStream
+{
+    // instance variables used to generate weeks
+    private PlanTemplateRegistry.Template template;
+    private double [][][] baseTrainingPlan;
+    private int [] raceWeeks;                           // number of weeks of training for each race
+    private double [] ageMultipliers;
+    private double [] abilityMultipliers;
+    private double [] baseWeeklyMiles;                  // total miles in each base week
+    private double [][] blockWeeklyMiles;               // [race][week] -> miles from the ProgressionSolver
+    private int totalWeeks;
+
+    // final variables
+    final int DAYS_IN_WEEK = 7;
+    final int VALUE_IN_DAY = 4;
+
+    // constructor
+    public PlanWeekStream(PlanTemplateRegistry.Template template, int [] raceWeeks,
+                          double [] ageMultipliers, double [] abilityMultipliers)
+    {
+        this.template = template;
+        this.baseTrainingPlan = template.getWeeks();
+        this.raceWeeks = raceWeeks;
+        this.ageMultipliers = ageMultipliers;
+        this.abilityMultipliers = abilityMultipliers;
+
+        // work out safe weekly mileage for each race block
+        ProgressionSolver solver = template.getSolver();
+        this.baseWeeklyMiles = solver.getBaseWeeklyMiles();
+        this.blockWeeklyMiles = new double [raceWeeks.length][];
+        this.totalWeeks = 0;
+        for (int race = 0; race < raceWeeks.length; race++)
+        {
+            blockWeeklyMiles[race] = solver.solve(raceWeeks[race]);
+            totalWeeks += raceWeeks[race];
+        }
+    }
+
+    /**
+     * Getter for the total number of weeks in the season
+     * @return  int representing number of weeks
+     */
+    public int getTotalWeeks()
+    {
+        return totalWeeks;
+    }
+
+    /**
+     * Generates any week of the season, filling in the array provided. This
+     * allows a caller to reuse the same array for every week it looks at.
+     *
+     * @param week   index of the week in the season (0 is the first week)
+     * @param days   [day][value] array to fill in
+     * @return       the days array, filled in for the given week
+     */
+    public double [][] generateWeek(int week, double [][] days)
+    {
+        // find the race block that this week falls in
+        int race = 0;
+        while (week >= raceWeeks[race])
+        {
+            week -= raceWeeks[race];
+            race += 1;
+        }
+
+        // scale the base week to the solved mileage for this week
+        int baseWeek = template.getWeekMapping(raceWeeks[race])[week];
+        double rampScale = 0;
+        if (baseWeeklyMiles[baseWeek] > 0) { rampScale = blockWeeklyMiles[race][week] / baseWeeklyMiles[baseWeek]; }
+
+        double [][] baseDays = baseTrainingPlan[baseWeek];
+        for (int day = 0; day < DAYS_IN_WEEK; day++)
+        {
+            days[day][0] = baseDays[day][0] * rampScale * ageMultipliers[CustomizationRules.MILEAGE]
+                    * abilityMultipliers[CustomizationRules.MILEAGE];
+            days[day][1] = baseDays[day][1] * ageMultipliers[CustomizationRules.PACE]
+                    * abilityMultipliers[CustomizationRules.PACE];
+            days[day][2] = baseDays[day][2];
+        }
+        return days;
+    }
+}
@@ -25,6 +25,8 @@ class ProgressPanel extends JPanel
     private JProgressBar progressBar;
     private final int MIN = 0;          // main percentage for progress bar
     private final int MAX = 100;        // max percentage for progress bar
+    private Metrics metrics = Metrics.getMetrics();
+    private LatencyHistogram paintLatency = metrics.histogram("progress_paint");
 
     // constructor for JPanel
     public ProgressPanel(int percentCompleted)
@@ -68,14 +70,14 @@ class ProgressPanel extends JPanel
     /**
      * This public method can be called upon to update the
      * "percent completed" or the extent to which the progress
-     * bar is covered, over time.
+     * bar is covered, over time. The progress bar repaints itself
+     * when its value changes, so its UI does not need to be reinstalled.
      *
      * @param percentCompleted   percent of the training plan that is complete
      */
     public void adjustProgressBar(int percentCompleted)
     {
         progressBar.setValue(percentCompleted);
-        progressBar.updateUI();
     }
 
     /**
@@ -88,6 +90,16 @@ class ProgressPanel extends JPanel
     {
         @Override
         public void paint(Graphics g, JComponent c)
+        {
+            long start = metrics.start();
+            paintCircle(g);
+            paintLatency.recordSince(start);
+        }
+
+        /**
+         * Paints the circle for the percentage complete, called on by paint().
+         */
+        private void paintCircle(Graphics g)
         {
             // adjust size with frame
             Insets b = progressBar.getInsets();
@@ -0,0 +1,231 @@
+//ProgressionSolver.java
+/**
+ * The ProgressionSolver() class works out how many miles should be run in each
+ * week of a plan of any length so that the plan follows the shape of the base
+ * training plan as closely as possible while still respecting safe ramp rates:
+ *
+ *  - a "build" week may not add more than MAX_INCREASE over the last build week,
+ *    or MIN_INCREASE miles if that is more, so that low mileage can still build,
+ *  - every CUTBACK_EVERY-th week is a cutback week at CUTBACK_RATIO of the last build week,
+ *  - the final weeks before (and including) race week taper down by TAPER_RATIOS.
+ *
+ * The weekly targets are found by dynamic programming over (week, last build
+ * mileage), where mileage is counted in whole miles. Each sub-solution (the best
+ * cost of the rest of the plan from a given week and mileage) is memoized while
+ * solving, and each finished solution is cached by horizon. Solutions are worked
+ * out in base plan miles, before any age or ability multipliers are applied, so
+ * every user with the same horizon shares the same solution.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+class ProgressionSolver
+{
+    // finished solutions, shared by every solver; keyed by horizon and base plan mileage
+    private static final Map<String, double []> solutions = new ConcurrentHashMap<String, double []>();
+
+    // instance variables
+    private double [] baseWeeklyMiles;                  // total miles in each week of the base plan
+    private String baseKey;
+
+    // final variables, representing the constraints on the plan
+    final double MAX_INCREASE = 0.10;                   // build weeks go up by no more than 10%...
+    final int MIN_INCREASE = 1;                         // ...or 1 mile, below 10 miles a week
+    final int CUTBACK_EVERY = 4;                        // every 4th week is a cutback week...
+    final double CUTBACK_RATIO = 0.8;                   // ...at 80% of the last build week
+    final double [] TAPER_RATIOS = { 0.8, 0.65 };       // last two weeks, relative to the last build week
+    final double HEADROOM = 1.2;                        // highest mileage considered, relative to the targets
+
+    // types of week
+    static final int BUILD = 0;
+    static final int CUTBACK = 1;
+    static final int TAPER = 2;
+
+    // constructor
+    public ProgressionSolver(double [][][] baseTrainingPlan)
+    {
+        baseWeeklyMiles = new double [baseTrainingPlan.length];
+        for (int week = 0; week < baseTrainingPlan.length; week++)
+        {
+            for (int day = 0; day < baseTrainingPlan[week].length; day++)
+            {
+                baseWeeklyMiles[week] += baseTrainingPlan[week][day][0];
+            }
+        }
+        baseKey = Arrays.toString(baseWeeklyMiles);
+    }
+
+    /**
+     * Getter for the total miles in each week of the base plan
+     * @return  array of weekly mileage
+     */
+    public double [] getBaseWeeklyMiles()
+    {
+        return baseWeeklyMiles;
+    }
+
+    /**
+     * Finds the weekly mileage for a plan with the given number of weeks,
+     * using a cached solution if one has already been worked out.
+     *
+     * @param horizon   number of weeks in the plan (the last week is race week)
+     * @return          array of miles to run in each week, in base plan miles
+     */
+    public double [] solve(int horizon)
+    {
+        String key = horizon + ":" + baseKey;
+        double [] solution = solutions.get(key);
+        if (solution == null)
+        {
+            solution = new Solve(horizon).weeklyMiles();
+            solutions.put(key, solution);
+        }
+        return solution;
+    }
+
+    /**
+     * Gets the mileage the plan is aiming for in a given week, by stretching
+     * the base plan's weekly mileage over the horizon.
+     *
+     * @param week      index of the week
+     * @param horizon   number of weeks in the plan
+     * @return          target miles for that week
+     */
+    private double targetFor(int week, int horizon)
+    {
+        int lastBaseWeek = baseWeeklyMiles.length - 1;
+        if (horizon == 1) { return baseWeeklyMiles[lastBaseWeek]; }
+
+        double position = (double) week * lastBaseWeek / (horizon - 1);
+        int before = (int) position;
+        if (before == lastBaseWeek) { return baseWeeklyMiles[lastBaseWeek]; }
+
+        double fraction = position - before;
+        return baseWeeklyMiles[before] * (1 - fraction) + baseWeeklyMiles[before + 1] * fraction;
+    }
+
+    /**
+     * Inner class holding the memo tables for a single horizon while it is
+     * being solved.
+     */
+    class Solve
+    {
+        int horizon;
+        int levels;                 // mileage levels considered: 0, 1, ... levels - 1 miles
+        double [] targets;
+        double [][] bestCost;       // [week][last build miles] -> best cost of the rest of the plan
+        int [][] bestChoice;        // [week][last build miles] -> miles to run that week
+
+        public Solve(int horizon)
+        {
+            this.horizon = horizon;
+            this.targets = new double [horizon];
+
+            double highest = 0;
+            for (int week = 0; week < horizon; week++)
+            {
+                targets[week] = targetFor(week, horizon);
+                highest = Math.max(highest, targets[week]);
+            }
+            this.levels = (int) Math.ceil(highest * HEADROOM) + 1;
+
+            this.bestCost = new double [horizon][levels];
+            this.bestChoice = new int [horizon][levels];
+            for (double [] row : bestCost) { Arrays.fill(row, Double.NaN); }  // NaN = not solved yet
+        }
+
+        /**
+         * Walks the memoized choices from the first week to get the mileage
+         * for every week of the plan.
+         *
+         * @return  array of weekly mileage
+         */
+        public double [] weeklyMiles()
+        {
+            double [] miles = new double [horizon];
+            int lastBuild = Math.min((int) Math.round(baseWeeklyMiles[0]), levels - 1);  // starting fitness
+
+            for (int week = 0; week < horizon; week++)
+            {
+                best(week, lastBuild);
+                int choice = bestChoice[week][lastBuild];
+                if (weekType(week) == BUILD)
+                {
+                    miles[week] = choice;
+                    lastBuild = choice;
+                }
+                else { miles[week] = lastBuild * ratioFor(week); }
+            }
+            return miles;
+        }
+
+        /**
+         * Finds the best cost of the plan from a given week onwards, where the
+         * cost is the squared difference between each week's miles and its target.
+         *
+         * @param week       index of the week
+         * @param lastBuild  miles run in the last build week
+         * @return           best cost of the rest of the plan
+         */
+        private double best(int week, int lastBuild)
+        {
+            if (week == horizon) { return 0; }
+            if (!Double.isNaN(bestCost[week][lastBuild])) { return bestCost[week][lastBuild]; }
+
+            double cost;
+            if (weekType(week) == BUILD)
+            {
+                // try every mileage allowed by the ramp rate; 10% of under 10 miles rounds down to nothing
+                int ramp = Math.max(lastBuild + MIN_INCREASE, (int) Math.floor(lastBuild * (1 + MAX_INCREASE)));
+                int highest = Math.min(ramp, levels - 1);
+                cost = Double.MAX_VALUE;
+                for (int miles = 0; miles <= highest; miles++)
+                {
+                    double difference = miles - targets[week];
+                    double total = difference * difference + best(week + 1, miles);
+                    if (total < cost)
+                    {
+                        cost = total;
+                        bestChoice[week][lastBuild] = miles;
+                    }
+                }
+            }
+            else  // cutback and taper weeks are set by the last build week
+            {
+                double difference = lastBuild * ratioFor(week) - targets[week];
+                cost = difference * difference + best(week + 1, lastBuild);
+                bestChoice[week][lastBuild] = lastBuild;
+            }
+
+            bestCost[week][lastBuild] = cost;
+            return cost;
+        }
+
+        /**
+         * Determines what kind of week a given week is.
+         * @param week  index of the week
+         * @return      BUILD, CUTBACK or TAPER
+         */
+        private int weekType(int week)
+        {
+            if (week >= horizon - TAPER_RATIOS.length) { return TAPER; }
+            if ((week + 1) % CUTBACK_EVERY == 0) { return CUTBACK; }
+            return BUILD;
+        }
+
+        /**
+         * Gets the share of the last build week's mileage run in a cutback or taper week.
+         * @param week  index of the week
+         * @return      ratio of the last build week's miles
+         */
+        private double ratioFor(int week)
+        {
+            if (weekType(week) == TAPER) { return TAPER_RATIOS[week - (horizon - TAPER_RATIOS.length)]; }
+            return CUTBACK_RATIO;
+        }
+    }
+}
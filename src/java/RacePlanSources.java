@@ -0,0 +1,97 @@
+//RacePlanSources.java
+/**
+ * The RacePlanSources() class holds the PlanSource implementations that come with
+ * RunBuddy: 5k, 10k, half marathon and full marathon. They are listed in
+ * "META-INF/services/PlanSource" (see src/resources) so that the ServiceLoader
+ * finds them in the same way as any other source; ServiceLoader needs each of
+ * them to be public with a public constructor.
+ *
+ * The half marathon is the original 8-week "basetrainingplan.txt", which the
+ * week mappings in "customizationrules.txt" were written for. The others are
+ * stretched over the user's time group (see PlanSource.usesRuleWeekMappings()).
+ *
+ * @author: Megan Frenkel
+ */
+
+
+class RacePlanSources
+{
+    /**
+     * Base class holding the values every built-in source declares.
+     */
+    abstract static class BuiltInSource implements PlanSource
+    {
+        private final String name;
+        private final String label;
+        private final double raceMiles;
+        private final String templateFile;
+        private final int weeks;
+        private final String [] fieldLayout;
+
+        BuiltInSource(String name, String label, double raceMiles, String templateFile, int weeks, String [] fieldLayout)
+        {
+            this.name = name;
+            this.label = label;
+            this.raceMiles = raceMiles;
+            this.templateFile = templateFile;
+            this.weeks = weeks;
+            this.fieldLayout = fieldLayout;
+        }
+
+        public String getName() { return name; }
+        public String getLabel() { return label; }
+        public double getRaceMiles() { return raceMiles; }
+        public String getTemplateFile() { return templateFile; }
+        public int getWeeks() { return weeks; }
+        public String [] getFieldLayout() { return fieldLayout.clone(); }
+        public boolean usesRuleWeekMappings() { return false; }
+    }
+
+    /**
+     * 6 weeks to a 5k; the template leaves out isCompleted and gives the pace first.
+     */
+    public static class FiveK extends BuiltInSource
+    {
+        public FiveK()
+        {
+            super("5k", "5k", 3.1, "5kbaseplan.txt", 6, new String [] { WEEK, DAY, PACE, MILES });
+        }
+    }
+
+    /**
+     * 8 weeks to a 10k; the template leaves out isCompleted.
+     */
+    public static class TenK extends BuiltInSource
+    {
+        public TenK()
+        {
+            super("10k", "10k", 6.2, "10kbaseplan.txt", 8, new String [] { WEEK, DAY, MILES, PACE });
+        }
+    }
+
+    /**
+     * 8 weeks to a half marathon, from CoolRunning.com (see TrainingPlanGenerator()).
+     */
+    public static class HalfMarathon extends BuiltInSource
+    {
+        public HalfMarathon()
+        {
+            super("half", "Half Marathon", 13.1, "basetrainingplan.txt", 8,
+                    new String [] { WEEK, DAY, MILES, PACE, COMPLETED });
+        }
+
+        public boolean usesRuleWeekMappings() { return true; }
+    }
+
+    /**
+     * 16 weeks to a full marathon.
+     */
+    public static class FullMarathon extends BuiltInSource
+    {
+        public FullMarathon()
+        {
+            super("marathon", "Full Marathon", 26.2, "marathonbaseplan.txt", 16,
+                    new String [] { WEEK, DAY, MILES, PACE, COMPLETED });
+        }
+    }
+}
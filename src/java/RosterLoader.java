@@ -0,0 +1,278 @@
+//RosterLoader.java
+/**
+ * The RosterLoader() class reads every athlete with a profile in a directory,
+ * in the background, for the CoachDashboard()'s RosterTableModel(), the
+ * Leaderboard() and the AthleteIndex(). A walker thread lists the profiles and
+ * hands each to a small pool of loaders through a bounded queue; if the queue
+ * is full, the walker loads the athlete itself. Each loader reads the athlete's
+ * profile and saved plan and works out the same totals the TrainingFrame()
+ * shows (see TrainingPlanGenerator.getMilesCompleted()), and tells the
+ * listeners.
+ *
+ * The shared club loader (see getClub()) reads RunBuddy's working directory
+ * once for both the Leaderboard and the AthleteIndex, which may ask for it at
+ * different times. So it keeps the athletes it has read, and a listener added
+ * late is first told of those: every listener is told of every athlete once.
+ * Other loaders keep nothing (the CoachDashboard keeps only primitive values
+ * per athlete), so their listeners are added before they are started.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class RosterLoader
+{
+    // the shared loader of the club
+    private static RosterLoader club;
+
+    // instance variables
+    private Path directory;
+    private String threadName;
+    private boolean keepAthletes;                       // keep those read, for listeners added late
+    private ArrayList<Athlete> athletes;                // read so far, if kept; guarded by this
+    private ArrayList<Listener> listeners;              // guarded by this
+    private boolean loaded;                             // every athlete has been read; guarded by this
+    private volatile boolean loading;
+    private AtomicInteger athletesFound;
+    private AtomicInteger athletesSkipped;
+
+    // final variables
+    final String PROFILE_SUFFIX = "_profile.txt";
+    final int LOADERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int QUEUE_PER_LOADER = 16;                    // athletes waiting for each loader, at most
+
+    // constructor
+    public RosterLoader(Path directory, String threadName, boolean keepAthletes)
+    {
+        this.directory = directory;
+        this.threadName = threadName;
+        this.keepAthletes = keepAthletes;
+        this.athletes = new ArrayList<Athlete>();
+        this.listeners = new ArrayList<Listener>();
+        this.loaded = false;
+        this.loading = false;
+        this.athletesFound = new AtomicInteger();
+        this.athletesSkipped = new AtomicInteger();
+    }
+
+    /**
+     * Returns the club's shared loader, for the Leaderboard and the
+     * AthleteIndex. The first time it is called, every athlete in RunBuddy's
+     * working directory starts being read, in the background.
+     *
+     * @return  the shared RosterLoader object
+     */
+    public static synchronized RosterLoader getClub()
+    {
+        if (club == null)
+        {
+            club = new RosterLoader(Paths.get("."), "club-loader", true);   // plans are found by name
+            club.start();
+        }
+        return club;
+    }
+
+    /**
+     * Starts reading every athlete with a profile in the directory, on
+     * background threads.
+     */
+    public void start()
+    {
+        loading = true;
+        Thread walker = new Thread(
+                new Runnable()
+                {
+                    public void run() { loadAll(); }
+                },
+                threadName
+        );
+        walker.setDaemon(true);
+        walker.start();
+    }
+
+    /**
+     * Adds a listener to be told of each athlete read and once every athlete
+     * has been read. If the athletes are kept, it is first told, on this thread,
+     * of those already read (and that loading has finished, if it has).
+     *
+     * @param listener  the Listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        Athlete [] told;
+        boolean done;
+        synchronized (this)
+        {
+            told = athletes.toArray(new Athlete [athletes.size()]);
+            done = loaded;
+            listeners.add(listener);
+        }
+        for (Athlete athlete : told) { listener.athleteLoaded(athlete); }
+        if (done) { listener.rosterLoaded(); }
+    }
+
+    /**
+     * Determines if athletes are still being read
+     * @return  boolean; still loading?
+     */
+    public boolean isLoading()
+    {
+        return loading;
+    }
+
+    /**
+     * Getter for the number of profiles found so far
+     * @return  int representing the number of athletes found
+     */
+    public int getAthletesFound()
+    {
+        return athletesFound.get();
+    }
+
+    /**
+     * Getter for the number of athletes whose files could not be read, or who
+     * have no saved plan
+     * @return  int representing the number of athletes skipped
+     */
+    public int getAthletesSkipped()
+    {
+        return athletesSkipped.get();
+    }
+
+    /**
+     * Runs on the walker thread: walks the directory and hands each profile to
+     * a pool of loaders through a bounded queue; if the queue is full, this
+     * thread loads the athlete itself.
+     */
+    private void loadAll()
+    {
+        ThreadPoolExecutor loaders = new ThreadPoolExecutor(LOADERS, LOADERS, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(LOADERS * QUEUE_PER_LOADER),
+                new ThreadPoolExecutor.CallerRunsPolicy());   // back-pressure: walker loads when queue is full
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + PROFILE_SUFFIX))
+        {
+            for (final Path file : files)
+            {
+                athletesFound.incrementAndGet();
+                loaders.execute(
+                        new Runnable()
+                        {
+                            public void run() { loadAthlete(file); }
+                        }
+                );
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not list the athletes due to " + e);
+        }
+        finally
+        {
+            loaders.shutdown();
+            try { loaders.awaitTermination(1, TimeUnit.HOURS); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+
+        Listener [] told;
+        synchronized (this)
+        {
+            loaded = true;
+            told = listeners.toArray(new Listener [listeners.size()]);
+        }
+        loading = false;
+        for (Listener listener : told) { listener.rosterLoaded(); }
+    }
+
+    /**
+     * Reads a single athlete's profile and saved plan, and tells the listeners.
+     * Athletes whose files cannot be read, or who have no saved plan, are skipped.
+     *
+     * @param profileFile   path to the athlete's profile
+     */
+    private void loadAthlete(Path profileFile)
+    {
+        Athlete athlete = new Athlete();
+        try
+        {
+            UserProfile profile = new UserProfile();
+            profile.readProfile(profileFile.toFile());
+            TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+            if (!generator.loadTrainingPlan())
+            {
+                athletesSkipped.incrementAndGet();
+                return;
+            }
+
+            athlete.profile = profile;
+            athlete.race = generator.getSource().getLabel();
+            athlete.weeks = generator.getUserTrainingPlan().length;
+            athlete.totalMiles = generator.getTotalMiles();
+            athlete.milesCompleted = generator.getMilesCompleted();
+            athlete.runsCompleted = generator.getRunsCompleted();
+            athlete.planFile = generator.getPlanFileName();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            athletesSkipped.incrementAndGet();
+            System.out.println("WARNING: Could not load athlete " + profileFile + " due to " + e);
+            return;
+        }
+
+        // kept and told under the same lock as addListener(), so no listener is told twice or missed
+        Listener [] told;
+        synchronized (this)
+        {
+            if (keepAthletes) { athletes.add(athlete); }
+            told = listeners.toArray(new Listener [listeners.size()]);
+        }
+        for (Listener listener : told) { listener.athleteLoaded(athlete); }
+    }
+
+    /**
+     * Interface for listeners told of the athletes read.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the loader thread that read the athlete (or, for those
+         * read before the listener was added, in addListener()).
+         */
+        void athleteLoaded(Athlete athlete);
+
+        /**
+         * Called once every athlete has been read.
+         */
+        void rosterLoaded();
+    }
+
+    /**
+     * Inner class holding an athlete's profile and their plan's totals, as
+     * they were when read.
+     */
+    static class Athlete
+    {
+        UserProfile profile;
+        String race;                                    // label of the plan's race
+        int weeks;                                      // weeks in the plan
+        double totalMiles;
+        double milesCompleted;
+        int runsCompleted;
+        String planFile;                                // name of the saved plan's file
+
+        /**
+         * Gets the percent of the plan's miles completed
+         * @return  double from 0 to 100
+         */
+        double getPercentComplete()
+        {
+            return (totalMiles > 0) ? milesCompleted / totalMiles * 100 : 0;
+        }
+    }
+}
@@ -0,0 +1,548 @@
+//RosterTableModel.java
+/**
+ * The RosterTableModel() class is the table model behind the CoachDashboard(): one
+ * row per athlete with their race, the percent of their plan's miles completed,
+ * the miles and runs completed and the date of their last activity.
+ *
+ * Rosters can be large, so nothing is kept per row but primitive values: each
+ * column is an array, and a JTable only asks for the cells it is showing. Rows are
+ * loaded in the background by a RosterLoader(), whose small pool of threads each
+ * read an athlete's profile and saved plan and work out the same totals the
+ * TrainingFrame() shows (see TrainingPlanGenerator.getMilesCompleted()). Loaded
+ * rows wait in a queue and are added to the table at most once per frame by a
+ * UIUpdateScheduler(), so the table fills in as athletes are read.
+ *
+ * Sorting and filtering never run on the UI thread. When the sort column or the
+ * filter changes (or rows are added to a sorted or filtered table), the columns are
+ * handed, as they are, to a sorter thread, which works out the order of the rows
+ * to show. Rows are only ever added to the end of the columns, so the sorter can
+ * read the rows it was given while more are added. Only one sort runs at a time;
+ * changes made meanwhile are sorted together once it finishes.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+
+class RosterTableModel extends AbstractTableModel
+{
+    // columns, one primitive array each; only changed on the UI thread, by adding rows
+    private String [] names;
+    private String [] races;
+    private double [] percentComplete;
+    private double [] milesCompleted;
+    private int [] runsCompleted;
+    private int [] lastActivity;                            // epoch day, or NO_ACTIVITY
+    private int rowCount;
+
+    // what is shown; only used on the UI thread
+    private int [] viewRows;                                // rows to show, in order; null to show every row as loaded
+    private int sortColumn;                                 // -1 if not sorted
+    private boolean ascending;
+    private String filter;                                  // lower case; empty to show every athlete
+    private boolean sorting;                                // a sort is running on the sorter thread...
+    private boolean sortAgain;                              // ...and the view has changed since it started
+    private Listener listener;                              // told whenever the rows shown change; may be null
+
+    // background loading
+    private ConcurrentLinkedQueue<Row> loadedRows;          // read, but not yet added to the columns
+    private UIUpdateScheduler uiUpdates;
+    private int rowsView;
+    private ExecutorService sorter;
+    private RosterLoader roster;                            // reading the athletes; null until load()
+    private AtomicInteger athletesSkipped;                  // read, but their run history could not be
+    private volatile boolean loading;
+    private long loadStart;
+    private volatile long loadNanos;
+
+    // metrics, looked up once (see Metrics())
+    private LatencyHistogram sortLatency;
+
+    // final variables
+    static final int NAME = 0, RACE = 1, PERCENT = 2, MILES = 3, RUNS = 4, LAST_ACTIVITY = 5;
+    static final int NO_ACTIVITY = Integer.MIN_VALUE;
+    final String [] COLUMN_NAMES = { "Athlete", "Race", "% Complete", "Miles Completed", "Runs Completed",
+            "Last Activity" };
+    final int FRAME_MILLIS = Integer.getInteger("runbuddy.frameMillis", 16);   // frame budget for adding rows
+
+    // constructor
+    public RosterTableModel()
+    {
+        this.names = new String [64];
+        this.races = new String [64];
+        this.percentComplete = new double [64];
+        this.milesCompleted = new double [64];
+        this.runsCompleted = new int [64];
+        this.lastActivity = new int [64];
+        this.rowCount = 0;
+        this.viewRows = null;
+        this.sortColumn = -1;
+        this.ascending = true;
+        this.filter = "";
+        this.loadedRows = new ConcurrentLinkedQueue<Row>();
+        this.athletesSkipped = new AtomicInteger();
+        this.sortLatency = Metrics.getMetrics().histogram("dashboard_sort");
+
+        this.sorter = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "roster-sorter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        this.uiUpdates = new UIUpdateScheduler(FRAME_MILLIS);
+        this.rowsView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run() { addLoadedRows(); }
+                }
+        );
+    }
+
+    /**
+     * Starts loading a row for every athlete with a profile in the directory, on
+     * background threads (see RosterLoader()). Rows are added to the table as
+     * they are read.
+     *
+     * @param directory     directory holding the athletes' profiles and plans; RunBuddy's
+     *                      working directory, since plans are found by name
+     */
+    public void load(Path directory)
+    {
+        loading = true;
+        loadStart = System.nanoTime();
+        roster = new RosterLoader(directory, "roster-loader", false);
+        roster.addListener(
+                new RosterLoader.Listener()
+                {
+                    public void athleteLoaded(RosterLoader.Athlete athlete) { loadRow(athlete); }
+
+                    public void rosterLoaded()
+                    {
+                        loadNanos = System.nanoTime() - loadStart;
+                        loading = false;
+                        uiUpdates.markDirty(rowsView);      // show that loading has finished
+                    }
+                }
+        );
+        roster.start();
+    }
+
+    /**
+     * Runs on a loader thread: works out an athlete's row and queues it.
+     * Athletes whose run history cannot be read are skipped.
+     *
+     * @param athlete   the athlete, as the RosterLoader read them
+     */
+    private void loadRow(RosterLoader.Athlete athlete)
+    {
+        try
+        {
+            Row row = new Row();
+            row.name = athlete.profile.getName();
+            row.race = athlete.race;
+            row.milesCompleted = athlete.milesCompleted;
+            row.runsCompleted = athlete.runsCompleted;
+            row.percentComplete = athlete.getPercentComplete();
+            row.lastActivity = findLastActivity(row.name, athlete.planFile, row.runsCompleted);
+
+            loadedRows.add(row);
+            uiUpdates.markDirty(rowsView);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            athletesSkipped.incrementAndGet();
+            System.out.println("WARNING: Could not load athlete " + athlete.profile.getName() + " due to " + e);
+        }
+    }
+
+    /**
+     * Finds the date of an athlete's last activity: the latest of their last
+     * imported run and the last time a run was checked off in their plan (when the
+     * plan file was last saved, if any runs are completed).
+     *
+     * @return  epoch day of the last activity, or NO_ACTIVITY
+     */
+    private int findLastActivity(String userName, String planFile, int runs) throws IOException
+    {
+        int lastDay = NO_ACTIVITY;
+        RunHistoryStore history = new RunHistoryStore(userName);
+        history.load();
+        LocalDate lastRun = history.getLastRunDate();
+        if (lastRun != null) { lastDay = (int) lastRun.toEpochDay(); }
+
+        if (runs > 0)
+        {
+            long modified = new File(planFile).lastModified();
+            LocalDate saved = java.time.Instant.ofEpochMilli(modified).atZone(ZoneId.systemDefault()).toLocalDate();
+            lastDay = Math.max(lastDay, (int) saved.toEpochDay());
+        }
+        return lastDay;
+    }
+
+    /**
+     * Runs on the UI thread, at most once per frame: adds every row loaded since
+     * the last frame to the end of the columns, then shows them.
+     */
+    private void addLoadedRows()
+    {
+        int firstNew = rowCount;
+        Row row;
+        while ((row = loadedRows.poll()) != null)
+        {
+            if (rowCount == names.length) { growColumns(); }
+            names[rowCount] = row.name;
+            races[rowCount] = row.race;
+            percentComplete[rowCount] = row.percentComplete;
+            milesCompleted[rowCount] = row.milesCompleted;
+            runsCompleted[rowCount] = row.runsCompleted;
+            lastActivity[rowCount] = row.lastActivity;
+            rowCount += 1;
+        }
+
+        if (rowCount > firstNew)
+        {
+            if (viewRows == null) { fireTableRowsInserted(firstNew, rowCount - 1); }   // shown as loaded so far
+            if (viewRows != null || sorting) { sort(); }    // a sort already running did not see the new rows
+        }
+        if (listener != null) { listener.rosterChanged(); }    // e.g., loading has finished
+    }
+
+    /**
+     * Doubles the length of every column. Columns are copied rather than grown in
+     * place, so a sort that is running keeps reading the columns it was given.
+     */
+    private void growColumns()
+    {
+        int length = names.length * 2;
+        names = Arrays.copyOf(names, length);
+        races = Arrays.copyOf(races, length);
+        percentComplete = Arrays.copyOf(percentComplete, length);
+        milesCompleted = Arrays.copyOf(milesCompleted, length);
+        runsCompleted = Arrays.copyOf(runsCompleted, length);
+        lastActivity = Arrays.copyOf(lastActivity, length);
+    }
+
+    /**
+     * Sorts the table by a column, or reverses the order if it is already sorted
+     * by that column. Called on the UI thread (e.g., when a column header is clicked).
+     *
+     * @param column    index of the column to sort by
+     */
+    public void sortBy(int column)
+    {
+        ascending = (column == sortColumn) ? !ascending : true;
+        sortColumn = column;
+        sort();
+    }
+
+    /**
+     * Only shows athletes whose name holds the given text. Called on the UI thread.
+     * @param text  text to look for, in any case; empty to show every athlete
+     */
+    public void setFilter(String text)
+    {
+        filter = text.trim().toLowerCase();
+        sort();
+    }
+
+    /**
+     * Starts working out the rows to show on the sorter thread, unless a sort is
+     * already running, in which case it is done again once that one finishes.
+     * Called on the UI thread.
+     */
+    private void sort()
+    {
+        if (sorting)
+        {
+            sortAgain = true;
+            return;
+        }
+        if (sortColumn < 0 && filter.isEmpty())    // show every row, as loaded
+        {
+            viewRows = null;
+            fireTableDataChanged();
+            return;
+        }
+
+        sorting = true;
+        final Columns columns = new Columns();
+        sorter.execute(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        long start = Metrics.getMetrics().start();
+                        final int [] rows = columns.sortAndFilter();
+                        sortLatency.recordSince(start);
+
+                        SwingUtilities.invokeLater(
+                                new Runnable()
+                                {
+                                    public void run() { showSorted(rows); }
+                                }
+                        );
+                    }
+                }
+        );
+    }
+
+    /**
+     * Runs on the UI thread once a sort has finished: shows its rows, or sorts
+     * again if the view has changed since it started.
+     */
+    private void showSorted(int [] rows)
+    {
+        sorting = false;
+        if (sortAgain)
+        {
+            sortAgain = false;
+            sort();
+            return;
+        }
+        viewRows = rows;
+        fireTableDataChanged();
+        if (listener != null) { listener.rosterChanged(); }
+    }
+
+    /**
+     * Gets the number of rows shown
+     * @return  int representing the number of rows
+     */
+    public int getRowCount()
+    {
+        return (viewRows == null) ? rowCount : viewRows.length;
+    }
+
+    /**
+     * Gets the number of columns
+     * @return  int representing the number of columns
+     */
+    public int getColumnCount()
+    {
+        return COLUMN_NAMES.length;
+    }
+
+    /**
+     * Gets the name of a column
+     * @param column    index of the column
+     * @return          String holding the column's name
+     */
+    public String getColumnName(int column)
+    {
+        return COLUMN_NAMES[column];
+    }
+
+    /**
+     * Gets the class of a column's values, so that the table lines up numbers
+     * @param column    index of the column
+     * @return          Class of the values in the column
+     */
+    public Class<?> getColumnClass(int column)
+    {
+        if (column == PERCENT || column == MILES) { return Double.class; }
+        if (column == RUNS) { return Integer.class; }
+        return String.class;
+    }
+
+    /**
+     * Gets the value of a cell that is shown; only called for the rows in view.
+     *
+     * @param viewRow   index of the row, as shown
+     * @param column    index of the column
+     * @return          the value of the cell
+     */
+    public Object getValueAt(int viewRow, int column)
+    {
+        int row = (viewRows == null) ? viewRow : viewRows[viewRow];
+        switch (column)
+        {
+            case NAME: return names[row];
+            case RACE: return races[row];
+            case PERCENT: return Math.round(percentComplete[row] * 10) / 10.0;
+            case MILES: return Math.round(milesCompleted[row] * 10) / 10.0;
+            case RUNS: return runsCompleted[row];
+            default:
+                if (lastActivity[row] == NO_ACTIVITY) { return ""; }
+                return LocalDate.ofEpochDay(lastActivity[row]).toString();
+        }
+    }
+
+    /**
+     * Sets the listener told whenever the rows shown change
+     * @param listener  the Listener, or null for none
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Getter for the column the table is sorted by
+     * @return  int representing the column, or -1 if not sorted
+     */
+    public int getSortColumn()
+    {
+        return sortColumn;
+    }
+
+    /**
+     * Determines if the table is sorted in ascending order
+     * @return  boolean; ascending?
+     */
+    public boolean isAscending()
+    {
+        return ascending;
+    }
+
+    /**
+     * Getter for the number of athletes loaded into the columns so far
+     * @return  int representing the number of athletes
+     */
+    public int getAthletesLoaded()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Determines if athletes are still being loaded
+     * @return  boolean; still loading?
+     */
+    public boolean isLoading()
+    {
+        return loading || !loadedRows.isEmpty();
+    }
+
+    /**
+     * Describes the roster, e.g. for the dashboard's status line.
+     * @return  String holding the number of athletes shown and loaded, and how long loading took
+     */
+    public String getSummary()
+    {
+        String summary = getRowCount() + " of " + rowCount + " athletes shown";
+        if (isLoading()) { return summary + "; loading (" + roster.getAthletesFound() + " found)"; }
+        summary += String.format("; loaded in %.2f s", loadNanos / 1e9);
+        int skipped = athletesSkipped.get() + ((roster == null) ? 0 : roster.getAthletesSkipped());
+        if (skipped > 0) { summary += " (" + skipped + " skipped)"; }
+        if (sortLatency.getCount() > 0)
+        {
+            summary += String.format("; slowest sort %.1f ms", sortLatency.getMax() / 1e6);
+        }
+        return summary;
+    }
+
+    /**
+     * Interface for the listener told, on the UI thread, whenever rows are added
+     * or the rows shown are sorted or filtered.
+     */
+    interface Listener
+    {
+        void rosterChanged();
+    }
+
+    /**
+     * Inner class holding one athlete's values between being loaded on a
+     * background thread and being added to the columns.
+     */
+    static class Row
+    {
+        String name;
+        String race;
+        double percentComplete;
+        double milesCompleted;
+        int runsCompleted;
+        int lastActivity;
+    }
+
+    /**
+     * Inner class holding the columns as they are when a sort starts, along with
+     * the sort column and filter, so that the sorter thread never reads the model
+     * itself. The rows before rowCount are never changed afterwards.
+     */
+    class Columns
+    {
+        final String [] names = RosterTableModel.this.names;
+        final String [] races = RosterTableModel.this.races;
+        final double [] percentComplete = RosterTableModel.this.percentComplete;
+        final double [] milesCompleted = RosterTableModel.this.milesCompleted;
+        final int [] runsCompleted = RosterTableModel.this.runsCompleted;
+        final int [] lastActivity = RosterTableModel.this.lastActivity;
+        final int rowCount = RosterTableModel.this.rowCount;
+        final int sortColumn = RosterTableModel.this.sortColumn;
+        final boolean ascending = RosterTableModel.this.ascending;
+        final String filter = RosterTableModel.this.filter;
+
+        /**
+         * Works out which rows to show, and in what order.
+         * @return  array of the rows to show, in order
+         */
+        int [] sortAndFilter()
+        {
+            int [] rows = new int [rowCount];
+            int shown = 0;
+            for (int row = 0; row < rowCount; row++)
+            {
+                if (filter.isEmpty() || names[row].toLowerCase().contains(filter)) { rows[shown++] = row; }
+            }
+            rows = Arrays.copyOf(rows, shown);
+            if (sortColumn >= 0) { mergeSort(rows, new int [rows.length], 0, rows.length); }
+            return rows;
+        }
+
+        /**
+         * Sorts part of an array of rows by the sort column, keeping rows that
+         * compare equal in the order they were loaded. Works on the row numbers
+         * themselves, so no values are boxed.
+         */
+        private void mergeSort(int [] rows, int [] scratch, int from, int to)
+        {
+            if (to - from < 2) { return; }
+            int middle = (from + to) >>> 1;
+            mergeSort(rows, scratch, from, middle);
+            mergeSort(rows, scratch, middle, to);
+            if (compare(rows[middle - 1], rows[middle]) <= 0) { return; }  // already in order
+
+            System.arraycopy(rows, from, scratch, from, to - from);
+            int left = from, right = middle;
+            for (int i = from; i < to; i++)
+            {
+                if (right >= to || (left < middle && compare(scratch[left], scratch[right]) <= 0))
+                {
+                    rows[i] = scratch[left++];
+                }
+                else { rows[i] = scratch[right++]; }
+            }
+        }
+
+        /**
+         * Compares two rows by the sort column, in the sort order.
+         */
+        private int compare(int a, int b)
+        {
+            int order;
+            switch (sortColumn)
+            {
+                case NAME: order = names[a].compareToIgnoreCase(names[b]); break;
+                case RACE: order = races[a].compareTo(races[b]); break;
+                case PERCENT: order = Double.compare(percentComplete[a], percentComplete[b]); break;
+                case MILES: order = Double.compare(milesCompleted[a], milesCompleted[b]); break;
+                case RUNS: order = Integer.compare(runsCompleted[a], runsCompleted[b]); break;
+                default: order = Integer.compare(lastActivity[a], lastActivity[b]); break;
+            }
+            return ascending ? order : -order;
+        }
+    }
+}
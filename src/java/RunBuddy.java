@@ -7,6 +7,13 @@ class RunBuddy
 {
     public static void main (String [] args) throws InterruptedException
     {
+        Metrics.getMetrics().startExporters();  // see Metrics() for the system properties
+        EdtWatchdog.start();                    // records EDT stalls for flight recordings
+
+        // finish any saves that were cut short the last time RunBuddy ran
+        try { PlanJournal.getJournal(); }
+        catch (java.io.IOException e) { System.out.println("WARNING: Could not replay unfinished saves due to " + e); }
+
         WelcomeFrame welcomeFrame = new WelcomeFrame("Welcome to Run Buddy!");
         UserProfile userProfile = new UserProfile();
 
@@ -20,12 +27,13 @@ class RunBuddy
         // if the user profile is set, then close the welcome frame and open the trainingFrame
         welcomeFrame.setVisible(false);
 
-        // use user profile to generate a traning plan file
-        TrainingPlanGenerator planGenerator = new TrainingPlanGenerator(userProfile);
-        planGenerator.createTrainingPlan();
+        // open the user's session: their saved training plan is loaded, or generated if
+        // there is none yet; a plan generated again would lose every completed run, here
+        // and in any other RunBuddy open on the user, which takes its completions from this one's
+        SessionManager.Session session = SessionManager.getSessions().open(userProfile);
 
         // open up training frame
-        TrainingFrame trainingFrame = new TrainingFrame("Log of Runs", userProfile, planGenerator);
+        TrainingFrame trainingFrame = new TrainingFrame("Log of Runs", session);
         trainingFrame.setVisible(true);
     }
 }
@@ -0,0 +1,136 @@
+//RunBuddyEvents.java
+/**
+ * The RunBuddyEvents() class holds the custom Java Flight Recorder events that
+ * RunBuddy emits, so that a flight recording shows what RunBuddy was doing
+ * alongside what the JVM was doing. Every event is in the "RunBuddy" category
+ * and is named "runbuddy.<Event>". The settings file "runbuddy.jfc" (see
+ * src/resources) turns on just these events:
+ *
+ *     java -XX:StartFlightRecording=settings=runbuddy.jfc,filename=runbuddy.jfr RunBuddy
+ *
+ * Each event is created, begun and then committed only if shouldCommit() says
+ * the event is turned on, so an event that is not being recorded costs next to nothing.
+ *
+ * @author: Megan Frenkel
+ */
+
+import jdk.jfr.*;
+
+
+class RunBuddyEvents
+{
+    /**
+     * A training plan was generated for a user.
+     */
+    @Name("runbuddy.PlanGeneration")
+    @Label("Plan Generation")
+    @Category("RunBuddy")
+    @Description("A training plan was generated from the base plan")
+    @StackTrace(false)
+    static class PlanGeneration extends Event
+    {
+        @Label("Age Group")
+        int ageGroup;
+
+        @Label("Ability Group")
+        int abilityGroup;
+
+        @Label("Time Group")
+        int timeGroup;
+
+        @Label("Season Plan")
+        boolean seasonPlan;
+
+        @Label("Weeks")
+        int weeks;
+
+        @Label("Template")
+        @Description("Version of the base plan the plan was generated from")
+        String template;
+    }
+
+    /**
+     * The training plan was saved, either in full or just the records that changed.
+     */
+    @Name("runbuddy.PlanSave")
+    @Label("Plan Save")
+    @Category("RunBuddy")
+    @Description("The training plan file was written")
+    @StackTrace(false)
+    static class PlanSave extends Event
+    {
+        @Label("In Place")
+        @Description("Only changed records were rewritten")
+        boolean inPlace;
+
+        @Label("Records")
+        int records;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * A user profile was read from a file.
+     */
+    @Name("runbuddy.ProfileLoad")
+    @Label("Profile Load")
+    @Category("RunBuddy")
+    @Description("A user profile was loaded from a file")
+    @StackTrace(false)
+    static class ProfileLoad extends Event
+    {
+        @Label("Profile File")
+        String path;
+
+        @Label("File Size")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * A workout's check box was checked or unchecked, including saving the change
+     * and updating the totals.
+     */
+    @Name("runbuddy.CheckBox")
+    @Label("Check Box Handled")
+    @Category("RunBuddy")
+    @Description("A workout was checked off or unchecked in the Training Plan UI")
+    @StackTrace(false)
+    static class CheckBox extends Event
+    {
+        @Label("Week")
+        int week;
+
+        @Label("Day")
+        int day;
+
+        @Label("Completed")
+        boolean completed;
+
+        @Label("Batched")
+        @Description("Part of a bulk action or import, so saved with the rest of the batch")
+        boolean batched;
+    }
+
+    /**
+     * The Swing event dispatch thread did not run anything for longer than the
+     * watchdog's threshold (see EdtWatchdog()).
+     */
+    @Name("runbuddy.EdtStall")
+    @Label("EDT Stall")
+    @Category("RunBuddy")
+    @Description("The Swing event dispatch thread was blocked for longer than the threshold")
+    @StackTrace(false)
+    static class EdtStall extends Event
+    {
+        @Label("Stalled For")
+        @Timespan(Timespan.NANOSECONDS)
+        long stalledFor;
+
+        @Label("Stack While Stalled")
+        @Description("Top of the event dispatch thread's stack, sampled while it was blocked")
+        String stack;
+    }
+}
@@ -0,0 +1,173 @@
+//RunHistoryChart.java
+/**
+ * The RunHistoryChart() class is a JPanel charting the runs a user has actually
+ * completed, from their RunHistoryStore(): a bar for the miles run in each of
+ * the last WEEKS weeks or MONTHS months (chosen with a combo box), and a line
+ * for the average pace of each. It is added to the TrainingFrame() under the
+ * run history's totals.
+ *
+ * The chart only reads the store's weekly and monthly rollups, never a single
+ * run, so drawing years of history costs the same as drawing a few weeks. The
+ * TrainingFrame calls refresh() after runs are imported.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.awt.*;
+import java.awt.event.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import javax.swing.*;
+
+
+class RunHistoryChart extends JPanel
+{
+    // instance variables
+    private RunHistoryStore runHistory;
+    private JComboBox<String> period;
+    private JPanel plot;
+    private double [] miles;                        // per bar, oldest first
+    private double [] pace;                         // minutes per mile per bar; 0 if no timed runs
+
+    // final variables
+    final int WEEKLY = 0, MONTHLY = 1;              // indexed as PERIODS
+    final int WEEKS = 26, MONTHS = 24;
+    final String [] PERIODS = { "Last " + WEEKS + " weeks", "Last " + MONTHS + " months" };
+    final String FONT_TYPE = "Helvetica";
+    final int WIDTH = 450, PLOT_HEIGHT = 120, MARGIN = 4;
+    final Color BACKGROUND_COLOR = new Color(237, 237, 237);
+    final Color MILES_COLOR = new Color(146, 174, 250);
+    final Color PACE_COLOR = new Color(220, 110, 90);
+
+    // constructor
+    public RunHistoryChart(RunHistoryStore runHistory)
+    {
+        super(new BorderLayout());
+        this.runHistory = runHistory;
+
+        layoutComponents();
+        refresh();
+    }
+
+    /**
+     * Adds the title, the combo box and the plot the bars are drawn on.
+     */
+    private void layoutComponents()
+    {
+        setBackground(BACKGROUND_COLOR);
+        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+        JPanel header = new JPanel(new BorderLayout());
+        header.setBackground(BACKGROUND_COLOR);
+        JLabel title = new JLabel("Miles and Pace Run");
+        title.setFont(new Font(FONT_TYPE, Font.BOLD, 15));
+        period = new JComboBox<String>(PERIODS);
+        period.setFont(new Font(FONT_TYPE, Font.PLAIN, 12));
+        period.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { refresh(); }
+                }
+        );
+        header.add(title, BorderLayout.WEST);
+        header.add(period, BorderLayout.EAST);
+        add(header, BorderLayout.NORTH);
+
+        plot = new JPanel()
+        {
+            @Override protected void paintComponent(Graphics g)
+            {
+                super.paintComponent(g);
+                paintPlot((Graphics2D) g, getWidth(), getHeight());
+            }
+        };
+        plot.setBackground(BACKGROUND_COLOR);
+        plot.setPreferredSize(new Dimension(WIDTH, PLOT_HEIGHT));
+        add(plot, BorderLayout.CENTER);
+    }
+
+    /**
+     * Reads the totals for the period shown from the store's rollups and
+     * redraws the chart. Called on the UI thread.
+     */
+    public void refresh()
+    {
+        LocalDate today = LocalDate.now();
+        if (period.getSelectedIndex() == MONTHLY)
+        {
+            YearMonth thisMonth = YearMonth.from(today);
+            miles = runHistory.getMonthlyMiles(thisMonth.minusMonths(MONTHS - 1), thisMonth);
+            pace = runHistory.getMonthlyPace(thisMonth.minusMonths(MONTHS - 1), thisMonth);
+        }
+        else
+        {
+            miles = runHistory.getWeeklyMiles(today.minusWeeks(WEEKS - 1), today);
+            pace = runHistory.getWeeklyPace(today.minusWeeks(WEEKS - 1), today);
+        }
+        plot.repaint();
+    }
+
+    /**
+     * Draws a bar per period scaled to the most miles run, and a line through
+     * the periods with timed runs scaled between the slowest and fastest pace
+     * (faster is higher), with the most miles and fastest pace noted.
+     */
+    private void paintPlot(Graphics2D g, int width, int height)
+    {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setFont(new Font(FONT_TYPE, Font.PLAIN, 11));
+        double mostMiles = 0, fastest = 0, slowest = 0;
+        for (int bar = 0; bar < miles.length; bar++)
+        {
+            mostMiles = Math.max(mostMiles, miles[bar]);
+            if (pace[bar] <= 0) { continue; }
+            fastest = (fastest == 0) ? pace[bar] : Math.min(fastest, pace[bar]);
+            slowest = Math.max(slowest, pace[bar]);
+        }
+        if (mostMiles == 0)
+        {
+            g.setColor(Color.GRAY);
+            g.drawString("No runs imported in this time", MARGIN, height / 2);
+            return;
+        }
+
+        int top = 14, bottom = height - MARGIN;     // leave room for the notes above the bars
+        double barWidth = (width - 2.0 * MARGIN) / miles.length;
+        g.setColor(MILES_COLOR);
+        for (int bar = 0; bar < miles.length; bar++)
+        {
+            int barHeight = (int) Math.round(miles[bar] / mostMiles * (bottom - top));
+            g.fillRect((int) (MARGIN + bar * barWidth) + 1, bottom - barHeight,
+                    Math.max(1, (int) barWidth - 2), barHeight);
+        }
+
+        g.setColor(PACE_COLOR);
+        g.setStroke(new BasicStroke(2));
+        int lastX = -1, lastY = -1;
+        for (int bar = 0; bar < pace.length; bar++)
+        {
+            if (pace[bar] <= 0) { continue; }       // no timed runs; the line joins the periods around it
+            double fraction = (slowest > fastest) ? (slowest - pace[bar]) / (slowest - fastest) : 0.5;
+            int x = (int) (MARGIN + (bar + 0.5) * barWidth);
+            int y = (int) Math.round(bottom - fraction * (bottom - top));
+            if (lastX >= 0) { g.drawLine(lastX, lastY, x, y); }
+            else { g.fillOval(x - 2, y - 2, 4, 4); }
+            lastX = x;
+            lastY = y;
+        }
+
+        g.setColor(Color.DARK_GRAY);
+        String notes = String.format("most %.1f miles", mostMiles);
+        if (fastest > 0) { notes += String.format("   fastest %s /mile", formatPace(fastest)); }
+        g.drawString(notes, MARGIN, top - 3);
+    }
+
+    /**
+     * Formats a pace in minutes per mile as minutes and seconds, e.g. 8:05.
+     */
+    private static String formatPace(double pace)
+    {
+        long seconds = Math.round(pace * 60);
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
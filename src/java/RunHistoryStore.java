@@ -0,0 +1,468 @@
+//RunHistoryStore.java
+/**
+ * The RunHistoryStore() class keeps every run a user has actually completed, so
+ * that RunBuddy can show what was run and not just what the plan prescribed. Runs
+ * are only ever added, never changed, and are saved to a binary file named
+ * "<USERNAME>_run_history.dat" by appending to the end of it.
+ *
+ * In memory, runs are kept in chunks of CHUNK_SIZE runs, where each chunk holds one
+ * primitive array per field (date, distance, duration, pace, heart rate) along
+ * with the first and last date in the chunk, so that a range query can skip any
+ * chunk that falls outside of the range. Weekly and monthly totals are rolled up
+ * as each run is added, so that charts and summaries over years of history only
+ * read the totals they need rather than every run. The public methods are
+ * synchronized, since runs are imported off of the UI thread.
+ *
+ * A run is known by its date and distance (to a hundredth of a mile), so
+ * importing the same log twice, or a run exported in two formats, adds it once;
+ * a history file that already holds a run twice loads it once. A run left half
+ * written at the end of the file (e.g., by a crash while importing) is cut off
+ * when the history is loaded, so that the runs appended after it can be read.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+
+class RunHistoryStore
+{
+    // instance variables
+    private File historyFile;
+    private ArrayList<Chunk> chunks;
+    private Rollup weeklyRollup;                // keyed by weeks since 1970-01-05 (a Monday)
+    private Rollup monthlyRollup;               // keyed by months since January 1970
+    private int runCount;
+    private HashSet<Long> runKeys;              // date and distance of every run held (see keyOf())
+
+    // final variables
+    final int CHUNK_SIZE = 1024;
+    final int MONDAY_OFFSET = 4;                // 1970-01-01 was a Thursday; shift so weeks start on Monday
+    final int RUN_BYTES = 20;                   // date, miles, seconds and sample count, before the samples
+
+    // constructor
+    public RunHistoryStore(String userName)
+    {
+        this.historyFile = new File(userName + "_run_history.dat");
+        this.chunks = new ArrayList<Chunk>();
+        this.weeklyRollup = new Rollup();
+        this.monthlyRollup = new Rollup();
+        this.runCount = 0;
+        this.runKeys = new HashSet<Long>();
+    }
+
+    /**
+     * Loads any runs already saved for this user. Each run is stored as: the
+     * date (days since 1970), miles, seconds, the number of heart rate samples
+     * and then each heart rate sample. If the file ends partway through a run,
+     * that run is cut off the end of the file.
+     *
+     * @throws IOException  if the history file cannot be read
+     */
+    public synchronized void load() throws IOException
+    {
+        if (!historyFile.exists()) { return; }  // no runs yet
+
+        long wholeRuns = 0;                     // bytes of the runs read in whole
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(historyFile)));
+        try
+        {
+            while (true)
+            {
+                int epochDay = in.readInt();
+                double miles = in.readDouble();
+                int seconds = in.readInt();
+                short [] heartRate = null;
+                int samples = in.readInt();
+                if (samples > 0)
+                {
+                    heartRate = new short [samples];
+                    for (int i = 0; i < samples; i++) { heartRate[i] = in.readShort(); }
+                }
+                wholeRuns += RUN_BYTES + 2L * Math.max(samples, 0);
+                if (runKeys.add(keyOf(epochDay, miles))) { add(epochDay, miles, seconds, heartRate); }
+            }
+        }
+        catch (EOFException e) { }              // end of the history, or partway through its last run
+        finally { in.close(); }
+
+        if (wholeRuns < historyFile.length())
+        {
+            System.out.println("WARNING: Cut a run left half written off the end of " + historyFile);
+            try (RandomAccessFile out = new RandomAccessFile(historyFile, "rw")) { out.setLength(wholeRuns); }
+        }
+    }
+
+    /**
+     * Appends a batch of runs to the history, writing them to the end of the
+     * history file in a single write. Runs already in the history (or earlier
+     * in the batch) are left out.
+     *
+     * @param runs          runs to add
+     * @return              int representing the number of runs added
+     * @throws IOException  if the history file cannot be written
+     */
+    public synchronized int appendAll(List<RunRecord> runs) throws IOException
+    {
+        int added = 0;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(historyFile, true)));
+        try
+        {
+            for (RunRecord run : runs)
+            {
+                int epochDay = (int) run.getDate().toEpochDay();
+                if (!runKeys.add(keyOf(epochDay, run.getMiles()))) { continue; }  // already held
+                short [] heartRate = run.getHeartRate();
+
+                out.writeInt(epochDay);
+                out.writeDouble(run.getMiles());
+                out.writeInt(run.getSeconds());
+                out.writeInt(heartRate == null ? 0 : heartRate.length);
+                if (heartRate != null) { for (short sample : heartRate) { out.writeShort(sample); } }
+
+                add(epochDay, run.getMiles(), run.getSeconds(), heartRate);
+                added += 1;
+            }
+        }
+        finally { out.close(); }
+        return added;
+    }
+
+    /**
+     * Works out the key a run is known by: its date and its distance to a
+     * hundredth of a mile, so formats that round differently still match.
+     */
+    private static long keyOf(int epochDay, double miles)
+    {
+        return ((long) epochDay << 32) | (Math.round(miles * 100) & 0xffffffffL);
+    }
+
+    /**
+     * Adds a single run to the in-memory chunks and rollups.
+     */
+    private void add(int epochDay, double miles, int seconds, short [] heartRate)
+    {
+        if (chunks.isEmpty() || chunks.get(chunks.size() - 1).size == CHUNK_SIZE) { chunks.add(new Chunk()); }
+        chunks.get(chunks.size() - 1).add(epochDay, miles, seconds, heartRate);
+
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        weeklyRollup.add(weekOf(date), miles, seconds);
+        monthlyRollup.add(monthOf(date), miles, seconds);
+        runCount += 1;
+    }
+
+    /**
+     * Getter for the number of runs in the history
+     * @return  int representing number of runs
+     */
+    public synchronized int size()
+    {
+        return runCount;
+    }
+
+    /**
+     * Gets the total miles run in each week from the week holding "from" up to
+     * and including the week holding "to", read from the weekly rollup.
+     *
+     * @param from  a date in the first week
+     * @param to    a date in the last week
+     * @return      array of miles, one per week
+     */
+    public synchronized double [] getWeeklyMiles(LocalDate from, LocalDate to)
+    {
+        return weeklyRollup.getMiles(weekOf(from), weekOf(to));
+    }
+
+    /**
+     * Gets the total miles run in each month from "from" up to and including
+     * "to", read from the monthly rollup.
+     *
+     * @param from  first month
+     * @param to    last month
+     * @return      array of miles, one per month
+     */
+    public synchronized double [] getMonthlyMiles(YearMonth from, YearMonth to)
+    {
+        return monthlyRollup.getMiles(monthOf(from.atDay(1)), monthOf(to.atDay(1)));
+    }
+
+    /**
+     * Gets the total miles run in the week holding a given date.
+     * @param date  any date in the week
+     * @return      miles run that week
+     */
+    public synchronized double getMilesInWeek(LocalDate date)
+    {
+        return weeklyRollup.getMiles(weekOf(date), weekOf(date))[0];
+    }
+
+    /**
+     * Gets the total miles run in the month holding a given date.
+     * @param date  any date in the month
+     * @return      miles run that month
+     */
+    public synchronized double getMilesInMonth(LocalDate date)
+    {
+        return monthlyRollup.getMiles(monthOf(date), monthOf(date))[0];
+    }
+
+    /**
+     * Gets the total miles in the whole history.
+     * @return  miles run
+     */
+    public synchronized double getTotalMiles()
+    {
+        return monthlyRollup.totalMiles;
+    }
+
+    /**
+     * Gets the date of the latest run in the history, from the last date of each chunk.
+     * @return  LocalDate of the latest run, or null if there are no runs
+     */
+    public synchronized LocalDate getLastRunDate()
+    {
+        int lastDay = Integer.MIN_VALUE;
+        for (Chunk chunk : chunks) { lastDay = Math.max(lastDay, chunk.lastDay); }
+        return (chunks.isEmpty()) ? null : LocalDate.ofEpochDay(lastDay);
+    }
+
+    /**
+     * Gets the average pace (minutes per mile) over every run whose duration is known.
+     * @return  average pace, or 0 if no durations are known
+     */
+    public synchronized double getAveragePace()
+    {
+        if (monthlyRollup.timedMiles <= 0) { return 0; }
+        return monthlyRollup.totalSeconds / 60.0 / monthlyRollup.timedMiles;
+    }
+
+    /**
+     * Gets the average pace (minutes per mile) of each week from the week
+     * holding "from" up to and including the week holding "to", read from the
+     * weekly rollup.
+     *
+     * @param from  a date in the first week
+     * @param to    a date in the last week
+     * @return      array of paces, one per week; 0 for weeks with no timed runs
+     */
+    public synchronized double [] getWeeklyPace(LocalDate from, LocalDate to)
+    {
+        return weeklyRollup.getPace(weekOf(from), weekOf(to));
+    }
+
+    /**
+     * Gets the average pace (minutes per mile) of each month from "from" up to
+     * and including "to", read from the monthly rollup.
+     *
+     * @param from  first month
+     * @param to    last month
+     * @return      array of paces, one per month; 0 for months with no timed runs
+     */
+    public synchronized double [] getMonthlyPace(YearMonth from, YearMonth to)
+    {
+        return monthlyRollup.getPace(monthOf(from.atDay(1)), monthOf(to.atDay(1)));
+    }
+
+    /**
+     * Gets the fastest pace of any run between two dates (inclusive), reading
+     * only the date and pace columns of the chunks that hold runs in range.
+     *
+     * @param from  first date
+     * @param to    last date
+     * @return      fastest pace in minutes per mile, or 0 if no run in range was timed
+     */
+    public synchronized double getBestPace(LocalDate from, LocalDate to)
+    {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        double best = 0;
+
+        for (Chunk chunk : chunks)
+        {
+            if (chunk.lastDay < fromDay || chunk.firstDay > toDay) { continue; }  // nothing in range
+
+            for (int i = 0; i < chunk.size; i++)
+            {
+                if (chunk.days[i] < fromDay || chunk.days[i] > toDay || chunk.pace[i] <= 0) { continue; }
+                if (best == 0 || chunk.pace[i] < best) { best = chunk.pace[i]; }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets every run between two dates (inclusive), skipping any chunk that
+     * holds no runs in that range.
+     *
+     * @param from  first date
+     * @param to    last date
+     * @return      list of runs in the range
+     */
+    public synchronized List<RunRecord> getRuns(LocalDate from, LocalDate to)
+    {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        ArrayList<RunRecord> runs = new ArrayList<RunRecord>();
+
+        for (Chunk chunk : chunks)
+        {
+            if (chunk.lastDay < fromDay || chunk.firstDay > toDay) { continue; }  // nothing in range
+
+            for (int i = 0; i < chunk.size; i++)
+            {
+                if (chunk.days[i] < fromDay || chunk.days[i] > toDay) { continue; }
+                runs.add(new RunRecord(LocalDate.ofEpochDay(chunk.days[i]),
+                        chunk.miles[i], chunk.seconds[i], chunk.heartRates[i]));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Finds the week number (weeks since Monday 1970-01-05) of a date.
+     */
+    private int weekOf(LocalDate date)
+    {
+        return (int) Math.floorDiv(date.toEpochDay() - MONDAY_OFFSET, 7);
+    }
+
+    /**
+     * Finds the month number (months since January 1970) of a date.
+     */
+    private int monthOf(LocalDate date)
+    {
+        return (date.getYear() - 1970) * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Inner class holding up to CHUNK_SIZE runs, one primitive array per field.
+     */
+    class Chunk
+    {
+        int size = 0;
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        int [] days = new int [CHUNK_SIZE];
+        double [] miles = new double [CHUNK_SIZE];
+        int [] seconds = new int [CHUNK_SIZE];
+        double [] pace = new double [CHUNK_SIZE];             // minutes per mile, 0 if not known
+        short [][] heartRates = new short [CHUNK_SIZE][];     // null where not recorded
+
+        public void add(int epochDay, double runMiles, int runSeconds, short [] heartRate)
+        {
+            days[size] = epochDay;
+            miles[size] = runMiles;
+            seconds[size] = runSeconds;
+            pace[size] = (runMiles > 0 && runSeconds > 0) ? runSeconds / 60.0 / runMiles : 0;
+            heartRates[size] = heartRate;
+            size += 1;
+
+            firstDay = Math.min(firstDay, epochDay);
+            lastDay = Math.max(lastDay, epochDay);
+        }
+    }
+
+    /**
+     * Inner class holding running totals for consecutive periods (weeks or months),
+     * stored in primitive arrays that grow in either direction as runs are added.
+     */
+    class Rollup
+    {
+        int firstPeriod = 0;
+        int periods = 0;
+        double [] miles = new double [0];
+        double [] seconds = new double [0];
+        double [] timed = new double [0];       // miles of runs with a known duration
+        int [] runs = new int [0];
+
+        double totalMiles = 0;
+        double totalSeconds = 0;
+        double timedMiles = 0;      // miles of runs with a known duration
+
+        public void add(int period, double runMiles, int runSeconds)
+        {
+            makeRoomFor(period);
+            int index = period - firstPeriod;
+            miles[index] += runMiles;
+            seconds[index] += runSeconds;
+            runs[index] += 1;
+
+            totalMiles += runMiles;
+            if (runSeconds > 0)
+            {
+                totalSeconds += runSeconds;
+                timedMiles += runMiles;
+                timed[index] += runMiles;
+            }
+        }
+
+        public double [] getMiles(int fromPeriod, int toPeriod)
+        {
+            double [] range = new double [Math.max(0, toPeriod - fromPeriod + 1)];
+            for (int period = Math.max(fromPeriod, firstPeriod); period <= toPeriod && period < firstPeriod + periods; period++)
+            {
+                range[period - fromPeriod] = miles[period - firstPeriod];
+            }
+            return range;
+        }
+
+        public double [] getPace(int fromPeriod, int toPeriod)
+        {
+            double [] range = new double [Math.max(0, toPeriod - fromPeriod + 1)];
+            int lastPeriod = Math.min(toPeriod, firstPeriod + periods - 1);
+            for (int period = Math.max(fromPeriod, firstPeriod); period <= lastPeriod; period++)
+            {
+                int index = period - firstPeriod;
+                if (timed[index] > 0) { range[period - fromPeriod] = seconds[index] / 60.0 / timed[index]; }
+            }
+            return range;
+        }
+
+        /**
+         * Grows the arrays so that the given period has a slot.
+         */
+        private void makeRoomFor(int period)
+        {
+            if (periods == 0)
+            {
+                firstPeriod = period;
+                resize(1, 0);
+                periods = 1;
+            }
+            else if (period < firstPeriod)
+            {
+                int shift = firstPeriod - period;
+                resize(periods + shift, shift);
+                firstPeriod = period;
+                periods += shift;
+            }
+            else if (period >= firstPeriod + periods)
+            {
+                resize(period - firstPeriod + 1, 0);
+                periods = period - firstPeriod + 1;
+            }
+        }
+
+        private void resize(int length, int shift)
+        {
+            if (shift == 0 && length <= miles.length) { return; }  // already enough room
+
+            int capacity = (length <= miles.length) ? miles.length : Math.max(length, miles.length * 2);
+            double [] newMiles = new double [capacity];
+            double [] newSeconds = new double [capacity];
+            double [] newTimed = new double [capacity];
+            int [] newRuns = new int [capacity];
+            System.arraycopy(miles, 0, newMiles, shift, periods);
+            System.arraycopy(seconds, 0, newSeconds, shift, periods);
+            System.arraycopy(timed, 0, newTimed, shift, periods);
+            System.arraycopy(runs, 0, newRuns, shift, periods);
+            miles = newMiles;
+            seconds = newSeconds;
+            timed = newTimed;
+            runs = newRuns;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+//RunLogImporter.java
+/**
+ * The RunLogImporter() class reads a directory of activity files recorded by a
+ * running watch and works out which day of the user's training plan each run
+ * belongs to, so that a whole folder of runs can be logged at once rather than
+ * ticking off each ActivityPanel by hand. Two kinds of files are understood:
+ *
+ *  - CSV files, with a header line that has a "date" column (yyyy-MM-dd, optionally
+ *    followed by a time) and a "distance" column (in miles, or in km if the header
+ *    says so), and optionally a "duration" column (seconds or h:mm:ss); every line
+ *    after the header is one run.
+ *  - GPX files, where the date comes from the first <time> element, the distance is
+ *    the length of the track, the duration is the time between the first and last
+ *    <time> elements and any heart rate (<hr>) samples are kept.
+ *
+ * Files are parsed in parallel by a fixed pool of reader threads. The directory
+ * is walked on the calling thread, which hands files to the pool through a bounded
+ * queue; if the queue is full the caller parses the file itself, so no more than a
+ * few files are ever waiting in memory. Each reader thread reads through a
+ * FileChannel into its own reusable buffer. The results are added up into a single
+ * [week][day] array of miles that can be applied to the plan in one batch, and
+ * every run is also kept as a RunRecord() for the user's RunHistoryStore().
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+class RunLogImporter
+{
+    // instance variables
+    private LocalDate planStartDate;                    // day 1 of week 1 of the plan
+    private int planWeeks;
+    private double [] milesByDay;                       // actual miles, indexed by day of the plan
+    private ConcurrentLinkedQueue<RunRecord> runs;      // every run found, in or out of the plan
+
+    // statistics for the last import
+    private AtomicInteger filesRead;
+    private AtomicInteger runsFound;
+    private AtomicInteger runsMatched;
+    private AtomicInteger linesSkipped;                 // lines of CSV files that are not runs
+    private AtomicLong bytesRead;
+    private long elapsedNanos;
+
+    // final variables
+    final int DAYS_IN_WEEK = 7;
+    final int READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int QUEUE_PER_READER = 4;                     // files waiting for each reader, at most
+    final int BUFFER_SIZE = 64 * 1024;                  // starting size of each reader's buffer
+    final double KM_TO_MILES = 0.621371;
+    final double EARTH_RADIUS_MILES = 3958.8;
+
+    // each reader thread keeps one buffer, grown as needed for large files
+    private ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>()
+    {
+        @Override protected ByteBuffer initialValue() { return ByteBuffer.allocate(BUFFER_SIZE); }
+    };
+
+    // constructor
+    public RunLogImporter(LocalDate planStartDate, int planWeeks)
+    {
+        this.planStartDate = planStartDate;
+        this.planWeeks = planWeeks;
+    }
+
+    /**
+     * Reads every CSV and GPX file in the given directory and adds up the miles run
+     * on each day of the plan. Runs that fall before or after the plan are ignored.
+     *
+     * @param directory     directory holding activity files
+     * @return              2D array of [week][day] holding actual miles (0 if no run)
+     * @throws IOException  if the directory cannot be read
+     */
+    public double [][] importDirectory(Path directory) throws IOException
+    {
+        milesByDay = new double [planWeeks * DAYS_IN_WEEK];
+        runs = new ConcurrentLinkedQueue<RunRecord>();
+        filesRead = new AtomicInteger();
+        runsFound = new AtomicInteger();
+        runsMatched = new AtomicInteger();
+        linesSkipped = new AtomicInteger();
+        bytesRead = new AtomicLong();
+        long start = System.nanoTime();
+
+        ThreadPoolExecutor readers = new ThreadPoolExecutor(READERS, READERS, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(READERS * QUEUE_PER_READER),
+                new ThreadPoolExecutor.CallerRunsPolicy());   // back-pressure: caller reads when queue is full
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{csv,CSV,gpx,GPX}"))
+        {
+            for (final Path file : files)
+            {
+                readers.execute(
+                        new Runnable()
+                        {
+                            public void run() { readFile(file); }
+                        }
+                );
+            }
+        }
+        finally
+        {
+            readers.shutdown();
+            try { readers.awaitTermination(1, TimeUnit.HOURS); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        elapsedNanos = System.nanoTime() - start;
+
+        // hand back the miles as [week][day]
+        double [][] milesByWeek = new double [planWeeks][DAYS_IN_WEEK];
+        for (int day = 0; day < milesByDay.length; day++)
+        {
+            milesByWeek[day / DAYS_IN_WEEK][day % DAYS_IN_WEEK] = milesByDay[day];
+        }
+        return milesByWeek;
+    }
+
+    /**
+     * Reads a single activity file into this thread's buffer and parses it.
+     * Files that cannot be read or parsed are skipped.
+     *
+     * @param file  path to a CSV or GPX file
+     */
+    private void readFile(Path file)
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = readBuffer.get();
+            if (channel.size() > buffer.capacity())
+            {
+                buffer = ByteBuffer.allocate((int) channel.size());
+                readBuffer.set(buffer);
+            }
+
+            buffer.clear();
+            while (channel.read(buffer) > 0) { }
+            String contents = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+
+            filesRead.incrementAndGet();
+            bytesRead.addAndGet(buffer.position());
+
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".gpx")) { parseGpx(contents); }
+            else { parseCsv(contents); }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.out.println("WARNING: Could not import " + file + " due to " + e);
+        }
+    }
+
+    /**
+     * Parses a CSV file, where each line after the header is a single run. Lines
+     * that cannot be read are skipped and counted, rather than losing the rest of the file.
+     *
+     * @param contents  text of the file
+     */
+    private void parseCsv(String contents)
+    {
+        String [] lines = contents.split("\\r?\\n");
+        String [] header = lines[0].toLowerCase().split(",");
+
+        // find the columns holding the date, distance and duration
+        int dateColumn = -1, distanceColumn = -1, durationColumn = -1;
+        boolean inKm = false;
+        for (int column = 0; column < header.length; column++)
+        {
+            String name = header[column].trim();
+            if (name.startsWith("date")) { dateColumn = column; }
+            else if (name.startsWith("distance"))
+            {
+                distanceColumn = column;
+                inKm = name.contains("km");
+            }
+            else if (name.startsWith("duration")) { durationColumn = column; }
+        }
+        if (dateColumn < 0 || distanceColumn < 0) { return; }  // not an activity log
+
+        for (int line = 1; line < lines.length; line++)
+        {
+            if (lines[line].trim().isEmpty()) { continue; }
+            String [] values = lines[line].split(",");
+            if (values.length <= Math.max(dateColumn, distanceColumn))
+            {
+                linesSkipped.incrementAndGet();
+                continue;
+            }
+
+            try
+            {
+                LocalDate date = LocalDate.parse(values[dateColumn].trim().substring(0, 10));
+                double miles = Double.parseDouble(values[distanceColumn].trim());
+                int seconds = 0;
+                if (durationColumn >= 0 && durationColumn < values.length)
+                {
+                    seconds = parseDuration(values[durationColumn]);
+                }
+                addRun(date, inKm ? miles * KM_TO_MILES : miles, seconds, null);
+            }
+            catch (RuntimeException e)   // a bad date, distance or duration
+            {
+                linesSkipped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Parses a GPX file, adding up the distance between each track point.
+     *
+     * @param contents  text of the file
+     */
+    private void parseGpx(String contents)
+    {
+        int timeStart = contents.indexOf("<time>");
+        if (timeStart < 0) { return; }  // no date, so cannot place the run
+        LocalDate date = LocalDate.parse(contents.substring(timeStart + 6, timeStart + 16));
+
+        double miles = 0;
+        double lastLat = Double.NaN, lastLon = Double.NaN;
+        int point = contents.indexOf("<trkpt");
+        while (point >= 0)
+        {
+            int end = contents.indexOf('>', point);
+            double lat = Double.parseDouble(attribute(contents, "lat", point, end));
+            double lon = Double.parseDouble(attribute(contents, "lon", point, end));
+
+            if (!Double.isNaN(lastLat)) { miles += distance(lastLat, lastLon, lat, lon); }
+            lastLat = lat;
+            lastLon = lon;
+            point = contents.indexOf("<trkpt", end);
+        }
+        // duration is the time from the first to the last timestamp
+        int seconds = 0;
+        int lastTime = contents.lastIndexOf("<time>");
+        if (lastTime > timeStart)
+        {
+            Instant first = Instant.parse(contents.substring(timeStart + 6, contents.indexOf('<', timeStart + 6)));
+            Instant last = Instant.parse(contents.substring(lastTime + 6, contents.indexOf('<', lastTime + 6)));
+            seconds = (int) Duration.between(first, last).getSeconds();
+        }
+
+        addRun(date, miles, seconds, parseHeartRate(contents));
+    }
+
+    /**
+     * Finds every heart rate sample in a GPX file, i.e. <hr> elements or
+     * elements such as <gpxtpx:hr> used by watch extensions.
+     *
+     * @param contents  text of the file
+     * @return          array of heart rate samples, or null if there are none
+     */
+    private short [] parseHeartRate(String contents)
+    {
+        short [] samples = new short [64];
+        int count = 0;
+        int tag = contents.indexOf("hr>");
+        while (tag > 0)
+        {
+            char before = contents.charAt(tag - 1);
+            int open = contents.lastIndexOf('<', tag);
+            boolean opening = (before == '<' || before == ':') && contents.charAt(open + 1) != '/';
+            if (opening)
+            {
+                if (count == samples.length) { samples = Arrays.copyOf(samples, count * 2); }
+                samples[count++] = Short.parseShort(contents.substring(tag + 3, contents.indexOf('<', tag)).trim());
+            }
+            tag = contents.indexOf("hr>", tag + 3);
+        }
+        return count == 0 ? null : Arrays.copyOf(samples, count);
+    }
+
+    /**
+     * Reads a duration given either as seconds or as h:mm:ss (or mm:ss).
+     */
+    private int parseDuration(String value)
+    {
+        int seconds = 0;
+        for (String part : value.trim().split(":")) { seconds = seconds * 60 + (int) Double.parseDouble(part); }
+        return seconds;
+    }
+
+    /**
+     * Finds the value of an attribute (e.g., lat="40.7") within an XML tag.
+     */
+    private String attribute(String contents, String name, int tagStart, int tagEnd)
+    {
+        int start = contents.indexOf(name + "=", tagStart);
+        if (start < 0 || start > tagEnd) { throw new IllegalArgumentException("missing " + name); }
+
+        char quote = contents.charAt(start + name.length() + 1);
+        int valueStart = start + name.length() + 2;
+        return contents.substring(valueStart, contents.indexOf(quote, valueStart));
+    }
+
+    /**
+     * Finds the distance in miles between two points (haversine formula).
+     */
+    private double distance(double lat1, double lon1, double lat2, double lon2)
+    {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * Keeps a single run, adding it to the day of the plan that it falls on.
+     *
+     * @param date      date of the run
+     * @param miles     distance of the run
+     * @param seconds   duration of the run, 0 if not known
+     * @param heartRate heart rate samples, or null if not recorded
+     */
+    private void addRun(LocalDate date, double miles, int seconds, short [] heartRate)
+    {
+        runs.add(new RunRecord(date, miles, seconds, heartRate));
+        runsFound.incrementAndGet();
+        long day = ChronoUnit.DAYS.between(planStartDate, date);
+        if (day < 0 || day >= milesByDay.length) { return; }  // not part of the plan
+
+        runsMatched.incrementAndGet();
+        synchronized (milesByDay) { milesByDay[(int) day] += miles; }
+    }
+
+    /**
+     * Gets every run found by the last import, including those outside of the plan.
+     * @return  list of runs
+     */
+    public List<RunRecord> getRuns()
+    {
+        return new ArrayList<RunRecord>(runs);
+    }
+
+    /**
+     * Describes how the last import went, including how fast files were read.
+     * @return  String summarizing the last import
+     */
+    public String getSummary()
+    {
+        double seconds = elapsedNanos / 1e9;
+        String summary = String.format("Imported %d of %d runs from %d files in %.2f seconds " +
+                        "(%.0f files/second, %.1f MB/second).",
+                runsMatched.get(), runsFound.get(), filesRead.get(), seconds,
+                filesRead.get() / seconds, bytesRead.get() / 1e6 / seconds);
+        if (linesSkipped.get() > 0)
+        {
+            summary += String.format(" Skipped %d lines that are not runs.", linesSkipped.get());
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,76 @@
+//RunRecord.java
+/**
+ * The RunRecord() class represents a single run that was actually completed, as
+ * recorded by a watch: the date, distance, duration and (optionally) the heart
+ * rate samples taken during the run. RunRecord objects are handed from the
+ * RunLogImporter() to the RunHistoryStore().
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.time.LocalDate;
+
+
+class RunRecord
+{
+    // instance variables
+    private LocalDate date;
+    private double miles;
+    private int seconds;                    // 0 if the duration is not known
+    private short [] heartRate;             // beats per minute; null if not recorded
+
+    // constructor
+    public RunRecord(LocalDate date, double miles, int seconds, short [] heartRate)
+    {
+        this.date = date;
+        this.miles = miles;
+        this.seconds = seconds;
+        this.heartRate = heartRate;
+    }
+
+    /**
+     * Getter for date
+     * @return  LocalDate the run took place on
+     */
+    public LocalDate getDate()
+    {
+        return date;
+    }
+
+    /**
+     * Getter for distance
+     * @return  double representing miles run
+     */
+    public double getMiles()
+    {
+        return miles;
+    }
+
+    /**
+     * Getter for duration
+     * @return  int representing seconds spent running (0 if not known)
+     */
+    public int getSeconds()
+    {
+        return seconds;
+    }
+
+    /**
+     * Getter for average pace
+     * @return  double representing minutes per mile (0 if not known)
+     */
+    public double getPace()
+    {
+        if (miles <= 0 || seconds <= 0) { return 0; }
+        return seconds / 60.0 / miles;
+    }
+
+    /**
+     * Getter for heart rate
+     * @return  array of heart rate samples, or null if not recorded
+     */
+    public short [] getHeartRate()
+    {
+        return heartRate;
+    }
+}
@@ -0,0 +1,351 @@
+//SessionManager.java
+/**
+ * The SessionManager() class keeps the profiles and training plans of the users
+ * who used RunBuddy most recently in memory. Every login opens the user's session
+ * through it (see RunBuddy.main()), and the TrainingFrame() saves the days changed
+ * through Session.markDirty(). A RunBuddy window serves one user, so there the
+ * cache holds just that user; where many athletes log their runs in turn in one
+ * RunBuddy (as SessionCacheBenchmark does), switching back to a recent user needs
+ * no disk reads: the user's profile is not read again and the plan is neither
+ * read nor regenerated.
+ *
+ * The cache is bounded by the total number of plan days it holds (set by the
+ * system property runbuddy.sessionCacheDays, default 8192, or about 60 plans of
+ * 18 weeks), rather than by the number of users, since a season plan can be many
+ * times the size of a short plan. When it is full, the least recently used
+ * sessions are evicted. Changes that a session has not saved yet (see
+ * Session.markDirty()) are written back when it is evicted, when flushAll() is
+ * called and when RunBuddy exits.
+ *
+ * On a miss, the profile is read from "<USERNAME>_profile.txt" and the plan is
+ * loaded from its saved file, or generated if it has never been saved.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+
+class SessionManager
+{
+    // the single, shared session cache
+    private static SessionManager sessions;
+
+    // instance variables; all guarded by this
+    private LinkedHashMap<String, Session> cache;   // in access order, least recently used first
+    private long capacityDays;                      // most plan days held at once
+    private long cachedDays;                        // plan days held now
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    // the same statistics, for the metrics export (see Metrics())
+    private LongAdder hitCounter;
+    private LongAdder missCounter;
+    private LongAdder evictionCounter;
+    private LongAdder writeBackCounter;
+
+    // constructor
+    public SessionManager(long capacityDays)
+    {
+        this.cache = new LinkedHashMap<String, Session>(16, 0.75f, true);
+        this.capacityDays = capacityDays;
+        this.cachedDays = 0;
+
+        Metrics metrics = Metrics.getMetrics();
+        this.hitCounter = metrics.counter("session_hits");
+        this.missCounter = metrics.counter("session_misses");
+        this.evictionCounter = metrics.counter("session_evictions");
+        this.writeBackCounter = metrics.counter("session_write_backs");
+    }
+
+    /**
+     * Returns the shared session cache, sized by the runbuddy.sessionCacheDays
+     * system property. Unsaved changes are written back when RunBuddy exits.
+     *
+     * @return  the shared SessionManager object
+     */
+    public static synchronized SessionManager getSessions()
+    {
+        if (sessions == null)
+        {
+            final SessionManager created = new SessionManager(Long.getLong("runbuddy.sessionCacheDays", 8192));
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    new Runnable()
+                    {
+                        public void run() { created.flushAll(); }
+                    }, "session-flush"));
+            sessions = created;
+        }
+        return sessions;
+    }
+
+    /**
+     * Opens a user's session: from the cache if the user was here recently,
+     * otherwise by reading the user's profile and plan from disk (which may
+     * evict other sessions to make room).
+     *
+     * @param userName                  name of the user
+     * @return                          the user's Session
+     * @throws FileNotFoundException    if the user has no saved profile
+     */
+    public synchronized Session open(String userName) throws FileNotFoundException
+    {
+        Session session = lookUp(userName);
+        if (session != null) { return session; }
+
+        UserProfile profile = new UserProfile();
+        profile.readProfile(new File(userName + "_profile.txt"));
+        return load(profile);
+    }
+
+    /**
+     * Opens the session of a user who has just logged in, whose profile has
+     * already been read or created (e.g. by the WelcomeFrame()): from the cache if
+     * the user was here recently, otherwise by loading the user's plan.
+     *
+     * @param profile   the user's profile
+     * @return          the user's Session
+     */
+    public synchronized Session open(UserProfile profile)
+    {
+        Session session = lookUp(profile.getName());
+        if (session != null) { return session; }
+        return load(profile);
+    }
+
+    /**
+     * Finds a user's session in the cache, counting the hit or miss.
+     */
+    private Session lookUp(String userName)
+    {
+        Session session = cache.get(userName);
+        if (session != null)
+        {
+            hits += 1;
+            hitCounter.increment();
+            return session;
+        }
+        misses += 1;
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * Loads a user's plan from its saved file, or generates it if it has never
+     * been saved (saving the day it starts with the profile), and caches the session.
+     * The version of the base plan the plan comes from is saved with the profile
+     * too; if the version saved before is no longer around, the plan goes on
+     * from the latest version, and the profile is changed to say so.
+     */
+    private Session load(UserProfile profile)
+    {
+        TrainingPlanGenerator generator = new TrainingPlanGenerator(profile);
+        if (!generator.loadTrainingPlan()) { generator.createTrainingPlan(); }
+        String templateId = generator.getTemplate().getId();
+        if (profile.getPlanTemplate() != null && !templateId.equals(profile.getPlanTemplate()))
+        {
+            System.out.println("WARNING: The plan of " + profile.getName() + " was made from "
+                    + profile.getPlanTemplate() + ", which has changed; going on with " + templateId);
+        }
+        if (profile.getPlanStartDate() == null || !templateId.equals(profile.getPlanTemplate()))
+        {
+            profile.setPlanStartDate(generator.getPlanStartDate());
+            profile.setPlanTemplate(templateId);
+            profile.createUserProfile();
+        }
+
+        Session session = new Session(profile, generator);
+        cache.put(profile.getName(), session);
+        cachedDays += session.planDays;
+        evictToCapacity();
+        return session;
+    }
+
+    /**
+     * Evicts the least recently used sessions, writing back their unsaved
+     * changes, until the cache is within its capacity. The session used last is
+     * always kept, however large it is.
+     */
+    private void evictToCapacity()
+    {
+        Iterator<Session> eldest = cache.values().iterator();
+        while (cachedDays > capacityDays && cache.size() > 1)
+        {
+            Session session = eldest.next();
+            eldest.remove();
+            cachedDays -= session.planDays;
+            evictions += 1;
+            evictionCounter.increment();
+
+            if (session.flush())
+            {
+                writeBacks += 1;
+                writeBackCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes back the unsaved changes of every session, keeping them cached.
+     */
+    public synchronized void flushAll()
+    {
+        for (Session session : cache.values())
+        {
+            if (session.flush())
+            {
+                writeBacks += 1;
+                writeBackCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of sessions opened from the cache
+     * @return  long representing the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Getter for the number of sessions that had to be read from disk
+     * @return  long representing the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Getter for the number of sessions evicted to make room
+     * @return  long representing the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Getter for the number of sessions whose unsaved changes were written back
+     * @return  long representing the number of write backs
+     */
+    public synchronized long getWriteBacks()
+    {
+        return writeBacks;
+    }
+
+    /**
+     * Getter for the number of sessions cached
+     * @return  int representing the number of sessions
+     */
+    public synchronized int getSize()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Sums up the cache's statistics in one line, e.g. for a tooltip or log.
+     * @return  String describing the cache
+     */
+    public synchronized String getSummary()
+    {
+        long opened = hits + misses;
+        return String.format("%d sessions (%d of %d plan days), %d hits, %d misses (%.0f%% hit), %d evictions, %d write backs",
+                cache.size(), cachedDays, capacityDays, hits, misses,
+                opened == 0 ? 0.0 : 100.0 * hits / opened, evictions, writeBacks);
+    }
+
+    /**
+     * Inner class holding a single user's session: the profile, the plan's
+     * generator and the plan days changed but not saved yet.
+     */
+    static class Session
+    {
+        private UserProfile profile;
+        private TrainingPlanGenerator generator;
+        private BitSet dirtyDays;               // guarded by this
+        private boolean saving;                 // a flush is writing days back; guarded by this
+        private final Object saveLock = new Object();    // held by the flush writing days back
+        private int planDays;                   // size of the plan when it was cached
+
+        Session(UserProfile profile, TrainingPlanGenerator generator)
+        {
+            this.profile = profile;
+            this.generator = generator;
+            this.dirtyDays = new BitSet();
+            this.planDays = generator.getUserTrainingPlan().length * generator.DAYS_IN_WEEK;
+        }
+
+        /**
+         * Notes that some days of the plan were changed and not saved; they are
+         * written back with the session's next flush().
+         * @param planDays  BitSet of the plan days (week * 7 + day) changed
+         */
+        public synchronized void markDirty(BitSet planDays)
+        {
+            dirtyDays.or(planDays);
+        }
+
+        /**
+         * Saves the plan days changed since the last flush, if there are any.
+         * Only one flush saves at a time, and days are taken off the dirty set
+         * before they are saved, so markDirty() never waits for a save and a
+         * day changed again meanwhile is saved by the next flush.
+         *
+         * @return  boolean; was anything written back?
+         */
+        public boolean flush()
+        {
+            synchronized (saveLock)
+            {
+                BitSet days;
+                synchronized (this)
+                {
+                    if (dirtyDays.isEmpty()) { return false; }
+                    days = (BitSet) dirtyDays.clone();
+                    dirtyDays.clear();
+                    saving = true;
+                }
+                try { generator.saveRecords(days); }
+                finally
+                {
+                    synchronized (this) { saving = false; }
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Determines if the session has changes that have not been saved
+         * @return  boolean; are there unsaved changes?
+         */
+        public synchronized boolean isDirty()
+        {
+            return saving || !dirtyDays.isEmpty();
+        }
+
+        /**
+         * Getter for the user's profile
+         * @return  the UserProfile
+         */
+        public UserProfile getProfile()
+        {
+            return profile;
+        }
+
+        /**
+         * Getter for the user's plan
+         * @return  the TrainingPlanGenerator holding the plan
+         */
+        public TrainingPlanGenerator getGenerator()
+        {
+            return generator;
+        }
+    }
+}
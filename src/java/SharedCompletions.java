@@ -0,0 +1,380 @@
+//SharedCompletions.java
+/**
+ * The SharedCompletions() class keeps which runs are completed the same in every
+ * RunBuddy open on the same user on this machine (e.g. two windows started one
+ * after the other), so that a run checked off in one is shown checked off in the
+ * other within a few milliseconds (at most IDLE_POLL_MILLIS). Rather than each
+ * RunBuddy polling the plan file and reading it again, they share a small
+ * memory-mapped file, "<user>_completions.map", laid out as:
+ *
+ *     magic (long), a count of the changes made (long), unused, and from
+ *     WORDS_OFFSET the bit of every completed day, packed into long words as in
+ *     the CompletionBitmap
+ *
+ * Words in the region are changed with a compare-and-set (through a VarHandle),
+ * which is atomic between processes as well as threads, so each RunBuddy changes
+ * only the days it changed. After each change the count is incremented; a watcher
+ * thread in every RunBuddy checks the count (in memory, which costs next to
+ * nothing), and when it has moved on, applies the days that changed to its own
+ * CompletionBitmap. It checks every POLL_MILLIS while runs are being changed, here
+ * or elsewhere, and every IDLE_POLL_MILLIS once none has been for ACTIVE_MILLIS,
+ * so an idle RunBuddy wakes a hundred times a second rather than a thousand, yet
+ * still shows a change made elsewhere well within a frame. Changes made here
+ * are handed to the watcher thread too, waking it at once, so that only it reads
+ * and writes the region. The plan file itself is still saved by the RunBuddy
+ * that made the change, through the PlanJournal, which locks it against the
+ * others.
+ *
+ * Advisory file locks on bytes past the end of the region keep track of who is
+ * sharing it: the first RunBuddy to open the region (finding no one else holding
+ * a shared lock on ATTACH_BYTE) fills it in from its own plan, and any other
+ * takes the completions it finds there.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+
+class SharedCompletions
+{
+    // instance variables
+    private Path mapFile;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private FileLock attachLock;                    // shared; held while this RunBuddy uses the region
+    private volatile CompletionBitmap completions;
+    private CompletionBitmap.Listener bitmapListener;
+    private Listener listener;
+    private long [] known;                          // the region's words as last seen here; watcher thread only
+    private long seenChanges;                       // the region's count as last seen here; watcher thread only
+    private BitSet localChanges;                    // days changed here, not yet in the region; guarded by itself
+    private Thread watcher;
+    private volatile boolean running;
+
+    // statistics; guarded by this
+    private long changesShared;
+    private long changesReceived;
+
+    // final variables
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long [].class, ByteOrder.nativeOrder());
+    static final long MAGIC = 0x5242534841524544L;  // "RBSHARED"
+    static final int MAX_PLAN_DAYS = 7 * 104;       // two years of plan; later days are not shared
+    static final int WORDS = (MAX_PLAN_DAYS + 63) / 64;
+    static final int MAGIC_OFFSET = 0;
+    static final int CHANGES_OFFSET = 8;
+    static final int WORDS_OFFSET = 64;
+    static final int REGION_BYTES = WORDS_OFFSET + WORDS * 8;
+    static final long OPEN_BYTE = REGION_BYTES;     // locked exclusively while opening the region
+    static final long ATTACH_BYTE = REGION_BYTES + 1;   // locked (shared) by everyone using the region
+    final long POLL_MILLIS = Long.getLong("runbuddy.sharePollMillis", 1);
+    final long IDLE_POLL_MILLIS = Long.getLong("runbuddy.shareIdlePollMillis", 10);
+    final long ACTIVE_MILLIS = 1000;                // polls every POLL_MILLIS this long after a change
+
+    // constructor
+    /**
+     * Opens (or creates) the shared region, joins it and starts watching it.
+     *
+     * @param mapFile       the file to map, e.g. "<user>_completions.map"
+     * @param completions   this RunBuddy's completions
+     * @throws IOException  if the region cannot be opened or locked, or is already
+     *                      shared by another plan in this RunBuddy
+     */
+    public SharedCompletions(Path mapFile, CompletionBitmap completions) throws IOException
+    {
+        this.mapFile = mapFile;
+        this.completions = completions;
+        this.known = new long [WORDS];
+        this.localChanges = new BitSet();
+        this.channel = FileChannel.open(mapFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            join();
+        }
+        catch (IOException | OverlappingFileLockException e)
+        {
+            channel.close();
+            if (e instanceof IOException) { throw (IOException) e; }
+            throw new IOException(mapFile + " is already shared in this RunBuddy", e);
+        }
+
+        this.bitmapListener =
+                new CompletionBitmap.Listener()
+                {
+                    public void completionChanged(BitSet changedDays, boolean completed)
+                    {
+                        if (Thread.currentThread() == watcher) { return; }   // came from the region
+                        synchronized (localChanges) { localChanges.or(changedDays); }
+                        LockSupport.unpark(watcher);
+                    }
+                };
+        completions.addListener(bitmapListener);
+
+        this.running = true;
+        this.watcher = new Thread(
+                new Runnable()
+                {
+                    public void run() { watch(); }
+                }, "shared-completions");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Maps the region and takes the shared lock that marks this RunBuddy as using
+     * it. If no one else is using it, it is filled in from this RunBuddy's
+     * completions; otherwise this RunBuddy's completions are set from it.
+     */
+    private void join() throws IOException
+    {
+        FileLock opening = channel.lock(OPEN_BYTE, 1, false);     // one RunBuddy joins at a time
+        try
+        {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_BYTES);
+            FileLock alone = channel.tryLock(ATTACH_BYTE, 1, false);
+            boolean first = alone != null || (long) LONGS.getVolatile(region, MAGIC_OFFSET) != MAGIC;
+            if (alone != null) { alone.release(); }
+
+            long [] local = completions.snapshot();
+            if (first)
+            {
+                for (int word = 0; word < WORDS; word++)
+                {
+                    known[word] = (word < local.length) ? local[word] : 0;
+                    LONGS.setVolatile(region, WORDS_OFFSET + word * 8, known[word]);
+                }
+                LONGS.setVolatile(region, MAGIC_OFFSET, MAGIC);
+                LONGS.getAndAdd(region, CHANGES_OFFSET, 1L);
+            }
+            else
+            {
+                BitSet nowDone = new BitSet();
+                BitSet nowNotDone = new BitSet();
+                for (int word = 0; word < WORDS; word++)
+                {
+                    known[word] = (long) LONGS.getVolatile(region, WORDS_OFFSET + word * 8);
+                    long mine = (word < local.length) ? local[word] : 0;
+                    addDays(nowDone, word, known[word] & ~mine);
+                    addDays(nowNotDone, word, mine & ~known[word]);
+                }
+                completions.set(nowDone, true);     // before the listener is added, so not shared back
+                completions.set(nowNotDone, false);
+            }
+            seenChanges = (long) LONGS.getVolatile(region, CHANGES_OFFSET);
+            attachLock = channel.lock(ATTACH_BYTE, 1, true);
+        }
+        finally
+        {
+            opening.release();
+        }
+    }
+
+    /**
+     * Runs on the watcher thread: puts the days changed here into the region,
+     * then, if the region has changed, applies the days changed elsewhere to the
+     * completions, and waits POLL_MILLIS, or IDLE_POLL_MILLIS if nothing has
+     * changed for ACTIVE_MILLIS (or until a day is changed here).
+     */
+    private void watch()
+    {
+        long lastChange = System.nanoTime();
+        while (running)
+        {
+            boolean active = false;
+            try
+            {
+                active = shareLocalChanges();
+                long changes = (long) LONGS.getVolatile(region, CHANGES_OFFSET);
+                if (changes != seenChanges)
+                {
+                    seenChanges = changes;
+                    applyRemoteChanges();
+                    active = true;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("WARNING: Could not share completed runs due to " + e);
+            }
+            if (active) { lastChange = System.nanoTime(); }
+            boolean idle = System.nanoTime() - lastChange > ACTIVE_MILLIS * 1000000L;
+            LockSupport.parkNanos((idle ? Math.max(POLL_MILLIS, IDLE_POLL_MILLIS) : POLL_MILLIS) * 1000000L);
+        }
+    }
+
+    /**
+     * Writes the days changed here into the region, as they are now in the
+     * completions, and counts the change.
+     *
+     * @return  boolean; were any days shared?
+     */
+    private boolean shareLocalChanges()
+    {
+        BitSet days;
+        synchronized (localChanges)
+        {
+            if (localChanges.isEmpty()) { return false; }
+            days = (BitSet) localChanges.clone();
+            localChanges.clear();
+        }
+
+        CompletionBitmap current = completions;
+        long [] masks = days.toLongArray();
+        int shared = 0;
+        for (int word = 0; word < Math.min(masks.length, WORDS); word++)
+        {
+            long mask = masks[word];
+            if (mask == 0) { continue; }
+            long values = 0;
+            for (int bit = Long.numberOfTrailingZeros(mask); bit < 64; bit = nextBit(mask, bit))
+            {
+                if (current.isCompleted(word * 64 + bit)) { values |= 1L << bit; }
+            }
+
+            int offset = WORDS_OFFSET + word * 8;
+            long before, after;
+            do
+            {
+                before = (long) LONGS.getVolatile(region, offset);
+                after = (before & ~mask) | values;
+            }
+            while (before != after && !LONGS.compareAndSet(region, offset, before, after));
+            known[word] = (known[word] & ~mask) | values;   // the other days are left to applyRemoteChanges()
+            shared += Long.bitCount(mask);
+        }
+        if (shared == 0) { return false; }
+
+        LONGS.getAndAdd(region, CHANGES_OFFSET, 1L);
+        synchronized (this) { changesShared += shared; }
+        return true;
+    }
+
+    /**
+     * Applies the days that changed in the region since it was last seen to the
+     * completions, other than days changed here meanwhile, which are shared next
+     * and win.
+     */
+    private void applyRemoteChanges()
+    {
+        BitSet nowDone = new BitSet();
+        BitSet nowNotDone = new BitSet();
+        for (int word = 0; word < WORDS; word++)
+        {
+            long now = (long) LONGS.getVolatile(region, WORDS_OFFSET + word * 8);
+            long changed = now ^ known[word];
+            known[word] = now;
+            addDays(nowDone, word, changed & now);
+            addDays(nowNotDone, word, changed & ~now);
+        }
+        if (nowDone.isEmpty() && nowNotDone.isEmpty()) { return; }
+        synchronized (localChanges)
+        {
+            nowDone.andNot(localChanges);
+            nowNotDone.andNot(localChanges);
+        }
+
+        CompletionBitmap current = completions;
+        BitSet changed = current.set(nowDone, true);
+        changed.or(current.set(nowNotDone, false));
+        if (changed.isEmpty()) { return; }
+
+        Listener told;
+        synchronized (this)
+        {
+            changesReceived += changed.cardinality();
+            told = listener;
+        }
+        if (told != null) { told.remoteChanged(changed); }
+    }
+
+    private static void addDays(BitSet days, int word, long bits)
+    {
+        for (int bit = Long.numberOfTrailingZeros(bits); bit < 64; bit = nextBit(bits, bit))
+        {
+            days.set(word * 64 + bit);
+        }
+    }
+
+    private static int nextBit(long bits, int bit)
+    {
+        return (bit == 63) ? 64 : bit + 1 + Long.numberOfTrailingZeros(bits >>> (bit + 1));
+    }
+
+    /**
+     * Sets the completions to share from now on, after the plan has been
+     * re-planned (see CompletionBitmap.resize(), which keeps the listeners).
+     *
+     * @param completions   the new CompletionBitmap
+     */
+    public void setCompletions(CompletionBitmap completions)
+    {
+        this.completions = completions;
+    }
+
+    /**
+     * Setter for the listener
+     * @param listener  Listener told about days changed by another RunBuddy
+     */
+    public synchronized void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops sharing: the watcher thread is stopped, after sharing any days
+     * changed here, and the region is let go.
+     */
+    public void close()
+    {
+        completions.removeListener(bitmapListener);
+        running = false;
+        LockSupport.unpark(watcher);
+        try { watcher.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        shareLocalChanges();
+
+        try
+        {
+            attachLock.release();
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not close " + mapFile + " due to " + e);
+        }
+    }
+
+    /**
+     * Describes what has been shared, e.g. for the command line.
+     * @return  String holding the days shared and received
+     */
+    public synchronized String getSummary()
+    {
+        return String.format("%s: %d days shared, %d received", mapFile, changesShared, changesReceived);
+    }
+
+    /**
+     * Interface for a listener told about days changed by another RunBuddy.
+     */
+    interface Listener
+    {
+        /**
+         * Called on the watcher thread, once the days have been changed in the
+         * completions. The RunBuddy that changed them has already saved them.
+         *
+         * @param changedDays   BitSet of the plan days (week * 7 + day) that changed
+         */
+        void remoteChanged(BitSet changedDays);
+    }
+}
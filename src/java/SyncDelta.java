@@ -0,0 +1,254 @@
+//SyncDelta.java
+/**
+ * The SyncDelta() class represents a single change to whether a run of a
+ * user's plan was completed, as exchanged between a PlanSyncClient() and the
+ * PlanSyncServer(): the day of the plan, whether its run is now completed, when
+ * the change was made and the device that made it. Conflicting changes to the
+ * same day are resolved by last-writer-wins: the change with the later stamp
+ * wins, and if two stamps are the same, the one from the larger device id.
+ *
+ * Stamps come from a hybrid clock (see PlanSyncClient.nextStamp()): the wall
+ * clock in microseconds, but always later than any stamp the device has seen,
+ * so a change made after seeing another device's change always wins over it,
+ * however far apart the two devices' clocks are.
+ *
+ * Batches of changes are sent as a header of two numbers (e.g., the device and
+ * the version of the plan it has), then the changes in order of plan day, each
+ * as varints: the day (as the difference from the one before, with the
+ * completion in the lowest bit), the stamp and the device (each as the
+ * zig-zagged difference from the one before, which is small within a batch).
+ * Batches that are large enough to gain from it are compressed (Deflater).
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+class SyncDelta
+{
+    // instance variables
+    private int planDay;                    // week * 7 + day
+    private boolean completed;
+    private long stamp;                     // hybrid clock; larger is later
+    private long device;                    // id of the device that made the change
+
+    // final variables
+    static final int PLAIN = 0;             // first byte of a batch: how the rest is stored
+    static final int DEFLATED = 1;
+    static final int COMPRESS_OVER_BYTES = 64;  // smaller batches are not worth compressing
+
+    // constructor
+    public SyncDelta(int planDay, boolean completed, long stamp, long device)
+    {
+        this.planDay = planDay;
+        this.completed = completed;
+        this.stamp = stamp;
+        this.device = device;
+    }
+
+    /**
+     * Getter for the day of the plan
+     * @return  int representing week * 7 + day
+     */
+    public int getPlanDay()
+    {
+        return planDay;
+    }
+
+    /**
+     * Getter for completed
+     * @return  boolean; is the run now completed?
+     */
+    public boolean isCompleted()
+    {
+        return completed;
+    }
+
+    /**
+     * Getter for the stamp
+     * @return  long representing when the change was made, on the hybrid clock
+     */
+    public long getStamp()
+    {
+        return stamp;
+    }
+
+    /**
+     * Getter for the device
+     * @return  long holding the id of the device that made the change
+     */
+    public long getDevice()
+    {
+        return device;
+    }
+
+    /**
+     * Determines if this change wins over another change to the same day.
+     *
+     * @param otherStamp    stamp of the other change
+     * @param otherDevice   device of the other change
+     * @return              boolean; was this change made later?
+     */
+    public boolean winsOver(long otherStamp, long otherDevice)
+    {
+        return stamp > otherStamp || (stamp == otherStamp && device > otherDevice);
+    }
+
+    /**
+     * Lays out a batch of changes to send.
+     *
+     * @param first     first number of the header
+     * @param second    second number of the header
+     * @param deltas    the changes, in any order
+     * @return          byte array holding the batch
+     */
+    static byte [] writeBatch(long first, long second, Collection<SyncDelta> deltas)
+    {
+        ArrayList<SyncDelta> sorted = new ArrayList<SyncDelta>(deltas);
+        Collections.sort(sorted,
+                new Comparator<SyncDelta>()
+                {
+                    public int compare(SyncDelta a, SyncDelta b) { return Integer.compare(a.planDay, b.planDay); }
+                }
+        );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + sorted.size() * 8);
+        writeVarint(out, first);
+        writeVarint(out, second);
+        writeVarint(out, sorted.size());
+        int previousDay = 0;
+        long previousStamp = 0, previousDevice = 0;
+        for (SyncDelta delta : sorted)
+        {
+            writeVarint(out, ((long) (delta.planDay - previousDay) << 1) | (delta.completed ? 1 : 0));
+            writeVarint(out, zigzag(delta.stamp - previousStamp));
+            writeVarint(out, zigzag(delta.device - previousDevice));
+            previousDay = delta.planDay;
+            previousStamp = delta.stamp;
+            previousDevice = delta.device;
+        }
+        byte [] plain = out.toByteArray();
+
+        if (plain.length > COMPRESS_OVER_BYTES)
+        {
+            Deflater deflater = new Deflater();
+            try
+            {
+                deflater.setInput(plain);
+                deflater.finish();
+                byte [] compressed = new byte [plain.length + 1];
+                compressed[0] = DEFLATED;
+                int length = deflater.deflate(compressed, 1, plain.length);
+                if (deflater.finished()) { return Arrays.copyOf(compressed, length + 1); }
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+        byte [] batch = new byte [plain.length + 1];
+        batch[0] = PLAIN;
+        System.arraycopy(plain, 0, batch, 1, plain.length);
+        return batch;
+    }
+
+    /**
+     * Reads a batch of changes written by writeBatch().
+     *
+     * @param batch     the batch, as received
+     * @param header    array to fill in with the two numbers of the header
+     * @return          list of the changes, in order of plan day
+     * @throws IOException  if the batch is cut short or damaged
+     */
+    static List<SyncDelta> readBatch(byte [] batch, long [] header) throws IOException
+    {
+        if (batch.length == 0) { throw new EOFException("empty batch"); }
+        byte [] plain;
+        if (batch[0] == DEFLATED)
+        {
+            Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput(batch, 1, batch.length - 1);
+                ByteArrayOutputStream inflated = new ByteArrayOutputStream(batch.length * 4);
+                byte [] buffer = new byte [4096];
+                while (!inflater.finished())
+                {
+                    int length = inflater.inflate(buffer);
+                    if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        throw new EOFException("batch is cut short");
+                    }
+                    inflated.write(buffer, 0, length);
+                }
+                plain = inflated.toByteArray();
+            }
+            catch (DataFormatException e)
+            {
+                throw new IOException("batch is damaged", e);
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+        else { plain = Arrays.copyOfRange(batch, 1, batch.length); }
+
+        ByteArrayInputStream in = new ByteArrayInputStream(plain);
+        header[0] = readVarint(in);
+        header[1] = readVarint(in);
+        int count = (int) readVarint(in);
+        ArrayList<SyncDelta> deltas = new ArrayList<SyncDelta>(Math.min(count, plain.length));
+        int planDay = 0;
+        long stamp = 0, device = 0;
+        for (int i = 0; i < count; i++)
+        {
+            long dayAndCompleted = readVarint(in);
+            planDay += (int) (dayAndCompleted >>> 1);
+            stamp += unzigzag(readVarint(in));
+            device += unzigzag(readVarint(in));
+            deltas.add(new SyncDelta(planDay, (dayAndCompleted & 1) != 0, stamp, device));
+        }
+        return deltas;
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a number seven bits at a time, with the high bit set on every byte
+     * but the last.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteArrayInputStream in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.read();
+            if (b < 0) { throw new EOFException("batch is cut short"); }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) { return value; }
+        }
+        throw new IOException("batch is damaged");
+    }
+}
@@ -18,6 +18,13 @@ import java.awt.event.*;
 import javax.swing.border.EtchedBorder;
 import javax.swing.JScrollPane;
 import java.awt.event.ItemListener;
+import java.io.*;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 class TrainingFrame extends JFrame
@@ -26,45 +33,165 @@ class TrainingFrame extends JFrame
     private String userName;                                // User's name from UserProfile
     private ProgressPanel progressPanel;
     private JMenuItem exit;
+    private JMenuItem importRuns;
+    private JMenuItem updatePlan;
+    private JMenuItem markWeek;
+    private JMenuItem markDates;
+    private JMenuItem resetPlan;
     private JPanel mainPanel;
     private JPanel infoPanel;
     private JTextField statusField;
+    private JTextField historyField;
+    private RunHistoryChart historyChart;
+    private JTextField loadField;
+    private JTextField likeYouField;
+    private JScrollPane scrollPane;
+    private JLabel endPlanLabel;
+    private UIUpdateScheduler uiUpdates;                    // redraws the views below at most once per frame
+    private int progressView, statusView, loadView, historyView, likeYouView;
+    private JCheckBoxMenuItem recordTimings;
+    private Metrics metrics;
+    private LatencyHistogram updateLatency;                 // time to save and update after runs change
 
     // instance variables that represent key data points
     private double [][][] userTrainingPlan;                 // array version of trainingPlan
+    private CompletionBitmap completions;                   // which runs are completed; may change on any thread
     private double totalMiles;                              // total miles in training plan
     private UserProfile userProfile;
     private TrainingPlanGenerator trainingPlanGenerator;
+    private SessionManager.Session session;                 // the user's session; changed days are saved through it
+    private RunHistoryStore runHistory;                     // runs actually completed, from imports
+    private TrainingLoadEngine loadEngine;                  // acute and chronic training load
     private double milesCompleted;
     private int runsCompleted;
+    private int weeksLoaded;                                // weeks of the plan shown in the UI so far
+    private ActivityPanel [][] activityPanels;              // [week][day]; null until the week is shown
+    private boolean batchUpdating;                          // true while many runs are changed at once
+    private boolean planFinished;                           // the plan was complete at the last status update
+    private PlanFileWatcher planWatcher;                    // picks up changes made to the plan file elsewhere
+    private PlanSyncClient syncClient;                      // shares completed runs with other devices; may be null
+    private SharedCompletions sharedCompletions;            // shares completed runs with other windows; may be null
+    private Leaderboard leaderboard;                        // the club's, ranked by miles and percent completed
+    private AthleteIndex athleteIndex;                      // athletes like this user, and how they did
+    private ExecutorService likeYouWorker;                  // asks the athleteIndex, off the event thread
+    private ExecutorService planSaver;                      // saves and re-plans, off the event thread
+    private final AtomicBoolean flushQueued = new AtomicBoolean();    // a flush is waiting for the planSaver
+    private final AtomicReference<float []> likeYouPending = new AtomicReference<float []>();  // latest point asked
 
     // final variables
     final int MILEAGE = 0;
     final int PACE_INDEX = 1;
     final int COMPLETED_INDEX = 2;
+    final int ACTUAL_INDEX = 3;
     final int WIDTH = 500, HEIGHT = 750, WIDTH_LABEL = 450, HEIGHT_LABEL = 50;
+    final int WEEKS_PER_PAGE = 4;                           // weeks added to the UI at a time
+    final int FRAME_MILLIS = Integer.getInteger("runbuddy.frameMillis", 16);   // frame budget for UI updates
+    final String SYNC_URL = System.getProperty("runbuddy.syncUrl");            // e.g. http://localhost:8765
+    final int SYNC_SECONDS = Integer.getInteger("runbuddy.syncSeconds", 30);
+    final int CALENDAR_MILLIS = 60000;                      // how often to check if the day has changed
+    final int LIKE_YOU = Integer.getInteger("runbuddy.likeYouSize", 50);         // finished athletes compared with
     final String FONT_TYPE = "Helvetica";
     final Color BACKGROUND_COLOR = new Color(237, 237, 237);
     final Color UNFINISHED_COLOR = new Color(146, 174, 250);
     final Color FINISHED_COLOR = new Color(193, 207, 246);
+    final Color WARNING_COLOR = new Color(250, 190, 180);
 
     // constructor
-    public TrainingFrame(String title, UserProfile userProfile, TrainingPlanGenerator planGenerator)
+    public TrainingFrame(String title, SessionManager.Session session)
     {
         super(title);
 
         // initialize instance variables for class
+        this.session = session;
+        this.userProfile = session.getProfile();
         this.userName = userProfile.getName();
-        this.userProfile = userProfile;
-        this.trainingPlanGenerator = planGenerator;
+        this.trainingPlanGenerator = session.getGenerator();
         this.userTrainingPlan = trainingPlanGenerator.getUserTrainingPlan();
+        this.completions = trainingPlanGenerator.getCompletions();
+        this.weeksLoaded = 0;
+        this.activityPanels = new ActivityPanel [userTrainingPlan.length][];
+        this.batchUpdating = false;
+        this.metrics = Metrics.getMetrics();
+        this.updateLatency = metrics.histogram("ui_update_days");
+        this.planSaver = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "plan-save");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        this.runHistory = new RunHistoryStore(userName);
+        loadRunHistory();
+        createLoadEngine();
         this.totalMiles = getTotalMiles();
         this.milesCompleted = getMilesCompleted();
         this.runsCompleted = getRunsCompleted();
 
         // create UI
         layoutComponents();
+        addViews();
         addListeners();
+        addCompletionListener();
+        watchPlanFile();
+        shareCompletions();
+        startSync();
+        watchCalendar();
+    }
+
+    /**
+     * Creates the UIUpdateScheduler and adds the views that change as runs are
+     * completed (the progress bar, status, training load and run history), so that
+     * changes to them are redrawn at most once per frame.
+     */
+    private void addViews()
+    {
+        uiUpdates = new UIUpdateScheduler(FRAME_MILLIS);
+
+        progressView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        countProgress();
+                        progressPanel.adjustProgressBar(percentCompleted());
+                        leaderboard.update(userName, milesCompleted, percentOfMiles());
+                        updateAthletesLikeYou();
+                    }
+                }
+        );
+        statusView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        countProgress();
+                        updateStatus();
+                        statusField.setToolTipText("UI updates: " + uiUpdates.getSummary());
+                    }
+                }
+        );
+        loadView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run() { updateTrainingLoad(); }
+                }
+        );
+        historyView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run() { updateRunHistory(); }
+                }
+        );
+        likeYouView = uiUpdates.addView(
+                new Runnable()
+                {
+                    public void run() { updateAthletesLikeYou(); }
+                }
+        );
     }
 
     /**
@@ -89,12 +216,18 @@ class TrainingFrame extends JFrame
         addWelcome();
         addHeaderElements();
         addMostRecentStatus();
+        addTrainingLoad();
+        addRunHistory();
+        addLeaderboard();
+        addAthletesLikeYou();
         addTrainingPlanElements();
         addEndPlan();
     }
 
     /**
-     * Adds a listener for the exit button to exit program.
+     * Adds a listener for the exit button to exit program, as well as a listener
+     * on the scroll bar that adds more weeks of the plan as the user nears the end
+     * of the weeks that are shown.
      */
     private void addListeners()
     {
@@ -104,6 +237,67 @@ class TrainingFrame extends JFrame
                     public void actionPerformed(ActionEvent ae) { System.exit(0); }
                 }
         );
+
+        athleteIndex.addListener(
+                new AthleteIndex.Listener()
+                {
+                    public void indexLoaded() { uiUpdates.markDirty(likeYouView); }
+                }
+        );
+
+        importRuns.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { importRuns(); }
+                }
+        );
+
+        updatePlan.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { updatePlan(); }
+                }
+        );
+
+        markWeek.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { markWeek(); }
+                }
+        );
+
+        markDates.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { markDates(); }
+                }
+        );
+
+        recordTimings.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { metrics.setEnabled(recordTimings.isSelected()); }
+                }
+        );
+
+        resetPlan.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { resetPlan(); }
+                }
+        );
+
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(
+                new AdjustmentListener()
+                {
+                    public void adjustmentValueChanged(AdjustmentEvent ae)
+                    {
+                        JScrollBar bar = (JScrollBar) ae.getAdjustable();
+                        boolean nearEnd = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - HEIGHT;
+                        if (nearEnd && weeksLoaded < userTrainingPlan.length) { addTrainingPlanElements(); }
+                    }
+                }
+        );
     }
 
     /**
@@ -115,7 +309,7 @@ class TrainingFrame extends JFrame
     {
         // initializes the mainPanel, which sits in the JScrollPane
         mainPanel = new JPanel(new BorderLayout());
-        JScrollPane scrollPane = new JScrollPane(mainPanel);
+        scrollPane = new JScrollPane(mainPanel);
 
         // sets configurations
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
@@ -132,7 +326,6 @@ class TrainingFrame extends JFrame
         // format an info panel
         infoPanel = new JPanel(new FlowLayout());
         infoPanel.setBackground(BACKGROUND_COLOR);
-        infoPanel.setPreferredSize(new Dimension(WIDTH_LABEL, HEIGHT_LABEL * (userTrainingPlan.length) * 15));
 
         // add infoPanel to mainPanel
         mainPanel.add(infoPanel);
@@ -146,12 +339,30 @@ class TrainingFrame extends JFrame
     {
         JMenuBar menuBar = new JMenuBar();
         JMenu menu = new JMenu("Menu");
-        exit = new JMenuItem("Exit");      // only user option
+        importRuns = new JMenuItem("Import Runs...");
+        updatePlan = new JMenuItem("Update Plan...");
+        markWeek = new JMenuItem("Mark Week Done...");
+        markDates = new JMenuItem("Mark Dates Done...");
+        resetPlan = new JMenuItem("Reset Plan...");
+        recordTimings = new JCheckBoxMenuItem("Record Timings", metrics.isEnabled());
+        exit = new JMenuItem("Exit");
 
         // add menu elements, etc, with formatting back to the main frame
+        menu.add(importRuns);
+        menu.add(updatePlan);
+        menu.add(markWeek);
+        menu.add(markDates);
+        menu.add(resetPlan);
+        menu.add(recordTimings);
         menu.add(exit);
         menuBar.add(menu);
         Font menuFont = new Font(FONT_TYPE, Font.BOLD, 13);
+        importRuns.setFont(menuFont);
+        updatePlan.setFont(menuFont);
+        markWeek.setFont(menuFont);
+        markDates.setFont(menuFont);
+        resetPlan.setFont(menuFont);
+        recordTimings.setFont(menuFont);
         exit.setFont(menuFont);
         menu.setFont(menuFont);
 
@@ -174,14 +385,15 @@ class TrainingFrame extends JFrame
 
     /**
      * Alters the user that they have reached the end of the trainingPlan and
-     * that their next run is their half marathon!
+     * that their next run is their race (e.g., their half marathon)!
      */
     private void addEndPlan()
     {
+        PlanSource race = trainingPlanGenerator.getSource();
         String endPlan = "********  End of plan! Next run: " +
-                "Half Marathon, 13.2 Miles! ******** ";
+                race.getLabel() + ", " + race.getRaceMiles() + " Miles! ******** ";
         Font endPlanFont = new Font(FONT_TYPE, Font.BOLD, 15);
-        JLabel endPlanLabel = new JLabel(endPlan);
+        endPlanLabel = new JLabel(endPlan);
         endPlanLabel.setFont(endPlanFont);
         endPlanLabel.setBackground(BACKGROUND_COLOR);
         infoPanel.add(endPlanLabel);
@@ -234,126 +446,981 @@ class TrainingFrame extends JFrame
     }
 
     /**
-     * For each day/run of the training plan, creates a new ActivityPanel object
-     * for that run and adds it back to the infoPanel Panel. This method gets
-     * called on when the TrainingFrame is created.
+     * Moves the day the plan started on, e.g. to the day the user's watch shows
+     * their first run of it. The start date is saved with the profile, on the
+     * plan-save thread, and anything worked out from the days of the plan is
+     * worked out again.
+     *
+     * @param startDate     new day 1 of week 1
      */
-    private void addTrainingPlanElements()
+    private void movePlanStart(LocalDate startDate)
+    {
+        trainingPlanGenerator.setPlanStartDate(startDate);
+        userProfile.setPlanStartDate(startDate);
+        planSaver.execute(
+                new Runnable()
+                {
+                    public void run() { userProfile.createUserProfile(); }
+                }
+        );
+        createLoadEngine();         // today is a different day of the plan
+        refreshProgress();
+    }
+
+    /**
+     * Creates the TrainingLoadEngine for the plan, reporting loads as of today,
+     * and logs any runs in the plan that are already completed.
+     */
+    private void createLoadEngine()
     {
+        loadEngine = new TrainingLoadEngine(userTrainingPlan.length * 7, planDayOf(LocalDate.now()));
+
         for (int week = 0; week < userTrainingPlan.length; week++ )
         {
+            if (userTrainingPlan[week] == null) { continue; }   // not loaded, so nothing completed
+
             for (int day = 0; day < userTrainingPlan[week].length; day++ )
+            {
+                double [] values = userTrainingPlan[week][day];
+                if (completions.isCompleted(week * 7 + day)) { loadEngine.logRun(week * 7 + day, runLoad(values)); }
+            }
+        }
+    }
+
+    /**
+     * Checks, while the frame is open, whether a new day of the plan has begun,
+     * and if so moves the training load on to it; runs checked off for the new
+     * day only count from then on.
+     */
+    private void watchCalendar()
+    {
+        javax.swing.Timer calendarTimer = new javax.swing.Timer(CALENDAR_MILLIS,
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae)
+                    {
+                        int today = planDayOf(LocalDate.now());
+                        if (today == loadEngine.getToday()) { return; }
+                        loadEngine.advanceTo(today);
+                        uiUpdates.markDirty(loadView);
+                    }
+                }
+        );
+        calendarTimer.start();
+    }
+
+    /**
+     * Finds the day of the plan that falls on a given date, counting from the
+     * day the plan started (day 0). This can be negative or past the end of the plan.
+     *
+     * @param date  date to look up
+     * @return      plan day (week * 7 + day)
+     */
+    private int planDayOf(LocalDate date)
+    {
+        return trainingPlanGenerator.planDayOf(date);
+    }
+
+    /**
+     * Gets the miles that a completed run counts for in the training load: the
+     * actual distance if it was imported, otherwise the prescribed distance.
+     *
+     * @param values    values for a single workout
+     * @return          miles to count for the run
+     */
+    private double runLoad(double [] values)
+    {
+        return values[ACTUAL_INDEX] > 0 ? values[ACTUAL_INDEX] : values[MILEAGE];
+    }
+
+    /**
+     * This method gets called on when the TrainingFrame is initially created
+     * in order to setup the "loadField" object, which sits next to the status
+     * and shows the user's acute:chronic workload ratio.
+     */
+    private void addTrainingLoad()
+    {
+        Font loadFont = new Font(FONT_TYPE, Font.BOLD, 13);
+        loadField = new JTextField();
+        loadField.setEditable(false);
+        loadField.setBorder(BorderFactory.createEmptyBorder());
+        loadField.setFont(loadFont);
+        updateTrainingLoad();
+        infoPanel.add(loadField);
+    }
+
+    /**
+     * Updates the "loadField" from the TrainingLoadEngine, highlighting it
+     * if the user is ramping up too quickly.
+     */
+    private void updateTrainingLoad()
+    {
+        String load = String.format("  Load: %.1f / %.1f (ratio %.2f)",
+                loadEngine.getAcuteLoad(), loadEngine.getChronicLoad(), loadEngine.getRatio());
+        if (loadEngine.isOvertraining()) { load += " -- take it easy!"; }
+
+        loadField.setText(load);
+        loadField.setBackground(loadEngine.isOvertraining() ? WARNING_COLOR : BACKGROUND_COLOR);
+    }
+
+    /**
+     * Loads the user's history of runs actually completed, warning the user
+     * if it could not be read.
+     */
+    private void loadRunHistory()
+    {
+        try { runHistory.load(); }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not load run history due to " + e);
+        }
+    }
+
+    /**
+     * This method gets called on when the TrainingFrame is initially created
+     * in order to setup the "historyField" object that shows the miles actually
+     * run (from imported runs) this week, this month and in total, and the
+     * "historyChart" of the miles and pace run each week or month.
+     */
+    private void addRunHistory()
+    {
+        Font historyFont = new Font(FONT_TYPE, Font.PLAIN, 13);
+        historyField = new JTextField();
+        historyField.setEditable(false);
+        historyField.setBorder(BorderFactory.createEmptyBorder());
+        historyField.setFont(historyFont);
+        historyField.setBackground(BACKGROUND_COLOR);
+        historyChart = new RunHistoryChart(runHistory);
+        updateRunHistory();
+        infoPanel.add(historyField);
+        infoPanel.add(historyChart);
+    }
+
+    /**
+     * Updates the "historyField" and "historyChart" from the weekly and monthly
+     * totals kept by the RunHistoryStore, without looking at any single run;
+     * the tool tip holds the fastest pace this month, from its pace column.
+     */
+    private void updateRunHistory()
+    {
+        LocalDate today = LocalDate.now();
+        String history = String.format("     Actually run -- this week: %.1f   this month: %.1f   all time: %.1f miles",
+                runHistory.getMilesInWeek(today), runHistory.getMilesInMonth(today), runHistory.getTotalMiles());
+        historyField.setText(history);
+        double bestPace = runHistory.getBestPace(today.withDayOfMonth(1), today);
+        historyField.setToolTipText((bestPace > 0) ? String.format("Fastest run this month: %.2f minutes a mile",
+                bestPace) : null);
+        historyChart.refresh();
+    }
+
+    /**
+     * Adds the top of the club's leaderboard, with this user on it as they are
+     * now; from then on, the user's place is updated as runs are checked off.
+     */
+    private void addLeaderboard()
+    {
+        leaderboard = Leaderboard.getLeaderboard();
+        leaderboard.update(userName, milesCompleted, percentOfMiles());
+        infoPanel.add(new LeaderboardPanel(leaderboard, userName));
+    }
+
+    /**
+     * This method gets called on when the TrainingFrame is initially created
+     * in order to setup the "likeYouField" object, which shows how the athletes
+     * most like this user (by weekly miles, age, ability and time) did once
+     * their plans were over. The index is only asked on the likeYouWorker
+     * thread, since it may hold its lock for a second or more while it rebuilds.
+     */
+    private void addAthletesLikeYou()
+    {
+        athleteIndex = AthleteIndex.getIndex();
+        likeYouWorker = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "athletes-like-you");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        likeYouField = new JTextField("     Loading athletes like you...");
+        likeYouField.setEditable(false);
+        likeYouField.setBorder(BorderFactory.createEmptyBorder());
+        likeYouField.setFont(new Font(FONT_TYPE, Font.PLAIN, 13));
+        likeYouField.setBackground(BACKGROUND_COLOR);
+        updateAthletesLikeYou();
+        infoPanel.add(likeYouField);
+    }
+
+    /**
+     * Puts this user's point in the AthleteIndex and asks it for the LIKE_YOU
+     * finished athletes nearest them, on the likeYouWorker thread, then shows
+     * how they did in the "likeYouField". Points asked for while the worker is
+     * busy replace each other, so only the latest is put in the index.
+     */
+    private void updateAthletesLikeYou()
+    {
+        if (likeYouPending.getAndSet(features()) != null) { return; }   // the worker has yet to take the last one
+
+        likeYouWorker.execute(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        float [] features = likeYouPending.getAndSet(null);
+                        athleteIndex.update(userName, features, false);
+                        final AthleteIndex.Outcome outcome = athleteIndex.finishedLike(features, LIKE_YOU);
+                        final boolean loading = athleteIndex.isLoading();
+                        final String summary = athleteIndex.getSummary();
+                        SwingUtilities.invokeLater(
+                                new Runnable()
+                                {
+                                    public void run() { showAthletesLikeYou(outcome, loading, summary); }
+                                }
+                        );
+                    }
+                }
+        );
+    }
+
+    /**
+     * Shows in the "likeYouField" how the athletes like this user did, as the
+     * likeYouWorker found them.
+     */
+    private void showAthletesLikeYou(AthleteIndex.Outcome outcome, boolean loading, String summary)
+    {
+        if (outcome.athletes == 0)
+        {
+            likeYouField.setText(loading ? "     Loading athletes like you..."
+                    : "     No athletes like you have finished a plan yet");
+        }
+        else
+        {
+            likeYouField.setText(String.format("     Athletes like you finished with %.0f%% of their plans "
+                    + "(%d finished plans)", outcome.medianCompletion * 100, outcome.athletes));
+        }
+        likeYouField.setToolTipText("Athletes: " + summary);
+    }
+
+    /**
+     * Works out this user's point in the AthleteIndex from their profile and
+     * the plan's miles, as they are now.
+     */
+    private float [] features()
+    {
+        double weeks = Math.max(1, userTrainingPlan.length);
+        double completion = (totalMiles > 0) ? milesCompleted / totalMiles : 0;
+        return AthleteIndex.features(userProfile, totalMiles / weeks, completion);
+    }
+
+    /**
+     * For each day/run of the next few weeks of the training plan, creates a new
+     * ActivityPanel object for that run and adds it back to the infoPanel Panel
+     * (ahead of the "end of plan" label, once it exists). This method gets called
+     * on when the TrainingFrame is created, and again as the user scrolls, so that
+     * long plans are only loaded as far as the user has looked.
+     */
+    private void addTrainingPlanElements()
+    {
+        int lastWeek = Math.min(weeksLoaded + WEEKS_PER_PAGE, userTrainingPlan.length);
+        for (int week = weeksLoaded; week < lastWeek; week++ )
+        {
+            double [][] days = trainingPlanGenerator.getWeek(week);  // generates the week if needed
+            activityPanels[week] = new ActivityPanel [days.length];
+            for (int day = 0; day < days.length; day++ )
             {
                 // create ActivityPanel for each run to add to panel
-                ActivityPanel ap = new ActivityPanel(day, week, userTrainingPlan[week][day]);
-                infoPanel.add(ap);
+                ActivityPanel ap = new ActivityPanel(day, week, days[day]);
+                activityPanels[week][day] = ap;
+                if (endPlanLabel == null) { infoPanel.add(ap); }
+                else { infoPanel.add(ap, infoPanel.getComponentCount() - 1); }
             }
         }
+        weeksLoaded = lastWeek;
+
+        // make room for the weeks just added
+        infoPanel.setPreferredSize(new Dimension(WIDTH_LABEL, HEIGHT_LABEL * weeksLoaded * 15));
+        infoPanel.revalidate();
     }
 
     /**
      * This method is called on by the ItemListener when the checkBox
-     * on every ActivityPanel object is clicked on. This method calls
-     * on the trainingPlanGenerator instance variable to re-save the user
-     * profile with the updates, updates the runsCompleted and milesCompleted
-     * instance variables, adjusts the ProgressBar to reflect the new
-     * percent completed and updates the status string.
+     * on every ActivityPanel object is clicked on, and once at the end of
+     * each batch of changes. This method marks the days that changed in the
+     * user's session and has it re-save just those days (in place),
+     * updates the runsCompleted and milesCompleted instance variables, adjusts
+     * the ProgressBar to reflect the new percent completed and updates the
+     * status string.
+     *
+     * @param changed   BitSet of the plan days (week * 7 + day) that changed
      */
-    private void updateAll()
+    private void updateDays(BitSet changed)
     {
-        // save a new version of the training plan
-        trainingPlanGenerator.saveUserProfile();
+        long start = metrics.start();
+
+        // save the changed records of the training plan
+        savePlanDays(changed);
+        refreshProgress();
+        updateLatency.recordSince(start);
+    }
 
-        // update instance variables
+    /**
+     * Saves days of the plan that changed, through the user's session (see
+     * SessionManager.Session.markDirty()). The days are marked dirty here and
+     * flushed on the planSaver thread, so the UI never waits for the journal's
+     * fsync; days changed while a flush is waiting are saved by it, and any
+     * still unsaved when RunBuddy exits are flushed by the SessionManager.
+     *
+     * @param changed   BitSet of the plan days (week * 7 + day) that changed
+     */
+    private void savePlanDays(BitSet changed)
+    {
+        session.markDirty(changed);
+        if (!flushQueued.compareAndSet(false, true)) { return; }   // the waiting flush will save these too
+
+        planSaver.execute(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        flushQueued.set(false);         // days marked from now on need another flush
+                        session.flush();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Marks the ProgressBar, the status string and the training load to be
+     * redrawn on the next frame, without saving the training plan. This can be
+     * called from any thread.
+     */
+    private void refreshProgress()
+    {
+        // update UI to show adjusted progress bar, status string and training load
+        uiUpdates.markDirty(progressView);
+        uiUpdates.markDirty(statusView);
+        uiUpdates.markDirty(loadView);
+    }
+
+    /**
+     * Updates the runsCompleted and milesCompleted instance variables from the
+     * runs completed; called on the UI thread as the views are redrawn.
+     */
+    private void countProgress()
+    {
         runsCompleted = getRunsCompleted();
         milesCompleted = getMilesCompleted();
+    }
+
+    /**
+     * Listens for runs being checked off or unchecked, so that the UI is updated
+     * however the runs were changed. Changes made on another thread (e.g., by a
+     * sync) are shown in the ActivityPanels and the training load on the UI thread;
+     * the thread that made them is left to save them.
+     */
+    private void addCompletionListener()
+    {
+        completions.addListener(
+                new CompletionBitmap.Listener()
+                {
+                    public void completionChanged(final BitSet changedDays, final boolean completed)
+                    {
+                        if (!SwingUtilities.isEventDispatchThread())
+                        {
+                            SwingUtilities.invokeLater(
+                                    new Runnable()
+                                    {
+                                        public void run() { showChangedDays(changedDays); }
+                                    }
+                            );
+                        }
+                        refreshProgress();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Updates the training load and the ActivityPanels shown for days that were
+     * changed on another thread, from whether each run is completed now (it may
+     * have changed again since).
+     *
+     * @param changedDays   BitSet of the plan days (week * 7 + day) that changed
+     */
+    private void showChangedDays(BitSet changedDays)
+    {
+        batchUpdating = true;
+        for (int planDay = changedDays.nextSetBit(0); planDay >= 0; planDay = changedDays.nextSetBit(planDay + 1))
+        {
+            int week = planDay / 7;
+            if (week >= userTrainingPlan.length) { break; }   // cut from the plan since
 
-        // update UI to show adjusted progress bar, status string
-        progressPanel.adjustProgressBar(percentCompleted());
-        updateStatus();
+            if (completions.isCompleted(planDay)) { loadEngine.logRun(planDay, runLoad(trainingPlanGenerator.getWeek(week)[planDay % 7])); }
+            else { loadEngine.unlogRun(planDay); }
+            if (week < weeksLoaded) { activityPanels[week][planDay % 7].refresh(); }
+        }
+        batchUpdating = false;
     }
 
     /**
-     * From the loaded training plan for the user, find the number
-     * of miles that were "prescribed" in the plan.
+     * Starts watching the training plan file, so that changes made to it outside
+     * of RunBuddy (e.g., synced from another device) are shown as they happen.
+     */
+    private void watchPlanFile()
+    {
+        planWatcher = new PlanFileWatcher(trainingPlanGenerator,
+                new PlanFileWatcher.Listener()
+                {
+                    public void recordsChanged(final TreeMap<Integer, double []> records)
+                    {
+                        SwingUtilities.invokeLater(
+                                new Runnable()
+                                {
+                                    public void run() { applyChangedRecords(records); }
+                                }
+                        );
+                    }
+                }
+        );
+
+        try { planWatcher.start(); }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not watch the training plan file for changes due to " + e);
+        }
+    }
+
+    /**
+     * Starts sharing completed runs with any other RunBuddy open on the same user
+     * on this machine, through SharedCompletions(), so a run checked off in one
+     * window shows in the other at once. Runs changed in the other window are
+     * shown through the completion listener; that window saves them.
+     */
+    private void shareCompletions()
+    {
+        try
+        {
+            sharedCompletions = new SharedCompletions(Paths.get(userName + "_completions.map"), completions);
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not share completed runs with other windows due to " + e);
+        }
+    }
+
+    /**
+     * Starts sharing completed runs with the user's other devices through a
+     * PlanSyncServer(), if one is set with -Drunbuddy.syncUrl. Runs changed on
+     * other devices are shown through the completion listener, and saved here.
+     */
+    private void startSync()
+    {
+        if (SYNC_URL == null) { return; }
+        try
+        {
+            syncClient = new PlanSyncClient(SYNC_URL, userName, completions, Paths.get(userName + "_sync.dat"));
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not sync with " + SYNC_URL + " due to " + e);
+            return;
+        }
+        syncClient.setListener(
+                new PlanSyncClient.Listener()
+                {
+                    public void remoteChanged(BitSet changedDays) { savePlanDays(changedDays); }
+                }
+        );
+        syncClient.start(SYNC_SECONDS);
+    }
+
+    /**
+     * Applies records of the plan that were changed outside of RunBuddy: each one
+     * is compared to the plan, and only the days that differ are changed, along
+     * with their ActivityPanels (if shown), the training load and the totals. The
+     * records are already in the file, so nothing is saved.
      *
-     * @return double
+     * @param records   map of plan day (week * 7 + day) to the values in each changed record
      */
-    private double getTotalMiles()
+    private void applyChangedRecords(TreeMap<Integer, double []> records)
     {
-        double totalMiles = 0;
+        BitSet changed = new BitSet();
+        BitSet nowDone = new BitSet();
+        BitSet nowNotDone = new BitSet();
+        boolean milesChanged = false;
 
-        // add up all miles in the training plan, for every week, day...
-        for (int week = 0; week < userTrainingPlan.length; week++ )
+        for (Map.Entry<Integer, double []> record : records.entrySet())
         {
-            for (int day = 0; day < userTrainingPlan[week].length; day++ )
+            int planDay = record.getKey();
+            if (planDay >= userTrainingPlan.length * 7) { break; }   // the file's plan is longer than this one
+
+            double [] values = trainingPlanGenerator.getWeek(planDay / 7)[planDay % 7];
+            double [] saved = record.getValue();
+            if (differs(values[MILEAGE], saved[MILEAGE]) || differs(values[PACE_INDEX], saved[PACE_INDEX]))
+            {
+                trainingPlanGenerator.setDayValue(planDay, MILEAGE, saved[MILEAGE]);
+                trainingPlanGenerator.setDayValue(planDay, PACE_INDEX, saved[PACE_INDEX]);
+                milesChanged = true;
+                changed.set(planDay);
+            }
+            if (differs(values[ACTUAL_INDEX], saved[ACTUAL_INDEX]))
             {
-                totalMiles += userTrainingPlan[week][day][MILEAGE];
+                trainingPlanGenerator.setDayValue(planDay, ACTUAL_INDEX, saved[ACTUAL_INDEX]);
+                changed.set(planDay);
+            }
+            boolean done = saved[COMPLETED_INDEX] > 0;
+            if (done != completions.isCompleted(planDay))
+            {
+                (done ? nowDone : nowNotDone).set(planDay);
+                changed.set(planDay);
             }
         }
-        return totalMiles;
+        if (changed.isEmpty()) { return; }
+
+        batchUpdating = true;
+        completions.set(nowDone, true);
+        completions.set(nowNotDone, false);
+        for (int planDay = changed.nextSetBit(0); planDay >= 0; planDay = changed.nextSetBit(planDay + 1))
+        {
+            double [] values = trainingPlanGenerator.getWeek(planDay / 7)[planDay % 7];
+            if (completions.isCompleted(planDay)) { loadEngine.logRun(planDay, runLoad(values)); }
+            else { loadEngine.unlogRun(planDay); }
+        }
+        refreshPanels(changed);
+        batchUpdating = false;
+
+        if (milesChanged) { totalMiles = getTotalMiles(); }
+        refreshProgress();
     }
 
     /**
-     * From the loaded training plan for the user, find the number of
-     * completed miles.
+     * Compares a value in the plan to one read back from the plan file, which
+     * only holds three decimal places.
+     */
+    private boolean differs(double planValue, double savedValue)
+    {
+        return Math.abs(planValue - savedValue) >= 0.0005;
+    }
+
+    /**
+     * Asks the user for their new age group, ability level and time until their
+     * race, then re-plans just the weeks after the current one (see
+     * TrainingPlanGenerator.replan()). Completed runs are kept. The profile is
+     * saved and the plan re-planned and saved on the plan-save thread, after any
+     * saves already queued; the UI is updated once that is done.
+     */
+    private void updatePlan()
+    {
+        String [] ages = { "<18 years old", "18 - 35 years old", "36 - 55 years old", "> 56 years old" };
+        String [] levels = { "Beginner", "Intermediate", "Advanced" };
+        String [] times = { "5-7 weeks", "7-9 weeks", "9-11 weeks", ">11 weeks", "Keep my season plan" };
+
+        // start each choice off at the user's current profile (time groups 2-5 are options 0-3)
+        JComboBox<String> ageBox = new JComboBox<String>(ages);
+        JComboBox<String> levelBox = new JComboBox<String>(levels);
+        JComboBox<String> timeBox = new JComboBox<String>(
+                userProfile.getRaceWeeks() != null ? times : Arrays.copyOf(times, times.length - 1));
+        ageBox.setSelectedIndex(userProfile.getAge() - 1);
+        levelBox.setSelectedIndex(userProfile.getAbility() - 1);
+        timeBox.setSelectedIndex(userProfile.getRaceWeeks() != null ? times.length - 1 : userProfile.getTimeFrame() - 2);
+
+        JPanel choices = new JPanel(new GridLayout(3, 1));
+        choices.add(ageBox);
+        choices.add(levelBox);
+        choices.add(timeBox);
+        int answer = JOptionPane.showConfirmDialog(this, choices, "Update Plan",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (answer != JOptionPane.OK_OPTION) { return; }
+
+        // update and save the profile
+        userProfile.setAge(ageBox.getSelectedIndex() + 1);
+        userProfile.setAbility(levelBox.getSelectedIndex() + 1);
+        if (timeBox.getSelectedIndex() < times.length - 1) { userProfile.setTime(timeBox.getSelectedIndex() + 2); }
+        planSaver.execute(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        userProfile.createUserProfile();
+                        final BitSet changed = trainingPlanGenerator.replan(userProfile);
+                        SwingUtilities.invokeLater(
+                                new Runnable()
+                                {
+                                    public void run() { planReplanned(changed); }
+                                }
+                        );
+                    }
+                }
+        );
+    }
+
+    /**
+     * Updates the UI after the plan has been re-planned: weeks cut from the end of
+     * the plan are removed, the ActivityPanels for changed days are refreshed and
+     * the totals are worked out again. The generator has already saved the changes.
      *
-     * @return double representing the number of miles completed
+     * @param changed   BitSet of the plan days (week * 7 + day) that changed
      */
-    private double getMilesCompleted()
+    private void planReplanned(BitSet changed)
     {
-        double completedMiles = 0;
+        userTrainingPlan = trainingPlanGenerator.getUserTrainingPlan();
+        completions = trainingPlanGenerator.getCompletions();  // keeps its listeners, but may be a new bitmap
+        if (sharedCompletions != null) { sharedCompletions.setCompletions(completions); }
+        if (syncClient != null) { syncClient.setCompletions(completions); }
 
-        // for all completed runs in the training plan (completed = 1), add
-        for (int week = 0; week < userTrainingPlan.length; week++ )
+        // remove panels for any weeks that are no longer in the plan
+        for (int week = userTrainingPlan.length; week < weeksLoaded; week++ )
         {
-            for (int day = 0; day < userTrainingPlan[week].length; day++ )
+            for (ActivityPanel ap : activityPanels[week]) { infoPanel.remove(ap); }
+        }
+        weeksLoaded = Math.min(weeksLoaded, userTrainingPlan.length);
+        activityPanels = Arrays.copyOf(activityPanels, userTrainingPlan.length);
+
+        // refresh the panels shown for days that changed
+        for (int planDay = changed.nextSetBit(0); planDay >= 0; planDay = changed.nextSetBit(planDay + 1))
+        {
+            int week = planDay / 7;
+            if (week < weeksLoaded) { activityPanels[week][planDay % 7].refresh(); }
+        }
+
+        totalMiles = getTotalMiles();
+        createLoadEngine();         // the number of days in the plan may have changed
+        refreshProgress();
+        uiUpdates.markDirty(likeYouView);   // the weekly miles may have changed
+        infoPanel.revalidate();
+        infoPanel.repaint();
+    }
+
+    /**
+     * Asks the user which week to mark as done (starting at the current week),
+     * then marks every run in it as completed in a single batch.
+     */
+    private void markWeek()
+    {
+        String [] weeks = new String [userTrainingPlan.length];
+        for (int week = 0; week < weeks.length; week++ ) { weeks[week] = "Week " + (week + 1); }
+        int thisWeek = Math.max(0, Math.min(planDayOf(LocalDate.now()) / 7, weeks.length - 1));
+
+        String chosen = (String) JOptionPane.showInputDialog(this,
+                "Which week did you finish?",
+                "Mark Week Done",
+                JOptionPane.QUESTION_MESSAGE,
+                new ImageIcon("resources/run-icon.png"),
+                weeks,
+                weeks[thisWeek]
+        );
+        if (chosen == null) { return; }  // user cancelled
+
+        int week = Arrays.asList(weeks).indexOf(chosen);
+        applyBatch(week * 7, week * 7 + 6, true);
+    }
+
+    /**
+     * Asks the user for a range of dates (e.g., while they were away without
+     * their phone), then marks every run in the range as completed in a single
+     * batch. Dates before the plan started or after it ends are reported to the
+     * user rather than marked.
+     */
+    private void markDates()
+    {
+        String today = LocalDate.now().toString();
+        JTextField fromField = new JTextField(today);
+        JTextField toField = new JTextField(today);
+
+        JPanel dates = new JPanel(new GridLayout(2, 2));
+        dates.add(new JLabel("From (yyyy-mm-dd): "));
+        dates.add(fromField);
+        dates.add(new JLabel("To (yyyy-mm-dd): "));
+        dates.add(toField);
+        int answer = JOptionPane.showConfirmDialog(this, dates, "Mark Dates Done",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (answer != JOptionPane.OK_OPTION) { return; }
+
+        int fromDay, toDay;
+        try
+        {
+            fromDay = planDayOf(LocalDate.parse(fromField.getText().trim()));
+            toDay = planDayOf(LocalDate.parse(toField.getText().trim()));
+        }
+        catch (RuntimeException e)
+        {
+            JOptionPane.showMessageDialog(this, "Whoops, that is not a date, try again.",
+                    "Watch out!", JOptionPane.INFORMATION_MESSAGE, new ImageIcon("resources/run-icon.png"));
+            return;
+        }
+        int firstDay = Math.min(fromDay, toDay), lastDay = Math.max(fromDay, toDay);
+        int planDays = userTrainingPlan.length * 7;
+        if (firstDay < 0 || lastDay >= planDays)
+        {
+            LocalDate start = trainingPlanGenerator.getPlanStartDate();
+            int outside = Math.max(0, Math.min(lastDay, -1) - firstDay + 1)
+                    + Math.max(0, lastDay - Math.max(firstDay, planDays) + 1);
+            String message = String.format("Your plan runs from %s to %s, so %d of those days %s not in it.",
+                    start, start.plusDays(planDays - 1), outside, (outside == 1) ? "is" : "are");
+            if (lastDay < 0 || firstDay >= planDays)
             {
-                // if "is completed" is true...
-                if (userTrainingPlan[week][day][COMPLETED_INDEX] > 0)
-                {
-                    completedMiles += userTrainingPlan[week][day][0];
-                }
+                JOptionPane.showMessageDialog(this, message + " Nothing was marked.",
+                        "Watch out!", JOptionPane.INFORMATION_MESSAGE, new ImageIcon("resources/run-icon.png"));
+                return;
             }
+            JOptionPane.showMessageDialog(this, message + " The days in your plan are marked.",
+                    "Watch out!", JOptionPane.INFORMATION_MESSAGE, new ImageIcon("resources/run-icon.png"));
         }
-        return completedMiles;
+        applyBatch(firstDay, lastDay, true);
     }
 
     /**
-     * Gets the number of runs that have been completed by the user.
+     * After checking with the user, clears every completed run (and any imported
+     * distance) from the plan in a single batch, so they can start it over.
+     */
+    private void resetPlan()
+    {
+        int answer = JOptionPane.showConfirmDialog(this,
+                "This will clear every run you have checked off. Start the plan over?",
+                "Reset Plan", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE,
+                new ImageIcon("resources/run-icon.png"));
+        if (answer != JOptionPane.YES_OPTION) { return; }
+
+        applyBatch(0, userTrainingPlan.length * 7 - 1, false);
+    }
+
+    /**
+     * Marks every run between two days of the plan (inclusive) as completed, or
+     * as not completed (clearing any imported distance too), as one batch: the
+     * plan and the ActivityPanels are all changed first, then only the records
+     * that changed are saved, and the totals, progress bar and status are
+     * updated just once. Days outside of the plan are left out (markDates()
+     * tells the user about them first).
      *
-     * @return    int representing number of completed runs
+     * @param fromDay       first plan day (week * 7 + day)
+     * @param toDay         last plan day
+     * @param completed     should the runs be marked as completed?
      */
-    private int getRunsCompleted()
+    private void applyBatch(int fromDay, int toDay, boolean completed)
     {
-        int totalRuns = 0;
+        BitSet changed = new BitSet();
 
-        // for all runs in the training plan, see if completed = 1 (true)
-        for (int week = 0; week < userTrainingPlan.length; week++ )
+        batchUpdating = true;
+        for (int planDay = Math.max(0, fromDay); planDay <= Math.min(toDay, userTrainingPlan.length * 7 - 1); planDay++ )
         {
-            for (int day = 0; day < userTrainingPlan[week].length; day++ )
+            int week = planDay / 7;
+            int day = planDay % 7;
+            double [] values = trainingPlanGenerator.getWeek(week)[day];
+
+            if (completed)
             {
-                if (userTrainingPlan[week][day][COMPLETED_INDEX] > 0)
+                if (completions.isCompleted(planDay)) { continue; }  // already done
+                loadEngine.logRun(planDay, runLoad(values));
+            }
+            else
+            {
+                if (!completions.isCompleted(planDay) && values[ACTUAL_INDEX] == 0) { continue; }  // nothing to clear
+                trainingPlanGenerator.setDayValue(planDay, ACTUAL_INDEX, 0);
+                loadEngine.unlogRun(planDay);
+            }
+            changed.set(planDay);
+        }
+        completions.set(changed, completed);    // all at once
+        refreshPanels(changed);
+        batchUpdating = false;
+
+        if (changed.isEmpty()) { return; }
+        updateDays(changed);
+    }
+
+    /**
+     * Asks the user for a directory of activity files (CSV or GPX) from their
+     * watch and the date their plan started on, then imports the runs in the
+     * background. Once every file has been read, the runs are applied to the
+     * plan all at once (see applyImportedRuns()).
+     */
+    private void importRuns()
+    {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) { return; }
+        final File directory = chooser.getSelectedFile();
+
+        final ImageIcon paneIcon = new ImageIcon("resources/run-icon.png");
+        String start = (String) JOptionPane.showInputDialog(this,
+                "What day did your plan start? (yyyy-mm-dd)",
+                "Import Runs",
+                JOptionPane.QUESTION_MESSAGE,
+                paneIcon,
+                null,
+                trainingPlanGenerator.getPlanStartDate().toString()
+        );
+        if (start == null) { return; }  // user cancelled
+
+        final RunLogImporter importer;
+        final LocalDate startDate;
+        try
+        {
+            startDate = LocalDate.parse(start.trim());
+            importer = new RunLogImporter(startDate, userTrainingPlan.length);
+        }
+        catch (RuntimeException e)
+        {
+            JOptionPane.showMessageDialog(this, "Whoops, that is not a date, try again.",
+                    "Watch out!", JOptionPane.INFORMATION_MESSAGE, paneIcon);
+            return;
+        }
+        if (!startDate.equals(trainingPlanGenerator.getPlanStartDate())) { movePlanStart(startDate); }
+
+        // read the files off of the UI thread, then apply the results back on it
+        new Thread(
+                new Runnable()
                 {
-                    totalRuns += 1;   // if "is completed" is true, add on a run
+                    public void run()
+                    {
+                        try
+                        {
+                            final double [][] actualMiles = importer.importDirectory(directory.toPath());
+                            java.util.List<RunRecord> runs = importer.getRuns();
+                            final int held = runs.size() - runHistory.appendAll(runs);
+                            SwingUtilities.invokeLater(
+                                    new Runnable()
+                                    {
+                                        public void run()
+                                        {
+                                            applyImportedRuns(actualMiles);
+                                            uiUpdates.markDirty(historyView);
+                                            String summary = importer.getSummary();
+                                            if (held > 0)
+                                            {
+                                                summary += String.format(" %d runs were already in your history.",
+                                                        held);
+                                            }
+                                            JOptionPane.showMessageDialog(TrainingFrame.this, summary,
+                                                    "Runs imported!", JOptionPane.INFORMATION_MESSAGE, paneIcon);
+                                        }
+                                    }
+                            );
+                        }
+                        catch (final IOException e)
+                        {
+                            SwingUtilities.invokeLater(
+                                    new Runnable()
+                                    {
+                                        public void run()
+                                        {
+                                            JOptionPane.showMessageDialog(TrainingFrame.this,
+                                                    "Warning! I could not import runs due to " + e,
+                                                    "Watch out!", JOptionPane.INFORMATION_MESSAGE, paneIcon);
+                                        }
+                                    }
+                            );
+                        }
+                    }
                 }
+        ).start();
+    }
+
+    /**
+     * Marks every day that has an imported run as completed and records the actual
+     * miles run. All of the changes are made as one batch: the ActivityPanels are
+     * updated without each one saving the plan, and the plan is then saved and the
+     * UI updated just once at the end.
+     *
+     * @param actualMiles   2D array of [week][day] miles run (0 if no run)
+     */
+    private void applyImportedRuns(double [][] actualMiles)
+    {
+        BitSet changed = new BitSet();
+
+        batchUpdating = true;
+        for (int week = 0; week < actualMiles.length; week++ )
+        {
+            for (int day = 0; day < actualMiles[week].length; day++ )
+            {
+                if (actualMiles[week][day] <= 0) { continue; }   // no run that day
+
+                trainingPlanGenerator.setDayValue(week * 7 + day, ACTUAL_INDEX, actualMiles[week][day]);
+                double [] values = trainingPlanGenerator.getWeek(week)[day];
+                loadEngine.logRun(week * 7 + day, runLoad(values));   // replaces any earlier load for the day
+                changed.set(week * 7 + day);
             }
         }
-        return totalRuns;
+        completions.set(changed, true);         // all at once
+        refreshPanels(changed);
+        batchUpdating = false;
+        updateDays(changed);
+    }
+
+    /**
+     * Refreshes the ActivityPanels of the days given, for the weeks that are shown;
+     * other weeks are set up when they are shown.
+     *
+     * @param planDays  BitSet of the plan days (week * 7 + day) to refresh
+     */
+    private void refreshPanels(BitSet planDays)
+    {
+        for (int planDay = planDays.nextSetBit(0); planDay >= 0; planDay = planDays.nextSetBit(planDay + 1))
+        {
+            int week = planDay / 7;
+            if (week < weeksLoaded) { activityPanels[week][planDay % 7].refresh(); }
+        }
     }
 
     /**
-     * Gets the percent of the total mileage that is completed.
+     * From the loaded training plan for the user, find the number
+     * of miles that were "prescribed" in the plan.
+     *
+     * @return double
+     */
+    private double getTotalMiles()
+    {
+        // the generator can add up weeks of the plan that have not been loaded yet
+        return trainingPlanGenerator.getTotalMiles();
+    }
+
+    /**
+     * From the loaded training plan for the user, find the number of
+     * completed miles.
+     *
+     * @return double representing the number of miles completed
+     */
+    private double getMilesCompleted()
+    {
+        // shared with the CoachDashboard(), which works it out for every athlete
+        return trainingPlanGenerator.getMilesCompleted();
+    }
+
+    /**
+     * Gets the number of runs that have been completed by the user.
+     *
+     * @return    int representing number of completed runs
+     */
+    private int getRunsCompleted()
+    {
+        return trainingPlanGenerator.getRunsCompleted();
+    }
+
+    /**
+     * Gets the percent of the total mileage that is completed, from the
+     * milesCompleted instance variable.
      *
      * @return  int representing the percent of total mileage completed
      */
     private int percentCompleted()
     {
-        double percent = getMilesCompleted() / getTotalMiles() * 100;
-        int percentRounded = (int) percent;
+        int percentRounded = (int) percentOfMiles();
         return percentRounded;
     }
 
+    /**
+     * Finds the percent of the plan's miles completed, as the leaderboard ranks
+     * them (see RosterLoader.Athlete.getPercentComplete()).
+     * @return  double from 0 to 100; 0 for a plan with no miles
+     */
+    private double percentOfMiles()
+    {
+        return (totalMiles > 0) ? milesCompleted / totalMiles * 100 : 0;
+    }
+
     /**
      * Tests if the training plan is fully completed by user; this
      * means "all boxes referring to training days are selected".
@@ -362,14 +1429,14 @@ class TrainingFrame extends JFrame
      */
     private boolean isCompleted()
     {
-        return getRunsCompleted() == userTrainingPlan.length * 7;  // 7 = number of days in week
+        return runsCompleted == userTrainingPlan.length * 7;  // 7 = number of days in week
     }
 
     /**
-     * This method gets called by the updateAll() method in order to adjust
+     * This method gets called when the status view is redrawn in order to adjust
      * the top string, representing the total miles and days run. Additionally,
      * if the user has completed the entirety of the training plan, it will add
-     * a new message accordingly
+     * a new message accordingly (and congratulate them, once the UI is redrawn)
      */
     private void updateStatus()
     {
@@ -384,13 +1451,23 @@ class TrainingFrame extends JFrame
         {
             status = "    You finished! (" + miles + " miles, " + runsCompleted + " days)";
             statusField.setText(status);
-            congrats();
+            if (!planFinished)      // only when the plan has just been finished, not on every update
+            {
+                planFinished = true;
+                SwingUtilities.invokeLater(
+                        new Runnable()
+                        {
+                            public void run() { congrats(); }
+                        }
+                );
+            }
         }
         else
         {
             status = "     Total Miles Run: " + milesCompleted + " " +
                      "     Total Runs Completed: " + runsCompleted;
             statusField.setText(status);
+            planFinished = false;
         }
         // update on UI based on text generated
     }
@@ -447,8 +1524,41 @@ class TrainingFrame extends JFrame
          */
         private String generateDescription()
         {
-            return String.format("Week %2s, Day %2s ---  PACE:  %5s miles/hour   MILEAGE: %4.1f miles",
+            String description = String.format("Week %2s, Day %2s ---  PACE:  %5s miles/hour   MILEAGE: %4.1f miles",
                     weekIndex + 1, dayIndex + 1, paceString(), values[MILEAGE]);
+
+            // show what was actually run, if it was imported
+            if (values[ACTUAL_INDEX] > 0) { description += String.format(" (ran %.1f)", values[ACTUAL_INDEX]); }
+            return description;
+        }
+
+        /**
+         * Updates the check box, description and color to match the values for
+         * this workout, e.g. after runs have been imported.
+         */
+        private void refresh()
+        {
+            checkBox.setText(generateDescription());
+            checkBox.setSelected(isDone());
+        }
+
+        /**
+         * Determines if this workout has been completed
+         * @return  boolean; was the run completed?
+         */
+        private boolean isDone()
+        {
+            return completions.isCompleted(weekIndex * 7 + dayIndex);
+        }
+
+        /**
+         * Gets a BitSet holding just the plan day (week * 7 + day) of this workout.
+         */
+        private BitSet thisDay()
+        {
+            BitSet day = new BitSet();
+            day.set(weekIndex * 7 + dayIndex);
+            return day;
         }
 
         /**
@@ -485,9 +1595,15 @@ class TrainingFrame extends JFrame
             Font boxFont = new Font(FONT_TYPE, Font.BOLD, 12);
             checkBox.setFont(boxFont);
 
-            // set color
+            // set color, showing workouts that are already completed as finished
             checkBox.setOpaque(true);
             checkBox.setBackground(UNFINISHED_COLOR);
+            if (isDone())
+            {
+                checkBox.setSelected(true);
+                checkBox.setBackground(FINISHED_COLOR);
+                this.setBackground(FINISHED_COLOR);
+            }
 
             // add back
             this.add(checkBox);
@@ -506,24 +1622,37 @@ class TrainingFrame extends JFrame
                         public void itemStateChanged(ItemEvent itemEvent)
                         {
                             // whenever the checkbox gets clicked...
+                            RunBuddyEvents.CheckBox event = new RunBuddyEvents.CheckBox();
+                            event.begin();
                             JCheckBox clicked = (JCheckBox) itemEvent.getSource();
                             int state = itemEvent.getStateChange();
 
                             if (state == ItemEvent.SELECTED)
                             {
                                 // ...change the status of that workout to "completed" and update color
-                                userTrainingPlan[weekIndex][dayIndex][COMPLETED_INDEX] = 1;
+                                completions.set(weekIndex * 7 + dayIndex, true);
+                                loadEngine.logRun(weekIndex * 7 + dayIndex, runLoad(values));
                                 checkBox.setBackground(FINISHED_COLOR);
                                 setBackground(FINISHED_COLOR);
-                                updateAll();
+                                if (!batchUpdating) { updateDays(thisDay()); }
                             }
                             else
                             {
                                 // ...change the status of that workout to "incomplete" and update color
-                                userTrainingPlan[weekIndex][dayIndex][COMPLETED_INDEX] = 0;
+                                completions.set(weekIndex * 7 + dayIndex, false);
+                                loadEngine.unlogRun(weekIndex * 7 + dayIndex);
                                 checkBox.setBackground(UNFINISHED_COLOR);
                                 setBackground(UNFINISHED_COLOR);
-                                updateAll();
+                                if (!batchUpdating) { updateDays(thisDay()); }
+                            }
+
+                            if (event.shouldCommit())
+                            {
+                                event.week = weekIndex + 1;
+                                event.day = dayIndex + 1;
+                                event.completed = state == ItemEvent.SELECTED;
+                                event.batched = batchUpdating;
+                                event.commit();
                             }
                         }
                     }
@@ -0,0 +1,188 @@
+//TrainingLoadEngine.java
+/**
+ * The TrainingLoadEngine() class keeps track of a user's acute (7-day) and chronic
+ * (28-day) training load, as exponentially weighted averages of the miles run each
+ * day, along with the acute:chronic workload ratio. A ratio well above 1 means the
+ * user has ramped up faster than their body is used to, which can lead to injury.
+ *
+ * Rather than rescanning the whole training plan whenever a run is logged, each
+ * average is kept as a single weighted sum relative to today:
+ *
+ *     load(today) = LAMBDA * sum over runs of (miles * (1 - LAMBDA) ^ (today - runDay))
+ *
+ * Since the sum is linear, logging or unlogging a run on any day (including a
+ * day in the past) just adds or subtracts that run's term, so every update is O(1).
+ * Runs logged on days still ahead in the plan are held until advanceTo() reaches
+ * their day, and moving today on just scales each sum and adds the runs that came due.
+ *
+ * Early in the plan there are fewer days behind the user than either average
+ * spans, so each load is divided by the weight those days carry,
+ * (1 - (1 - LAMBDA) ^ (today + 1)). Running the same miles every day then gives
+ * a ratio of 1 from day 0, rather than starting at ACUTE_LAMBDA / CHRONIC_LAMBDA.
+ *
+ * @author: Megan Frenkel
+ */
+
+import java.util.*;
+
+
+class TrainingLoadEngine
+{
+    // instance variables
+    private int today;                          // day of the plan that loads are reported for
+    private double acuteSum;                    // weighted sums, relative to the reference day (today)
+    private double chronicSum;
+    private int [] loggedDay;                   // [plan day] -> plan day of the run, NOT_LOGGED if none
+    private double [] loggedLoad;               // [plan day] -> miles counted for the run
+
+    // final variables
+    final int ACUTE_DAYS = 7;
+    final int CHRONIC_DAYS = 28;
+    final double ACUTE_LAMBDA = 2.0 / (ACUTE_DAYS + 1);
+    final double CHRONIC_LAMBDA = 2.0 / (CHRONIC_DAYS + 1);
+    final double HIGH_RATIO = 1.5;              // above this, the user is ramping up too fast
+    final int NOT_LOGGED = Integer.MIN_VALUE;
+
+    // constructor
+    public TrainingLoadEngine(int planDays, int today)
+    {
+        this.today = today;
+        this.acuteSum = 0;
+        this.chronicSum = 0;
+        this.loggedDay = new int [planDays];
+        this.loggedLoad = new double [planDays];
+        Arrays.fill(loggedDay, NOT_LOGGED);
+    }
+
+    /**
+     * Logs a run on a given day of the plan. If a run was already logged for that
+     * day, it is replaced (e.g., when the actual distance is imported later).
+     *
+     * @param planDay   day of the plan (week * 7 + day)
+     * @param miles     miles run
+     */
+    public void logRun(int planDay, double miles)
+    {
+        unlogRun(planDay);
+
+        loggedDay[planDay] = planDay;
+        loggedLoad[planDay] = miles;
+        if (planDay <= today) { addLoad(planDay, miles); }  // runs ahead of today wait for advanceTo()
+    }
+
+    /**
+     * Removes a run that was logged on a given day of the plan, if there is one.
+     *
+     * @param planDay   day of the plan (week * 7 + day)
+     */
+    public void unlogRun(int planDay)
+    {
+        int day = loggedDay[planDay];
+        if (day == NOT_LOGGED) { return; }  // nothing logged
+
+        if (day <= today) { addLoad(day, -loggedLoad[planDay]); }
+        loggedDay[planDay] = NOT_LOGGED;
+        loggedLoad[planDay] = 0;
+    }
+
+    /**
+     * Moves the day that loads are reported for, e.g. when midnight passes while
+     * the plan is open. Moving forward decays each sum and adds the runs logged
+     * for the days passed; moving back (the clock was set back) adds the sums up again.
+     *
+     * @param newToday  day of the plan to report loads for
+     */
+    public void advanceTo(int newToday)
+    {
+        if (newToday == today) { return; }
+
+        if (newToday > today)
+        {
+            acuteSum *= Math.pow(1 - ACUTE_LAMBDA, newToday - today);
+            chronicSum *= Math.pow(1 - CHRONIC_LAMBDA, newToday - today);
+            int firstDue = Math.max(0, today + 1);
+            today = newToday;
+            for (int day = firstDue; day <= Math.min(newToday, loggedDay.length - 1); day++)
+            {
+                if (loggedDay[day] != NOT_LOGGED) { addLoad(day, loggedLoad[day]); }
+            }
+        }
+        else
+        {
+            today = newToday;
+            acuteSum = 0;
+            chronicSum = 0;
+            for (int day = 0; day <= Math.min(newToday, loggedDay.length - 1); day++)
+            {
+                if (loggedDay[day] != NOT_LOGGED) { addLoad(day, loggedLoad[day]); }
+            }
+        }
+    }
+
+    /**
+     * Getter for the day that loads are reported for
+     * @return  int representing the day of the plan
+     */
+    public int getToday()
+    {
+        return today;
+    }
+
+    /**
+     * Adds a run's term to each weighted sum (or takes it away, for negative miles).
+     */
+    private void addLoad(int day, double miles)
+    {
+        acuteSum += miles * Math.pow(1 - ACUTE_LAMBDA, today - day);
+        chronicSum += miles * Math.pow(1 - CHRONIC_LAMBDA, today - day);
+    }
+
+    /**
+     * Finds the weight that the days of the plan so far carry in an average,
+     * which is less than 1 until the plan is well past the average's span.
+     */
+    private double daysWeight(double lambda)
+    {
+        return 1 - Math.pow(1 - lambda, today + 1);
+    }
+
+    /**
+     * Getter for the acute (7-day) load
+     * @return  double representing exponentially weighted daily miles
+     */
+    public double getAcuteLoad()
+    {
+        if (today < 0) { return 0; }   // the plan has not started
+        return Math.max(0, ACUTE_LAMBDA * acuteSum / daysWeight(ACUTE_LAMBDA));  // max() hides rounding error
+    }
+
+    /**
+     * Getter for the chronic (28-day) load
+     * @return  double representing exponentially weighted daily miles
+     */
+    public double getChronicLoad()
+    {
+        if (today < 0) { return 0; }
+        return Math.max(0, CHRONIC_LAMBDA * chronicSum / daysWeight(CHRONIC_LAMBDA));
+    }
+
+    /**
+     * Gets the acute:chronic workload ratio.
+     * @return  double representing the ratio (0 if there is no chronic load yet)
+     */
+    public double getRatio()
+    {
+        double chronic = getChronicLoad();
+        if (chronic < 1e-9) { return 0; }
+        return getAcuteLoad() / chronic;
+    }
+
+    /**
+     * Determines if the user is ramping up too quickly.
+     * @return  boolean; is the ratio above HIGH_RATIO?
+     */
+    public boolean isOvertraining()
+    {
+        return getRatio() > HIGH_RATIO;
+    }
+}
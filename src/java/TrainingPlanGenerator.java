@@ -8,6 +8,9 @@
  *
  * See link to reference: http://www.coolrunning.com/engine/2/2_4/144.shtml
  *
+ * That plan is for a half marathon; plans for other races (5k, 10k, marathon)
+ * are made in the same way from their own base plans (see PlanSource).
+ *
  * The custom training plan is saved locally in a text file with the
  * convention "<USERNAME>.txt" in order to save the file for a later time.
  *
@@ -17,23 +20,58 @@
 import java.io.*;
 import javax.swing.*;
 import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
 class TrainingPlanGenerator
 {
     //important instance variables used to generate plan
     private double [][][] baseTrainingPlan;
+    private PlanSource source;                          // race the plan is for
+    private PlanTemplateRegistry.Template template;     // compiled version of the base plan the plan came from
+    private String templateId;                          // id of that version, as saved with the profile; may be null
     private double [][][] userTrainingPlan;
     private String userName;
     private Integer ageGroup;
     private Integer abilityGroup;
     private Integer timeGroup;
+    private int [] raceWeeks;                   // only set for season plans
+    private PlanWeekStream planStream;          // generates the weeks of a season plan on demand
+    private LocalDate planStartDate;            // day 1 of week 1 of the plan
+    private CompletionBitmap completions;       // which runs are completed; isCompleted values follow it when saved
+    private byte [] savedImage;                 // the plan file as last saved or loaded; guarded by this
+    private final Object saveLock = new Object();   // held across each write of the plan file; taken before this
+
+    // rules looked up for the user's current profile
+    private int [] weekMapping;                 // only set for standard (non-season) plans
+    private double [] ageMultipliers;
+    private double [] abilityMultipliers;
+
+    // metrics, looked up once (see Metrics())
+    private Metrics metrics;
+    private LatencyHistogram createLatency;             // all of createTrainingPlan()...
+    private LatencyHistogram loadBaseLatency;           // ...and each of its phases
+    private LatencyHistogram customizeLatency;
+    private LatencyHistogram createSaveLatency;
+    private LatencyHistogram saveLatency;               // saveUserProfile(), however it is called
+    private LatencyHistogram saveRecordsLatency;
+    private LongAdder recordsSaved;
+    private LongAdder recordsReloaded;
 
     // final variables, representing values known about the base plan
-    final String PLAN_FILE = "basetrainingplan.txt";
-    final int BASE_PLAN_WEEKS = 8;                      // base plan comes with 8 weeks
     final int DAYS_IN_WEEK = 7;                         // 7 days in a week
-    final int VALUE_IN_DAY = 3;                         // values are distance, pace, and isCompleted
+    final int VALUE_IN_DAY = 4;                         // values are distance, pace, isCompleted and actual distance
+    final String LINE_SEPARATOR = System.lineSeparator();
+    final int RECORD_LENGTH = formatRecord(0, 0, new double [VALUE_IN_DAY]).length() + LINE_SEPARATOR.length();
+    final int RECOVERY_WEEKS = 2;                       // weeks eased off after missed runs when re-planning...
+    final double MISSED_WEIGHT = 0.5;                   // ...by up to half of the share of miles missed
 
     // constructor
     public TrainingPlanGenerator(UserProfile userProfile)
@@ -43,6 +81,20 @@ class TrainingPlanGenerator
         this.ageGroup = userProfile.getAge();
         this.abilityGroup = userProfile.getAbility();
         this.timeGroup = userProfile.getTimeFrame();
+        this.raceWeeks = userProfile.getRaceWeeks();
+        this.source = findSource(userProfile.getRace());
+        this.planStartDate = userProfile.getPlanStartDate();   // null until the user's first plan is made
+        this.templateId = userProfile.getPlanTemplate();       // likewise
+
+        this.metrics = Metrics.getMetrics();
+        this.createLatency = metrics.histogram("plan_create");
+        this.loadBaseLatency = metrics.histogram("plan_create_load_base");
+        this.customizeLatency = metrics.histogram("plan_create_customize");
+        this.createSaveLatency = metrics.histogram("plan_create_save");
+        this.saveLatency = metrics.histogram("plan_save");
+        this.saveRecordsLatency = metrics.histogram("plan_save_records");
+        this.recordsSaved = metrics.counter("plan_records_saved");
+        this.recordsReloaded = metrics.counter("plan_records_reloaded");
     }
 
     /**
@@ -50,50 +102,210 @@ class TrainingPlanGenerator
      */
     public void createTrainingPlan()
     {
+        RunBuddyEvents.PlanGeneration event = new RunBuddyEvents.PlanGeneration();
+        event.begin();
+        long start = metrics.start();
+        if (planStartDate == null) { planStartDate = LocalDate.now(); }  // a new plan starts the day it is made
+        templateId = null;          // a new plan is made from the latest version
         loadBaseTrainingPlan();     // initialize baseTrainingPlan
-        customizeForTimeGroup();    // take timeFrame into account
-        customizeForAge();          // take age into account
-        customizeForAbility();      // take ability into account
+        loadBaseLatency.recordSince(start);
+
+        long phaseStart = metrics.start();
+        if (raceWeeks != null) { customizeForSeason(); }  // weeks are generated as they are needed
+        else { customizePlan(); }   // take timeFrame, age and ability into account
+        readCompletions();
+        customizeLatency.recordSince(phaseStart);
+
+        phaseStart = metrics.start();
         saveUserProfile();          // save the user's training plan to a file
+        createSaveLatency.recordSince(phaseStart);
+        createLatency.recordSince(start);
+
+        if (event.shouldCommit())
+        {
+            event.ageGroup = ageGroup;
+            event.abilityGroup = abilityGroup;
+            event.timeGroup = timeGroup;
+            event.seasonPlan = raceWeeks != null;
+            event.weeks = userTrainingPlan.length;
+            event.template = template.toString();
+            event.commit();
+        }
     }
 
     /**
-     * Loads the "base" training plan as a 3D-array containing elements for each
-     * [week][day][value] in the "basetrainingplan.txt" file. The week and day
-     * are loaded in implicitly by the array index of the values added.
+     * Loads the user's training plan back in from the file that saveUserProfile()
+     * wrote, keeping the runs already completed, rather than generating a new plan.
+     * The plan starts on the date saved with the user's profile; only a profile
+     * saved before start dates were has none, and its plan starts on the day it
+     * is loaded. If there is no saved plan, or it does not hold whole weeks,
+     * nothing is loaded.
+     *
+     * @return  boolean; was the saved plan loaded?
      */
-    private void loadBaseTrainingPlan()
+    public synchronized boolean loadTrainingPlan()
     {
-        // initialize the 3D array
-        baseTrainingPlan = new double [BASE_PLAN_WEEKS][DAYS_IN_WEEK][VALUE_IN_DAY];
+        File trainingPlan = new File(getPlanFileName());
+        if (!trainingPlan.isFile()) { return false; }
 
-        try // open the file and add elements
+        ArrayList<double []> records = new ArrayList<double []>();
+        byte [] contents;
+        try
         {
-            Scanner inFile = new Scanner(new File(PLAN_FILE));
+            contents = readPlanFile();
+            BufferedReader in = new BufferedReader(new StringReader(new String(contents, StandardCharsets.US_ASCII)));
+            String line;
+            while ((line = in.readLine()) != null) { records.add(parseRecord(line)); }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            System.out.println("WARNING: Could not load the saved training plan due to " + e);
+            return false;
+        }
+        if (records.isEmpty() || records.size() % DAYS_IN_WEEK != 0) { return false; }
+
+        if (planStartDate == null) { planStartDate = LocalDate.now(); }  // saved before start dates were
+        loadBaseTrainingPlan();     // still needed to re-plan or generate weeks; the version saved with the profile
+        lookUpRules();
+        userTrainingPlan = new double [records.size() / DAYS_IN_WEEK][DAYS_IN_WEEK][];
+        for (int planDay = 0; planDay < records.size(); planDay++)
+        {
+            userTrainingPlan[planDay / DAYS_IN_WEEK][planDay % DAYS_IN_WEEK] = records.get(planDay);
+        }
+        readCompletions();
+        savedImage = contents;
+        return true;
+    }
 
-            // this while loop will load one line of the base training plan at a time,
-            // generating the 3D array
-            int weekNumber = 0;
-            while (inFile.hasNextLine())
+    /**
+     * Reads the records of the training plan file that have been changed by
+     * something other than this generator (e.g., a file sync from another
+     * device) since it was last saved or read. Each record is compared, as bytes,
+     * to what was last saved, and only the records that differ are parsed. The
+     * userTrainingPlan is not changed; the caller decides what to do with the
+     * records. Only files of fixed-width records (see saveUserProfile()) are read.
+     * A save by this generator is waited for, so that it is never read as a change.
+     *
+     * @return  map of plan day (week * 7 + day) to the values in each changed record
+     */
+    public TreeMap<Integer, double []> readChangedRecords()
+    {
+        synchronized (saveLock)
+        {
+            synchronized (this) { return readChangedRecordsLocked(); }
+        }
+    }
+
+    /**
+     * Does the work of readChangedRecords(), with both of the generator's locks held.
+     */
+    private TreeMap<Integer, double []> readChangedRecordsLocked()
+    {
+        TreeMap<Integer, double []> changed = new TreeMap<Integer, double []>();
+        byte [] contents;
+        try { contents = readPlanFile(); }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: Could not read the changed training plan due to " + e);
+            return changed;
+        }
+        if (contents.length % RECORD_LENGTH != 0) { return changed; }   // not whole records; e.g. partway through a sync
+
+        for (int planDay = 0; planDay < contents.length / RECORD_LENGTH; planDay++)
+        {
+            int offset = planDay * RECORD_LENGTH;
+            if (savedImage != null && offset + RECORD_LENGTH <= savedImage.length
+                    && Arrays.equals(contents, offset, offset + RECORD_LENGTH, savedImage, offset, offset + RECORD_LENGTH))
             {
-                String newLine = inFile.nextLine();
-                String[] day = newLine.split(", ");
+                continue;   // same as last saved
+            }
 
-                int currentWeek = Integer.parseInt(day[0]);
-                int currentDay = Integer.parseInt(day[1]);
-                double dayMilage = Double.parseDouble(day[2]);
-                double dayPace = Double.parseDouble(day[3]);
-                double completed = Double.parseDouble(day[4]);
+            try
+            {
+                String record = new String(contents, offset, RECORD_LENGTH, StandardCharsets.US_ASCII);
+                changed.put(planDay, parseRecord(record.trim()));
+            }
+            catch (NumberFormatException e)
+            {
+                System.out.println("WARNING: Skipped a changed training plan record that could not be read: " + e);
+            }
+        }
+        savedImage = contents;
+        metrics.count(recordsReloaded, changed.size());
+        return changed;
+    }
 
-                if (currentWeek != weekNumber) { weekNumber += 1; }  // go to the next week
+    /**
+     * Reads the values of a single record of the training plan file, a line
+     * holding: week, day, distance, pace, isFinished, actualDistance.
+     *
+     * @param record    the line of the file
+     * @return          array of [value] for the workout
+     */
+    private double [] parseRecord(String record)
+    {
+        String [] fields = record.split(",");
+        double [] values = new double [VALUE_IN_DAY];
+        for (int i = 0; i < VALUE_IN_DAY && i + 2 < fields.length; i++)
+        {
+            values[i] = Double.parseDouble(fields[i + 2].trim());
+        }
+        return values;
+    }
 
-                // weekNumber - 1 because of array indices
-                baseTrainingPlan[weekNumber - 1][currentDay - 1][0] = dayMilage;
-                baseTrainingPlan[weekNumber - 1][currentDay - 1][1] = dayPace;
-                baseTrainingPlan[weekNumber - 1][currentDay - 1][2] = completed;
+    /**
+     * Sets up the CompletionBitmap() from the isCompleted values of the weeks
+     * of the userTrainingPlan that are loaded.
+     */
+    private void readCompletions()
+    {
+        completions = new CompletionBitmap(userTrainingPlan.length * DAYS_IN_WEEK);
+        BitSet completed = new BitSet();
+        for (int week = 0; week < userTrainingPlan.length; week++)
+        {
+            if (userTrainingPlan[week] == null) { continue; }   // not loaded, so nothing completed
+            for (int day = 0; day < DAYS_IN_WEEK; day++)
+            {
+                if (userTrainingPlan[week][day][2] > 0) { completed.set(week * DAYS_IN_WEEK + day); }
             }
         }
-        catch (FileNotFoundException e)  // if the base file is missing...
+        completions.set(completed, true);
+    }
+
+    /**
+     * Looks up the PlanSource for the race named in a profile, falling back on
+     * the default race if RunBuddy has no such race.
+     */
+    private PlanSource findSource(String race)
+    {
+        PlanTemplateRegistry registry = PlanTemplateRegistry.getTemplates();
+        PlanSource found = registry.getSource(race);
+        if (found == null)
+        {
+            System.out.println("WARNING: No plan source for race " + race + "; using "
+                    + PlanTemplateRegistry.DEFAULT_SOURCE);
+            found = registry.getSource(PlanTemplateRegistry.DEFAULT_SOURCE);
+        }
+        return found;
+    }
+
+    /**
+     * Loads the "base" training plan as a 3D-array containing elements for each
+     * [week][day][value], from a compiled version of the template for the user's
+     * race, e.g. "basetrainingplan.txt" (see PlanTemplateRegistry()): the version
+     * the plan was made from, if its id was saved with the profile and the
+     * registry still has it, or else the latest. The whole plan is generated from
+     * this one version, even if a new version is published meanwhile.
+     */
+    private void loadBaseTrainingPlan()
+    {
+        try
+        {
+            template = PlanTemplateRegistry.getTemplates().getTemplate(source, templateId);
+            templateId = template.getId();
+            baseTrainingPlan = template.getWeeks();
+        }
+        catch (IOException e)  // if the base file is missing...
         {
             JOptionPane.showMessageDialog(null, "Error! Could not load base training plan; " +
                     "please check that file exists. See more: " + e);
@@ -102,254 +314,653 @@ class TrainingPlanGenerator
     }
 
     /**
-     * Customizes the training plan for the timeline the user has provided by initializing
-     * the userTrainingPlan 3D array with the number of weeks adjusted. Note that no option
+     * Customizes the training plan for the user's timeline, age and ability in a
+     * single pass over the userTrainingPlan. The week mapping for the user's time
+     * group decides which base week is used for each week of the plan (weeks can be
+     * skipped or duplicated), and the mileage and pace of every day are scaled by
+     * the multipliers for the user's age and ability groups. All of these values
+     * come from the CustomizationRules() lookup tables. Note that no mapping
      * is provided for timeGroup1 because it is considered impossible.
      */
-    private void customizeForTimeGroup()
+    private void customizePlan()
     {
-        // note that timeGroup 1 is considered impossible! So it doesn't let the user run with that...
-        int userWeek = 0;
+        lookUpRules();
+        userTrainingPlan = new double [weekMapping.length][DAYS_IN_WEEK][VALUE_IN_DAY];
 
-        if (timeGroup == 2)  // short plan, remove two weeks relative to base plan...
+        for (int week = 0; week < weekMapping.length; week++)
         {
-            userTrainingPlan = new double [BASE_PLAN_WEEKS - 2][DAYS_IN_WEEK][VALUE_IN_DAY];
+            generateWeek(week, userTrainingPlan[week]);
+        }
+    }
 
-            // copy over basePlan to userTrainingPlan
-            for (int week = 0; week < BASE_PLAN_WEEKS; week++)
+    /**
+     * Sets up a season plan of one or more back-to-back races. Rather than building
+     * every week up front, the userTrainingPlan is created with an empty slot for each
+     * week; a week is only generated by the PlanWeekStream() once it is asked for
+     * through getWeek(). Weeks that have not been asked for yet hold no completed runs.
+     */
+    private void customizeForSeason()
+    {
+        lookUpRules();
+        userTrainingPlan = new double [planStream.getTotalWeeks()][][];
+    }
+
+    /**
+     * Looks up the CustomizationRules() for the user's current age, ability and
+     * time group. Season plans get a PlanWeekStream() in place of a week mapping.
+     * Races whose template the rules' week mappings were not written for are
+     * stretched over as many weeks as the time group's mapping has, but are never
+     * squeezed into fewer weeks than the template holds: a 16-week marathon plan
+     * keeps its 16 weeks whatever the time group, rather than skipping most of its
+     * build (see PlanTemplateRegistry.Template.getWeekMapping()).
+     */
+    private void lookUpRules()
+    {
+        CustomizationRules rules = CustomizationRules.getRules();
+        ageMultipliers = rules.getAgeMultipliers(ageGroup);
+        abilityMultipliers = rules.getAbilityMultipliers(abilityGroup);
+
+        if (raceWeeks != null)
+        {
+            weekMapping = null;
+            planStream = new PlanWeekStream(template, raceWeeks, ageMultipliers, abilityMultipliers);
+        }
+        else
+        {
+            weekMapping = rules.getWeekMapping(timeGroup);
+            if (!source.usesRuleWeekMappings())
             {
-                if (week == 1 || week == 4)  { } // do nothing, skip weeks 2 and 5
-                else
-                {
-                    for (int day = 0; day < DAYS_IN_WEEK; day++)
-                    {
-                        for (int value = 0; value < VALUE_IN_DAY; value++)
-                        {
-                            // add in baseTrainingPlan values
-                            userTrainingPlan[userWeek][day][value] = baseTrainingPlan[week][day][value];
-                        }
-                    }
-                    userWeek += 1;
-                }
+                weekMapping = template.getWeekMapping(Math.max(weekMapping.length, template.getWeeks().length));
             }
+            planStream = null;
+        }
+    }
+
+    /**
+     * Generates a single week of the plan from the base plan and the rules for the
+     * user's current profile, filling in the distance, pace and isCompleted values
+     * of the array provided.
+     *
+     * @param week  index of the week (0 is the first week)
+     * @param days  [day][value] array to fill in
+     * @return      the days array, filled in for the given week
+     */
+    private double [][] generateWeek(int week, double [][] days)
+    {
+        if (planStream != null) { return planStream.generateWeek(week, days); }
+
+        double [][] baseWeek = baseTrainingPlan[weekMapping[week]];
+        for (int day = 0; day < DAYS_IN_WEEK; day++)
+        {
+            double [] givenDay = days[day];
+            givenDay[0] = baseWeek[day][0] * ageMultipliers[CustomizationRules.MILEAGE]
+                    * abilityMultipliers[CustomizationRules.MILEAGE];
+            givenDay[1] = baseWeek[day][1] * ageMultipliers[CustomizationRules.PACE]
+                    * abilityMultipliers[CustomizationRules.PACE];
+            givenDay[2] = baseWeek[day][2];
+        }
+        return days;
+    }
+
+    /**
+     * Re-plans the weeks after the one the user is on for a new profile (e.g., a
+     * new ability level or time group), without regenerating the whole plan.
+     * Weeks up to and including the current one are left alone, as are any
+     * completed days after it. If the user has missed runs so far, the next
+     * RECOVERY_WEEKS weeks are eased off by part of the share of miles missed.
+     * The plan can grow or shrink if the time group changes; the race stays the
+     * same. Only the records that changed are saved (see saveRecords()). The
+     * generator's lock is held while the plan is switched over, so a save made on
+     * another thread never sees it half switched, and runs checked off on the old
+     * bitmap meanwhile are kept (see CompletionBitmap.resize()). The changes are
+     * saved after the lock is let go.
+     *
+     * @param newProfile    profile with the user's new age, ability and time group
+     * @param today         day of the plan the user is on (week * 7 + day)
+     * @return              BitSet of the plan days (week * 7 + day) that changed
+     */
+    public BitSet replan(UserProfile newProfile, int today)
+    {
+        BitSet changed = switchProfile(newProfile, today);
+        saveRecords(changed);
+        return changed;
+    }
+
+    /**
+     * Does the work of replan(), switching the plan over to a new profile under
+     * the generator's lock, without saving.
+     *
+     * @param newProfile    profile with the user's new age, ability and time group
+     * @param today         day of the plan the user is on (week * 7 + day)
+     * @return              BitSet of the plan days (week * 7 + day) that changed
+     */
+    private synchronized BitSet switchProfile(UserProfile newProfile, int today)
+    {
+        int oldLength = userTrainingPlan.length;
+        int currentWeek = Math.min(today / DAYS_IN_WEEK, oldLength - 1);
+        double missedShare = getMissedShare(today);
+
+        // load the rest of the old plan so it can be compared to the new one
+        for (int week = currentWeek + 1; week < oldLength; week++) { getWeek(week); }
+
+        // switch over to the new profile
+        this.ageGroup = newProfile.getAge();
+        this.abilityGroup = newProfile.getAbility();
+        this.timeGroup = newProfile.getTimeFrame();
+        this.raceWeeks = newProfile.getRaceWeeks();
+        lookUpRules();
+
+        int newLength = (planStream != null) ? planStream.getTotalWeeks() : weekMapping.length;
+        newLength = Math.max(newLength, currentWeek + 1);
+        if (newLength != oldLength)
+        {
+            userTrainingPlan = Arrays.copyOf(userTrainingPlan, newLength);
+            completions = completions.resize(newLength * DAYS_IN_WEEK);
         }
-        else if (timeGroup == 3)  // just copy over base plan array to userTrainingPlan array
+
+        BitSet changed = new BitSet();
+        double [][] fresh = new double [DAYS_IN_WEEK][VALUE_IN_DAY];
+        for (int week = currentWeek + 1; week < newLength; week++)
         {
-            userTrainingPlan = new double [BASE_PLAN_WEEKS][DAYS_IN_WEEK][VALUE_IN_DAY];
+            generateWeek(week, fresh);
 
-            // copy over basePlan to userTrainingPlan
-            for (int week = 0; week < BASE_PLAN_WEEKS; week++)
+            // ease off right after missed runs, less so each week
+            int weeksAhead = week - currentWeek - 1;
+            double scale = 1;
+            if (weeksAhead < RECOVERY_WEEKS)
             {
-                for (int day = 0; day < DAYS_IN_WEEK; day++)
+                scale -= MISSED_WEIGHT * missedShare * (RECOVERY_WEEKS - weeksAhead) / RECOVERY_WEEKS;
+            }
+
+            if (userTrainingPlan[week] == null) { userTrainingPlan[week] = new double [DAYS_IN_WEEK][VALUE_IN_DAY]; }
+            double [][] days = userTrainingPlan[week];
+            for (int day = 0; day < DAYS_IN_WEEK; day++)
+            {
+                if (completions.isCompleted(week * DAYS_IN_WEEK + day)) { continue; }  // completed days stay as they are
+
+                double mileage = fresh[day][0] * scale;
+                double pace = fresh[day][1];
+                if (week >= oldLength || days[day][0] != mileage || days[day][1] != pace)
                 {
-                    for (int value = 0; value < VALUE_IN_DAY; value++)
-                    {
-                        // add in baseTrainingPlan values
-                        userTrainingPlan[week][day][value] = baseTrainingPlan[week][day][value];
-                    }
+                    days[day][0] = mileage;
+                    days[day][1] = pace;
+                    changed.set(week * DAYS_IN_WEEK + day);
                 }
             }
         }
-        else if (timeGroup == 4)  // add on two weeks of training to make plan longer by duplicating weeks
+        return changed;
+    }
+
+    /**
+     * Re-plans the weeks after the one the user is on today, counting from the
+     * day the plan started (see replan(UserProfile, int)).
+     *
+     * @param newProfile    profile with the user's new age, ability and time group
+     * @return              BitSet of the plan days (week * 7 + day) that changed
+     */
+    public BitSet replan(UserProfile newProfile)
+    {
+        return replan(newProfile, Math.max(0, planDayOf(LocalDate.now())));
+    }
+
+    /**
+     * Finds the share of the prescribed miles before a given day that were not
+     * completed.
+     *
+     * @param today     day of the plan (week * 7 + day)
+     * @return          share of miles missed, from 0 to 1
+     */
+    private double getMissedShare(int today)
+    {
+        double prescribed = 0, missed = 0;
+        double [][] scratchWeek = new double [DAYS_IN_WEEK][VALUE_IN_DAY];
+        int lastDay = Math.min(today, userTrainingPlan.length * DAYS_IN_WEEK);
+
+        for (int planDay = 0; planDay < lastDay; planDay++)
+        {
+            int week = planDay / DAYS_IN_WEEK;
+            double [][] days = userTrainingPlan[week];
+            if (days == null) { days = generateWeek(week, scratchWeek); }  // never shown, so never completed
+
+            double [] givenDay = days[planDay % DAYS_IN_WEEK];
+            prescribed += givenDay[0];
+            if (!completions.isCompleted(planDay)) { missed += givenDay[0]; }
+        }
+        return prescribed > 0 ? missed / prescribed : 0;
+    }
+
+    /**
+     * Gets a single week of the userTrainingPlan, generating it first
+     * if it has not been loaded yet.
+     *
+     * @param week  index of the week (0 is the first week)
+     * @return      2D array of [day][value] for the week
+     */
+    public synchronized double [][] getWeek(int week)
+    {
+        if (userTrainingPlan[week] == null)
         {
-            userTrainingPlan = new double [BASE_PLAN_WEEKS + 2][DAYS_IN_WEEK][VALUE_IN_DAY];
+            userTrainingPlan[week] = generateWeek(week, new double [DAYS_IN_WEEK][VALUE_IN_DAY]);
+        }
+        return userTrainingPlan[week];
+    }
+
+    /**
+     * Sets a single value of a day of the userTrainingPlan (e.g., its distance or
+     * the actual distance run). Days are only changed through here, under the
+     * generator's lock, so a save on the plan-save thread never reads one midway.
+     *
+     * @param planDay   day of the plan (week * 7 + day)
+     * @param value     index of the value (see VALUE_IN_DAY)
+     * @param amount    new value
+     */
+    public synchronized void setDayValue(int planDay, int value, double amount)
+    {
+        getWeek(planDay / DAYS_IN_WEEK)[planDay % DAYS_IN_WEEK][value] = amount;
+    }
 
-            // copy over basePlan to userTrainingPlan
-            for (int week = 0; week < BASE_PLAN_WEEKS; week++)
+    /**
+     * Finds the number of miles "prescribed" in the plan. Weeks that have not been
+     * loaded yet are generated into a single reusable array and are not kept.
+     *
+     * @return  double representing total miles in the plan
+     */
+    public synchronized double getTotalMiles()
+    {
+        double totalMiles = 0;
+        double [][] scratchWeek = new double [DAYS_IN_WEEK][VALUE_IN_DAY];
+
+        for (int week = 0; week < userTrainingPlan.length; week++)
+        {
+            double [][] days = userTrainingPlan[week];
+            if (days == null) { days = generateWeek(week, scratchWeek); }
+
+            for (int day = 0; day < days.length; day++) { totalMiles += days[day][0]; }
+        }
+        return totalMiles;
+    }
+
+    /**
+     * Finds the number of miles of the runs completed, as of a single moment.
+     * Completed runs are always in weeks that have been loaded.
+     *
+     * @return  double representing the miles completed
+     */
+    public double getMilesCompleted()
+    {
+        double completedMiles = 0;
+
+        // for all completed runs in the training plan, as of a single moment, add
+        BitSet completed = BitSet.valueOf(completions.snapshot());
+        for (int planDay = completed.nextSetBit(0); planDay >= 0; planDay = completed.nextSetBit(planDay + 1))
+        {
+            completedMiles += getWeek(planDay / DAYS_IN_WEEK)[planDay % DAYS_IN_WEEK][0];
+        }
+        return completedMiles;
+    }
+
+    /**
+     * Gets the number of runs that have been completed.
+     * @return  int representing number of completed runs
+     */
+    public int getRunsCompleted()
+    {
+        // one bit per completed run
+        return completions.getRunsCompleted();
+    }
+
+    /**
+     * Saves the generated userTrainingPlan to a local file with convention
+     * "<USERNAME>.txt", where each line represents a single running workout
+     * formatted as: week, day, distance, pace, isFinished, actualDistance. Note that
+     * isFinished (did the user complete this run?) will default to 0. A value
+     * of 1 indicates the run is complete. The actualDistance is only filled in
+     * when runs are imported from a watch, and is 0 otherwise. Every line is the
+     * same length (RECORD_LENGTH), so that single records can be rewritten in place.
+     * The file is saved through the PlanJournal(), so a crash cannot leave it half written.
+     * The records are made under the generator's lock, but the file is written
+     * under saveLock alone, so the days can be changed while the journal syncs.
+     */
+    public void saveUserProfile()
+    {
+        RunBuddyEvents.PlanSave event = new RunBuddyEvents.PlanSave();
+        event.begin();
+        long start = metrics.start();
+        int records = 0;
+        synchronized (saveLock)
+        {
+            try
             {
-                if (week == 2 || week == 5)  // duplicate weeks 3 and 6
-                {
-                     for (int day = 0; day < DAYS_IN_WEEK; day++)
-                     {
-                         for (int value = 0; value < VALUE_IN_DAY; value++)
-                         {
-                             // add in baseTrainingPlan values twice, two weeks in a row
-                             userTrainingPlan[userWeek][day][value] = baseTrainingPlan[week][day][value];
-                             userTrainingPlan[userWeek+1][day][value] = baseTrainingPlan[week][day][value];
-                         }
-                     }
-                    userWeek += 2;
-                }
-                else   // just copy over the week, these weeks are not to be duplicated
+                byte [] contents;
+                synchronized (this)
                 {
-                    for (int day = 0; day < DAYS_IN_WEEK; day++)
+                    records = userTrainingPlan.length * DAYS_IN_WEEK;
+                    StringBuilder trainingPlan = new StringBuilder(records * RECORD_LENGTH);
+                    double [][] scratchWeek = new double [DAYS_IN_WEEK][VALUE_IN_DAY];
+
+                    // add elements of training plan to the a profile for the user
+                    for (int week = 0; week < userTrainingPlan.length; week++ )
                     {
-                        for (int value = 0; value < VALUE_IN_DAY; value++)
+                        // weeks of a season plan that have not been loaded are generated one at a time
+                        double [][] days = userTrainingPlan[week];
+                        if (days == null) { days = generateWeek(week, scratchWeek); }
+
+                        for (int day = 0; day < days.length; day++ )
                         {
-                            userTrainingPlan[userWeek][day][value] = baseTrainingPlan[week][day][value];
+                            // days[day][2] is 1 for 'completed' and 0 for 'not completed'
+                            days[day][2] = completions.isCompleted(week * DAYS_IN_WEEK + day) ? 1 : 0;
+                            trainingPlan.append(formatRecord(week, day, days[day])).append(LINE_SEPARATOR);
                         }
                     }
-                    userWeek += 1;
+                    contents = trainingPlan.toString().getBytes(StandardCharsets.US_ASCII);
                 }
+
+                // save the file in one go
+                PlanJournal.getJournal().writeFile(getPlanFileName(), contents);
+                synchronized (this) { savedImage = contents; }
+                metrics.count(recordsSaved, records);
+            }
+            catch (IOException e)
+            {
+                warnSaveFailed(e);
             }
         }
-        else if (timeGroup == 5)  //  add on four weeks of training to make the plan MUCH longer
+        saveLatency.recordSince(start);
+
+        if (event.shouldCommit())
+        {
+            event.inPlace = false;
+            event.records = records;
+            event.bytes = (long) event.records * RECORD_LENGTH;
+            event.commit();
+        }
+    }
+
+    /**
+     * Saves only some of the records of the userTrainingPlan, by writing them in
+     * place in the training plan file; each run of consecutive records is written
+     * with a single write. The file is grown or cut to match the length of the plan,
+     * so any records added to the end of the plan must be among those saved. All of
+     * the records are saved together through the PlanJournal(), so that a crash
+     * cannot leave only some of them saved.
+     * If the file on disk does not hold fixed-width records (e.g., it was saved by
+     * an older version of RunBuddy), the whole plan is saved instead. As in
+     * saveUserProfile(), the generator's lock is let go while the file is written.
+     *
+     * @param planDays  BitSet of the plan days (week * 7 + day) to save
+     */
+    public void saveRecords(BitSet planDays)
+    {
+        RunBuddyEvents.PlanSave event = new RunBuddyEvents.PlanSave();
+        event.begin();
+        long start = metrics.start();
+        int recordsWritten = 0;
+        synchronized (saveLock)
         {
-            userTrainingPlan = new double [BASE_PLAN_WEEKS + 4][DAYS_IN_WEEK][VALUE_IN_DAY];
+            if (!hasFixedWidthRecords())
+            {
+                saveUserProfile();
+                return;
+            }
 
-            // copy over basePlan to userTrainingPlan
-            for (int week = 0; week < BASE_PLAN_WEEKS; week++)
+            try
             {
-                if (week == 0 || week == 2 || week == 4 || week == 6)  // duplicate weeks 1, 3, 5, 7
+                int totalDays;
+                ArrayList<Long> offsets = new ArrayList<Long>();
+                ArrayList<byte []> pieces = new ArrayList<byte []>();
+                synchronized (this)
                 {
-                    for (int day = 0; day < DAYS_IN_WEEK; day++)
+                    totalDays = userTrainingPlan.length * DAYS_IN_WEEK;
+                    double [][] scratchWeek = new double [DAYS_IN_WEEK][VALUE_IN_DAY];
+
+                    StringBuilder records = new StringBuilder();
+                    int firstDay = planDays.nextSetBit(0);
+                    while (firstDay >= 0 && firstDay < totalDays)
                     {
-                        for (int value = 0; value < VALUE_IN_DAY; value++)
+                        // collect this run of consecutive records...
+                        int lastDay = Math.min(planDays.nextClearBit(firstDay), totalDays);
+                        records.setLength(0);
+                        for (int planDay = firstDay; planDay < lastDay; planDay++)
                         {
-                            // add in baseTrainingPlan values twice, two weeks in a row
-                            userTrainingPlan[userWeek][day][value] = baseTrainingPlan[week][day][value];
-                            userTrainingPlan[userWeek+1][day][value] = baseTrainingPlan[week][day][value];
+                            int week = planDay / DAYS_IN_WEEK;
+                            double [][] days = userTrainingPlan[week];
+                            if (days == null) { days = generateWeek(week, scratchWeek); }
+
+                            days[planDay % DAYS_IN_WEEK][2] = completions.isCompleted(planDay) ? 1 : 0;
+                            records.append(formatRecord(week, planDay % DAYS_IN_WEEK, days[planDay % DAYS_IN_WEEK]));
+                            records.append(LINE_SEPARATOR);
                         }
+
+                        // ...and note where it belongs
+                        offsets.add((long) firstDay * RECORD_LENGTH);
+                        pieces.add(records.toString().getBytes(StandardCharsets.US_ASCII));
+                        recordsWritten += lastDay - firstDay;
+                        firstDay = planDays.nextSetBit(lastDay);
                     }
-                    userWeek += 2;
                 }
-                else   // just copy over the week, no duplication
+
+                long [] pieceOffsets = new long [offsets.size()];
+                for (int i = 0; i < pieceOffsets.length; i++) { pieceOffsets[i] = offsets.get(i); }
+                PlanJournal.getJournal().write(getPlanFileName(), (long) totalDays * RECORD_LENGTH,
+                        pieceOffsets, pieces.toArray(new byte [pieces.size()][]));
+
+                // keep track of what the file now holds
+                synchronized (this)
                 {
-                    for (int day = 0; day < DAYS_IN_WEEK; day++)
+                    if (savedImage != null)
                     {
-                        for (int value = 0; value < VALUE_IN_DAY; value++)
+                        savedImage = Arrays.copyOf(savedImage, totalDays * RECORD_LENGTH);
+                        for (int i = 0; i < pieceOffsets.length; i++)
                         {
-                            // add in baseTrainingPlan values once
-                            userTrainingPlan[userWeek][day][value] = baseTrainingPlan[week][day][value];
+                            System.arraycopy(pieces.get(i), 0, savedImage, (int) pieceOffsets[i], pieces.get(i).length);
                         }
                     }
-                    userWeek += 1;
                 }
+                metrics.count(recordsSaved, recordsWritten);
+            }
+            catch (IOException e)
+            {
+                warnSaveFailed(e);
             }
         }
+        saveRecordsLatency.recordSince(start);
+
+        if (event.shouldCommit())
+        {
+            event.inPlace = true;
+            event.records = recordsWritten;
+            event.bytes = (long) recordsWritten * RECORD_LENGTH;
+            event.commit();
+        }
     }
 
     /**
-     * Customizes the userTrainingPlan for age. The youngest group runs the longest plan
-     * and at a decreased pace; the oldest runs the shortest plan at the slowest pace.
+     * Gets the name of the user's training plan file.
+     * @return  String holding "<USERNAME>_training_plan.txt"
      */
-    private void customizeForAge()
+    public String getPlanFileName()
     {
-        // NOTE the userTrainingPlan has already been initialized
-        if (ageGroup == 1)                                                  // youngesters! run longer!
-        {
-            for (int week = 0; week < userTrainingPlan.length; week++ )
-            {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double [] givenDay = userTrainingPlan[week][day];
-                    givenDay[0] *= 1.1;                                     // increase mileage by 10%
-                    givenDay[1] *= 0.9;                                     // decrease pace by 10%
-                }
-            }
-        }
-        else if (ageGroup == 2) {}                                          // same as default, do nothing
-        else if (ageGroup == 3)                                             // older! run shorter + slower!
+        return userName + "_training_plan.txt";
+    }
+
+    /**
+     * Checks that the training plan file is made up of records RECORD_LENGTH long,
+     * by checking its length and where its first line ends.
+     *
+     * @return  boolean; can records in the file be rewritten in place?
+     */
+    private boolean hasFixedWidthRecords()
+    {
+        File trainingPlan = new File(getPlanFileName());
+        long length = trainingPlan.length();
+        if (length == 0 || length % RECORD_LENGTH != 0) { return false; }
+
+        try (RandomAccessFile in = new RandomAccessFile(trainingPlan, "r"))
         {
-            for (int week = 0; week < userTrainingPlan.length; week++ )
-            {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double [] givenDay = userTrainingPlan[week][day];
-                    givenDay[0] *= 0.9;                                     // decrease each mileage by 10%
-                    givenDay[1] *= 1.1;                                     // increase each pace by 10%
-                }
-            }
+            byte [] firstRecord = new byte [RECORD_LENGTH];
+            in.readFully(firstRecord);
+            return new String(firstRecord).indexOf('\n') == RECORD_LENGTH - 1;
         }
-        else if (ageGroup == 4)                                             // oldest! run much shorter, much slower
+        catch (IOException e)
         {
-            for (int week = 0; week < userTrainingPlan.length; week++ )
-            {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double [] givenDay = userTrainingPlan[week][day];
-                    givenDay[0] *= 0.8;                                     // decrease each mileage by 20%
-                    givenDay[1] *= 1.2;                                     // increase each pace by 20%
-                }
-            }
+            return false;
         }
     }
 
     /**
-     * Customize the userTrainingPlan for ability level; adjusts such that
-     * beginner runners run slower and short; advanced runners run faster
-     * and longer.
+     * Reads the whole training plan file, holding a shared lock on it so that a
+     * save by another RunBuddy open on the same user (see PlanJournal) is never
+     * read half written.
+     *
+     * @return              byte array holding the contents of the file
+     * @throws IOException  if the file cannot be read
      */
-    private void customizeForAbility()
+    private byte [] readPlanFile() throws IOException
     {
-        // NOTE the userTrainingPlan has already been initialized
-        if (abilityGroup == 1)                                              // beginner...
+        try (FileChannel in = FileChannel.open(Paths.get(getPlanFileName()), StandardOpenOption.READ))
         {
-            for (int week = 0; week < userTrainingPlan.length; week++ )
+            FileLock lock = PlanJournal.lockFile(in, true);
+            try
             {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double [] givenDay = userTrainingPlan[week][day];
-                    givenDay[0] *= 0.9;                                     // ...decrease each mileage by 10%
-                    givenDay[1] *= 1.2;                                     // ...increase each pace by 20%
-                }
+                ByteBuffer contents = ByteBuffer.allocate((int) in.size());
+                while (contents.hasRemaining() && in.read(contents) >= 0) { }
+                return Arrays.copyOf(contents.array(), contents.position());
             }
-        }
-        else if (abilityGroup == 2)  {}                                     // intermediate...same as default
-
-        else if (abilityGroup == 3)                                         // advanced...
-        {
-            for (int week = 0; week < userTrainingPlan.length; week++ )
+            finally
             {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double [] givenDay = userTrainingPlan[week][day];
-                    givenDay[0] *= 1.2;                                     // ... increase each mileage by 20%
-                    givenDay[1] *= 0.8;                                     // ... decrease each pace by 20%
-                }
+                lock.release();
             }
         }
     }
 
     /**
-     * Saves the generated userTrainingPlan to a local file with convention
-     * "<USERNAME>.txt", where each line represents a single running workout
-     * formatted as: week, day, distance, pace, isFinished. Note that
-     * isFinished (did the user complete this run?) will default to 0. A value
-     * of 1 indicates the run is complete.
+     * Creates the line of the training plan file for a single workout, formatted
+     * as: week, day, distance, pace, isFinished, actualDistance. Every field is
+     * padded to a fixed width so that every record is the same length; this is
+     * built by hand rather than with String.format(), which is much slower.
+     *
+     * @param week      index of the week (0 is the first week)
+     * @param day       index of the day (0 is the first day)
+     * @param values    values for the workout
+     * @return          String holding the record (RECORD_LENGTH long, once a line separator is added)
      */
-    public void saveUserProfile()
+    static String formatRecord(int week, int day, double [] values)
     {
-        try
-        {
-            // create the file
-            File trainingPlan = new File(userName + "_training_plan.txt");
-            FileWriter fWriter = new FileWriter(trainingPlan);
-            PrintWriter pWriter = new PrintWriter (fWriter);
+        StringBuilder record = new StringBuilder(48);
 
-            // add elements of training plan to the a profile for the user
-            for (int week = 0; week < userTrainingPlan.length; week++ )
-            {
-                for (int day = 0; day < userTrainingPlan[week].length; day++ )
-                {
-                    double mileage = userTrainingPlan[week][day][0];
-                    double pace = userTrainingPlan[week][day][1];
-                    double completed = userTrainingPlan[week][day][2]; // will start out as 0 for 'not completed'
-
-                    // create a string line to put into the file and add it
-                    int adjustedWeek = week + 1;
-                    int adjustedDay = day + 1;
-                    String userPlanLine = adjustedWeek + ", " + adjustedDay + ", " +
-                            String.format("%.3f", mileage) + ", " + String.format("%.3f", pace) + ", " + completed;
-                    pWriter.println(userPlanLine);
-                }
-            }
-            pWriter.close();
-        }
-        catch (IOException e)
-        {
-            ImageIcon paneIcon = new ImageIcon("resources/run-icon.png");
-            JOptionPane.showMessageDialog(null,
-                    "Warning! I could not save the user training plan due to " + e,
-                    "Watch out!",
-                    JOptionPane.INFORMATION_MESSAGE,
-                    paneIcon
-            );
-        }
+        // week + 1 and day + 1 because of array indices
+        appendPadded(record, Integer.toString(week + 1), 3);
+        record.append(", ").append(day + 1).append(", ");
+        appendPadded(record, decimalString(values[0], 3), 8);
+        record.append(", ");
+        appendPadded(record, decimalString(values[1], 3), 8);
+        record.append(", ").append(decimalString(values[2], 1)).append(", ");
+        appendPadded(record, decimalString(values[3], 3), 8);
+        return record.toString();
+    }
+
+    /**
+     * Writes a number with a fixed number of decimal places (e.g., "9.450").
+     *
+     * @param value     number to write
+     * @param decimals  number of decimal places (1 or 3)
+     * @return          String holding the number
+     */
+    private static String decimalString(double value, int decimals)
+    {
+        long scale = (decimals == 3) ? 1000 : 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        String fraction = Long.toString(scale + scaled % scale).substring(1);  // keeps leading zeros
+        return (value < 0 && scaled > 0 ? "-" : "") + (scaled / scale) + "." + fraction;
+    }
+
+    /**
+     * Adds a String to a record, padded with spaces on the left to the given width.
+     */
+    private static void appendPadded(StringBuilder record, String value, int width)
+    {
+        for (int i = value.length(); i < width; i++) { record.append(' '); }
+        record.append(value);
+    }
+
+    /**
+     * Warns the user that the training plan could not be saved.
+     * @param e     the exception that stopped the save
+     */
+    private void warnSaveFailed(IOException e)
+    {
+        ImageIcon paneIcon = new ImageIcon("resources/run-icon.png");
+        JOptionPane.showMessageDialog(null,
+                "Warning! I could not save the user training plan due to " + e,
+                "Watch out!",
+                JOptionPane.INFORMATION_MESSAGE,
+                paneIcon
+        );
+    }
+
+    /**
+     * Getter for the race the plan is for
+     * @return  the PlanSource
+     */
+    public PlanSource getSource()
+    {
+        return source;
+    }
+
+    /**
+     * Getter for the version of the base plan that the plan was generated from
+     * (for a plan loaded from its file, the version it would be re-planned from)
+     * @return  the PlanTemplateRegistry.Template
+     */
+    public PlanTemplateRegistry.Template getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Getter for the date the plan starts on
+     * @return  LocalDate representing day 1 of week 1
+     */
+    public synchronized LocalDate getPlanStartDate()
+    {
+        return planStartDate;
+    }
+
+    /**
+     * Setter for the date the plan starts on, e.g. the date the user's watch
+     * shows they started it; the plan's weeks themselves do not change
+     * @param planStartDate     day 1 of week 1
+     */
+    public synchronized void setPlanStartDate(LocalDate planStartDate)
+    {
+        this.planStartDate = planStartDate;
+    }
+
+    /**
+     * Finds the day of the plan that falls on a given date, counting from the
+     * day the plan started (day 0). This can be negative or past the end of the plan.
+     *
+     * @param date  date to look up
+     * @return      plan day (week * 7 + day)
+     */
+    public synchronized int planDayOf(LocalDate date)
+    {
+        return (int) ChronoUnit.DAYS.between(planStartDate, date);
+    }
+
+    /**
+     * Getter for the runs completed; note that a new CompletionBitmap() is made
+     * if the plan grows or shrinks when it is re-planned.
+     * @return  CompletionBitmap of the plan days completed
+     */
+    public CompletionBitmap getCompletions()
+    {
+        return completions;
     }
 
     /**
-     * Getter for the userTrainingPlan array
+     * Getter for the userTrainingPlan array; note that for a season plan, weeks
+     * that have not been loaded through getWeek() are null.
      * @return  3D array representing the current userTrainingPlan
      */
     public double [][][] getUserTrainingPlan()
@@ -0,0 +1,224 @@
+//UIUpdateScheduler.java
+/**
+ * The UIUpdateScheduler() class coalesces updates to the views of a frame (the
+ * progress bar, status line, etc.) so that each view is redrawn at most once per
+ * frame, however many times its data changes. Rather than updating a view right
+ * away, callers mark it as dirty; the first view marked dirty schedules a flush on
+ * the UI thread at the start of the next frame, and the flush then updates every
+ * dirty view once from the latest data. Views can be marked dirty from any thread.
+ *
+ * The length of a frame (the frame budget) can be changed at any time. The
+ * scheduler also counts how many updates were requested, how many of them were
+ * coalesced into an earlier one, and how long each flush took on the UI thread.
+ *
+ * @author: Megan Frenkel
+ */
+
+import javax.swing.*;
+import java.awt.event.*;
+import java.util.concurrent.atomic.*;
+
+
+class UIUpdateScheduler
+{
+    // instance variables
+    private Runnable [] views;                  // [view] -> updates the view from the latest data
+    private int viewCount;
+    private AtomicInteger dirtyViews;           // one bit per view that needs to be updated
+    private Timer flushTimer;                   // fires once, on the UI thread
+    private volatile int frameMillis;           // frame budget; at most one flush per frame
+    private volatile long lastFlushEnd;         // System.nanoTime() when the last flush finished
+
+    // counters
+    private AtomicLong updatesRequested;
+    private AtomicLong viewsUpdated;
+    private volatile long flushes;              // only written on the UI thread
+    private volatile long totalFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long lastFlushNanos;
+
+    // final variables
+    final int MAX_VIEWS = 32;                   // one bit of dirtyViews each
+
+    // constructor
+    public UIUpdateScheduler(int frameMillis)
+    {
+        this.views = new Runnable [MAX_VIEWS];
+        this.viewCount = 0;
+        this.dirtyViews = new AtomicInteger(0);
+        this.frameMillis = frameMillis;
+        this.lastFlushEnd = System.nanoTime() - frameMillis * 1000000L;
+        this.updatesRequested = new AtomicLong(0);
+        this.viewsUpdated = new AtomicLong(0);
+
+        flushTimer = new Timer(frameMillis,
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { flush(); }
+                }
+        );
+        flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Adds a view to be kept up to date. This should be called while the frame
+     * is being set up, before any view is marked dirty.
+     *
+     * @param update    Runnable that updates the view from the latest data
+     * @return          int naming the view, to pass to markDirty()
+     */
+    public int addView(Runnable update)
+    {
+        if (viewCount == MAX_VIEWS) { throw new IllegalStateException("Too many views"); }
+        views[viewCount] = update;
+        return viewCount++;
+    }
+
+    /**
+     * Marks a view as needing to be updated. If no flush is scheduled yet, one is
+     * scheduled for the start of the next frame; otherwise the update is coalesced
+     * into the flush already scheduled.
+     *
+     * @param view  view returned by addView()
+     */
+    public void markDirty(int view)
+    {
+        updatesRequested.incrementAndGet();
+
+        int before;
+        do { before = dirtyViews.get(); }
+        while (!dirtyViews.compareAndSet(before, before | (1 << view)));
+
+        if (before == 0) { scheduleFlush(); }   // the first dirty view schedules the flush
+    }
+
+    /**
+     * Starts the flush timer so that it fires once the current frame is over
+     * (right away, if the last flush was more than a frame ago).
+     */
+    private void scheduleFlush()
+    {
+        if (!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(
+                    new Runnable()
+                    {
+                        public void run() { scheduleFlush(); }
+                    }
+            );
+            return;
+        }
+
+        long sinceLastFlush = (System.nanoTime() - lastFlushEnd) / 1000000L;
+        flushTimer.setInitialDelay((int) Math.max(0, frameMillis - sinceLastFlush));
+        flushTimer.restart();
+    }
+
+    /**
+     * Updates every dirty view once, on the UI thread, and records how long it took.
+     */
+    private void flush()
+    {
+        long start = System.nanoTime();
+
+        int dirty = dirtyViews.getAndSet(0);   // views marked dirty from now on get the next flush
+        for (int view = 0; view < viewCount; view++ )
+        {
+            if ((dirty & (1 << view)) != 0) { views[view].run(); }
+        }
+        viewsUpdated.addAndGet(Integer.bitCount(dirty));
+
+        long end = System.nanoTime();
+        lastFlushEnd = end;
+        lastFlushNanos = end - start;
+        totalFlushNanos += lastFlushNanos;
+        maxFlushNanos = Math.max(maxFlushNanos, lastFlushNanos);
+        flushes += 1;
+    }
+
+    /**
+     * Setter for the frame budget
+     * @param frameMillis   least number of milliseconds between flushes
+     */
+    public void setFrameMillis(int frameMillis)
+    {
+        this.frameMillis = frameMillis;
+    }
+
+    /**
+     * Getter for the frame budget
+     * @return  int representing the least number of milliseconds between flushes
+     */
+    public int getFrameMillis()
+    {
+        return frameMillis;
+    }
+
+    /**
+     * Getter for the number of updates requested
+     * @return  long representing the number of calls to markDirty()
+     */
+    public long getUpdatesRequested()
+    {
+        return updatesRequested.get();
+    }
+
+    /**
+     * Gets the number of updates that were coalesced into another update of the
+     * same view, i.e., that did not cause a view to be updated by themselves.
+     *
+     * @return  long representing the number of coalesced updates
+     */
+    public long getUpdatesCoalesced()
+    {
+        return updatesRequested.get() - viewsUpdated.get() - Integer.bitCount(dirtyViews.get());
+    }
+
+    /**
+     * Getter for the number of flushes
+     * @return  long representing the number of times dirty views were updated
+     */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+
+    /**
+     * Getter for the time the last flush took on the UI thread
+     * @return  double representing microseconds
+     */
+    public double getLastFlushMicros()
+    {
+        return lastFlushNanos / 1000.0;
+    }
+
+    /**
+     * Getter for the longest time a flush took on the UI thread
+     * @return  double representing microseconds
+     */
+    public double getMaxFlushMicros()
+    {
+        return maxFlushNanos / 1000.0;
+    }
+
+    /**
+     * Getter for the average time a flush took on the UI thread
+     * @return  double representing microseconds (0 if there have been no flushes)
+     */
+    public double getAverageFlushMicros()
+    {
+        if (flushes == 0) { return 0; }
+        return totalFlushNanos / 1000.0 / flushes;
+    }
+
+    /**
+     * Gets a short summary of the counters, e.g. for a tool tip.
+     * @return  String summarizing the updates and flushes
+     */
+    public String getSummary()
+    {
+        return String.format("%d updates, %d coalesced, %d flushes (last %.0f us, avg %.0f us, max %.0f us)",
+                getUpdatesRequested(), getUpdatesCoalesced(), getFlushes(),
+                getLastFlushMicros(), getAverageFlushMicros(), getMaxFlushMicros());
+    }
+}
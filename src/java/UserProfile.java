@@ -16,6 +16,7 @@
 import java.util.concurrent.locks.*;
 import javax.swing.JFileChooser;
 import java.io.*;
+import java.time.LocalDate;
 import java.util.*;
 import javax.swing.*;
 
@@ -28,6 +29,10 @@ class UserProfile
     private Integer userAgeGroup;
     private Integer userAbility;
     private Integer userTimeGroup;
+    private int [] userRaceWeeks;         // only set for season plans; weeks of training per race
+    private String userRace;              // name of the PlanSource for the user's race, e.g. "10k"
+    private LocalDate userPlanStart;      // day 1 of week 1 of the user's plan; null until a plan is made
+    private String userPlanTemplate;      // id of the base plan version the plan comes from; likewise
 
     // determines status of user profile
     private boolean hasName;
@@ -36,6 +41,9 @@ class UserProfile
     private boolean hasTimeGroup;
     private boolean profileCreated;
 
+    // time group used when the user plans a season of one or more races
+    static final int SEASON_TIME_GROUP = 6;
+
     // the file that the profile will go into
     private File profileFile;
 
@@ -49,6 +57,10 @@ class UserProfile
         this.userAgeGroup = null;
         this.userAbility = null;
         this.userTimeGroup = null;
+        this.userRaceWeeks = null;
+        this.userRace = PlanTemplateRegistry.DEFAULT_SOURCE;
+        this.userPlanStart = null;
+        this.userPlanTemplate = null;
         this.profileFile = null;
 
         this.hasName = false;
@@ -79,6 +91,24 @@ class UserProfile
         setProfileCreateWithLocking(true);
     };
 
+    /**
+     * Sets all the userProfile instance variables for a season plan, given a name,
+     * age, ability level and the number of weeks of training before each race.
+     *
+     * @param name          name of user
+     * @param ageGroup      ability group as integer (1 youngest, 4 oldest)
+     * @param abilityLevel  ability group as integer (1 beginner, 3 advanced)
+     * @param raceWeeks     weeks of training before each race
+     */
+    public void setAll(String name, int ageGroup, int abilityLevel, int [] raceWeeks)
+    {
+        setName(name);
+        setAge(ageGroup);
+        setAbility(abilityLevel);
+        setRaceWeeks(raceWeeks);
+        setProfileCreateWithLocking(true);
+    };
+
     /**
      * Setter for userName instance variable
      * @param name   name of user
@@ -116,9 +146,49 @@ class UserProfile
     public void setTime(int timeGroup)
     {
         this.userTimeGroup = timeGroup;
+        this.userRaceWeeks = null;
+        this.hasTimeGroup = true;
+    }
+
+    /**
+     * Setter for a season plan; the user trains for one or more back-to-back
+     * races instead of picking one of the standard time groups.
+     * @param raceWeeks     number of weeks of training before each race
+     */
+    public void setRaceWeeks(int [] raceWeeks)
+    {
+        this.userRaceWeeks = raceWeeks;
+        this.userTimeGroup = SEASON_TIME_GROUP;
         this.hasTimeGroup = true;
     }
 
+    /**
+     * Setter for the race the user is training for
+     * @param race  name of the race's PlanSource, e.g. "10k"
+     */
+    public void setRace(String race)
+    {
+        this.userRace = race;
+    }
+
+    /**
+     * Setter for the date the user's plan starts on
+     * @param planStart     day 1 of week 1 of the plan
+     */
+    public void setPlanStartDate(LocalDate planStart)
+    {
+        this.userPlanStart = planStart;
+    }
+
+    /**
+     * Setter for the version of the base plan the user's plan comes from
+     * @param planTemplate  id of the version (see PlanTemplateRegistry.Template.getId())
+     */
+    public void setPlanTemplate(String planTemplate)
+    {
+        this.userPlanTemplate = planTemplate;
+    }
+
     /**
      * Getter for name
      * @return  String representing name
@@ -155,6 +225,42 @@ class UserProfile
         return this.userTimeGroup;
     }
 
+    /**
+     * Getter for race weeks
+     * @return   weeks of training before each race, or null if not a season plan
+     */
+    public int [] getRaceWeeks()
+    {
+        return this.userRaceWeeks;
+    }
+
+    /**
+     * Getter for race
+     * @return   name of the race's PlanSource, e.g. "10k"
+     */
+    public String getRace()
+    {
+        return this.userRace;
+    }
+
+    /**
+     * Getter for the date the user's plan starts on
+     * @return   LocalDate of day 1 of week 1, or null if no plan has been made yet
+     */
+    public LocalDate getPlanStartDate()
+    {
+        return this.userPlanStart;
+    }
+
+    /**
+     * Getter for the version of the base plan the user's plan comes from
+     * @return   id of the version, e.g. "half@1a2b3c4d", or null if not known
+     */
+    public String getPlanTemplate()
+    {
+        return this.userPlanTemplate;
+    }
+
     /**
      * Determines if the profile is created; uses a lock
      * to sure that no read-write conflict/corruption occurs.
@@ -189,6 +295,10 @@ class UserProfile
         this.userAgeGroup = null;
         this.userAbility = null;
         this.userTimeGroup = null;
+        this.userRaceWeeks = null;
+        this.userRace = PlanTemplateRegistry.DEFAULT_SOURCE;
+        this.userPlanStart = null;
+        this.userPlanTemplate = null;
 
         this.hasName = false;
         this.hasAgeGroup = false;
@@ -225,18 +335,117 @@ class UserProfile
             }
         }
 
-        // load in values in userProfile file
+        readProfile(file);
+    }
+
+    /**
+     * Reads in an existing userprofile from a given file. The values may be on
+     * one line, separated by commas (as createUserProfile() saves them), or one
+     * value per line. Profiles saved before races could be chosen do not name
+     * one, and are for the default race.
+     *
+     * @param file  the profile file, e.g. "<USERNAME>_profile.txt"
+     * @throws FileNotFoundException
+     */
+    public void readProfile(File file) throws FileNotFoundException
+    {
+        RunBuddyEvents.ProfileLoad event = new RunBuddyEvents.ProfileLoad();
+        event.begin();
+        long start = Metrics.getMetrics().start();
         Scanner inFile = new Scanner(file);
+        parseProfile(inFile);
+        inFile.close();
+        profileFile = file;
+        Metrics.getMetrics().histogram("profile_load").recordSince(start);
+
+        if (event.shouldCommit())
+        {
+            event.path = file.getPath();
+            event.bytes = file.length();
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the values of a profile, laid out as readProfile() describes, and
+     * updates this userProfile object with them.
+     *
+     * @param in    Scanner over the contents of the profile
+     */
+    void parseProfile(Scanner in)
+    {
         ArrayList<String> values = new ArrayList<String>();
 
         // this should read in name, age, ability, time (length ArrayList = 4)
         // and update this userProfile object
-        while (inFile.hasNextLine()) { values.add(inFile.nextLine()); }
-        setAll( values.get(0),
-                Integer.parseInt(values.get(1)),
-                Integer.parseInt(values.get(2)),
-                Integer.parseInt(values.get(3))
-        );
+        while (in.hasNextLine())
+        {
+            for (String value : in.nextLine().split(","))
+            {
+                if (!value.trim().isEmpty()) { values.add(value.trim()); }
+            }
+        }
+
+        // the race is saved last, unless the profile is from before races could be chosen
+        String race = PlanTemplateRegistry.DEFAULT_SOURCE;
+        if (values.size() > 4 && !values.get(values.size() - 1).matches("\\d+"))
+        {
+            race = values.remove(values.size() - 1);
+        }
+
+        // the base plan's version is saved before the race, once a plan has been made...
+        String planTemplate = null;
+        if (values.size() > 4 && values.get(values.size() - 1).matches("[^@]+@[0-9a-f]+"))
+        {
+            planTemplate = values.remove(values.size() - 1);
+        }
+
+        // ...and the plan's start date before that
+        LocalDate planStart = null;
+        if (values.size() > 4 && values.get(values.size() - 1).matches("\\d{4}-\\d{2}-\\d{2}"))
+        {
+            planStart = LocalDate.parse(values.remove(values.size() - 1));
+        }
+
+        // any values after the first four are the weeks for each race of a season plan
+        if (values.size() > 4)
+        {
+            int [] raceWeeks = new int [values.size() - 4];
+            for (int i = 0; i < raceWeeks.length; i++) { raceWeeks[i] = Integer.parseInt(values.get(i + 4)); }
+            setAll(values.get(0), Integer.parseInt(values.get(1)), Integer.parseInt(values.get(2)), raceWeeks);
+        }
+        else
+        {
+            setAll( values.get(0),
+                    Integer.parseInt(values.get(1)),
+                    Integer.parseInt(values.get(2)),
+                    Integer.parseInt(values.get(3))
+            );
+        }
+        setRace(race);
+        setPlanStartDate(planStart);
+        setPlanTemplate(planTemplate);
+    }
+
+    /**
+     * Lays out the profile as it is saved: its values on one line, separated by
+     * commas, with the plan's start date and base plan version (once there is a
+     * plan) and then the race last.
+     *
+     * @return  String holding the line, with its line separator
+     */
+    String formatProfile()
+    {
+        // create a single string to add to the file based on userProfile
+        String data = userName + "," + userAgeGroup + "," + userAbility + "," + userTimeGroup;
+        if (userRaceWeeks != null)  // season plans also record the weeks for each race
+        {
+            for (int weeks : userRaceWeeks) { data += "," + weeks; }
+        }
+        if (userPlanStart != null) { data += "," + userPlanStart; }
+        if (userPlanTemplate != null) { data += "," + userPlanTemplate; }
+        data += "," + userRace;
+        return data + System.lineSeparator();
     }
 
     /**
@@ -250,14 +459,8 @@ class UserProfile
             // name the file after the user's name provided
             profileFile = new File(userName + "_profile.txt");
 
-            // create a single string to add to the file based on userProfile
-            String data = userName + "," + userAgeGroup + "," + userAbility + "," + userTimeGroup;
-
-            // write to file and close when done
-            FileWriter fWriter = new FileWriter(profileFile);
-            PrintWriter pWriter = new PrintWriter (fWriter);
-            pWriter.println(data);
-            pWriter.close();
+            // write to file in one go, through the journal so that a crash cannot leave it half written
+            PlanJournal.getJournal().writeFile(profileFile.getPath(), formatProfile().getBytes());
 
             setProfileCreateWithLocking(true);
         }
@@ -37,7 +37,7 @@ class WelcomeFrame extends JFrame
     private JLabel insertName, selectAge, selectAbility, selectTime, selectSubmit;       // instruction labels
     private JMenu menu;                                                                  // main menu...
     private JMenuBar menuBar;                                                            // ... and bar
-    private JMenuItem startOver, loadExisting, exit;                                     // ... and options
+    private JMenuItem startOver, loadExisting, chooseRace, planSeason, dashboard, exit;  // ... and options
 
     // will be userful later for expediting/optimizing formatting/listeners
     private JButton [] timeButtons;
@@ -202,6 +202,33 @@ class WelcomeFrame extends JFrame
                 }
         );
 
+        // ...ask the user which race they are training for
+        chooseRace.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { askForRace(); }
+                }
+        );
+
+        // ...ask the user for the weeks until each race of a longer season
+        planSeason.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae) { askForSeason(); }
+                }
+        );
+
+        // ...open the coach dashboard over every athlete's plan
+        dashboard.addActionListener(
+                new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent ae)
+                    {
+                        new CoachDashboard("Coach Dashboard").setVisible(true);
+                    }
+                }
+        );
+
         // ...exit program entirely if clicked
         exit.addActionListener(
                 new ActionListener()
@@ -212,6 +239,77 @@ class WelcomeFrame extends JFrame
 
     }
 
+    /**
+     * Prompts the user to pick the race they are training for from every race
+     * with a PlanSource (see PlanTemplateRegistry()); a half marathon is planned
+     * unless another race is picked. The user still has to submit.
+     */
+    private void askForRace()
+    {
+        ImageIcon paneIcon = new ImageIcon(PATH_RUN_ICON);
+        PlanTemplateRegistry registry = PlanTemplateRegistry.getTemplates();
+        ArrayList<String> labels = new ArrayList<String>();
+        for (PlanSource source : registry.getSources()) { labels.add(source.getLabel()); }
+        PlanSource current = registry.getSource(userProfile.getRace());
+
+        String input = (String) JOptionPane.showInputDialog(null,
+                "Which race are you training for?",
+                "Choose Race",
+                JOptionPane.QUESTION_MESSAGE,
+                paneIcon,
+                labels.toArray(),
+                (current != null) ? current.getLabel() : null
+        );
+        if (input == null) { return; }  // user cancelled
+
+        for (PlanSource source : registry.getSources())
+        {
+            if (source.getLabel().equals(input)) { userProfile.setRace(source.getName()); }
+        }
+    }
+
+    /**
+     * Prompts the user for the number of weeks of training before each race of a
+     * season (e.g., "16" for one race or "20, 8" for two back-to-back races). This
+     * replaces the time selected with the buttons; the user still has to submit.
+     */
+    private void askForSeason()
+    {
+        ImageIcon paneIcon = new ImageIcon(PATH_RUN_ICON);
+        String input = (String) JOptionPane.showInputDialog(null,
+                "Weeks of training before each race (e.g., 16 or 20, 8):",
+                "Plan a Season",
+                JOptionPane.QUESTION_MESSAGE,
+                paneIcon,
+                null,
+                ""
+        );
+        if (input == null) { return; }  // user cancelled
+
+        try
+        {
+            String [] values = input.trim().split("\\s*,\\s*");
+            int [] raceWeeks = new int [values.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                raceWeeks[i] = Integer.parseInt(values[i]);
+                if (raceWeeks[i] < 5) { throw new NumberFormatException(); }  // too short, same as timeFrame1
+            }
+
+            userProfile.setRaceWeeks(raceWeeks);
+            for (JButton j : timeButtons) { j.setBackground(new Color(0, 0, 0)); j.setOpaque(false); }
+        }
+        catch (NumberFormatException e)
+        {
+            JOptionPane.showMessageDialog(null,
+                    "Please enter the number of weeks before each race, each at least 5 weeks.",
+                    "Watch out!",
+                    JOptionPane.INFORMATION_MESSAGE,
+                    paneIcon
+            );
+        }
+    }
+
     /**
      * Define and add the mainPanel to the WelcomeFrame; this mainPanel
      * will hold all components.
@@ -238,8 +336,14 @@ class WelcomeFrame extends JFrame
         startOver = new JMenuItem("Clear");
         exit = new JMenuItem("Exit");
         loadExisting = new JMenuItem("Load Existing Profile");
+        chooseRace = new JMenuItem("Choose Race");
+        planSeason = new JMenuItem("Plan a Season");
+        dashboard = new JMenuItem("Coach Dashboard");
 
         menu.add(loadExisting);
+        menu.add(chooseRace);
+        menu.add(planSeason);
+        menu.add(dashboard);
         menu.add(startOver);
         menu.add(exit);
         menuBar.add(menu);
@@ -248,6 +352,9 @@ class WelcomeFrame extends JFrame
         startOver.setFont(menuFont);
         exit.setFont(menuFont);
         loadExisting.setFont(menuFont);
+        chooseRace.setFont(menuFont);
+        planSeason.setFont(menuFont);
+        dashboard.setFont(menuFont);
         menu.setFont(menuFont);
 
         this.setJMenuBar(menuBar);